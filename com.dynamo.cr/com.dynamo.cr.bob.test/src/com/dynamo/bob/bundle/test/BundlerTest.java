@@ -475,6 +475,26 @@ public class BundlerTest {
         assertEquals(1, entries.size() - numBuiltins);
     }
 
+    @Test
+    public void testUnusedLuaModules() throws IOException, ConfigurationException, CompileExceptionError, MultipleCompileException {
+        int numBuiltins = createDefaultFiles(contentRoot);
+        createFile(contentRoot, "game.project", "[script]\ndynamic_modules=levels.*\n[display]\nwidth=640\nheight=480\n");
+        createFile(contentRoot, "builtins/render/default.render_script", "require \"used\"\n");
+        createFile(contentRoot, "used.lua", "require \"used2\"\n");
+        createFile(contentRoot, "used2.lua", "require \"used\"\n");
+        createFile(contentRoot, "unused.lua", "require \"used\"\n");
+        createFile(contentRoot, "levels/level1.lua", "return {}\n");
+        build();
+
+        // used, used2 and levels/level1
+        Set<byte[]> entries = readDarcEntries(contentRoot);
+        assertEquals(3, entries.size() - numBuiltins);
+        assertTrue(new File(contentRoot, "build/used.luac").exists());
+        assertTrue(new File(contentRoot, "build/used2.luac").exists());
+        assertTrue(new File(contentRoot, "build/levels/level1.luac").exists());
+        assertFalse(new File(contentRoot, "build/unused.luac").exists());
+    }
+
     @Test
     public void testCustomResourcesDirs() throws IOException, ConfigurationException, CompileExceptionError, MultipleCompileException {
         File cust = new File(contentRoot, "custom");
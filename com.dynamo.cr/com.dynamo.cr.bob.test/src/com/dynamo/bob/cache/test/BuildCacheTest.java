@@ -0,0 +1,134 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.cache.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.cache.BuildCache;
+
+public class BuildCacheTest {
+
+	private File cacheDir;
+
+	@Before
+	public void setUp() throws Exception {
+		cacheDir = Files.createTempDirectory(null).toFile();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(cacheDir);
+	}
+
+	@Test
+	public void testKey() throws Exception {
+		String key = BuildCache.calculateKey("a", 1, "b".getBytes());
+		assertEquals(40, key.length());
+		assertEquals(key, BuildCache.calculateKey("a", 1, "b".getBytes()));
+		assertNotEquals(key, BuildCache.calculateKey("a", 2, "b".getBytes()));
+		// the parts are not simply concatenated
+		assertNotEquals(BuildCache.calculateKey("ab", "c"), BuildCache.calculateKey("a", "bc"));
+	}
+
+	@Test
+	public void testPutGet() throws Exception {
+		BuildCache cache = new BuildCache(new File(cacheDir, "test"));
+		assertTrue(cache.isCacheEnabled());
+
+		String key = BuildCache.calculateKey("foo");
+		assertNull(cache.get(key));
+		cache.put(key, "bar".getBytes());
+		assertArrayEquals("bar".getBytes(), cache.get(key));
+
+		// a new instance sees the data of an earlier build
+		BuildCache cache2 = new BuildCache(new File(cacheDir, "test"));
+		assertArrayEquals("bar".getBytes(), cache2.get(key));
+
+		// no temporary files are left behind
+		File[] files = new File(new File(cacheDir, "test"), key.substring(0, 2)).listFiles();
+		assertEquals(1, files.length);
+	}
+
+	@Test
+	public void testDisabled() throws Exception {
+		BuildCache cache = new BuildCache(null);
+		assertFalse(cache.isCacheEnabled());
+		String key = BuildCache.calculateKey("foo");
+		cache.put(key, "bar".getBytes());
+		assertNull(cache.get(key));
+	}
+
+	@Test
+	public void testPrune() throws Exception {
+		BuildCache cache = new BuildCache(new File(cacheDir, "test"), 10);
+		String[] keys = new String[4];
+		for (int i = 0; i < keys.length; ++i) {
+			keys[i] = BuildCache.calculateKey(i);
+			cache.put(keys[i], "abcd".getBytes());
+			File file = new File(new File(new File(cacheDir, "test"), keys[i].substring(0, 2)), keys[i]);
+			assertTrue(file.setLastModified(1000000000000L + i * 10000L));
+		}
+
+		// using an entry keeps it in the cache
+		assertArrayEquals("abcd".getBytes(), cache.get(keys[0]));
+
+		// the least recently used entries are removed until the rest fit
+		cache.prune();
+		assertArrayEquals("abcd".getBytes(), cache.get(keys[0]));
+		assertNull(cache.get(keys[1]));
+		assertNull(cache.get(keys[2]));
+		assertArrayEquals("abcd".getBytes(), cache.get(keys[3]));
+
+		// an unbounded cache is never pruned
+		BuildCache unbounded = new BuildCache(new File(cacheDir, "test"));
+		unbounded.put(keys[1], "abcd".getBytes());
+		unbounded.prune();
+		assertArrayEquals("abcd".getBytes(), unbounded.get(keys[1]));
+	}
+
+	// once measured by a prune, the cache is pruned again when puts grow it past the max size
+	@Test
+	public void testPruneOnPut() throws Exception {
+		BuildCache cache = new BuildCache(new File(cacheDir, "test"), 10);
+		cache.prune();
+		String[] keys = new String[4];
+		for (int i = 0; i < keys.length; ++i) {
+			keys[i] = BuildCache.calculateKey(i);
+			cache.put(keys[i], "abcd".getBytes());
+			File file = new File(new File(new File(cacheDir, "test"), keys[i].substring(0, 2)), keys[i]);
+			file.setLastModified(1000000000000L + i * 10000L);
+		}
+
+		// the third put pruned the two oldest entries, and the fourth fit
+		assertNull(cache.get(keys[0]));
+		assertNull(cache.get(keys[1]));
+		assertArrayEquals("abcd".getBytes(), cache.get(keys[2]));
+		assertArrayEquals("abcd".getBytes(), cache.get(keys[3]));
+	}
+}
@@ -0,0 +1,109 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.test.util.MockFileSystem;
+import com.dynamo.bob.util.CpuBudget;
+
+public class DecodedImageCacheTest {
+
+    private MockFileSystem fileSystem = new MockFileSystem();
+
+    private IResource addImage(String path, int width, int height, int color) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
+        image.setRGB(0, 0, color);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return fileSystem.addFile(path, out.toByteArray());
+    }
+
+    @Test
+    public void testSharedImages() throws Exception {
+        int threads = CpuBudget.getThreads();
+        CpuBudget.setThreads(4);
+        try {
+            testSharedImages(new DecodedImageCache(Long.MAX_VALUE));
+        } finally {
+            CpuBudget.setThreads(threads);
+        }
+    }
+
+    private void testSharedImages(DecodedImageCache cache) throws Exception {
+        List<IResource> resources = new ArrayList<IResource>();
+        for (int i = 0; i < 16; ++i) {
+            resources.add(addImage(String.format("/image%d.png", i), 8 + i, 4, 0xff000000 | i));
+        }
+        // Same content as the first image
+        resources.add(addImage("/copy.png", 8, 4, 0xff000000));
+
+        List<BufferedImage> images = cache.getAll(resources);
+        assertEquals(resources.size(), images.size());
+        for (int i = 0; i < 16; ++i) {
+            assertEquals(8 + i, images.get(i).getWidth());
+            assertEquals(0xff000000 | i, images.get(i).getRGB(0, 0));
+        }
+        assertSame(images.get(0), images.get(16));
+        assertEquals(16, cache.size());
+
+        // Already decoded images are shared between builders
+        assertSame(images.get(3), cache.get(resources.get(3)));
+        assertEquals(16, cache.size());
+    }
+
+    @Test
+    public void testUnsupportedFormat() throws Exception {
+        DecodedImageCache cache = new DecodedImageCache(Long.MAX_VALUE);
+        IResource resource = fileSystem.addFile("/image.png", "not an image".getBytes());
+        assertNull(cache.get(resource));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testMemoryBudget() throws Exception {
+        // Room for two 16x16 RGBA images
+        DecodedImageCache cache = new DecodedImageCache(2 * 16 * 16 * 4);
+        List<IResource> resources = Arrays.asList(addImage("/a.png", 16, 16, 0xff0000ff),
+                                                  addImage("/b.png", 16, 16, 0xff00ff00),
+                                                  addImage("/c.png", 16, 16, 0xffff0000));
+        for (IResource resource : resources) {
+            BufferedImage image = cache.get(resource);
+            assertEquals(16, image.getWidth());
+            assertTrue(cache.size() <= 2);
+        }
+
+        // The least recently used image was dropped and is decoded again
+        BufferedImage c = cache.get(resources.get(2));
+        assertSame(c, cache.get(resources.get(2)));
+        assertEquals(0xff0000ff, cache.get(resources.get(0)).getRGB(0, 0));
+        assertEquals(2, cache.size());
+    }
+}
@@ -14,15 +14,25 @@
 
 package com.dynamo.bob.pipeline;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
 import org.junit.Test;
 
+import com.dynamo.bob.Bob;
+import com.dynamo.bob.Platform;
 import com.dynamo.bob.Project;
 import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.test.util.PropertiesTestUtil;
+import com.dynamo.bob.util.Exec;
 import com.dynamo.bob.util.MurmurHash;
 import com.dynamo.lua.proto.Lua.LuaModule;
 import com.dynamo.script.proto.Lua.LuaSource;
@@ -283,4 +293,85 @@ public class LuaBuilderTest extends AbstractProtoBuilderTest {
         // byte - the last diffing byte
         assertTrue(delta[261] == 99);
     }
+
+    private static byte[] luajitCommandLine(String exe, Map<String, String> env, String chunkName, String source) throws Exception {
+        File inputFile = File.createTempFile("script", ".lua");
+        File outputFile = File.createTempFile("script", ".raw");
+        try {
+            Files.write(inputFile.toPath(), source.getBytes());
+            ProcessBuilder pb = new ProcessBuilder(exe, "-b", "-g", "-F", chunkName, inputFile.getAbsolutePath(), outputFile.getAbsolutePath());
+            pb.environment().putAll(env);
+            pb.redirectErrorStream(true);
+            Process p = pb.start();
+            p.getInputStream().readAllBytes();
+            assertEquals(0, p.waitFor());
+            return Files.readAllBytes(outputFile.toPath());
+        } finally {
+            inputFile.delete();
+            outputFile.delete();
+        }
+    }
+
+    // The compile server must produce the same bytecode as running luajit once per file
+    @Test
+    public void testLuaJITCompileServer() throws Exception {
+        Bob.initLua();
+        Map<String, String> env = new HashMap<String, String>();
+        env.put("LUA_PATH", Bob.getPath("share/luajit/") + "/?.lua");
+
+        String[] sources = {
+            "function foo() print('foo') end",
+            "",
+            "local M = {}\nfunction M.bar(a, b)\n    local t = { x = a, y = \"b\", 1, 2, 3 }\n    for i=1,10 do a = a + i * b end\n    return t, a\nend\nreturn M\n",
+        };
+        for (String exeName : Arrays.asList("luajit-32", "luajit-64")) {
+            String exe = Bob.getExe(Platform.getHostPlatform(), exeName);
+            // several rounds, to make sure the workers are reused
+            for (int round = 0; round < 3; ++round) {
+                for (int i = 0; i < sources.length; ++i) {
+                    String chunkName = String.format("main/test%d.lua", i);
+                    LuaJITCompileServer.Result result = LuaJITCompileServer.compile(exe, env, chunkName, sources[i].getBytes());
+                    assertTrue(result.ok);
+                    assertArrayEquals(luajitCommandLine(exe, env, chunkName, sources[i]), result.data);
+                }
+            }
+
+            LuaJITCompileServer.Result result = LuaJITCompileServer.compile(exe, env, "main/error.lua", "local a = = 1".getBytes());
+            assertFalse(result.ok);
+            assertEquals("luajit: main/error.lua:1: unexpected symbol near '='\n", new String(result.data));
+        }
+    }
+
+    // Workers that died while idle are replaced, and the requests are runs of the luajit tool
+    @Test
+    public void testLuaJITCompileServerRestart() throws Exception {
+        Bob.initLua();
+        Map<String, String> env = new HashMap<String, String>();
+        env.put("LUA_PATH", Bob.getPath("share/luajit/") + "/?.lua");
+        String exe = Bob.getExe(Platform.getHostPlatform(), "luajit-64");
+        String source = "function foo() print('foo') end";
+
+        Exec.resetToolStats();
+        LuaJITCompileServer.Result result = LuaJITCompileServer.compile(exe, env, "main/a.lua", source.getBytes());
+        assertTrue(result.ok);
+
+        LuaJITCompileServer.killIdleWorkers();
+        result = LuaJITCompileServer.compile(exe, env, "main/a.lua", source.getBytes());
+        assertTrue(result.ok);
+        assertArrayEquals(luajitCommandLine(exe, env, "main/a.lua", source), result.data);
+
+        Exec.ToolStats stats = Exec.getToolStats().get(Exec.getToolName(exe));
+        assertEquals(2, stats.count);
+        assertEquals(0, stats.timeouts);
+    }
+
+    @Test
+    public void testLuaJITCompileError() throws Exception {
+        try {
+            build("/test.script", "\n\nlocal a = = 1\n");
+            assertTrue(false);
+        } catch (CompileExceptionError e) {
+            assertEquals(3, e.getLineNumber());
+        }
+    }
 }
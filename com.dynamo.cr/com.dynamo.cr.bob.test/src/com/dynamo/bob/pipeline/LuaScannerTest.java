@@ -261,4 +261,31 @@ public class LuaScannerTest {
         assertProperty(properties, "prop4", "material", 3);
     }
 
+    @Test
+    public void testSerialize() throws Exception {
+        LuaScanner scanner = new LuaScanner();
+        String parsed = scanner.parse(getFile("test_props.lua") + "\nlocal m = require(\"foo.bar\")\n");
+
+        LuaScanner cached = LuaScanner.deserialize(scanner.serialize());
+        assertEquals(parsed, cached.getParsedLua());
+        assertEquals(scanner.getModules(), cached.getModules());
+
+        List<Property> properties = cached.getProperties();
+        assertEquals(8, properties.size());
+        assertProperty(properties, "prop1", new Double(0), 10);
+        assertProperty(properties, "prop5", new Double(0), 16);
+        assertEquals(Status.INVALID_ARGS, properties.get(5).status);
+        assertPropertyStatus(properties, "three_args", Status.INVALID_VALUE, 19);
+
+        // vector values are parsed again from the declarations
+        cached = LuaScanner.deserialize(getScannerData(getFile("test_props_vec3.lua")));
+        assertEquals(getPropertiesFromFile("test_props_vec3.lua").get(0).value, cached.getProperties().get(0).value);
+    }
+
+    private byte[] getScannerData(String s) throws IOException {
+        LuaScanner scanner = new LuaScanner();
+        scanner.parse(s);
+        return scanner.serialize();
+    }
+
 }
@@ -26,6 +26,7 @@ import java.io.IOException;
 import java.nio.ByteOrder;
 import java.nio.ShortBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -490,4 +491,55 @@ public class ModelUtilTest {
         ModelImporter.Scene scene = loadBuiltScene("broken.gltf", meshSetBuilder, animSetBuilder, skeletonBuilder);
         assertTrue(scene == null);
     }
+
+    private static String getVertexAttributes(ModelImporter.Mesh mesh, int i) {
+        int uvComponents = mesh.texCoords0NumComponents;
+        return Arrays.toString(Arrays.copyOfRange(mesh.positions, i * 3, i * 3 + 3)) +
+               Arrays.toString(Arrays.copyOfRange(mesh.normals, i * 3, i * 3 + 3)) +
+               Arrays.toString(Arrays.copyOfRange(mesh.texCoords0, i * uvComponents, i * uvComponents + uvComponents)) +
+               Arrays.toString(Arrays.copyOfRange(mesh.bones, i * 4, i * 4 + 4)) +
+               Arrays.toString(Arrays.copyOfRange(mesh.weights, i * 4, i * 4 + 4));
+    }
+
+    // The attributes of the vertices of each triangle, starting with the smallest to keep the winding, in sorted order
+    private static List<String> getTriangleAttributes(ModelImporter.Mesh mesh) {
+        List<String> triangles = new ArrayList<String>();
+        for (int i = 0; i < mesh.indexCount; i += 3) {
+            String[] vertices = new String[3];
+            int first = 0;
+            for (int c = 0; c < 3; ++c) {
+                vertices[c] = getVertexAttributes(mesh, mesh.indices[i + c]);
+                if (vertices[c].compareTo(vertices[first]) < 0) {
+                    first = c;
+                }
+            }
+            triangles.add(vertices[first] + vertices[(first + 1) % 3] + vertices[(first + 2) % 3]);
+        }
+        Collections.sort(triangles);
+        return triangles;
+    }
+
+    /*
+     * Tests that the vertex cache optimization keeps the attributes of each triangle, and lowers the
+     * number of vertices transformed per triangle (ACMR) with a 16 vertex FIFO cache
+     */
+    @Test
+    public void testOptimizeVertexCache() throws Exception {
+        ModelImporter.Scene scene = loadScene("bend2bones.gltf");
+        ModelImporter.Mesh mesh = scene.models[0].meshes[0];
+        assertTrue(mesh.normals != null && mesh.texCoords0 != null && mesh.bones != null && mesh.weights != null);
+        int vertexCount = mesh.positions.length / 3;
+        assertEquals(144, vertexCount);
+        assertEquals(132 * 3, mesh.indexCount);
+
+        int[] indices = Arrays.copyOf(mesh.indices, mesh.indexCount);
+        List<String> triangles = getTriangleAttributes(mesh);
+        ModelUtil.optimizeVertexCache(mesh);
+        assertEquals(triangles, getTriangleAttributes(mesh));
+        assertEquals(vertexCount * 3, mesh.positions.length);
+
+        assertEquals(2.0f, VertexCacheOptimizer.calcAcmr(indices, vertexCount, 16), 0.001f);
+        // Each vertex is transformed once
+        assertEquals(144.0f / 132.0f, VertexCacheOptimizer.calcAcmr(mesh.indices, vertexCount, 16), 0.001f);
+    }
 }
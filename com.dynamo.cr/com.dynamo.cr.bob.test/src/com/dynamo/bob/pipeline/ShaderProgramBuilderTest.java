@@ -17,13 +17,24 @@ package com.dynamo.bob.pipeline;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Before;
 import org.junit.Test;
 
 import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.Platform;
+import com.dynamo.bob.pipeline.ShaderUtil.ES2ToES3Converter;
+import com.dynamo.bob.util.Exec;
 import com.dynamo.graphics.proto.Graphics.ShaderDesc;
 import com.google.protobuf.Message;
 
@@ -139,6 +150,74 @@ public class ShaderProgramBuilderTest extends AbstractProtoBuilderTest {
         doTest(true);
     }
 
+    @Test
+    public void testSpirvCache() throws Exception {
+        File cacheDir = Files.createTempDirectory("shader_cache").toFile();
+        try {
+            GetProject().setOption("build-cache-dir", cacheDir.getAbsolutePath());
+            GetProject().getProjectProperties().putBooleanValue("shader", "output_spirv", true);
+
+            Exec.resetToolStats();
+            ShaderDesc first = (ShaderDesc)build("/test_cache_a.vp", vp).get(0);
+            Exec.ToolStats glslc = Exec.getToolStats().get("glslc");
+            assertTrue(glslc != null && glslc.count > 0);
+
+            // Same source in another file, compiled from the cache without running any tool
+            Exec.resetToolStats();
+            ShaderDesc second = (ShaderDesc)build("/test_cache_b.vp", vp).get(0);
+            assertEquals(null, Exec.getToolStats().get("glslc"));
+            assertEquals(null, Exec.getToolStats().get("spirv-cross"));
+            assertEquals(first, second);
+        } finally {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+    }
+
+    @Test
+    public void testVariantThreads() throws Exception {
+        GetProject().getProjectProperties().putBooleanValue("shader", "output_spirv", true);
+
+        GetProject().setOption("shader-threads", "1");
+        ShaderDesc serial = (ShaderDesc)build("/test_threads_serial.fp", fp).get(0);
+
+        GetProject().setOption("shader-threads", "4");
+        ShaderDesc parallel = (ShaderDesc)build("/test_threads_parallel.fp", fp).get(0);
+
+        assertTrue(serial.getShadersCount() > 0);
+        assertTrue(Arrays.equals(serial.toByteArray(), parallel.toByteArray()));
+    }
+
+    @Test
+    public void testConcurrentBuilds() throws Exception {
+        final ShaderDesc.Language[] languages = new ShaderDesc.Language[] {
+            ShaderDesc.Language.LANGUAGE_GLSL_SM140,
+            ShaderDesc.Language.LANGUAGE_GLES_SM300,
+            ShaderDesc.Language.LANGUAGE_GLES_SM100,
+            ShaderDesc.Language.LANGUAGE_SPIRV };
+
+        ShaderProgramBuilder.ShaderDescBuildResult reference = ShaderProgramBuilder.makeShaderDescWithVariants("/test_concurrent.vpc", vp,
+            ES2ToES3Converter.ShaderType.VERTEX_SHADER, languages, 8);
+        assertEquals(null, reference.buildWarnings);
+        byte[] expected = reference.shaderDesc.toByteArray();
+
+        // Build the same shader from several threads at once, which also runs several reflections concurrently
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<ShaderProgramBuilder.ShaderDescBuildResult>> futures = new ArrayList<>();
+            for (int i = 0; i < 32; ++i) {
+                futures.add(executor.submit(() -> ShaderProgramBuilder.makeShaderDescWithVariants("/test_concurrent.vpc", vp,
+                    ES2ToES3Converter.ShaderType.VERTEX_SHADER, languages, 8)));
+            }
+            for (Future<ShaderProgramBuilder.ShaderDescBuildResult> future : futures) {
+                ShaderProgramBuilder.ShaderDescBuildResult result = future.get();
+                assertEquals(null, result.buildWarnings);
+                assertTrue(Arrays.equals(expected, result.shaderDesc.toByteArray()));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     private void testOutput(String expected, String source) {
         if (!expected.equals(source)) {
             System.err.printf("EXPECTED:\n'%s'\n", expected);
@@ -247,6 +326,51 @@ public class ShaderProgramBuilderTest extends AbstractProtoBuilderTest {
         }
     }
 
+    @Test
+    public void testIncludeCache() throws Exception {
+        ShaderPreprocessor.IncludeCache cache = GetProject().getShaderIncludeCache();
+        cache.clear();
+
+        addFile("/shader_cache/shared.glsl", "const float shared = 0.0; // comment\n");
+        String source = "#include \"/shader_cache/shared.glsl\"\nvoid main(){}\n";
+        ShaderPreprocessor a = new ShaderPreprocessor(GetProject(), "shader_cache/a.fp", source);
+        ShaderPreprocessor b = new ShaderPreprocessor(GetProject(), "shader_cache/b.fp", source);
+
+        // Both shaders and the include are parsed once each
+        assertEquals(3, cache.size());
+        assertEquals("\nconst float shared = 0.0; \n\nvoid main(){}\n", a.getCompiledSource());
+        assertEquals(a.getCompiledSource(), b.getCompiledSource());
+
+        // A changed include is parsed again
+        addFile("/shader_cache/shared.glsl", "const float shared = 1.0;\n");
+        a = new ShaderPreprocessor(GetProject(), "shader_cache/a.fp", source);
+        assertEquals(4, cache.size());
+        assertEquals("\nconst float shared = 1.0;\n\nvoid main(){}\n", a.getCompiledSource());
+    }
+
+    @Test
+    public void testIncludeSplicing() throws Exception {
+        addFile("/shader_splice/first.glsl", "#include \"second.glsl\"\nconst float first = 0.0;\n\n");
+        addFile("/shader_splice/second.glsl", "const float second = 0.0;\n");
+
+        // The whitespace in front of a directive is removed, including the end of an include spliced in before it
+        ShaderPreprocessor preprocessor = new ShaderPreprocessor(GetProject(), "shader_splice/a.fp",
+            "#include \"second.glsl\"\n" +
+            "#include \"first.glsl\"\n" +
+            "\n" +
+            "  #include <second.glsl>\n" +
+            "void main(){}\n");
+
+        assertEquals(
+            "\nconst float second = 0.0;" +
+            "\nconst float second = 0.0;\nconst float first = 0.0;\n\n" +
+            "\nconst float second = 0.0;\n" +
+            "\nvoid main(){}\n",
+            preprocessor.getCompiledSource());
+        assertEquals(Arrays.asList("shader_splice/second.glsl", "shader_splice/second.glsl", "shader_splice/first.glsl"),
+            Arrays.asList(preprocessor.getIncludes()));
+    }
+
     @Test
     public void testGlslDirectives() throws Exception {
         String source;
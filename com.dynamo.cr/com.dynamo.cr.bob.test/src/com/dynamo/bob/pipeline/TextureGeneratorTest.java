@@ -19,14 +19,18 @@ import static org.junit.Assert.assertTrue;
 
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.EnumSet;
 
+import javax.imageio.ImageIO;
+
 import org.junit.Test;
 
 import com.dynamo.bob.util.TextureUtil;
 import com.dynamo.bob.Platform;
 import com.dynamo.bob.TexcLibrary.FlipAxis;
+import com.dynamo.bob.cache.BuildCache;
 import com.dynamo.graphics.proto.Graphics.PlatformProfile;
 import com.dynamo.graphics.proto.Graphics.TextureFormatAlternative;
 import com.dynamo.graphics.proto.Graphics.TextureImage;
@@ -613,4 +617,76 @@ public class TextureGeneratorTest {
         assertEquals(TextureFormat.TEXTURE_FORMAT_RGBA_16BPP, texture.getAlternatives(1).getFormat());
         assertEquals(128*64*2, texture.getAlternatives(1).getData().toByteArray().length);
     }
+
+    @Test
+    public void testEncodeCache() throws TextureGeneratorException, IOException {
+        TextureProfile.Builder textureProfile = TextureProfile.newBuilder();
+        PlatformProfile.Builder platformProfile = PlatformProfile.newBuilder();
+        TextureFormatAlternative.Builder textureFormatAlt1 = TextureFormatAlternative.newBuilder();
+
+        textureFormatAlt1.setFormat(TextureFormat.TEXTURE_FORMAT_RGB_16BPP);
+        textureFormatAlt1.setCompressionLevel(CompressionLevel.FAST);
+
+        platformProfile.setOs(PlatformProfile.OS.OS_ID_GENERIC);
+        platformProfile.addFormats(textureFormatAlt1.build());
+        platformProfile.setMipmaps(true);
+        platformProfile.setMaxTextureSize(0);
+
+        textureProfile.setName("Test Profile");
+        textureProfile.addPlatforms(platformProfile.build());
+
+        BufferedImage image = ImageIO.read(getClass().getResourceAsStream("128_64_rgba.png"));
+        EnumSet<FlipAxis> flipAxis = EnumSet.of(FlipAxis.FLIP_AXIS_Y);
+        TextureImage expected = TextureGenerator.generate(image, textureProfile.build(), true, flipAxis);
+
+        BuildCache cache = new BuildCache(Files.createTempDirectory(null).toFile());
+        TextureGenerator.resetEncodeCacheStats();
+        for (int i = 0; i < 2; ++i) {
+            TextureImage texture = TextureGenerator.generate(image, textureProfile.build(), true, flipAxis, cache);
+            assertEquals(expected, texture);
+        }
+        assertEquals(1, TextureGenerator.getEncodeCacheMisses());
+        assertEquals(1, TextureGenerator.getEncodeCacheHits());
+
+        // Other settings are encoded again
+        TextureGenerator.generate(image, textureProfile.build(), true, EnumSet.noneOf(FlipAxis.class), cache);
+        assertEquals(2, TextureGenerator.getEncodeCacheMisses());
+    }
+
+    // Encoding all formats of a profile from shared preprocessed images gives the same result as one format at a time
+    @Test
+    public void testSharedPreprocessing() throws TextureGeneratorException, IOException {
+        TextureFormat[] formats = { TextureFormat.TEXTURE_FORMAT_RGBA, TextureFormat.TEXTURE_FORMAT_RGB_16BPP, TextureFormat.TEXTURE_FORMAT_RGBA_16BPP };
+        int[] maxTextureSizes = { 0, 32 };
+
+        TextureProfile.Builder textureProfile = TextureProfile.newBuilder();
+        textureProfile.setName("Test Profile");
+        for (int maxTextureSize : maxTextureSizes) {
+            PlatformProfile.Builder platformProfile = PlatformProfile.newBuilder();
+            platformProfile.setOs(PlatformProfile.OS.OS_ID_GENERIC);
+            for (TextureFormat format : formats) {
+                platformProfile.addFormats(TextureFormatAlternative.newBuilder().setFormat(format).setCompressionLevel(CompressionLevel.FAST).build());
+            }
+            platformProfile.setMipmaps(true);
+            platformProfile.setPremultiplyAlpha(maxTextureSize != 0);
+            platformProfile.setMaxTextureSize(maxTextureSize);
+            textureProfile.addPlatforms(platformProfile.build());
+        }
+
+        BufferedImage image = ImageIO.read(getClass().getResourceAsStream("127_65_rgba.png"));
+        TextureImage texture = TextureGenerator.generate(image, textureProfile.build(), true);
+        assertEquals(formats.length * maxTextureSizes.length, texture.getAlternativesCount());
+
+        int alternative = 0;
+        for (PlatformProfile platformProfile : textureProfile.getPlatformsList()) {
+            for (TextureFormatAlternative format : platformProfile.getFormatsList()) {
+                TextureProfile single = TextureProfile.newBuilder().setName("Single")
+                    .addPlatforms(PlatformProfile.newBuilder(platformProfile).clearFormats().addFormats(format)).build();
+                TextureImage expected = TextureGenerator.generate(image, single, true);
+                assertEquals(expected.getAlternatives(0), texture.getAlternatives(alternative++));
+            }
+        }
+        assertEquals(32, texture.getAlternatives(formats.length).getWidth());
+        assertEquals(16, texture.getAlternatives(formats.length).getHeight());
+    }
 }
@@ -0,0 +1,113 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class VertexCacheOptimizerTest {
+
+    private static final int FIFO_SIZE = 16;
+
+    // A grid of quads, with the triangles in random order
+    private static int[] createShuffledGrid(int width, int height, Random random) {
+        List<int[]> triangles = new ArrayList<int[]>();
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                int i = y * (width + 1) + x;
+                triangles.add(new int[] { i, i + 1, i + width + 1 });
+                triangles.add(new int[] { i + 1, i + width + 2, i + width + 1 });
+            }
+        }
+        Collections.shuffle(triangles, random);
+        int[] indices = new int[triangles.size() * 3];
+        for (int i = 0; i < triangles.size(); ++i) {
+            System.arraycopy(triangles.get(i), 0, indices, i * 3, 3);
+        }
+        return indices;
+    }
+
+    // The triangles, each rotated to start with its smallest index, in sorted order
+    private static List<String> getTriangles(int[] indices) {
+        List<String> triangles = new ArrayList<String>();
+        for (int i = 0; i < indices.length; i += 3) {
+            int r = 0;
+            for (int c = 1; c < 3; ++c) {
+                if (indices[i + c] < indices[i + r]) {
+                    r = c;
+                }
+            }
+            triangles.add(indices[i + r] + "," + indices[i + (r + 1) % 3] + "," + indices[i + (r + 2) % 3]);
+        }
+        Collections.sort(triangles);
+        return triangles;
+    }
+
+    @Test
+    public void testAcmr() throws Exception {
+        // No reuse at all
+        assertEquals(3.0f, VertexCacheOptimizer.calcAcmr(new int[] { 0, 1, 2, 3, 4, 5 }, 6, FIFO_SIZE), 0.0f);
+        // Two triangles sharing an edge
+        assertEquals(2.0f, VertexCacheOptimizer.calcAcmr(new int[] { 0, 1, 2, 2, 1, 3 }, 4, FIFO_SIZE), 0.0f);
+        // Vertex 0 is pushed out of a cache of 3 vertices by 1, 2 and 3
+        assertEquals(2.5f, VertexCacheOptimizer.calcAcmr(new int[] { 0, 1, 2, 3, 1, 0 }, 4, 3), 0.0f);
+        assertEquals(0.0f, VertexCacheOptimizer.calcAcmr(new int[0], 0, FIFO_SIZE), 0.0f);
+    }
+
+    @Test
+    public void testTriangleOrder() throws Exception {
+        Random random = new Random(50);
+        int[] indices = createShuffledGrid(64, 64, random);
+        int vertexCount = 65 * 65;
+        int[] optimized = VertexCacheOptimizer.optimizeTriangleOrder(indices, vertexCount);
+
+        // The same triangles, with the same winding
+        assertEquals(getTriangles(indices), getTriangles(optimized));
+
+        float before = VertexCacheOptimizer.calcAcmr(indices, vertexCount, FIFO_SIZE);
+        float after = VertexCacheOptimizer.calcAcmr(optimized, vertexCount, FIFO_SIZE);
+        assertTrue(before > 2.5f);
+        // Each vertex is shared by 6 triangles, which gives 0.5 in the limit
+        assertTrue("ACMR " + after, after < 0.8f);
+    }
+
+    @Test
+    public void testDegenerateTriangles() throws Exception {
+        int[] indices = { 0, 0, 1, 1, 2, 3, 3, 3, 3, 2, 1, 0, 4, 5, 6 };
+        int[] optimized = VertexCacheOptimizer.optimizeTriangleOrder(indices, 8);
+        assertEquals(getTriangles(indices), getTriangles(optimized));
+    }
+
+    @Test
+    public void testVertexRemap() throws Exception {
+        int[] indices = { 4, 2, 0, 0, 2, 5 };
+        int[] remap = VertexCacheOptimizer.createVertexRemap(indices, 7);
+        // Used vertices in the order of first use, then the unused ones
+        assertArrayEquals(new int[] { 2, 4, 1, 5, 0, 3, 6 }, remap);
+
+        int[] sorted = remap.clone();
+        Arrays.sort(sorted);
+        assertArrayEquals(new int[] { 0, 1, 2, 3, 4, 5, 6 }, sorted);
+    }
+}
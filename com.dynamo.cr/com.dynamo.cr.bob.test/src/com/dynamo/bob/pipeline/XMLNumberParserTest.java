@@ -0,0 +1,123 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.jagatoo.loaders.models.collada.stax.XMLNumberParser;
+import org.junit.Test;
+
+public class XMLNumberParserTest {
+
+    private static void assertSameFloat(String s) {
+        float expected;
+        try {
+            expected = Float.parseFloat(s);
+        } catch (NumberFormatException e) {
+            expected = 0.0f;
+        }
+        XMLNumberParser numbers = new XMLNumberParser(true, 0);
+        numbers.add(s);
+        float[] floats = numbers.getFloats();
+        assertEquals(s, 1, floats.length);
+        assertEquals(s, Float.floatToRawIntBits(expected), Float.floatToRawIntBits(floats[0]));
+    }
+
+    // The floats are the same as when they are parsed with Float.parseFloat
+    @Test
+    public void testFloats() throws Exception {
+        String[] values = { "0", "-0", "0.0", "-0.0", "+1", "1.", ".5", "-.5", "1e10", "1E-10", "1e+3", "3.4028235e38", "3.4028236e38",
+            "1e39", "1.4e-45", "1e-46", "1.17549435E-38", "0.1", "0.30000001192092896", "16777217", "16777219", "33554435",
+            "9007199254740993", "0.000000000000000000000000000000000000001", "123456789012345678901234567890", "1.0f", "2d",
+            "NaN", "-Infinity", "0x1.8p1", "-1.#IND00", "1.#QNAN", "abc", "-", ".", "e5", "1e", "1e+", "1.5e-1000", "1.5e1000",
+            "00000000000000000000000000001.5", "1.00000000000000000000000000000" };
+        for (String value : values) {
+            assertSameFloat(value);
+        }
+
+        Random random = new Random(49);
+        for (int i = 0; i < 50000; ++i) {
+            float f = Float.intBitsToFloat(random.nextInt());
+            double d = random.nextGaussian() * Math.pow(10, random.nextInt(20) - 10);
+            assertSameFloat(Float.toString(f));
+            assertSameFloat(Double.toString(d));
+            assertSameFloat(String.format(Locale.US, "%.6f", d));
+            assertSameFloat(String.format(Locale.US, "%.9g", d));
+            assertSameFloat(String.format(Locale.US, "%e", d));
+            // Halfway between two floats
+            double halfway = ((double) (float) d + (double) Math.nextUp((float) d)) / 2;
+            assertSameFloat(new BigDecimal(halfway).toPlainString());
+            assertSameFloat(Double.toString(halfway));
+        }
+    }
+
+    @Test
+    public void testInts() throws Exception {
+        XMLNumberParser numbers = new XMLNumberParser(false, 0);
+        numbers.add("0 -1 +7 123456789 -123456789 1234567890 2147483647 -2147483648 007");
+        assertArrayEquals(new int[] { 0, -1, 7, 123456789, -123456789, 1234567890, 2147483647, -2147483648, 7 }, numbers.getInts());
+
+        String[] invalid = { "2147483648", "1.5", "-", "a" };
+        for (String value : invalid) {
+            numbers = new XMLNumberParser(false, 0);
+            try {
+                numbers.add(value + " 1");
+                fail(value);
+            } catch (NumberFormatException e) {
+                // expected
+            }
+        }
+    }
+
+    // The text is split into tokens the same way as a StringTokenizer, in any chunks
+    @Test
+    public void testChunks() throws Exception {
+        Random random = new Random(7);
+        StringBuilder text = new StringBuilder();
+        List<Float> expected = new ArrayList<Float>();
+        String[] delimiters = { " ", "\t", "\n", "\r\n", "\f", "   " };
+        for (int i = 0; i < 5000; ++i) {
+            text.append(delimiters[random.nextInt(delimiters.length)]);
+            String value = random.nextInt(50) == 0 ? "-1.#IND00" : Float.toString((float) random.nextGaussian());
+            text.append(value);
+            expected.add(value.startsWith("-1.#") ? 0.0f : Float.parseFloat(value));
+        }
+        if (random.nextBoolean()) {
+            text.append(" ");
+        }
+        char[] chars = text.toString().toCharArray();
+
+        for (int chunkSize = 1; chunkSize < 40; chunkSize += 3) {
+            XMLNumberParser numbers = new XMLNumberParser(true, 0);
+            for (int i = 0; i < chars.length; i += chunkSize) {
+                numbers.add(chars, i, Math.min(chunkSize, chars.length - i));
+                numbers.add(chars, i, 0);
+            }
+            float[] floats = numbers.getFloats();
+            assertEquals(expected.size(), floats.length);
+            for (int i = 0; i < floats.length; ++i) {
+                assertEquals(Float.floatToRawIntBits(expected.get(i)), Float.floatToRawIntBits(floats[i]));
+            }
+        }
+    }
+}
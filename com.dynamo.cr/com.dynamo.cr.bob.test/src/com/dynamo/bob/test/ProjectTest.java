@@ -34,6 +34,7 @@ import javax.servlet.http.HttpServletResponse;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
 
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Server;
@@ -55,6 +56,7 @@ import com.dynamo.bob.MultipleCompileException;
 import com.dynamo.bob.NullProgress;
 import com.dynamo.bob.Project;
 import com.dynamo.bob.TaskResult;
+import com.dynamo.bob.cache.BuildCache;
 import com.dynamo.bob.util.LibraryUtil;
 import com.dynamo.bob.test.util.MockFileSystem;
 
@@ -73,6 +75,7 @@ public class ProjectTest {
     private ArrayList<URL> libraryUrls = new ArrayList<URL>();
 
     private AtomicInteger _304Count = new AtomicInteger();
+    private AtomicInteger _206Count = new AtomicInteger();
 
     @Rule
     public TestLibrariesRule testLibs = new TestLibrariesRule();
@@ -187,6 +190,137 @@ public class ProjectTest {
         System.out.printf("testResolve end");
     }
 
+    @Test
+    public void testResolveConcurrent() throws Exception {
+        System.out.printf("testResolveConcurrent begin");
+
+        libraryUrls.add(new URL("http://localhost:8081/test_lib3.zip"));
+        libraryUrls.add(new URL("http://localhost:8081/test_lib4.zip"));
+        project.setOption("max-concurrent-downloads", "2");
+
+        File libDir = new File(project.getLibPath());
+        if (libDir.exists()) {
+            FileUtils.cleanDirectory(libDir);
+        }
+        libDir.mkdirs();
+
+        // A stale partial download with an outdated ETag should be discarded
+        URL staleUrl = libraryUrls.get(0);
+        File stale = new File(libDir, LibraryUtil.getPartialFileName(staleUrl, "\"outdated\""));
+        FileUtils.writeByteArrayToFile(stale, new byte[] { 1, 2, 3 });
+
+        this.project.resolveLibUrls(new NullProgress());
+
+        assertFalse(stale.exists());
+        File currentFiles[] = libDir.listFiles(File::isFile);
+        assertEquals(libraryUrls.size(), currentFiles.length);
+        for (URL url : libraryUrls) {
+            String hashedUrl = LibraryUtil.getHashedUrl(url);
+            boolean found = false;
+            for (File f : currentFiles) {
+                if (LibraryUtil.matchUri(hashedUrl, f.getName())) {
+                    new ZipFile(f).close();
+                    found = true;
+                    break;
+                }
+            }
+            assertTrue(found);
+        }
+
+        assertEquals(0, _304Count.get());
+        this.project.resolveLibUrls(new NullProgress());
+        assertEquals(libraryUrls.size(), _304Count.get());
+
+        System.out.printf("testResolveConcurrent end");
+    }
+
+    // Interrupted download of test_lib1.zip, with the first half of the data in a partial file
+    private File createPartialDownload(File libDir, boolean corrupt) throws Exception {
+        URL url = libraryUrls.get(0);
+        File serverFile = new File(testLibs.getServerLocation(), "test_lib1.zip");
+        ZipFile zip = new ZipFile(serverFile);
+        String etag = String.format("\"%s\"", zip.getComment());
+        zip.close();
+
+        byte[] data = FileUtils.readFileToByteArray(serverFile);
+        byte[] prefix = Arrays.copyOf(data, data.length / 2);
+        if (corrupt) {
+            Arrays.fill(prefix, (byte) 0);
+        }
+        File partial = new File(libDir, LibraryUtil.getPartialFileName(url, etag));
+        FileUtils.writeByteArrayToFile(partial, prefix);
+        return partial;
+    }
+
+    private File findLibraryFile(File libDir, URL url) {
+        String hashedUrl = LibraryUtil.getHashedUrl(url);
+        for (File f : libDir.listFiles(File::isFile)) {
+            if (LibraryUtil.matchUri(hashedUrl, f.getName())) {
+                return f;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testResolveResumed() throws Exception {
+        File libDir = new File(project.getLibPath());
+        if (libDir.exists()) {
+            FileUtils.cleanDirectory(libDir);
+        }
+        libDir.mkdirs();
+
+        File partial = createPartialDownload(libDir, false);
+        this.project.resolveLibUrls(new NullProgress());
+
+        // Only the rest of the archive was downloaded, and verified on its own
+        assertEquals(1, _206Count.get());
+        assertFalse(partial.exists());
+        File f = findLibraryFile(libDir, libraryUrls.get(0));
+        assertTrue(f != null);
+        assertTrue(Arrays.equals(FileUtils.readFileToByteArray(new File(testLibs.getServerLocation(), "test_lib1.zip")), FileUtils.readFileToByteArray(f)));
+        new ZipFile(f).close();
+    }
+
+    @Test
+    public void testResolveNotModifiedPartial() throws Exception {
+        File libDir = new File(project.getLibPath());
+        if (libDir.exists()) {
+            FileUtils.cleanDirectory(libDir);
+        }
+        this.project.resolveLibUrls(new NullProgress());
+        File f = findLibraryFile(libDir, libraryUrls.get(0));
+
+        // The cached archive is current, and the partial download left next to it is removed
+        File partial = createPartialDownload(libDir, false);
+        this.project.resolveLibUrls(new NullProgress());
+
+        assertEquals(libraryUrls.size(), _304Count.get());
+        assertEquals(0, _206Count.get());
+        assertFalse(partial.exists());
+        assertTrue(f.exists());
+    }
+
+    @Test
+    public void testResolveResumedCorrupt() throws Exception {
+        File libDir = new File(project.getLibPath());
+        if (libDir.exists()) {
+            FileUtils.cleanDirectory(libDir);
+        }
+        libDir.mkdirs();
+
+        // The resumed archive isn't a valid zip file, and is downloaded again in full
+        File partial = createPartialDownload(libDir, true);
+        this.project.resolveLibUrls(new NullProgress());
+
+        assertEquals(1, _206Count.get());
+        assertFalse(partial.exists());
+        File f = findLibraryFile(libDir, libraryUrls.get(0));
+        assertTrue(f != null);
+        assertTrue(Arrays.equals(FileUtils.readFileToByteArray(new File(testLibs.getServerLocation(), "test_lib1.zip")), FileUtils.readFileToByteArray(f)));
+        new ZipFile(f).close();
+    }
+
     @Test
     public void testMountPoints() throws Exception {
         System.out.printf("testMountPoints start");
@@ -273,6 +407,25 @@ public class ProjectTest {
         System.out.printf("end");
     }
 
+    // A build cache is shared by name, so all users must agree on its bound
+    @Test
+    public void testBuildCacheMaxSize() throws Exception {
+        project.setOption("build-cache", "false");
+        BuildCache cache = project.getBuildCache("test", 1000);
+        assertTrue(cache == project.getBuildCache("test", 1000));
+        try {
+            project.getBuildCache("test", 2000);
+            assertTrue(false);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("max size"));
+        }
+        try {
+            project.getBuildCache("test");
+            assertTrue(false);
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
     private class FileHandler extends ResourceHandler {
         public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException ,javax.servlet.ServletException {
 
@@ -309,10 +462,25 @@ public class ProjectTest {
                         sha1 = "";
                     }
 
+                    String range = request.getHeader("Range");
+                    String ifRange = request.getHeader("If-Range");
                     if (etag != null && etag.equals(String.format("\"%s\"", sha1))) {
                         _304Count.incrementAndGet();
                         response.setStatus(304);
                         baseRequest.setHandled(true);
+                    } else if (range != null && range.startsWith("bytes=") && range.endsWith("-")
+                            && ifRange != null && ifRange.equals(String.format("\"%s\"", sha1))) {
+                        // Send the rest of the file, with the digest of only those bytes
+                        byte[] data = FileUtils.readFileToByteArray(file);
+                        int offset = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+                        byte[] body = Arrays.copyOfRange(data, offset, data.length);
+                        _206Count.incrementAndGet();
+                        response.setStatus(206);
+                        response.setHeader("Content-Range", String.format("bytes %d-%d/%d", offset, data.length - 1, data.length));
+                        response.setHeader("Content-MD5", new String(new Base64().encode(DigestUtils.md5(body))));
+                        response.setContentLength(body.length);
+                        response.getOutputStream().write(body);
+                        baseRequest.setHandled(true);
                     } else {
                         super.handle(target, baseRequest, request, response);
                     }
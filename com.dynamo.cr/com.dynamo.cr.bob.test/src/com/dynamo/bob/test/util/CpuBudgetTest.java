@@ -0,0 +1,197 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.test.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.util.CpuBudget;
+
+public class CpuBudgetTest {
+
+    private int threads;
+
+    @Before
+    public void setUp() throws Exception {
+        threads = CpuBudget.getThreads();
+        CpuBudget.setThreads(4);
+        CpuBudget.resetStageStats();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        CpuBudget.setThreads(threads);
+    }
+
+    @Test
+    public void testLeases() throws Exception {
+        CpuBudget.Lease a = CpuBudget.acquire("a", 2);
+        assertEquals(2, a.getThreads());
+        CpuBudget.Lease b = CpuBudget.acquire("b", Integer.MAX_VALUE);
+        assertEquals(3, b.getThreads());
+        // The budget is used up, but the calling thread is always granted
+        CpuBudget.Lease c = CpuBudget.acquire("c", 8);
+        assertEquals(1, c.getThreads());
+        c.close();
+        b.close();
+        // Closing twice doesn't return the threads twice
+        b.close();
+        CpuBudget.Lease d = CpuBudget.acquire("d", 8);
+        assertEquals(3, d.getThreads());
+        d.close();
+        a.close();
+
+        assertEquals(1, CpuBudget.getStageStats().get("b").count);
+        assertEquals(3, CpuBudget.getStageStats().get("b").maxThreads);
+        assertEquals(4, CpuBudget.getStageStats().size());
+    }
+
+    // No more commands than the additional threads of the lease run at the same time
+    @Test
+    public void testExecute() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<FutureTask<Integer>> tasks = new ArrayList<FutureTask<Integer>>();
+        try (CpuBudget.Lease lease = CpuBudget.acquire("execute", 3)) {
+            for (int i = 0; i < 20; ++i) {
+                final int value = i;
+                FutureTask<Integer> task = new FutureTask<Integer>(() -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    Thread.sleep(5);
+                    running.decrementAndGet();
+                    return value;
+                });
+                lease.execute(task);
+                tasks.add(task);
+            }
+            for (int i = 0; i < tasks.size(); ++i) {
+                assertEquals(i, (int) tasks.get(i).get());
+            }
+        }
+        assertTrue(maxRunning.get() <= 2);
+
+        // The threads are back in the budget once the last command has returned
+        long timeout = System.currentTimeMillis() + 5000;
+        int free;
+        do {
+            CpuBudget.Lease lease = CpuBudget.acquire("all", Integer.MAX_VALUE);
+            free = lease.getThreads();
+            lease.close();
+        } while (free != 4 && System.currentTimeMillis() < timeout);
+        assertEquals(4, free);
+    }
+
+    // Only the time spent running commands counts as busy, not the time the threads are granted for
+    @Test
+    public void testBusyTime() throws Exception {
+        try (CpuBudget.Lease lease = CpuBudget.acquire("busy", 3)) {
+            List<FutureTask<Integer>> tasks = new ArrayList<FutureTask<Integer>>();
+            for (int i = 0; i < 2; ++i) {
+                FutureTask<Integer> task = new FutureTask<Integer>(() -> {
+                    Thread.sleep(100);
+                    return 0;
+                });
+                lease.execute(task);
+                tasks.add(task);
+            }
+            lease.run(() -> {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            for (FutureTask<Integer> task : tasks) {
+                task.get();
+            }
+        }
+        // The stats are recorded once the last command has returned
+        long timeout = System.currentTimeMillis() + 5000;
+        while (!CpuBudget.getStageStats().containsKey("busy") && System.currentTimeMillis() < timeout) {
+            Thread.sleep(1);
+        }
+        try (CpuBudget.Lease lease = CpuBudget.acquire("idle", 3)) {
+            Thread.sleep(100);
+        }
+
+        CpuBudget.StageStats busy = CpuBudget.getStageStats().get("busy");
+        assertTrue(busy.busyMillis >= 290);
+        assertTrue(busy.grantedMillis >= busy.busyMillis);
+        assertEquals(busy.grantedMillis, busy.measuredMillis);
+        CpuBudget.StageStats idle = CpuBudget.getStageStats().get("idle");
+        assertEquals(0, idle.busyMillis);
+        assertTrue(idle.grantedMillis >= 290);
+        assertEquals(idle.grantedMillis, idle.measuredMillis);
+    }
+
+    // A lease doing work that can't be timed only records granted time
+    @Test
+    public void testUnmeasured() throws Exception {
+        CpuBudget.resetStageStats();
+        try (CpuBudget.Lease lease = CpuBudget.acquire("native", 1)) {
+            lease.setUnmeasured();
+            lease.run(() -> {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+        CpuBudget.StageStats stats = CpuBudget.getStageStats().get("native");
+        assertTrue(stats.grantedMillis >= 90);
+        assertEquals(0, stats.measuredMillis);
+        assertEquals(0, stats.busyMillis);
+    }
+
+    @Test
+    public void testInvokeAll() throws Exception {
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < 20; ++i) {
+            final int value = i;
+            tasks.add(() -> {
+                Thread.sleep(value % 3);
+                return value * value;
+            });
+        }
+        List<Integer> results = CpuBudget.invokeAll("invoke", tasks);
+        for (int i = 0; i < tasks.size(); ++i) {
+            assertEquals(i * i, (int) results.get(i));
+        }
+        assertTrue(CpuBudget.invokeAll("invoke", new ArrayList<Callable<Integer>>()).isEmpty());
+
+        // The exception of a failing task is rethrown on the calling thread
+        tasks.add(0, () -> {
+            throw new IllegalStateException("failed");
+        });
+        try {
+            CpuBudget.invokeAll("invoke", tasks);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("failed", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,216 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.test.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Font;
+import java.awt.Shape;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.FlatteningPathIterator;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+import com.dynamo.bob.font.DistanceFieldGenerator;
+
+public class DistanceFieldGeneratorTest {
+
+    // Matches the flatness of the glyph outlines in Fontc
+    private static final double FLATNESS = 0.1;
+
+    // Adds the flattened outline to the generator and returns it as a polygon
+    private static Path2D addOutline(DistanceFieldGenerator df, Shape shape) {
+        Path2D polygon = new Path2D.Double();
+        PathIterator pi = new FlatteningPathIterator(shape.getPathIterator(null), FLATNESS);
+        polygon.setWindingRule(pi.getWindingRule());
+        double[] c = new double[6];
+        double x = 0, y = 0, mx = 0, my = 0;
+        while (!pi.isDone()) {
+            switch (pi.currentSegment(c)) {
+            case PathIterator.SEG_MOVETO:
+                x = mx = c[0];
+                y = my = c[1];
+                polygon.moveTo(x, y);
+                break;
+            case PathIterator.SEG_LINETO:
+                df.addLine(x, y, c[0], c[1]);
+                x = c[0];
+                y = c[1];
+                polygon.lineTo(x, y);
+                break;
+            case PathIterator.SEG_CLOSE:
+                df.addLine(x, y, mx, my);
+                x = mx;
+                y = my;
+                polygon.closePath();
+                break;
+            }
+            pi.next();
+        }
+        return polygon;
+    }
+
+    // The distance to the nearest segment, measured against every segment
+    private static double bruteForceDistSqr(DistanceFieldGenerator df, double x, double y) {
+        double distMin = 10000000;
+        for (int i = 0; i < df.lineSegmentsEnd; i += 5) {
+            double x0 = df.lineSegments[i];
+            double y0 = df.lineSegments[i + 1];
+            double dx = df.lineSegments[i + 2];
+            double dy = df.lineSegments[i + 3];
+            double dx0 = x - x0;
+            double dy0 = y - y0;
+            double t = df.lineSegments[i + 4] * (dx * dx0 + dy * dy0);
+            double distSqr;
+            if (t < 0) {
+                distSqr = dx0 * dx0 + dy0 * dy0;
+            } else if (t > 1) {
+                double xx = x - (x0 + dx);
+                double yy = y - (y0 + dy);
+                distSqr = xx * xx + yy * yy;
+            } else {
+                double px = x0 + t * dx - x;
+                double py = y0 + t * dy - y;
+                distSqr = px * px + py * py;
+            }
+            // Degenerate segments give NaN, and are skipped
+            if (distSqr < distMin) {
+                distMin = distSqr;
+            }
+        }
+        return distMin;
+    }
+
+    private static void assertDistanceField(Shape shape, int padding) {
+        DistanceFieldGenerator df = new DistanceFieldGenerator();
+        Path2D polygon = addOutline(df, shape);
+
+        Rectangle2D bounds = shape.getBounds2D();
+        double x0 = Math.floor(bounds.getMinX()) - padding;
+        double y0 = Math.floor(bounds.getMinY()) - padding;
+        int width = (int) Math.ceil(bounds.getWidth()) + padding * 2;
+        int height = (int) Math.ceil(bounds.getHeight()) + padding * 2;
+        double x1 = x0 + width;
+        double y1 = y0 + height;
+
+        double[] distances = new double[width * height];
+        boolean[] inside = new boolean[width * height];
+        df.render(distances, x0, y0, x1, y1, width, height);
+        df.renderInside(inside, x0, y0, x1, y1, width, height, polygon.getWindingRule());
+
+        int ofs = 0;
+        double dx = (x1 - x0) / width;
+        for (int y = 0; y < height; ++y) {
+            double py = y0 + y * (y1 - y0) / height;
+            double px = x0;
+            for (int x = 0; x < width; ++x, ++ofs) {
+                assertEquals(Math.sqrt(bruteForceDistSqr(df, px, py)), distances[ofs], 0.0);
+                assertEquals(polygon.contains(px, py), inside[ofs]);
+                // The sign only differs from the curved outline within the flatness of the polygon
+                if (inside[ofs] != shape.contains(px, py)) {
+                    assertTrue(distances[ofs] <= FLATNESS);
+                }
+                px += dx;
+            }
+        }
+    }
+
+    private static void assertGlyphs(float size, int padding) throws Exception {
+        Font font;
+        try (InputStream in = DistanceFieldGeneratorTest.class.getResourceAsStream("Tuffy.ttf")) {
+            font = Font.createFont(Font.TRUETYPE_FONT, in).deriveFont(size);
+        }
+        FontRenderContext frc = new FontRenderContext(null, true, true);
+        for (char c : "AgB&@%8åÖ".toCharArray()) {
+            assertDistanceField(font.createGlyphVector(frc, new char[] { c }).getGlyphOutline(0), padding);
+        }
+    }
+
+    @Test
+    public void testGlyphs() throws Exception {
+        assertGlyphs(24, 4);
+    }
+
+    @Test
+    public void testLargeGlyphs() throws Exception {
+        assertGlyphs(256, 16);
+    }
+
+    @Test
+    public void testManySegments() throws Exception {
+        // Two overlapping rings of more segments than fit the initial buffer
+        Path2D path = new Path2D.Double(PathIterator.WIND_EVEN_ODD);
+        for (int ring = 0; ring < 2; ++ring) {
+            int count = 5000;
+            for (int i = 0; i < count; ++i) {
+                double a = 2 * Math.PI * i / count;
+                double x = ring * 20 + 50 * Math.cos(a);
+                double y = 40 * Math.sin(a);
+                if (i == 0) {
+                    path.moveTo(x, y);
+                } else {
+                    path.lineTo(x, y);
+                }
+            }
+            path.closePath();
+        }
+        assertDistanceField(path, 8);
+    }
+
+    @Test
+    public void testMaxDistance() throws Exception {
+        Font font;
+        try (InputStream in = DistanceFieldGeneratorTest.class.getResourceAsStream("Tuffy.ttf")) {
+            font = Font.createFont(Font.TRUETYPE_FONT, in).deriveFont(128.0f);
+        }
+        Shape shape = font.createGlyphVector(new FontRenderContext(null, true, true), "O").getGlyphOutline(0);
+        DistanceFieldGenerator df = new DistanceFieldGenerator();
+        addOutline(df, shape);
+        DistanceFieldGenerator bounded = new DistanceFieldGenerator();
+        addOutline(bounded, shape);
+        bounded.setMaxDistance(5.0);
+
+        Rectangle2D bounds = shape.getBounds2D();
+        int width = (int) Math.ceil(bounds.getWidth()) + 32;
+        int height = (int) Math.ceil(bounds.getHeight()) + 32;
+        double x0 = bounds.getMinX() - 16;
+        double y0 = bounds.getMinY() - 16;
+        double[] expected = new double[width * height];
+        double[] distances = new double[width * height];
+        df.render(expected, x0, y0, x0 + width, y0 + height, width, height);
+        bounded.render(distances, x0, y0, x0 + width, y0 + height, width, height);
+        for (int i = 0; i < distances.length; ++i) {
+            assertEquals(Math.min(expected[i], 5.0), distances[i], 0.0);
+        }
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        DistanceFieldGenerator df = new DistanceFieldGenerator();
+        double[] distances = new double[4];
+        boolean[] inside = new boolean[4];
+        df.render(distances, 0, 0, 2, 2, 2, 2);
+        df.renderInside(inside, 0, 0, 2, 2, 2, 2, PathIterator.WIND_NON_ZERO);
+        for (int i = 0; i < 4; ++i) {
+            assertEquals(Math.sqrt(10000000), distances[i], 0.0);
+            assertEquals(false, inside[i]);
+        }
+    }
+}
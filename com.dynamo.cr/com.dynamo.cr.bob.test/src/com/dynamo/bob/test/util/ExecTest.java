@@ -0,0 +1,168 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.test.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.util.CpuBudget;
+import com.dynamo.bob.util.Exec;
+
+public class ExecTest {
+
+    @Before
+    public void setUp() throws Exception {
+        // The tests use a shell to produce output and to run for a while
+        assumeFalse(System.getProperty("os.name").toLowerCase().contains("win"));
+        Exec.resetToolStats();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Exec.resetToolLimits();
+    }
+
+    // More output than fits in the pipe buffer must not block the process
+    @Test
+    public void testLargeOutput() throws Exception {
+        Exec.Result result = Exec.execResult("sh", "-c", "head -c 1000000 /dev/zero; head -c 1000 /dev/zero 1>&2");
+        assertEquals(0, result.ret);
+        assertEquals(1001000, result.stdOutErr.length);
+    }
+
+    @Test
+    public void testReturnCode() throws Exception {
+        Exec.Result result = Exec.execResult("sh", "-c", "echo hello; exit 3");
+        assertEquals(3, result.ret);
+        assertEquals("hello\n", new String(result.stdOutErr));
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        Exec.setToolLimits("sleep", 1, 1);
+        long start = System.currentTimeMillis();
+        try {
+            Exec.execResult("sleep", "30");
+            assertTrue(false);
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("timed out"));
+        }
+        assertTrue(System.currentTimeMillis() - start < 20000);
+        assertEquals(1, Exec.getToolStats().get("sleep").timeouts);
+    }
+
+    @Test
+    public void testConcurrencyLimit() throws Exception {
+        Exec.setToolLimits("sh=1:60");
+        Thread[] threads = new Thread[3];
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i] = new Thread(() -> {
+                try {
+                    Exec.execResult("sh", "-c", "sleep 0.5");
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+        long start = System.currentTimeMillis();
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        // With one process at a time, the runs can't overlap
+        assertTrue(System.currentTimeMillis() - start >= 1500);
+        Exec.ToolStats stats = Exec.getToolStats().get("sh");
+        assertEquals(3, stats.count);
+        assertTrue(stats.totalMillis >= 1500);
+    }
+
+    // A process runs under a lease of the thread starting it, busy for the CPU time of the process
+    @Test
+    public void testCpuBudgetLease() throws Exception {
+        CpuBudget.resetStageStats();
+        Exec.execResult("sh", "-c", "sleep 0.3");
+        CpuBudget.StageStats stats = CpuBudget.getStageStats().get("exec sh");
+        assertEquals(1, stats.count);
+        assertEquals(1, stats.maxThreads);
+        assertTrue(stats.grantedMillis >= 290);
+        assertEquals(stats.grantedMillis, stats.measuredMillis);
+        assertTrue(stats.busyMillis < 100);
+
+        CpuBudget.resetStageStats();
+        Exec.execResult("sh", "-c", "i=0; while [ $i -lt 1000000 ]; do i=$((i+1)); done");
+        stats = CpuBudget.getStageStats().get("exec sh");
+        assertTrue(stats.busyMillis > stats.grantedMillis / 2);
+    }
+
+    // Without exec-limits, the number of processes isn't bounded by the budget at the time of the first run
+    @Test
+    public void testDefaultConcurrency() throws Exception {
+        int budgetThreads = CpuBudget.getThreads();
+        CpuBudget.setThreads(1);
+        try {
+            Exec.execResult("sh", "-c", "true");
+            Thread[] threads = new Thread[3];
+            for (int i = 0; i < threads.length; ++i) {
+                threads[i] = new Thread(() -> {
+                    try {
+                        Exec.execResult("sh", "-c", "sleep 0.5");
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+            }
+            long start = System.currentTimeMillis();
+            for (Thread t : threads) {
+                t.start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            assertTrue(System.currentTimeMillis() - start < 1500);
+        } finally {
+            CpuBudget.setThreads(budgetThreads);
+        }
+    }
+
+    @Test
+    public void testInvalidLimits() throws Exception {
+        String[] specs = { "sh", "sh=", "=1", "sh=x", "sh=1:x", "sh=1:2:3", "sh=1,ls=a" };
+        for (String spec : specs) {
+            try {
+                Exec.setToolLimits(spec);
+                assertTrue(spec, false);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains("Invalid tool limit"));
+            }
+        }
+        // The valid entries of an invalid spec are not applied either
+        try {
+            Exec.setToolLimits("sleep=1:1,sh=a");
+            assertTrue(false);
+        } catch (IllegalArgumentException e) {
+        }
+        Exec.Result result = Exec.execResult("sleep", "1.5");
+        assertEquals(0, result.ret);
+    }
+}
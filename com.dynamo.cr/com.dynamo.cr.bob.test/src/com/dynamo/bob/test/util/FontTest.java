@@ -39,15 +39,18 @@ import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 
+import com.dynamo.bob.cache.BuildCache;
 import com.dynamo.bob.font.BMFont;
 import com.dynamo.bob.font.BMFont.BMFontFormatException;
 import com.dynamo.bob.font.BMFont.ChannelData;
 import com.dynamo.bob.font.BMFont.Char;
 import com.dynamo.bob.font.Fontc;
 import com.dynamo.bob.font.Fontc.FontResourceResolver;
+import com.dynamo.bob.util.CpuBudget;
 import com.dynamo.render.proto.Font.FontDesc;
 import com.dynamo.render.proto.Font.FontMap;
 import com.dynamo.render.proto.Font.FontMap.Glyph;
+import com.dynamo.render.proto.Font.FontTextureFormat;
 
 public class FontTest {
 
@@ -244,6 +247,87 @@ public class FontTest {
         assertEquals(0xF8FF, fontMap.getGlyphs(fontMap.getGlyphsCount() - 1).getCharacter());
     }
 
+    private FontMap compileTTF(FontDesc fontDesc, int threads) throws Exception {
+        return compileTTF(fontDesc, threads, null);
+    }
+
+    private FontMap compileTTF(FontDesc fontDesc, int threads, BuildCache glyphCache) throws Exception {
+        int defaultThreads = CpuBudget.getThreads();
+        CpuBudget.setThreads(threads);
+        try (InputStream fontInputStream = getClass().getResourceAsStream(fontDesc.getFont())) {
+            Fontc fontc = new Fontc();
+            fontc.compile(fontInputStream, fontDesc, false, new FontResourceResolver() {
+                    @Override
+                    public InputStream getResource(String resourceName) throws FileNotFoundException {
+                        throw new FileNotFoundException(resourceName);
+                    }
+                }, glyphCache);
+            return fontc.getFontMap();
+        } finally {
+            CpuBudget.setThreads(defaultThreads);
+        }
+    }
+
+    // The glyphs are generated concurrently, but the glyph data is the same as when generated one by one
+    @Test
+    public void testTTFConcurrentGlyphs() throws Exception {
+        FontDesc bitmap = FontDesc.newBuilder()
+            .setFont("Tuffy.ttf")
+            .setMaterial("font.material")
+            .setSize(24)
+            .setOutlineWidth(2)
+            .setOutlineAlpha(1.0f)
+            .setShadowAlpha(0.5f)
+            .setShadowBlur(2)
+            .setExtraCharacters("åäöÅÄÖ")
+            .build();
+        FontDesc distanceField = bitmap.toBuilder()
+            .setOutputFormat(FontTextureFormat.TYPE_DISTANCE_FIELD)
+            .build();
+
+        for (FontDesc fontDesc : new FontDesc[] { bitmap, distanceField }) {
+            FontMap expected = compileTTF(fontDesc, 1);
+            FontMap fontMap = compileTTF(fontDesc, 4);
+            assertEquals(expected.getGlyphsCount(), fontMap.getGlyphsCount());
+            assertEquals(expected.getGlyphData(), fontMap.getGlyphData());
+            assertEquals(expected, fontMap);
+        }
+    }
+
+    @Test
+    public void testTTFGlyphCache() throws Exception {
+        FontDesc fontDesc = FontDesc.newBuilder()
+            .setFont("Tuffy.ttf")
+            .setMaterial("font.material")
+            .setSize(24)
+            .setOutlineWidth(2)
+            .setOutlineAlpha(1.0f)
+            .build();
+        BuildCache cache = new BuildCache(Files.createTempDirectory(null).toFile());
+
+        // Every glyph but the space is rendered once
+        Fontc.resetGlyphCacheStats();
+        FontMap expected = compileTTF(fontDesc, 4);
+        assertEquals(expected, compileTTF(fontDesc, 4, cache));
+        assertEquals(0, Fontc.getGlyphCacheHits());
+        assertEquals(126 - 32, Fontc.getGlyphCacheMisses());
+        assertEquals(expected, compileTTF(fontDesc, 4, cache));
+        assertEquals(126 - 32, Fontc.getGlyphCacheHits());
+
+        // Only the added characters are rendered
+        Fontc.resetGlyphCacheStats();
+        FontDesc extraCharacters = fontDesc.toBuilder().setExtraCharacters("åÖ").build();
+        assertEquals(compileTTF(extraCharacters, 4), compileTTF(extraCharacters, 4, cache));
+        assertEquals(126 - 32, Fontc.getGlyphCacheHits());
+        assertEquals(2, Fontc.getGlyphCacheMisses());
+
+        // Other settings are rendered again
+        Fontc.resetGlyphCacheStats();
+        FontDesc outline = fontDesc.toBuilder().setOutlineWidth(3).build();
+        assertEquals(compileTTF(outline, 4), compileTTF(outline, 4, cache));
+        assertEquals(0, Fontc.getGlyphCacheHits());
+    }
+
     @Test
     public void testTTFJapaneseAllChars() throws Exception {
 
@@ -0,0 +1,265 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.test.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.dynamo.bob.util.IgnoreMatcher;
+import com.dynamo.bob.util.PathUtil;
+
+public class IgnoreMatcherTest {
+
+    private boolean ignored(String path, String... rules) {
+        return new IgnoreMatcher(Arrays.asList(rules)).isIgnored(path);
+    }
+
+    @Test
+    public void testPrefix() throws Exception {
+        // Prefix rules behave like the old startsWith() tests
+        assertTrue(ignored("foo/a.script", "/foo"));
+        assertTrue(ignored("foo/a.script", "foo"));
+        assertTrue(ignored("foobar/a.script", "/foo"));
+        assertTrue(ignored("foo/bar/a.script", "foo/bar"));
+        assertFalse(ignored("bar/foo/a.script", "/foo"));
+        assertFalse(ignored("fo", "/foo"));
+        assertFalse(ignored("a.script"));
+        assertFalse(ignored("a.script", ""));
+        assertFalse(ignored("a.script", "/"));
+
+        assertTrue(ignored("/foo/a.script", "foo"));
+    }
+
+    @Test
+    public void testComments() throws Exception {
+        assertFalse(ignored("#foo/a.script", "#foo"));
+        assertTrue(ignored("foo/a.script", "# comment", "foo"));
+    }
+
+    @Test
+    public void testWildcards() throws Exception {
+        String pattern = "**"; // anything
+        assertTrue(ignored("a.txt", pattern));
+        assertTrue(ignored("a/a.txt", pattern));
+        assertTrue(ignored("a/a/a.txt", pattern));
+
+        pattern = "**/*"; // anything
+        assertTrue(ignored("a.txt", pattern));
+        assertTrue(ignored("a/a.txt", pattern));
+        assertTrue(ignored("a/a/a.txt", pattern));
+
+        pattern = "*/**"; // anything under a directory
+        assertFalse(ignored("a.txt", pattern));
+        assertTrue(ignored("a/a.txt", pattern));
+        assertTrue(ignored("a/a/a.txt", pattern));
+
+        pattern = "*/a.txt"; // exact under one directory
+        assertFalse(ignored("a.txt", pattern));
+        assertTrue(ignored("a/a.txt", pattern));
+        assertFalse(ignored("a/a/a.txt", pattern));
+
+        pattern = "**/a.txt"; // at any depth
+        assertTrue(ignored("a.txt", pattern));
+        assertTrue(ignored("a/a.txt", pattern));
+        assertTrue(ignored("a/a/a.txt", pattern));
+        assertFalse(ignored("a/ba.txt", pattern));
+
+        pattern = "*/*/a.txt"; // exact under two directories
+        assertFalse(ignored("a.txt", pattern));
+        assertFalse(ignored("a/a.txt", pattern));
+        assertTrue(ignored("a/a/a.txt", pattern));
+
+        pattern = "*/**/a.txt"; // under at least one directory
+        assertFalse(ignored("a.txt", pattern));
+        assertTrue(ignored("a/a.txt", pattern));
+        assertTrue(ignored("a/a/a.txt", pattern));
+
+        pattern = "**/a/**"; // "a" directory must be present
+        assertFalse(ignored("a.txt", pattern));
+        assertTrue(ignored("a/a.txt", pattern));
+        assertTrue(ignored("a/a/a.txt", pattern));
+
+        pattern = "*/a/**"; // "a" directory under one directory
+        assertFalse(ignored("a.txt", pattern));
+        assertFalse(ignored("a/a.txt", pattern));
+        assertTrue(ignored("a/a/a.txt", pattern));
+
+        pattern = "a?.txt";
+        assertTrue(ignored("ab.txt", pattern));
+        assertFalse(ignored("a.txt", pattern));
+        assertFalse(ignored("abc.txt", pattern));
+        assertFalse(ignored("a/.txt", "a?.txt"));
+    }
+
+    @Test
+    public void testPatternSubtree() throws Exception {
+        // A pattern matching a directory also matches everything below it
+        assertTrue(ignored("a/tmp/b/c.script", "**/tmp"));
+        assertTrue(ignored("tmp/c.script", "**/tmp"));
+        assertFalse(ignored("a/tmpfile.script", "**/tmp"));
+        assertTrue(ignored("assets/big_1/a.png", "/assets/big_*"));
+        assertFalse(ignored("assets/small/a.png", "/assets/big_*"));
+    }
+
+    @Test
+    public void testNegation() throws Exception {
+        assertFalse(ignored("foo/keep.script", "foo", "!foo/keep.script"));
+        assertTrue(ignored("foo/other.script", "foo", "!foo/keep.script"));
+        // The last matching rule wins
+        assertTrue(ignored("foo/keep.script", "!foo/keep.script", "foo"));
+        assertFalse(ignored("assets/a.png", "assets", "!**/*.png"));
+        assertTrue(ignored("assets/a.jpg", "assets", "!**/*.png"));
+        assertTrue(ignored("assets/a.png", "assets", "!**/*.png", "**/a.*"));
+        // A negation on its own doesn't ignore anything
+        assertFalse(ignored("foo/a.script", "!foo"));
+    }
+
+    @Test
+    public void testLiteralPattern() throws Exception {
+        IgnoreMatcher matcher = new IgnoreMatcher();
+        matcher.addPattern("build", false);
+        assertTrue(matcher.isIgnored("build"));
+        assertTrue(matcher.isIgnored("build/default/a.scriptc"));
+        assertFalse(matcher.isIgnored("builder.script"));
+        assertFalse(matcher.isIgnored("a/build/x"));
+    }
+
+    // Patterns are project relative, with or without a leading "/"
+    @Test
+    public void testPatternLeadingSlash() throws Exception {
+        IgnoreMatcher matcher = new IgnoreMatcher();
+        matcher.addPattern("/extension1/res/common/collision.txt", false);
+        matcher.addPattern("/assets/*.tmp", false);
+        matcher.addPattern("", false);
+        assertTrue(matcher.isIgnored("/extension1/res/common/collision.txt"));
+        assertTrue(matcher.isIgnored("extension1/res/common/collision.txt"));
+        assertFalse(matcher.isIgnored("/extension1/res/common/collision.txt.bak"));
+        assertTrue(matcher.isIgnored("/assets/a.tmp"));
+        assertFalse(matcher.isIgnored("/assets/a.png"));
+        assertFalse(matcher.isIgnored(""));
+    }
+
+    @Test
+    public void testAddRulesAfterMatching() throws Exception {
+        IgnoreMatcher matcher = new IgnoreMatcher();
+        matcher.addRule("**/*.tmp");
+        assertTrue(matcher.isIgnored("a/b.tmp"));
+        assertFalse(matcher.isIgnored("a/b.bak"));
+        matcher.addRule("**/*.bak");
+        assertTrue(matcher.isIgnored("a/b.tmp"));
+        assertTrue(matcher.isIgnored("a/b.bak"));
+    }
+
+    // Compare the matcher against a naive evaluation of every rule, in order
+    @Test
+    public void testAgainstReference() throws Exception {
+        String[] parts = { "a", "b", "ab", "tmp", "x.png", "y.script" };
+        String[] ruleParts = { "a", "b", "*", "**", "tmp", "*.png", "a?", "**/" };
+        Random random = new Random(1234);
+
+        for (int iteration = 0; iteration < 200; ++iteration) {
+            List<String> rules = new ArrayList<>();
+            int ruleCount = 1 + random.nextInt(8);
+            for (int r = 0; r < ruleCount; ++r) {
+                StringBuilder rule = new StringBuilder();
+                if (random.nextInt(4) == 0) {
+                    rule.append("!");
+                }
+                int length = 1 + random.nextInt(3);
+                for (int i = 0; i < length; ++i) {
+                    String part = ruleParts[random.nextInt(ruleParts.length)];
+                    rule.append(part);
+                    if (i < length - 1 && !part.endsWith("/")) {
+                        rule.append("/");
+                    }
+                }
+                rules.add(rule.toString());
+            }
+            IgnoreMatcher matcher = new IgnoreMatcher(rules);
+
+            for (int p = 0; p < 50; ++p) {
+                StringBuilder path = new StringBuilder();
+                int length = 1 + random.nextInt(4);
+                for (int i = 0; i < length; ++i) {
+                    if (i > 0) {
+                        path.append("/");
+                    }
+                    path.append(parts[random.nextInt(parts.length)]);
+                }
+                String s = path.toString();
+                assertEquals(rules.toString() + " " + s, referenceIgnored(s, rules), matcher.isIgnored(s));
+            }
+        }
+    }
+
+    private static boolean referenceIgnored(String path, List<String> rules) {
+        boolean ignored = false;
+        for (String rule : rules) {
+            boolean negated = rule.startsWith("!");
+            if (negated) {
+                rule = rule.substring(1);
+            }
+            boolean match;
+            if (rule.contains("*") || rule.contains("?")) {
+                // the pattern itself, or any of its sub paths
+                match = patternMatch(path, rule);
+                for (int i = path.indexOf('/'); !match && i != -1; i = path.indexOf('/', i + 1)) {
+                    match = patternMatch(path.substring(0, i), rule);
+                }
+            } else {
+                match = !rule.isEmpty() && path.startsWith(rule);
+            }
+            if (match) {
+                ignored = !negated;
+            }
+        }
+        return ignored;
+    }
+
+    private static boolean patternMatch(String path, String pattern) {
+        // "**/" matches zero or more complete path names
+        if (pattern.startsWith("**/")) {
+            if (patternMatch(path, pattern.substring(3))) {
+                return true;
+            }
+            for (int i = path.indexOf('/'); i != -1; i = path.indexOf('/', i + 1)) {
+                if (patternMatch(path.substring(i + 1), pattern.substring(3))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        int next = pattern.indexOf("**/", 1);
+        if (next != -1) {
+            String head = pattern.substring(0, next);
+            String tail = pattern.substring(next);
+            for (int i = 0; i <= path.length(); ++i) {
+                if (PathUtil.wildcardMatch(path.substring(0, i), head) && patternMatch(path.substring(i), tail)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return PathUtil.wildcardMatch(path, pattern);
+    }
+}
@@ -0,0 +1,72 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.test.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.dynamo.bob.util.IntIntMap;
+
+public class IntIntMapTest {
+
+    @Test
+    public void testPutGet() throws Exception {
+        IntIntMap map = new IntIntMap(0);
+        assertEquals(-1, map.get(0, -1));
+        map.put(0, 10);
+        map.put(-1, 11);
+        map.put(Integer.MIN_VALUE, 12);
+        map.put(5, 13);
+        map.put(5, 14);
+        assertEquals(4, map.size());
+        assertEquals(10, map.get(0, -1));
+        assertEquals(11, map.get(-1, -1));
+        assertEquals(12, map.get(Integer.MIN_VALUE, -1));
+        assertEquals(14, map.get(5, -1));
+        assertEquals(-1, map.get(6, -1));
+
+        map.clear();
+        assertEquals(0, map.size());
+        assertEquals(-1, map.get(0, -1));
+        assertEquals(-1, map.get(5, -1));
+    }
+
+    // The same entries as a HashMap, while growing
+    @Test
+    public void testRandom() throws Exception {
+        Random random = new Random(50);
+        IntIntMap map = new IntIntMap(16);
+        Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+        for (int i = 0; i < 100000; ++i) {
+            int key = random.nextBoolean() ? random.nextInt(1000) : random.nextInt();
+            int value = random.nextInt();
+            map.put(key, value);
+            expected.put(key, value);
+        }
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+            assertEquals((int) entry.getValue(), map.get(entry.getKey(), 0));
+        }
+        for (int i = 0; i < 100000; ++i) {
+            int key = random.nextInt();
+            assertEquals((int) expected.getOrDefault(key, 7), map.get(key, 7));
+        }
+    }
+}
@@ -0,0 +1,176 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.textureset.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.dynamo.bob.textureset.TextureSetCompositor;
+import com.dynamo.bob.textureset.TextureSetGenerator;
+import com.dynamo.bob.textureset.TextureSetLayout.Layout;
+import com.dynamo.bob.textureset.TextureSetLayout.Rect;
+import com.dynamo.bob.util.CpuBudget;
+
+public class TextureSetCompositorTest {
+
+    private static final int[] IMAGE_TYPES = { BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR,
+        BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_USHORT_GRAY, BufferedImage.TYPE_INT_ARGB_PRE,
+        BufferedImage.TYPE_BYTE_INDEXED };
+
+    // Random pixels, with a good share of fully transparent and opaque ones
+    private static BufferedImage newImage(Random random, int type, int width, int height) {
+        BufferedImage image;
+        if (type == BufferedImage.TYPE_BYTE_INDEXED) {
+            byte[][] palette = new byte[4][16];
+            for (byte[] channel : palette) {
+                random.nextBytes(channel);
+            }
+            palette[3][0] = 0;
+            image = new BufferedImage(width, height, type, new IndexColorModel(4, 16, palette[0], palette[1], palette[2], palette[3]));
+        } else {
+            image = new BufferedImage(width, height, type);
+        }
+        WritableRaster raster = image.getRaster();
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                for (int b = 0; b < raster.getNumBands(); ++b) {
+                    int value = random.nextInt(1 << image.getSampleModel().getSampleSize(b));
+                    if (b == 3 && random.nextInt(4) == 0) {
+                        value = random.nextBoolean() ? 0 : 255;
+                    }
+                    raster.setSample(x, y, b, value);
+                }
+            }
+        }
+        return image;
+    }
+
+    private static byte[] getPixels(BufferedImage image) {
+        return ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    }
+
+    @Test
+    public void testArgb() throws Exception {
+        Random random = new Random(3);
+        for (int type : IMAGE_TYPES) {
+            BufferedImage image = newImage(random, type, 13, 7);
+            BufferedImage expected = new BufferedImage(13, 7, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = expected.createGraphics();
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+            assertArrayEquals(expected.getRGB(0, 0, 13, 7, null, 0, 13), TextureSetCompositor.getArgb(image));
+        }
+    }
+
+    @Test
+    public void testComposite() throws Exception {
+        int[] src = { 0xff000001, 0xff000002, 0xff000003,
+                      0xff000004, 0xff000005, 0xff000006 };
+
+        // 1 pixel padding, in the 4 byte ABGR format
+        byte[] dst = new byte[5 * 4 * 4];
+        TextureSetCompositor.composite(src, 3, 2, 1, 0, false, dst, 5, 0, 0);
+        assertEquals(0, dst[0]);
+        assertEquals((byte) 0xff, dst[(1 * 5 + 1) * 4]);
+        assertEquals(1, dst[(1 * 5 + 1) * 4 + 1]);
+        assertEquals(6, dst[(2 * 5 + 3) * 4 + 1]);
+        assertEquals(0, dst[(3 * 5 + 4) * 4]);
+
+        // Extruded 1 pixel
+        dst = new byte[5 * 4 * 4];
+        TextureSetCompositor.composite(src, 3, 2, 0, 1, false, dst, 5, 0, 0);
+        assertEquals(1, dst[1]);
+        assertEquals(2, dst[(0 * 5 + 2) * 4 + 1]);
+        assertEquals(6, dst[(3 * 5 + 4) * 4 + 1]);
+
+        // Rotated clockwise, into a 2x3 rect at (1, 1)
+        dst = new byte[4 * 5 * 4];
+        TextureSetCompositor.composite(src, 3, 2, 0, 0, true, dst, 4, 1, 1);
+        int[] expected = { 4, 1,
+                           5, 2,
+                           6, 3 };
+        for (int y = 0; y < 3; ++y) {
+            for (int x = 0; x < 2; ++x) {
+                int o = ((1 + y) * 4 + 1 + x) * 4;
+                assertEquals((byte) 0xff, dst[o]);
+                assertEquals(expected[y * 2 + x], dst[o + 1]);
+            }
+        }
+    }
+
+    // The pages are identical to drawing the images with Graphics2D
+    @Test
+    public void testGoldenPages() throws Exception {
+        int threads = CpuBudget.getThreads();
+        CpuBudget.setThreads(4);
+        try {
+            Random random = new Random(11);
+            for (int padding = 0; padding < 3; ++padding) {
+                for (int extrude = 0; extrude < 3; ++extrude) {
+                    List<BufferedImage> images = new ArrayList<BufferedImage>();
+                    Map<String, BufferedImage> imagesById = new HashMap<String, BufferedImage>();
+                    List<Rect> rects = new ArrayList<Rect>();
+                    int border = padding + extrude;
+                    int x = 0;
+                    int height = 0;
+                    for (int i = 0; i < 16; ++i) {
+                        BufferedImage image = newImage(random, IMAGE_TYPES[i % IMAGE_TYPES.length], 1 + random.nextInt(24), 1 + random.nextInt(24));
+                        boolean rotated = random.nextBoolean();
+                        int w = (rotated ? image.getHeight() : image.getWidth()) + border * 2;
+                        int h = (rotated ? image.getWidth() : image.getHeight()) + border * 2;
+                        Rect rect = new Rect(Integer.toString(i), i, x, random.nextInt(4), w, h);
+                        rect.rotated = rotated;
+                        rects.add(rect);
+                        images.add(image);
+                        imagesById.put(rect.id, image);
+                        x += w + random.nextInt(3);
+                        height = Math.max(height, rect.y + h);
+                    }
+                    Layout layout = new Layout(x, height, rects);
+
+                    BufferedImage expected = TextureSetGenerator.layoutImages(layout, padding, extrude, imagesById);
+                    BufferedImage page = TextureSetCompositor.compositePage(layout, images, padding, extrude, null);
+                    assertEquals(BufferedImage.TYPE_4BYTE_ABGR, page.getType());
+                    assertArrayEquals(getPixels(expected), getPixels(page));
+
+                    for (Rect rect : rects) {
+                        BufferedImage image = images.get(rect.index);
+                        byte[] pixels = TextureSetCompositor.createPagePixels(image, padding, extrude, rect.rotated);
+                        byte[] rectPixels = new byte[pixels.length];
+                        for (int y = 0; y < rect.height; ++y) {
+                            System.arraycopy(getPixels(expected), ((rect.y + y) * layout.getWidth() + rect.x) * 4, rectPixels, y * rect.width * 4, rect.width * 4);
+                        }
+                        assertArrayEquals(rectPixels, pixels);
+                    }
+                }
+            }
+        } finally {
+            CpuBudget.setThreads(threads);
+        }
+    }
+}
@@ -21,17 +21,22 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Test;
 
+import com.dynamo.bob.cache.BuildCache;
 import com.dynamo.bob.textureset.TextureSetGenerator;
 import com.dynamo.bob.textureset.TextureSetGenerator.AnimDesc;
 import com.dynamo.bob.textureset.TextureSetGenerator.AnimIterator;
 import com.dynamo.bob.textureset.TextureSetGenerator.TextureSetResult;
 import com.dynamo.bob.textureset.TextureSetGenerator.UVTransform;
+import com.dynamo.bob.textureset.TextureSetImageCache;
 import com.dynamo.gamesys.proto.TextureSetProto.TextureSet;
 import com.dynamo.gamesys.proto.TextureSetProto.TextureSetAnimation;
 import com.dynamo.gamesys.proto.Tile.Playback;
@@ -262,6 +267,50 @@ public class TextureSetGeneratorTest {
         assertUVTransform(0.5f, 1.0f, 0.5f, -0.5f, getUvTransforms(result.uvTransforms, textureSet, "anim1", 2));
     }
 
+    @Test
+    public void testImageCache() throws Exception {
+        Random random = new Random(7);
+        List<BufferedImage> images = new ArrayList<BufferedImage>();
+        List<String> ids = new ArrayList<String>();
+        List<String> keys = new ArrayList<String>();
+        List<Integer> hullSizes = new ArrayList<Integer>();
+        for (int i = 0; i < 8; ++i) {
+            BufferedImage image = newImage(8 + random.nextInt(24), 8 + random.nextInt(24));
+            for (int y = 2; y < image.getHeight() - 2; ++y) {
+                for (int x = 2; x < image.getWidth() - 2; ++x) {
+                    image.setRGB(x, y, random.nextInt());
+                }
+            }
+            images.add(image);
+            ids.add(Integer.toString(i));
+            keys.add("image" + i);
+            hullSizes.add(i % 2 == 0 ? 8 : 0);
+        }
+        MappedAnimIterator iterator = new MappedAnimIterator(new ArrayList<MappedAnimDesc>(), ids);
+
+        TextureSetResult expected = TextureSetGenerator.generate(images, hullSizes, ids, iterator, 2, 1, 2, true, false, null, 0, 0);
+
+        BuildCache buildCache = new BuildCache(Files.createTempDirectory(null).toFile());
+        for (int i = 0; i < 2; ++i) {
+            TextureSetImageCache imageCache = new TextureSetImageCache(buildCache, keys);
+            TextureSetResult result = TextureSetGenerator.generate(images, hullSizes, ids, iterator, 2, 1, 2, true, false, null, 0, 0, imageCache);
+
+            // the first build processes every image, the second finds both the hull and pixels of each image in the cache
+            assertEquals(i == 0 ? 0 : images.size() * 2, imageCache.getHitCount());
+            assertEquals(i == 0 ? images.size() * 2 : 0, imageCache.getMissCount());
+
+            assertEquals(expected.builder.setTexture("").build(), result.builder.setTexture("").build());
+            assertEquals(expected.images.size(), result.images.size());
+            for (int page = 0; page < expected.images.size(); ++page) {
+                assertTrue(Arrays.equals(getPixels(expected.images.get(page)), getPixels(result.images.get(page))));
+            }
+        }
+    }
+
+    private static byte[] getPixels(BufferedImage image) {
+        return ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    }
+
     private static int getPageIndex(TextureSet textureSet, String id, int frame) {
         return textureSet.getPageIndices(getAnim(textureSet, id).getStart() + frame);
     }
@@ -24,9 +24,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Test;
 
+import com.dynamo.bob.textureset.MaxRectsLayoutStrategy;
 import com.dynamo.bob.textureset.TextureSetLayout;
 import com.dynamo.bob.textureset.TextureSetLayout.Layout;
 import com.dynamo.bob.textureset.TextureSetLayout.Rect;
@@ -329,4 +331,76 @@ public class TextureSetLayoutTest {
         assertEquals(layout.getWidth(), 2048);
         assertEquals(layout.getHeight(), 1024);
     }
+
+    @Test
+    public void testManyRects() {
+        Random random = new Random(1234);
+        List<Rect> rectangles = new ArrayList<Rect>();
+        for (int i = 0; i < 1000; ++i) {
+            rectangles.add(rect(Integer.toString(i), i, 4 + random.nextInt(60), 4 + random.nextInt(60)));
+        }
+        Layout layout = packedLayout(2, rectangles).get(0);
+        List<Rect> outputRectangles = layout.getRectangles();
+        assertEquals(1000, outputRectangles.size());
+
+        HashSet<String> ids = new HashSet<String>();
+        for (int i = 0; i < outputRectangles.size(); ++i) {
+            Rect r = outputRectangles.get(i);
+            ids.add(r.id);
+            assertTrue(r.x >= 0 && r.x + r.width <= layout.getWidth());
+            assertTrue(r.y >= 0 && r.y + r.height <= layout.getHeight());
+            for (int j = i + 1; j < outputRectangles.size(); ++j) {
+                assertFalse(isOverlapping(r, outputRectangles.get(j)));
+            }
+        }
+        assertEquals(1000, ids.size());
+    }
+
+    private static List<Layout> maxRectsLayout(List<Rect> rectangles, boolean square, int maxPageSize, int threads) {
+        MaxRectsLayoutStrategy.Settings settings = new MaxRectsLayoutStrategy.Settings();
+        settings.maxPageWidth = maxPageSize;
+        settings.maxPageHeight = maxPageSize;
+        settings.minPageWidth = 16;
+        settings.minPageHeight = 16;
+        settings.paddingX = 1;
+        settings.paddingY = 1;
+        settings.rotation = true;
+        settings.square = square;
+        settings.threads = threads;
+        return new MaxRectsLayoutStrategy(settings).createLayout(rectangles);
+    }
+
+    // Packing concurrently must give exactly the same layouts as packing on one thread
+    @Test
+    public void testThreadedLayout() {
+        Random random = new Random(1234);
+        for (int iteration = 0; iteration < 20; ++iteration) {
+            List<Rect> rectangles = new ArrayList<Rect>();
+            int count = 1 + random.nextInt(100);
+            for (int i = 0; i < count; ++i) {
+                rectangles.add(rect(Integer.toString(i), i, 1 + random.nextInt(100), 1 + random.nextInt(100)));
+            }
+            boolean square = random.nextInt(4) == 0;
+            int maxPageSize = random.nextBoolean() ? 256 : 2048;
+
+            List<Layout> expected = maxRectsLayout(rectangles, square, maxPageSize, 1);
+            List<Layout> actual = maxRectsLayout(rectangles, square, maxPageSize, 4);
+            assertEquals(expected.size(), actual.size());
+            for (int l = 0; l < expected.size(); ++l) {
+                assertEquals(expected.get(l).getWidth(), actual.get(l).getWidth());
+                assertEquals(expected.get(l).getHeight(), actual.get(l).getHeight());
+                List<Rect> expectedRects = expected.get(l).getRectangles();
+                List<Rect> actualRects = actual.get(l).getRectangles();
+                assertEquals(expectedRects.size(), actualRects.size());
+                for (int i = 0; i < expectedRects.size(); ++i) {
+                    Rect e = expectedRects.get(i);
+                    Rect a = actualRects.get(i);
+                    assertEquals(e.id, a.id);
+                    assertEquals(e.x, a.x);
+                    assertEquals(e.y, a.y);
+                    assertEquals(e.rotated, a.rotated);
+                }
+            }
+        }
+    }
 }
@@ -14,6 +14,7 @@
 
 package com.dynamo.bob.tile.test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertThat;
@@ -27,6 +28,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Random;
 
 import javax.imageio.ImageIO;
 
@@ -35,6 +37,9 @@ import org.junit.Test;
 
 import com.dynamo.bob.tile.ConvexHull2D;
 import com.dynamo.bob.tile.ConvexHull2D.Point;
+import com.dynamo.bob.tile.TileSetUtil;
+import com.dynamo.bob.tile.TileSetUtil.ConvexHulls;
+import com.dynamo.bob.util.CpuBudget;
 
 public class ConvexHull2DTest {
 
@@ -288,4 +293,91 @@ public class ConvexHull2DTest {
         assertThat(points, hasItem(new Point(243, 303)));
     }
 
+    private static int[] dilate(int[] mask, int width, int height, int kernelHalfSize) {
+        int[] dilated = new int[width * height];
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                for (int yy = Math.max(0, y - kernelHalfSize); yy <= Math.min(height - 1, y + kernelHalfSize); ++yy) {
+                    for (int xx = Math.max(0, x - kernelHalfSize); xx <= Math.min(width - 1, x + kernelHalfSize); ++xx) {
+                        dilated[y * width + x] |= mask[yy * width + xx] != 0 ? 1 : 0;
+                    }
+                }
+            }
+        }
+        return dilated;
+    }
+
+    @Test
+    public void testRowExtents() throws Exception {
+        BufferedImage image = ImageIO.read(new FileInputStream("test/test_image_7389.png"));
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] mask = getImageAlpha(image);
+
+        ConvexHull2D.RowExtents extents = ConvexHull2D.RowExtents.fromRaster(image.getAlphaRaster(), 0, 0, width, height);
+        assertTrue(!extents.isEmpty());
+        assertEquals(Arrays.asList(ConvexHull2D.imageConvexHullCorners(mask, width, height, 8)),
+                     Arrays.asList(ConvexHull2D.imageConvexHullCorners(extents, 8)));
+        assertEquals(Arrays.asList(ConvexHull2D.imageConvexHull(mask, width, height, 16)),
+                     Arrays.asList(ConvexHull2D.imageConvexHull(extents, 16)));
+
+        // Dilating the extents must give the same hull as dilating the mask
+        int[] dilated = dilate(mask, width, height, 2);
+        assertEquals(Arrays.asList(ConvexHull2D.imageConvexHullCorners(dilated, width, height, 8)),
+                     Arrays.asList(ConvexHull2D.imageConvexHullCorners(extents.dilate(5), 8)));
+
+        assertTrue(ConvexHull2D.RowExtents.fromMask(new int[width * height], width, height).isEmpty());
+    }
+
+    // The collision hulls of the tiles are built concurrently, with the same output as one at a time
+    @Test
+    public void testTileHulls() throws Exception {
+        int tileWidth = 16;
+        int tileHeight = 12;
+        int margin = 1;
+        int spacing = 2;
+        int width = 8 * (tileWidth + 2 * margin + spacing);
+        int height = 5 * (tileHeight + 2 * margin + spacing);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
+        Random random = new Random(5);
+        for (int i = 0; i < 200; ++i) {
+            int x0 = random.nextInt(width);
+            int y0 = random.nextInt(height);
+            for (int y = y0; y < Math.min(height, y0 + random.nextInt(8)); ++y) {
+                for (int x = x0; x < Math.min(width, x0 + random.nextInt(8)); ++x) {
+                    image.setRGB(x, y, 0xff000000);
+                }
+            }
+        }
+
+        int threads = CpuBudget.getThreads();
+        try {
+            CpuBudget.setThreads(1);
+            ConvexHulls expected = TileSetUtil.calculateConvexHulls(image.getAlphaRaster(), 16, width, height, tileWidth, tileHeight, margin, spacing);
+            CpuBudget.setThreads(4);
+            ConvexHulls hulls = TileSetUtil.calculateConvexHulls(image.getAlphaRaster(), 16, width, height, tileWidth, tileHeight, margin, spacing);
+
+            assertEquals(40, hulls.hulls.length);
+            assertArrayEquals(expected.points, hulls.points, 0.0f);
+            for (int i = 0; i < hulls.hulls.length; ++i) {
+                assertEquals(expected.hulls[i].getIndex(), hulls.hulls[i].getIndex());
+                assertEquals(expected.hulls[i].getCount(), hulls.hulls[i].getCount());
+            }
+
+            // Each hull is the hull of its own tile
+            int tile = 13;
+            int x = margin + (tile % 8) * (2 * margin + spacing + tileWidth);
+            int y = margin + (tile / 8) * (2 * margin + spacing + tileHeight);
+            Point[] points = ConvexHull2D.imageConvexHull(ConvexHull2D.RowExtents.fromRaster(image.getAlphaRaster(), x, y, tileWidth, tileHeight), 16);
+            if (TileSetUtil.isHullValid(points, tileWidth, tileHeight)) {
+                assertEquals(points.length, hulls.hulls[tile].getCount());
+                for (int i = 0; i < points.length; ++i) {
+                    assertEquals(points[i].getX(), hulls.points[(hulls.hulls[tile].getIndex() + i) * 2], 0.0f);
+                    assertEquals(points[i].getY(), hulls.points[(hulls.hulls[tile].getIndex() + i) * 2 + 1], 0.0f);
+                }
+            }
+        } finally {
+            CpuBudget.setThreads(threads);
+        }
+    }
 }
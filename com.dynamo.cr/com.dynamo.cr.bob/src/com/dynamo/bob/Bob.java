@@ -108,7 +108,7 @@ public class Bob {
         }));
       }
 
-    private static void init() {
+    private static synchronized void init() {
         if (rootFolder != null) {
             return;
         }
@@ -480,6 +480,7 @@ public class Bob {
         addOption(options, "ea", "exclude-archive", false, "Exclude resource archives from application bundle. Use this to create an empty Defold application for use as a build target", false);
         addOption(options, "e", "email", true, "User email", false);
         addOption(options, "u", "auth", true, "User auth token", false);
+        addOption(options, null, "max-concurrent-downloads", true, "Maximum number of libraries to download concurrently. Default is 8", false);
 
         addOption(options, "p", "platform", true, "Platform (when building and bundling)", true);
         addOption(options, "bo", "bundle-output", true, "Bundle output directory", false);
@@ -536,6 +537,15 @@ public class Bob {
         addOption(options, null, "resource-cache-remote-user", true, "Username to authenticate access to the remote resource cache.", false);
         addOption(options, null, "resource-cache-remote-pass", true, "Password/token to authenticate access to the remote resource cache.", false);
 
+        addOption(options, null, "lua-module-report", true, "Filepath where to save the list of Lua modules left out of the archive, since no script requires them", false);
+
+        addOption(options, null, "build-cache", true, "Use the persistent cache of intermediate build results, such as parsed Lua scripts. Default is true", false);
+        addOption(options, null, "build-cache-dir", true, "Directory of the persistent cache of intermediate build results. Default is \"<output>/_cache\"", false);
+        addOption(options, null, "texture-cache-size", true, "Max size in megabytes of the encoded textures kept in the build cache. Default is 1024", false);
+        addOption(options, null, "max-cpu-threads", true, "Max number of threads the build keeps busy, shared by texture encoding, shader variants, atlas packing, image decoding and external tools. Default is the number of CPU cores", false);
+        addOption(options, null, "shader-threads", true, "Max number of threads used to build the language variants of a shader, within --max-cpu-threads. Default is --max-cpu-threads", false);
+        addOption(options, null, "exec-limits", true, "Comma separated list of limits for external tools, as tool=max_concurrent[:timeout_seconds]. E.g. glslc=4:60", false);
+
         addOption(options, null, "manifest-private-key", true, "Private key to use when signing manifest and archive.", false);
         addOption(options, null, "manifest-public-key", true, "Public key to use when signing manifest and archive.", false);
 
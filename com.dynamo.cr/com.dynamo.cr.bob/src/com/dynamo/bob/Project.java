@@ -28,6 +28,7 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.net.ConnectException;
 import java.net.HttpURLConnection;
 import java.net.URISyntaxException;
@@ -46,6 +47,12 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
@@ -74,19 +81,27 @@ import com.dynamo.bob.archive.publisher.ZipPublisher;
 import com.dynamo.bob.bundle.BundleHelper;
 import com.dynamo.bob.bundle.IBundler;
 import com.dynamo.bob.bundle.BundlerParams;
+import com.dynamo.bob.font.Fontc;
 import com.dynamo.bob.fs.ClassLoaderMountPoint;
 import com.dynamo.bob.fs.FileSystemWalker;
 import com.dynamo.bob.fs.IFileSystem;
 import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.fs.ZipMountPoint;
+import com.dynamo.bob.pipeline.DecodedImageCache;
 import com.dynamo.bob.pipeline.ExtenderUtil;
+import com.dynamo.bob.pipeline.ShaderPreprocessor;
+import com.dynamo.bob.pipeline.TextureGenerator;
 import com.dynamo.bob.util.BobProjectProperties;
+import com.dynamo.bob.util.CpuBudget;
+import com.dynamo.bob.util.Exec;
 import com.dynamo.bob.util.LibraryUtil;
 import com.dynamo.bob.util.ReportGenerator;
 import com.dynamo.bob.util.HttpUtil;
+import com.dynamo.bob.util.IgnoreMatcher;
 import com.dynamo.bob.util.TimeProfiler;
 import com.dynamo.graphics.proto.Graphics.TextureProfiles;
 
+import com.dynamo.bob.cache.BuildCache;
 import com.dynamo.bob.cache.ResourceCache;
 import com.dynamo.bob.cache.ResourceCacheKey;
 
@@ -109,6 +124,9 @@ public class Project {
     }
 
     private ResourceCache resourceCache = new ResourceCache();
+    private Map<String, BuildCache> buildCaches = new HashMap<String, BuildCache>();
+    private ShaderPreprocessor.IncludeCache shaderIncludeCache = new ShaderPreprocessor.IncludeCache();
+    private DecodedImageCache decodedImageCache = new DecodedImageCache(Runtime.getRuntime().maxMemory() / 4);
     private IFileSystem fileSystem;
     private Map<String, Class<? extends Builder<?>>> extToBuilder = new HashMap<String, Class<? extends Builder<?>>>();
     private Map<String, String> inextToOutext = new HashMap<>();
@@ -131,6 +149,8 @@ public class Project {
     private TextureProfiles textureProfiles;
     private List<Class<? extends IBundler>> bundlerClasses = new ArrayList<>();
     private ClassLoader classLoader = null;
+    private IgnoreMatcher excludeMatcher = null;
+    private List<String> excludeMatcherRules = null;
 
     public Project(IFileSystem fileSystem) {
         this.fileSystem = fileSystem;
@@ -187,6 +207,58 @@ public class Project {
         return FilenameUtils.concat(this.rootDirectory, CACHE_DIR);
     }
 
+    /**
+     * Get the persistent cache of intermediate build results of a certain kind
+     * @param name The name of the cache, e.g. "luascanner"
+     * @return The cache. The cache is disabled if the "build-cache" option is "false"
+     */
+    public BuildCache getBuildCache(String name) {
+        return getBuildCache(name, 0);
+    }
+
+    /**
+     * Get the persistent cache of intermediate build results of a certain kind, with a bound on its size.
+     * The least recently used entries are removed when the cache is first used by the project, and
+     * again whenever the entries grow past the bound (see BuildCache.prune()).
+     * @param name The name of the cache, e.g. "fontglyph"
+     * @param maxSize The max size of the cache entries in bytes, or 0 for no bound
+     * @return The cache. The cache is disabled if the "build-cache" option is "false"
+     * @throws IllegalArgumentException if the cache is already used with a different bound
+     */
+    public synchronized BuildCache getBuildCache(String name, long maxSize) {
+        BuildCache cache = buildCaches.get(name);
+        if (cache != null && cache.getMaxSize() != maxSize) {
+            throw new IllegalArgumentException(String.format("Build cache '%s' is used with a max size of %d bytes, not %d bytes", name, cache.getMaxSize(), maxSize));
+        }
+        if (cache == null) {
+            File dir = null;
+            if (!option("build-cache", "true").equals("false")) {
+                String defaultDir = FilenameUtils.concat(FilenameUtils.concat(rootDirectory, buildDirectory), "_cache");
+                dir = new File(option("build-cache-dir", defaultDir), name);
+            }
+            cache = new BuildCache(dir, maxSize);
+            cache.prune();
+            buildCaches.put(name, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Get the parsed shader files shared by all shaders in the project
+     * @return The cache
+     */
+    public ShaderPreprocessor.IncludeCache getShaderIncludeCache() {
+        return shaderIncludeCache;
+    }
+
+    /**
+     * Get the images decoded by the builders, shared between all builders of the project
+     * @return The cache
+     */
+    public DecodedImageCache getDecodedImageCache() {
+        return decodedImageCache;
+    }
+
     public String getLocalResourceCacheDirectory() {
         return option("resource-cache-local", null);
     }
@@ -443,6 +515,14 @@ public class Project {
         }
     }
 
+    /**
+     * Remove a task, so that it isn't built
+     * @param task The task to remove
+     */
+    public void removeTask(Task<?> task) {
+        tasks.values().remove(task);
+    }
+
     private List<String> sortInputs() {
         ArrayList<String> sortedInputs = new ArrayList<String>(inputs);
         Collections.sort(sortedInputs, new Comparator<String>() {
@@ -477,32 +557,33 @@ public class Project {
         return Collections.emptyList();
     }
 
+    /**
+     * Get the matcher for the paths excluded from the build, as specified by the
+     * "exclude-build-folder" option and the .defignore file.
+     * @return the exclude matcher
+     */
+    public IgnoreMatcher getExcludeMatcher() throws CompileExceptionError {
+        String excludeFoldersStr = this.option("exclude-build-folder", "");
+        List<String> rules = BundleHelper.createArrayFromString(excludeFoldersStr);
+        rules.addAll(loadDefoldIgnore());
+        if (excludeMatcher == null || !rules.equals(excludeMatcherRules)) {
+            excludeMatcher = new IgnoreMatcher(rules);
+            excludeMatcherRules = rules;
+        }
+        return excludeMatcher;
+    }
+
     private void createTasks() throws CompileExceptionError {
         tasks = new HashMap<String, Task<?>>();
         List<String> sortedInputs = sortInputs(); // from findSources
 
         // To currently know the output resources, we need to parse the main.collectionc
         // We would need to alter that to get a correct behavior (e.g. using GameProjectBuilder.findResources(this, rootNode))
-        String excludeFoldersStr = this.option("exclude-build-folder", "");
-        List<String> excludeFolders = BundleHelper.createArrayFromString(excludeFoldersStr);
-        excludeFolders.addAll(loadDefoldIgnore());
-
-        // remove initial "/" from excluded folder names
-        for(int i = 0; i < excludeFolders.size(); i++) {
-            String excludeFolder = excludeFolders.get(i);
-            if (excludeFolder.startsWith("/")) {
-                excludeFolders.set(i, excludeFolder.substring(1));
-            }
-        }
+        IgnoreMatcher excludeMatcher = getExcludeMatcher();
+
         // create tasks for inputs that are not excluded
         for (String input : sortedInputs) {
-            boolean skipped = false;
-            for (String excludeFolder : excludeFolders) {
-                if (input.startsWith(excludeFolder)) {
-                    skipped = true;
-                    break;
-                }
-            }
+            boolean skipped = excludeMatcher.isIgnored(input);
             if (!skipped) {
                 Class<? extends Builder<?>> builderClass = getBuilderFromExtension(input);
                 if (!ignoreTaskAutoCreation.contains(builderClass)) {
@@ -1128,6 +1209,18 @@ public class Project {
         IResource stateResource = fileSystem.get(FilenameUtils.concat(buildDirectory, "state"));
         state = State.load(stateResource);
 
+        String maxCpuThreads = option("max-cpu-threads", String.valueOf(Runtime.getRuntime().availableProcessors()));
+        try {
+            CpuBudget.setThreads(Math.max(1, Integer.parseInt(maxCpuThreads.trim())));
+        } catch (NumberFormatException e) {
+            throw new CompileExceptionError(String.format("Invalid value of option 'max-cpu-threads': '%s', expected a number of threads", maxCpuThreads));
+        }
+        try {
+            Exec.setToolLimits(option("exec-limits", null));
+        } catch (IllegalArgumentException e) {
+            throw new CompileExceptionError(String.format("Invalid value of option 'exec-limits': %s", e.getMessage()));
+        }
+
         List<TaskResult> result = new ArrayList<TaskResult>();
 
         BundleHelper.throwIfCanceled(monitor);
@@ -1241,9 +1334,50 @@ public class Project {
                     TimeProfiler.start("Build tasks");
                     TimeProfiler.addData("TasksCount", tasks.size());
 
+                    Exec.resetToolStats();
+                    CpuBudget.resetStageStats();
+                    TextureGenerator.resetEncodeCacheStats();
+                    Fontc.resetGlyphCacheStats();
                     result = runTasks(m);
                     m.done();
 
+                    for (Map.Entry<String, Exec.ToolStats> entry : Exec.getToolStats().entrySet()) {
+                        Exec.ToolStats stats = entry.getValue();
+                        TimeProfiler.addData(String.format("exec %s count", entry.getKey()), stats.count);
+                        TimeProfiler.addData(String.format("exec %s ms", entry.getKey()), (int) stats.totalMillis);
+                        Bob.verbose("Exec %s: %d runs, %d ms total, %d ms max, %d timeouts", entry.getKey(), stats.count, stats.totalMillis, stats.maxMillis, stats.timeouts);
+                    }
+                    for (Map.Entry<String, CpuBudget.StageStats> entry : CpuBudget.getStageStats().entrySet()) {
+                        CpuBudget.StageStats stats = entry.getValue();
+                        TimeProfiler.addData(String.format("cpu %s ms", entry.getKey()), (int) stats.wallMillis);
+                        TimeProfiler.addData(String.format("cpu %s granted ms", entry.getKey()), (int) stats.grantedMillis);
+                        if (stats.measuredMillis == 0) {
+                            // Stages doing work that can't be timed, such as native encoders, only report the threads they were granted
+                            Bob.verbose("CPU %s: %d runs, %d ms total, %d ms granted, %d max threads", entry.getKey(), stats.count, stats.wallMillis, stats.grantedMillis, stats.maxThreads);
+                            continue;
+                        }
+                        // The share of the measured threads granted to the stage that were busy running its work
+                        int utilisation = (int) (100 * stats.busyMillis / stats.measuredMillis);
+                        TimeProfiler.addData(String.format("cpu %s busy ms", entry.getKey()), (int) stats.busyMillis);
+                        TimeProfiler.addData(String.format("cpu %s utilisation", entry.getKey()), utilisation);
+                        Bob.verbose("CPU %s: %d runs, %d ms total, %d ms granted, %d ms busy, %d max threads, %d%% of measured threads busy", entry.getKey(), stats.count, stats.wallMillis, stats.grantedMillis, stats.busyMillis, stats.maxThreads, utilisation);
+                    }
+                    int encodeCacheHits = TextureGenerator.getEncodeCacheHits();
+                    int encodeCacheMisses = TextureGenerator.getEncodeCacheMisses();
+                    if (encodeCacheHits + encodeCacheMisses > 0) {
+                        TimeProfiler.addData("texture encode cache hits", encodeCacheHits);
+                        TimeProfiler.addData("texture encode cache misses", encodeCacheMisses);
+                        Bob.verbose("Texture encode cache: %d hits, %d misses (%d%% hit rate)", encodeCacheHits, encodeCacheMisses,
+                                100 * encodeCacheHits / (encodeCacheHits + encodeCacheMisses));
+                    }
+                    int glyphCacheHits = Fontc.getGlyphCacheHits();
+                    int glyphCacheMisses = Fontc.getGlyphCacheMisses();
+                    if (glyphCacheHits + glyphCacheMisses > 0) {
+                        TimeProfiler.addData("font glyph cache hits", glyphCacheHits);
+                        TimeProfiler.addData("font glyph cache misses", glyphCacheMisses);
+                        Bob.verbose("Font glyph cache: %d hits, %d misses (%d%% hit rate)", glyphCacheHits, glyphCacheMisses,
+                                100 * glyphCacheHits / (glyphCacheHits + glyphCacheMisses));
+                    }
                     TimeProfiler.stop();
 
                     if (anyFailing(result)) {
@@ -1562,11 +1696,190 @@ run:
         this.libUrls = libUrls;
     }
 
+    /**
+     * Create a connection for downloading a library, with the authentication
+     * headers required by the library url or the project options.
+     */
+    private HttpURLConnection openLibraryConnection(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+
+        // Check if URL contains basic auth credentials
+        String basicAuthData = null;
+        try {
+            URI uri = new URI(url.toString());
+            basicAuthData = uri.getUserInfo();
+        } catch (URISyntaxException e1) {
+            // Ignored, could not get URI and basic auth data from URL.
+        }
+
+        // Check if basic auth password is a token that should be replaced with
+        // an environment variable.
+        // The token should start and end with __ and exist as an environment
+        // variable.
+        if (basicAuthData != null) {
+            String[] parts = basicAuthData.split(":");
+            String username = parts[0];
+            String password = parts.length > 1 ? parts[1] : "";
+            if (password.startsWith("__") && password.endsWith("__")) {
+                String envKey = password.substring(2, password.length() - 2);
+                String envValue = System.getenv(envKey);
+                if (envValue != null) {
+                    basicAuthData = username + ":" + envValue;
+                }
+            }
+        }
+
+        // Pass correct headers along to server depending on auth alternative.
+        final String email = this.options.get("email");
+        final String auth = this.options.get("auth");
+        if (basicAuthData != null) {
+            String basicAuth = "Basic " + new String(new Base64().encode(basicAuthData.getBytes()));
+            connection.setRequestProperty("Authorization", basicAuth);
+        } else if (email != null && auth != null) {
+            connection.addRequestProperty("X-Email", email);
+            connection.addRequestProperty("X-Auth", auth);
+        }
+        return connection;
+    }
+
+    /**
+     * Download a single library into the lib dir.
+     * The archive is streamed to a partial file which is moved into place once the
+     * download is complete and verified. An interrupted download is resumed on the
+     * next call if the server still reports the same ETag.
+     * @param i index of the library (used for logging)
+     * @param url library url
+     * @param f previously downloaded archive, or null
+     * @param libPath path to the lib dir
+     * @return the status code of the request
+     */
+    private int downloadLibrary(int i, URL url, File f, String libPath) throws IOException, LibraryException {
+        logInfo("%2d: Downloading %s", i, url);
+        HttpURLConnection connection = openLibraryConnection(url);
+
+        String etag = null;
+        if (f != null) {
+            String etagB64 = LibraryUtil.getETagFromName(LibraryUtil.getHashedUrl(url), f.getName());
+            if (etagB64 != null) {
+                etag = new String(new Base64().decode(etagB64.getBytes())).replace("\"", ""); // actually includes the quotation marks
+                etag = String.format("\"%s\"", etag); // fixing broken etag
+                connection.addRequestProperty("If-None-Match", etag);
+            }
+        }
+
+        // Resume an interrupted download, if the archive hasn't changed on the server since
+        File partial = LibraryUtil.findPartialFile(libPath, url);
+        String partialETag = null;
+        if (partial != null) {
+            partialETag = LibraryUtil.getPartialETag(url, partial.getName());
+            if (partialETag != null && !partialETag.isEmpty() && partial.length() > 0) {
+                connection.addRequestProperty("Range", String.format("bytes=%d-", partial.length()));
+                connection.addRequestProperty("If-Range", partialETag);
+            }
+        }
+
+        InputStream input = null;
+        try {
+            connection.connect();
+            int code = connection.getResponseCode();
+
+            if (code == 304) {
+                logInfo("%2d: Status %d: Already cached", i, code);
+                // Drain the (empty) response so that the connection can be reused
+                IOUtils.closeQuietly(connection.getInputStream());
+                // The cached archive is current, so a download interrupted since is of no use
+                if (partial != null) {
+                    partial.delete();
+                }
+            } else if (code >= 400) {
+                logWarning("%2d: Status %d: Failed to download %s", i, code, url);
+                connection.disconnect();
+                throw new LibraryException(String.format("Status %d: Failed to download %s", code, url), new Exception());
+            } else {
+
+                String serverETag = connection.getHeaderField("ETag");
+                if (serverETag == null) {
+                    serverETag = connection.getHeaderField("Etag");
+                }
+
+                if (serverETag == null) {
+                    logWarning(String.format("The URL %s didn't provide an ETag", url));
+                    serverETag = "";
+                }
+
+                if (etag != null && !etag.equals(serverETag)) {
+                    logInfo("%2d: Status %d: ETag mismatch %s != %s. Deleting old file %s", i, code, etag!=null?etag:"", serverETag!=null?serverETag:"", f);
+                    f.delete();
+                    f = null;
+                }
+
+                boolean resumed = code == 206 && partial != null && serverETag.equals(partialETag);
+                if (code == 206 && !resumed) {
+                    connection.disconnect();
+                    if (partial != null) {
+                        partial.delete();
+                    }
+                    throw new LibraryException(String.format("Unexpected partial content received from %s", url.toString()), new Exception());
+                }
+                if (!resumed) {
+                    if (partial != null) {
+                        partial.delete();
+                    }
+                    partial = new File(libPath, LibraryUtil.getPartialFileName(url, serverETag));
+                }
+
+                // The Content-MD5 of a resumed download only covers the appended bytes
+                long offset = resumed ? partial.length() : 0;
+                input = new BufferedInputStream(connection.getInputStream());
+                try (FileOutputStream output = new FileOutputStream(partial, resumed)) {
+                    IOUtils.copy(input, output);
+                }
+                IOUtils.closeQuietly(input);
+                input = null;
+
+                try {
+                    LibraryUtil.verifyDownload(partial, offset, connection.getHeaderField("Content-MD5"));
+                    ZipFile zip = new ZipFile(partial);
+                    zip.close();
+                } catch (LibraryException | ZipException e) {
+                    partial.delete();
+                    if (resumed) {
+                        // The bytes from before the interruption may be bad, download the whole archive again
+                        logWarning("%2d: The resumed download of %s failed verification, downloading it again", i, url);
+                        return downloadLibrary(i, url, f, libPath);
+                    }
+                    if (e instanceof ZipException) {
+                        throw new LibraryException(String.format("The file obtained from %s is not a valid zip file", url.toString()), e);
+                    }
+                    throw new LibraryException(String.format("The file obtained from %s failed verification: %s", url.toString(), e.getMessage()), e);
+                }
+
+                if (f == null) {
+                    f = new File(libPath, LibraryUtil.getFileName(url, serverETag));
+                }
+                Files.move(partial.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                logInfo("%2d: Status %d: Stored %s%s", i, code, f, resumed ? " (resumed)" : "");
+            }
+            return code;
+        } catch (ConnectException e) {
+            throw new LibraryException(String.format("Connection refused by the server at %s", url.toString()), e);
+        } catch (FileNotFoundException e) {
+            throw new LibraryException(String.format("The URL %s points to a resource which doesn't exist", url.toString()), e);
+        } finally {
+            if(input != null) {
+                IOUtils.closeQuietly(input);
+            }
+        }
+    }
+
     /**
      * Resolve (i.e. download from server) the stored lib URLs.
+     * The libraries are downloaded concurrently, at most "max-concurrent-downloads"
+     * (default 8) at a time.
      * @throws IOException
      */
     public void resolveLibUrls(IProgress progress) throws IOException, LibraryException {
+        ExecutorService executor = null;
         try {
             String libPath = getLibPath();
             File libDir = new File(libPath);
@@ -1579,123 +1892,43 @@ run:
             IProgress subProgress = progress.subProgress(count);
             subProgress.beginTask("Download archive(s)", count);
             logInfo("Downloading %d archive(s)", count);
-            for (int i = 0; i < count; ++i) {
-                TimeProfiler.startF("Lib %2d", i);
-                BundleHelper.throwIfCanceled(progress);
-                URL url = libUrls.get(i);
-                File f = libFiles.get(url.toString());
-
-                logInfo("%2d: Downloading %s", i, url);
-                TimeProfiler.addData("url", url.toString());
-                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-
-                String etag = null;
-                if (f != null) {
-                    String etagB64 = LibraryUtil.getETagFromName(LibraryUtil.getHashedUrl(url), f.getName());
-                    if (etagB64 != null) {
-                        etag = new String(new Base64().decode(etagB64.getBytes())).replace("\"", ""); // actually includes the quotation marks
-                        etag = String.format("\"%s\"", etag); // fixing broken etag
-                        connection.addRequestProperty("If-None-Match", etag);
-                    }
-                }
-
-                // Check if URL contains basic auth credentials
-                String basicAuthData = null;
-                try {
-                    URI uri = new URI(url.toString());
-                    basicAuthData = uri.getUserInfo();
-                } catch (URISyntaxException e1) {
-                    // Ignored, could not get URI and basic auth data from URL.
-                }
+            if (count == 0) {
+                return;
+            }
 
-                // Check if basic auth password is a token that should be replaced with
-                // an environment variable.
-                // The token should start and end with __ and exist as an environment
-                // variable.
-                if (basicAuthData != null) {
-                    String[] parts = basicAuthData.split(":");
-                    String username = parts[0];
-                    String password = parts.length > 1 ? parts[1] : "";
-                    if (password.startsWith("__") && password.endsWith("__")) {
-                        String envKey = password.substring(2, password.length() - 2);
-                        String envValue = System.getenv(envKey);
-                        if (envValue != null) {
-                            basicAuthData = username + ":" + envValue;
-                        }
-                    }
-                }
+            int maxDownloads = Math.max(1, Integer.parseInt(this.option("max-concurrent-downloads", "8")));
+            executor = Executors.newFixedThreadPool(Math.min(count, maxDownloads));
+            CompletionService<Integer> completionService = new ExecutorCompletionService<>(executor);
+            Map<Future<Integer>, Integer> futures = new HashMap<>();
 
-                // Pass correct headers along to server depending on auth alternative.
-                final String email = this.options.get("email");
-                final String auth = this.options.get("auth");
-                if (basicAuthData != null) {
-                    String basicAuth = "Basic " + new String(new Base64().encode(basicAuthData.getBytes()));
-                    connection.setRequestProperty("Authorization", basicAuth);
-                } else if (email != null && auth != null) {
-                    connection.addRequestProperty("X-Email", email);
-                    connection.addRequestProperty("X-Auth", auth);
-                }
+            TimeProfiler.start("Download archive(s)");
+            for (int i = 0; i < count; ++i) {
+                final int index = i;
+                final URL url = libUrls.get(i);
+                final File f = libFiles.get(url.toString());
+                TimeProfiler.addData(String.format("Lib %2d url", i), url.toString());
+                futures.put(completionService.submit(() -> downloadLibrary(index, url, f, libPath)), i);
+            }
 
-                InputStream input = null;
+            for (int n = 0; n < count; ++n) {
+                BundleHelper.throwIfCanceled(progress);
+                Future<Integer> future = completionService.take();
                 try {
-                    connection.connect();
-                    int code = connection.getResponseCode();
-
-                    TimeProfiler.addData("status code", code);
-                    if (code == 304) {
-                        logInfo("%2d: Status %d: Already cached", i, code);
-                    } else if (code >= 400) {
-                        logWarning("%2d: Status %d: Failed to download %s", i, code, url);
-                        throw new LibraryException(String.format("Status %d: Failed to download %s", code, url), new Exception());
-                    } else {
-
-                        String serverETag = connection.getHeaderField("ETag");
-                        if (serverETag == null) {
-                            serverETag = connection.getHeaderField("Etag");
-                        }
-
-                        if (serverETag == null) {
-                            logWarning(String.format("The URL %s didn't provide an ETag", url));
-                            serverETag = "";
-                        }
-
-                        if (etag != null && !etag.equals(serverETag)) {
-                            logInfo("%2d: Status %d: ETag mismatch %s != %s. Deleting old file %s", i, code, etag!=null?etag:"", serverETag!=null?serverETag:"", f);
-                            f.delete();
-                            f = null;
-                        }
-
-                        input = new BufferedInputStream(connection.getInputStream());
-
-                        if (f == null) {
-                            f = new File(libPath, LibraryUtil.getFileName(url, serverETag));
-                        }
-                        FileUtils.copyInputStreamToFile(input, f);
-
-                        try {
-                            ZipFile zip = new ZipFile(f);
-                            zip.close();
-                        } catch (ZipException e) {
-                            f.delete();
-                            throw new LibraryException(String.format("The file obtained from %s is not a valid zip file", url.toString()), e);
-                        }
-                        logInfo("%2d: Status %d: Stored %s", i, code, f);
+                    TimeProfiler.addData(String.format("Lib %2d status code", futures.get(future)), future.get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof LibraryException) {
+                        throw (LibraryException) cause;
                     }
-                    connection.disconnect();
-                } catch (ConnectException e) {
-                    throw new LibraryException(String.format("Connection refused by the server at %s", url.toString()), e);
-                } catch (FileNotFoundException e) {
-                    throw new LibraryException(String.format("The URL %s points to a resource which doesn't exist", url.toString()), e);
+                    throw new LibraryException(cause.getMessage(), cause);
                 } finally {
-                    if(input != null) {
-                        IOUtils.closeQuietly(input);
-                    }
                     subProgress.worked(1);
                 }
-
-                BundleHelper.throwIfCanceled(subProgress);
-                TimeProfiler.stop();
             }
+            BundleHelper.throwIfCanceled(subProgress);
+            TimeProfiler.stop();
         }
         catch(IOException ioe) {
             throw ioe;
@@ -1706,6 +1939,11 @@ run:
         catch(Exception e) {
             throw new LibraryException(e.getMessage(), e);
         }
+        finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
    }
 
     /**
@@ -1750,23 +1988,21 @@ run:
 
     class Walker extends FileSystemWalker {
 
-        private Set<String> skipDirs;
+        private IgnoreMatcher skipMatcher = new IgnoreMatcher();
 
         public Walker(Set<String> skipDirs) {
-            this.skipDirs = skipDirs;
+            if (skipDirs != null) {
+                for (String sd : skipDirs) {
+                    // skip dirs use file name wildcards, where * also matches path separators
+                    skipMatcher.addPattern(FilenameUtils.normalizeNoEndSeparator(sd, true).replace("**", "*").replace("*", "**"), false);
+                }
+            }
         }
 
         @Override
         public void handleFile(String path, Collection<String> results) {
             path = FilenameUtils.normalize(path, true);
-            boolean include = true;
-            if (skipDirs != null) {
-                for (String sd : skipDirs) {
-                    if (FilenameUtils.wildcardMatch(path, sd + "/*")) {
-                        include = false;
-                    }
-                }
-            }
+            boolean include = !skipMatcher.isIgnored(path);
             // ignore all .files, for instance the .project file that is generated by many Eclipse based editors
             if (FilenameUtils.getBaseName(path).isEmpty()) {
                 include = false;
@@ -1780,15 +2016,8 @@ run:
         @Override
         public boolean handleDirectory(String path, Collection<String> results) {
             path = FilenameUtils.normalize(path, true);
-            if (skipDirs != null) {
-                for (String sd : skipDirs) {
-                    if (FilenameUtils.equalsNormalized(sd, path)) {
-                        return false;
-                    }
-                    if (FilenameUtils.wildcardMatch(path, sd + "/*")) {
-                        return false;
-                    }
-                }
+            if (skipMatcher.isIgnored(path)) {
+                return false;
             }
             return super.handleDirectory(path, results);
         }
@@ -55,6 +55,7 @@ import com.dynamo.bob.pipeline.ExtenderUtil;
 import com.dynamo.bob.util.BobProjectProperties;
 import com.dynamo.bob.util.Exec;
 import com.dynamo.bob.util.Exec.Result;
+import com.dynamo.bob.util.IgnoreMatcher;
 import com.dynamo.bob.util.TimeProfiler;
 
 import com.defold.extender.client.ExtenderResource;
@@ -336,7 +337,7 @@ public class AndroidBundler implements IBundler {
 
     private static void copyBundleResources(Project project, File outDir) throws CompileExceptionError {
         List<String> bundleResourcesPaths = trim(Arrays.asList(project.getProjectProperties().getStringValue("project", "bundle_resources", "").split(",")));
-        List<String> bundleExcludeList = trim(Arrays.asList(project.getProjectProperties().getStringValue("project", "bundle_exclude_resources", "").split(",")));
+        IgnoreMatcher bundleExcludeMatcher = ExtenderUtil.getBundleExcludeMatcher(project);
 
         Set<String> set = new HashSet<>();
         set.addAll(Arrays.asList(Platform.Armv7Android.getExtenderPaths()));
@@ -348,7 +349,7 @@ public class AndroidBundler implements IBundler {
                 for (String platformFolder : platformFolders) {
                     String platformPath = FilenameUtils.concat(bundleResourcesPath, platformFolder + "/res/");
                     if (ExtenderUtil.isAndroidAssetDirectory(project, platformPath)) {
-                        Map<String, IResource> projectBundleResources = ExtenderUtil.collectResources(project, platformPath, bundleExcludeList);
+                        Map<String, IResource> projectBundleResources = ExtenderUtil.collectResources(project, platformPath, bundleExcludeMatcher);
                         ExtenderUtil.storeResources(outDir, projectBundleResources);
                     }
                 }
@@ -0,0 +1,236 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.dynamo.bob.Bob;
+
+/**
+ * Persistent, content addressed cache of intermediate build results, such as
+ * parsed Lua scripts or compiled shaders.
+ *
+ * Unlike the ResourceCache, which stores the final output of a task, a build
+ * cache stores data used while creating or building a task and is keyed on
+ * the content of the data it was derived from. The cache is stored in the
+ * build folder and survives a "clean" build.
+ */
+public class BuildCache {
+
+	private File cacheDir;
+
+	private boolean enabled;
+
+	// The max size of the entries in bytes, or 0 if unbounded
+	private long maxSize;
+
+	// The size of the entries measured by the last prune, plus the entries put since, or -1 before the first prune
+	private long size = -1;
+
+	/**
+	 * Create a cache in a directory
+	 * @param cacheDir The directory to store cache entries in, or null to disable the cache
+	 */
+	public BuildCache(File cacheDir) {
+		this(cacheDir, 0);
+	}
+
+	/**
+	 * Create a cache in a directory, with a bound on the size of the entries. The
+	 * bound is applied by prune(), which removes the least recently used entries.
+	 * Once prune() has been called, put() prunes the cache again whenever the
+	 * entries grow past the bound.
+	 * @param cacheDir The directory to store cache entries in, or null to disable the cache
+	 * @param maxSize The max size of the entries in bytes, or 0 for no bound
+	 */
+	public BuildCache(File cacheDir, long maxSize) {
+		this.cacheDir = cacheDir;
+		this.enabled = cacheDir != null;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Calculate a cache key from a number of parts. A part can either be a
+	 * byte array or any object, in which case its string representation is
+	 * used.
+	 * @param parts The parts to create the key from
+	 * @return The key as a hex string
+	 */
+	public static String calculateKey(Object... parts) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		for (Object part : parts) {
+			byte[] bytes = (part instanceof byte[]) ? (byte[])part : String.valueOf(part).getBytes(StandardCharsets.UTF_8);
+			// include the length to keep "ab"+"c" and "a"+"bc" apart
+			digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.UTF_8));
+			digest.update((byte)':');
+			digest.update(bytes);
+		}
+		return String.format("%040x", new BigInteger(1, digest.digest()));
+	}
+
+	public boolean isCacheEnabled() {
+		return enabled;
+	}
+
+	public File getCacheDirectory() {
+		return cacheDir;
+	}
+
+	/**
+	 * @return The max size of the entries in bytes, or 0 if unbounded
+	 */
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	private File fileFromKey(String key) {
+		// spread the entries over sub directories to keep the directories small
+		return new File(new File(cacheDir, key.substring(0, 2)), key);
+	}
+
+	/**
+	 * Get data from the cache
+	 * @param key Key associated with the data to get
+	 * @return The data or null if no data exists in the cache
+	 */
+	public byte[] get(String key) {
+		if (!enabled) {
+			return null;
+		}
+		File file = fileFromKey(key);
+		try {
+			byte[] data = Files.readAllBytes(file.toPath());
+			if (maxSize > 0) {
+				// keep recently used entries from being pruned
+				file.setLastModified(System.currentTimeMillis());
+			}
+			return data;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Put data in the cache. Failing to write the data is not an error, the
+	 * data will be recreated on the next build.
+	 * @param key Key to associate data with
+	 * @param data The data to store
+	 */
+	public void put(String key, byte[] data) {
+		if (!enabled) {
+			return;
+		}
+		File file = fileFromKey(key);
+		if (file.exists()) {
+			return;
+		}
+		File tmp = null;
+		try {
+			File dir = file.getParentFile();
+			dir.mkdirs();
+			// write to a temporary file first, so that concurrent builds never see a partial entry
+			tmp = File.createTempFile(key, ".tmp", dir);
+			Files.write(tmp.toPath(), data);
+			try {
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			if (maxSize > 0) {
+				addSize(data.length);
+			}
+		} catch (IOException e) {
+			Bob.verbose("Unable to write '%s' to the build cache: %s", file, e.getMessage());
+		} finally {
+			if (tmp != null) {
+				tmp.delete();
+			}
+		}
+	}
+
+	private synchronized void addSize(long length) {
+		if (size < 0) {
+			return;
+		}
+		size += length;
+		if (size > maxSize) {
+			// prune below the bound, to not list all entries again on the next put
+			prune(maxSize - maxSize / 4);
+		}
+	}
+
+	/**
+	 * Remove the least recently used entries until the entries fit the max size
+	 * of the cache. Entries used by a concurrent build may be removed, which only
+	 * means they are created again.
+	 */
+	public void prune() {
+		prune(maxSize);
+	}
+
+	private synchronized void prune(long targetSize) {
+		if (!enabled || maxSize <= 0) {
+			return;
+		}
+		List<File> entries = new ArrayList<File>();
+		long size = 0;
+		File[] dirs = cacheDir.listFiles(File::isDirectory);
+		for (File dir : dirs != null ? dirs : new File[0]) {
+			// temporary files of concurrent puts are left alone
+			File[] files = dir.listFiles((d, name) -> !name.endsWith(".tmp"));
+			for (File file : files != null ? files : new File[0]) {
+				entries.add(file);
+				size += file.length();
+			}
+		}
+		this.size = size;
+		if (size <= targetSize) {
+			return;
+		}
+
+		Map<File, Long> lastModified = new HashMap<File, Long>();
+		for (File file : entries) {
+			lastModified.put(file, file.lastModified());
+		}
+		entries.sort((a, b) -> Long.compare(lastModified.get(a), lastModified.get(b)));
+		for (File file : entries) {
+			if (size <= targetSize) {
+				break;
+			}
+			long length = file.length();
+			if (file.delete()) {
+				size -= length;
+			}
+		}
+		this.size = size;
+	}
+}
@@ -14,10 +14,33 @@
 
 package com.dynamo.bob.font;
 
+import java.awt.geom.PathIterator;
+import java.util.Arrays;
+
+/**
+ * Computes the distance field of a polygon outline, made of the line segments added with
+ * addLine().
+ *
+ * The distances are rendered in blocks of pixels, split in four until they are small. The
+ * farthest corner of a block bounds the distance from any of its pixels to the nearest segment,
+ * so only the segments whose bounding boxes are within that distance of the block are kept for
+ * its smaller blocks and measured for its pixels. The distances are the same as when measuring
+ * against every segment, or, if a max distance is set, the smaller of the two.
+ *
+ * Whether a point is inside the outline is decided one scanline at a time, from the crossings
+ * of the segments with the scanline, with the same rules as Path2D.contains().
+ */
 public class DistanceFieldGenerator
 {
+    private static final double NO_DISTANCE = 10000000;
+    private static final int BLOCK_SIZE = 8;
+
+    // x0, y0, dx, dy, 1 / length^2 for each segment
     public double[] lineSegments = new double[32768];
     public int lineSegmentsEnd = 0;
+    // x0, y0, x1, y1 for each segment, as they were added
+    private double[] lineEnds = new double[32768 / 5 * 4];
+    private double maxDistance = Double.MAX_VALUE;
 
     public DistanceFieldGenerator()
     {
@@ -26,6 +49,16 @@ public class DistanceFieldGenerator
 
     public void addLine(double x0, double y0, double x1, double y1)
     {
+        if (lineSegmentsEnd + 5 > lineSegments.length)
+        {
+            lineSegments = Arrays.copyOf(lineSegments, lineSegments.length * 2);
+            lineEnds = Arrays.copyOf(lineEnds, lineSegments.length / 5 * 4);
+        }
+        int e = lineSegmentsEnd / 5 * 4;
+        lineEnds[e+0] = x0;
+        lineEnds[e+1] = y0;
+        lineEnds[e+2] = x1;
+        lineEnds[e+3] = y1;
         lineSegments[lineSegmentsEnd+0] = x0;
         lineSegments[lineSegmentsEnd+1] = y0;
         lineSegments[lineSegmentsEnd+2] = x1 - x0;
@@ -34,62 +67,216 @@ public class DistanceFieldGenerator
         lineSegmentsEnd += 5;
     }
 
+    /**
+     * Set the distance beyond which render() doesn't need the exact distance. Farther
+     * points get this distance, which saves measuring the segments far from a block.
+     * @param maxDistance the max distance
+     */
+    public void setMaxDistance(double maxDistance)
+    {
+        this.maxDistance = maxDistance;
+    }
+
+    // The squared distance from [x, y] to the segment at i. NaN for segments of zero length.
+    private double segmentDistSqr(int i, double x, double y)
+    {
+        double x0 = lineSegments[i];
+        double y0 = lineSegments[i+1];
+        double dx = lineSegments[i+2];
+        double dy = lineSegments[i+3];
+        double k = lineSegments[i+4];
+
+        double dx0 = x - x0;
+        double dy0 = y - y0;
+        double t = k * (dx * dx0 + dy * dy0);
+
+        if (t < 0)
+        {
+            // Closest point is t=0 of the line
+            return dx0 * dx0 + dy0 * dy0;
+        }
+        else if (t > 1)
+        {
+            // Closest point is t=1 of the line
+            double xx = x - (x0 + dx);
+            double yy = y - (y0 + dy);
+            return xx*xx + yy*yy;
+        }
+        else
+        {
+            // Case when the closest point is along the line, and t will be [0,1]
+            double px = x0 + t * dx - x;
+            double py = y0 + t * dy - y;
+            return px*px + py*py;
+        }
+    }
+
     // Compute the minimal distance from [x, y] to any of the line segments
     public double distSqr(double x, double y)
     {
-        double distMin = 10000000;
+        double distMin = NO_DISTANCE;
         for (int i=0;i<lineSegmentsEnd;i+=5)
         {
-            double x0 = lineSegments[i];
-            double y0 = lineSegments[i+1];
-            double dx = lineSegments[i+2];
-            double dy = lineSegments[i+3];
-            double k = lineSegments[i+4];
+            double distSqr = segmentDistSqr(i, x, y);
+            if (distSqr < distMin)
+                distMin = distSqr;
+        }
+        return distMin;
+    }
 
-            double dx0 = x - x0;
-            double dy0 = y - y0;
-            double t = k * (dx * dx0 + dy * dy0);
+    // Measures the pixels in [bx0, bx1) x [by0, by1) against the segments that can be nearest to
+    // them, out of the candidates of the enclosing block, splitting it in four while it's large
+    private void renderBlock(double[] output, int width, double[] xs, double[] ys, int bx0, int by0, int bx1, int by1,
+                             int[][] candidates, int parentCount, int depth, double maxDistSqr)
+    {
+        int[] parent = candidates[depth - 1];
+        int[] block = candidates[depth];
+        double minX = Math.min(xs[bx0], xs[bx1-1]);
+        double maxX = Math.max(xs[bx0], xs[bx1-1]);
+        double minY = Math.min(ys[by0], ys[by1-1]);
+        double maxY = Math.max(ys[by0], ys[by1-1]);
 
-            if (t < 0)
-            {
-                // Closest point is t=0 of the line
-                double distSqr = dx0 * dx0 + dy0 * dy0;
-                if (distSqr < distMin)
-                    distMin = distSqr;
-            }
-            else if (t > 1)
-            {
-                // Closest point is t=1 of the line
-                double xx = x - (x0 + dx);
-                double yy = y - (y0 + dy);
-                double distSqr = xx*xx + yy*yy;
-                if (distSqr < distMin)
-                    distMin = distSqr;
-            }
-            else
+        // Every pixel of the block is at most this far from the segment nearest the farthest corner
+        double boundSqr = maxDistSqr;
+        for (int c=0;c<parentCount;c++)
+        {
+            int i = parent[c];
+            double cornerSqr = Math.max(Math.max(segmentDistSqr(i, minX, minY), segmentDistSqr(i, maxX, minY)),
+                                        Math.max(segmentDistSqr(i, minX, maxY), segmentDistSqr(i, maxX, maxY)));
+            if (cornerSqr < boundSqr)
+                boundSqr = cornerSqr;
+        }
+        // A margin for the rounding of the distances
+        boundSqr = boundSqr * (1 + 1e-9) + 1e-9;
+
+        int count = 0;
+        for (int c=0;c<parentCount;c++)
+        {
+            int e = parent[c] / 5 * 4;
+            double gapX = Math.max(0, Math.max(Math.min(lineEnds[e], lineEnds[e+2]) - maxX, minX - Math.max(lineEnds[e], lineEnds[e+2])));
+            double gapY = Math.max(0, Math.max(Math.min(lineEnds[e+1], lineEnds[e+3]) - maxY, minY - Math.max(lineEnds[e+1], lineEnds[e+3])));
+            if (gapX * gapX + gapY * gapY <= boundSqr)
+                block[count++] = parent[c];
+        }
+
+        if (bx1 - bx0 > BLOCK_SIZE || by1 - by0 > BLOCK_SIZE)
+        {
+            int mx = (bx0 + bx1) / 2;
+            int my = (by0 + by1) / 2;
+            if (bx1 - bx0 <= BLOCK_SIZE)
+                mx = bx1;
+            if (by1 - by0 <= BLOCK_SIZE)
+                my = by1;
+            renderBlock(output, width, xs, ys, bx0, by0, mx, my, candidates, count, depth + 1, maxDistSqr);
+            if (mx < bx1)
+                renderBlock(output, width, xs, ys, mx, by0, bx1, my, candidates, count, depth + 1, maxDistSqr);
+            if (my < by1)
+                renderBlock(output, width, xs, ys, bx0, my, mx, by1, candidates, count, depth + 1, maxDistSqr);
+            if (mx < bx1 && my < by1)
+                renderBlock(output, width, xs, ys, mx, my, bx1, by1, candidates, count, depth + 1, maxDistSqr);
+            return;
+        }
+
+        for (int y=by0;y<by1;y++)
+        {
+            int ofs = y * width + bx0;
+            for (int x=bx0;x<bx1;x++)
             {
-                // Case when the closest point is along the line, and t will be [0,1]
-                double px = x0 + t * dx - x;
-                double py = y0 + t * dy - y;
-                double distSqr = px*px + py*py;
-                if (distSqr < distMin)
-                    distMin = distSqr;
+                double distMin = NO_DISTANCE;
+                for (int c=0;c<count;c++)
+                {
+                    double distSqr = segmentDistSqr(block[c], xs[x], ys[y]);
+                    if (distSqr < distMin)
+                        distMin = distSqr;
+                }
+                output[ofs++] = Math.sqrt(Math.min(distMin, maxDistSqr));
             }
         }
-        return distMin;
     }
 
     public void render(double[] output, double x0, double y0, double x1, double y1, int width, int height)
     {
+        if (width <= 0 || height <= 0)
+            return;
+
+        // The sample points, with the same rounding as measuring each point in turn
+        double[] xs = new double[width];
+        double[] ys = new double[height];
+        double dx = (x1 - x0) / (double)width;
+        double px = x0;
+        for (int x=0;x<width;x++)
+        {
+            xs[x] = px;
+            px += dx;
+        }
+        for (int y=0;y<height;y++)
+            ys[y] = y0 + y * (y1-y0) / (double)height;
+
+        // The candidate segments of the blocks being rendered, one row per level of blocks
+        int count = lineSegmentsEnd / 5;
+        int levels = 2;
+        for (int size=BLOCK_SIZE;size<Math.max(width, height);size*=2)
+            levels++;
+        int[][] candidates = new int[levels][count];
+        for (int i=0;i<count;i++)
+            candidates[0][i] = i * 5;
+
+        double maxDistSqr = maxDistance < Math.sqrt(NO_DISTANCE) ? maxDistance * maxDistance : NO_DISTANCE;
+        renderBlock(output, width, xs, ys, 0, 0, width, height, candidates, count, 1, maxDistSqr);
+    }
+
+    /**
+     * Decide which of the points sampled by render() are inside the outline
+     * @param inside true for the points inside the outline, in the same order as the distances of render()
+     * @param windingRule PathIterator.WIND_NON_ZERO or PathIterator.WIND_EVEN_ODD
+     */
+    public void renderInside(boolean[] inside, double x0, double y0, double x1, double y1, int width, int height, int windingRule)
+    {
+        int count = lineSegmentsEnd / 5;
+        // The crossings of the upward and downward segments with a scanline
+        double[] up = new double[count];
+        double[] down = new double[count];
+
         int ofs = 0;
         double dx = (x1 - x0) / (double)width;
         for (int y=0;y<height;y++)
         {
             double py = y0 + y * (y1-y0) / (double)height;
+
+            // A crossing counts for the points left of it, with the rounding of Path2D.contains()
+            int upCount = 0, downCount = 0;
+            for (int i=0;i<count*4;i+=4)
+            {
+                double ex0 = lineEnds[i];
+                double ey0 = lineEnds[i+1];
+                double ex1 = lineEnds[i+2];
+                double ey1 = lineEnds[i+3];
+                if ((py < ey0 && py < ey1) || (py >= ey0 && py >= ey1))
+                    continue;
+                double xintercept = ex0 + (py - ey0) * (ex1 - ex0) / (ey1 - ey0);
+                double crossing = Math.min(Math.max(ex0, ex1), Math.max(Math.min(ex0, ex1), xintercept));
+                if (ey0 < ey1)
+                    up[upCount++] = crossing;
+                else
+                    down[downCount++] = crossing;
+            }
+            Arrays.sort(up, 0, upCount);
+            Arrays.sort(down, 0, downCount);
+
             double px = x0;
+            int upPassed = 0, downPassed = 0;
             for (int x=0;x<width;x++)
             {
-                output[ofs++] = Math.sqrt(distSqr(px, py));
+                while (upPassed < upCount && up[upPassed] <= px)
+                    upPassed++;
+                while (downPassed < downCount && down[downPassed] <= px)
+                    downPassed++;
+                int upRight = upCount - upPassed;
+                int downRight = downCount - downPassed;
+                if (windingRule == PathIterator.WIND_NON_ZERO)
+                    inside[ofs++] = upRight != downRight;
+                else
+                    inside[ofs++] = ((upRight + downRight) & 1) != 0;
                 px += dx;
             }
         }
@@ -39,6 +39,7 @@ import java.awt.image.Kernel;
 import java.awt.image.Raster;
 import java.awt.image.WritableRaster;
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -52,10 +53,14 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.imageio.ImageIO;
 
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
 import com.sun.jna.Pointer;
 
 import com.dynamo.bob.TexcLibrary;
@@ -63,7 +68,10 @@ import com.dynamo.bob.TexcLibrary.PixelFormat;
 import com.dynamo.bob.TexcLibrary.CompressionLevel;
 import com.dynamo.bob.TexcLibrary.CompressionType;
 
+import com.dynamo.bob.archive.EngineVersion;
+import com.dynamo.bob.cache.BuildCache;
 import com.dynamo.bob.pipeline.TextureGeneratorException;
+import com.dynamo.bob.util.CpuBudget;
 
 import com.dynamo.bob.font.BMFont.BMFontFormatException;
 import com.dynamo.bob.font.BMFont.Char;
@@ -144,6 +152,12 @@ public class Fontc {
 
     static final float sdf_edge = 0.75f;
 
+    // Change when the glyph entries are created differently, to invalidate old cache entries
+    private static final int GLYPH_CACHE_VERSION = 1;
+
+    private static AtomicInteger glyphCacheHits = new AtomicInteger();
+    private static AtomicInteger glyphCacheMisses = new AtomicInteger();
+
     private InputFontFormat inputFormat = InputFontFormat.FORMAT_TRUETYPE;
     private Stroke outlineStroke = null;
     private int channelCount = 3;
@@ -154,6 +168,10 @@ public class Fontc {
     private Font font;
     private BMFont bmfont;
 
+    private BuildCache glyphCache;
+    // Identifies the content of the font file
+    private String fontKey;
+
     public interface FontResourceResolver {
         public InputStream getResource(String resourceName) throws FileNotFoundException;
     }
@@ -382,22 +400,6 @@ public class Fontc {
             padding = Math.min(4, fontDesc.getShadowBlur()) + (int)(fontDesc.getOutlineWidth());
         }
 
-        Color faceColor = new Color(fontDesc.getAlpha(), 0.0f, 0.0f);
-        Color outlineColor = new Color(0.0f, fontDesc.getOutlineAlpha(), 0.0f);
-        ConvolveOp shadowConvolve = null;
-        Composite blendComposite = new BlendComposite();
-        if (fontDesc.getShadowAlpha() > 0.0f) {
-            float[] kernelData = {
-                    0.0625f, 0.1250f, 0.0625f,
-                    0.1250f, 0.2500f, 0.1250f,
-                    0.0625f, 0.1250f, 0.0625f
-            };
-            Kernel kernel = new Kernel(3, 3, kernelData);
-            RenderingHints hints = new RenderingHints(null);
-            hints.put(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_QUALITY);
-            hints.put(RenderingHints.KEY_DITHERING, RenderingHints.VALUE_DITHER_DISABLE);
-            shadowConvolve = new ConvolveOp(kernel, ConvolveOp.EDGE_NO_OP, hints);
-        }
         if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_DISTANCE_FIELD) {
             // Calculate edge values for both outline and shadow. We must treat them differently
             // so that we don't use the same precision range for both edges
@@ -536,122 +538,76 @@ public class Fontc {
         if (preview) {
             include_glyph_count = Math.min(glyphs.size(), cache_rows * cache_columns);
         }
+        boolean validFormat = (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_BITMAP || fontDesc.getOutputFormat() == FontTextureFormat.TYPE_DISTANCE_FIELD) &&
+                              !(fontDesc.getOutputFormat() == FontTextureFormat.TYPE_DISTANCE_FIELD && inputFormat == InputFontFormat.FORMAT_BMFONT);
+
+        // A glyph entry only depends on the font file, the glyph, these settings and the JDK rendering it
+        // with AWT, so the entries are kept in a build cache, and a build only renders the glyphs that
+        // weren't built before
+        String glyphCacheKey = null;
+        if (!preview && glyphCache != null && glyphCache.isCacheEnabled() && fontKey != null && inputFormat == InputFontFormat.FORMAT_TRUETYPE) {
+            glyphCacheKey = BuildCache.calculateKey("fontglyph", GLYPH_CACHE_VERSION, EngineVersion.sha1, System.getProperty("java.vendor"), System.getProperty("java.version"),
+                    fontKey, fontDesc.getSize(), fontDesc.getAntialias(),
+                    fontDesc.getAlpha(), fontDesc.getOutlineAlpha(), fontDesc.getOutlineWidth(), fontDesc.getShadowAlpha(), fontDesc.getShadowBlur(),
+                    fontDesc.getOutputFormat(), channelCount, padding, cell_padding);
+        }
+
+        // The glyphs are rendered and compressed concurrently, each with its own rendering context,
+        // and then stored in the glyph data bank in glyph order
+        List<Glyph> renderedGlyphs = new ArrayList<Glyph>(include_glyph_count);
+        List<Callable<byte[]>> tasks = new ArrayList<Callable<byte[]>>(include_glyph_count);
         for (int i = 0; i < include_glyph_count; i++) {
 
             Glyph glyph = glyphs.get(i);
             if (glyph.width <= 0 || glyph.ascent + glyph.descent <= 0) {
                 continue;
             }
-
-            // Generate bitmap for each glyph depending on format
-            BufferedImage glyphImage = null;
-            if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_BITMAP &&
-                inputFormat == InputFontFormat.FORMAT_TRUETYPE) {
-                glyphImage = drawGlyph(glyph, padding, font, blendComposite, faceColor, outlineColor, shadowConvolve);
-            } else if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_BITMAP &&
-                       inputFormat == InputFontFormat.FORMAT_BMFONT) {
-                glyphImage = drawBMFontGlyph(glyph, imageBMFont);
-            } else if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_DISTANCE_FIELD &&
-                       inputFormat == InputFontFormat.FORMAT_TRUETYPE) {
-                glyphImage = makeDistanceField(glyph, padding, sdf_spread, sdf_shadow_spread, font, sdf_edge, shadowConvolve);
-            } else {
+            if (!validFormat) {
                 throw new FontFormatException("Invalid font format combination!");
             }
 
-            if (preview) {
-
-                glyph.image = glyphImage;
-
-            } else {
-                BufferedImage paddedGlyphImage = new BufferedImage(glyphImage.getWidth() + cell_padding * 2,
-                                                                    glyphImage.getHeight() + cell_padding * 2, BufferedImage.TYPE_4BYTE_ABGR);
-
-                int clearData = 0;
-                int mask = 0xFFFFFFFF;
-                if (channelCount==1)
-                    mask = 0xFF;
-                else if (channelCount==2)
-                    mask = 0xFFFF;
-                else if (channelCount==3)
-                    mask = 0xFFFFFF;
-
-                int py = 0;
-                // Get raster data from rendered glyph and store in glyph data bank
-                for (int x = 0; x < paddedGlyphImage.getWidth(); ++x) {
-                    paddedGlyphImage.setRGB(x, py, clearData);
-                }
-                py++;
-                for (int y = 0; y < glyphImage.getHeight(); y++, py++) {
-                    int px = 0;
-                    paddedGlyphImage.setRGB(px++, py, clearData);
-                    for (int x = 0; x < glyphImage.getWidth(); x++, px++) {
-                        int color = glyphImage.getRGB(x, y);
-                        int blue  = (color) & 0xff;
-                        int green = (color >> 8) & 0xff;
-                        int red   = (color >> 16) & 0xff;
-                        int alpha = (color >> 24) & 0xff;
-                        blue = (blue * alpha) / 255;
-                        green = (green * alpha) / 255;
-                        red = (red * alpha) / 255;
-                        color = ((alpha << 24) |
-                                (blue << 16) |
-                                (green << 8) |
-                                (red << 0)) & mask;
-
-                        paddedGlyphImage.setRGB(px, py, color);
-                    }
-                    paddedGlyphImage.setRGB(px++, py, clearData);
-                }
-                for (int x = 0; x < paddedGlyphImage.getWidth(); ++x) {
-                    paddedGlyphImage.setRGB(x, py, clearData);
+            final int glyphPadding = padding;
+            final int glyphCellPadding = cell_padding;
+            final float glyphSdfSpread = sdf_spread;
+            final float glyphSdfShadowSpread = sdf_shadow_spread;
+            final BufferedImage glyphBMFontImage = imageBMFont;
+            renderedGlyphs.add(glyph);
+            if (glyphCacheKey == null) {
+                tasks.add(() -> generateGlyphEntry(glyph, preview, glyphPadding, glyphCellPadding, glyphSdfSpread, glyphSdfShadowSpread, glyphBMFontImage));
+                continue;
+            }
+            String key = BuildCache.calculateKey(glyphCacheKey, glyph.c, glyph.width, glyph.ascent, glyph.descent, glyph.leftBearing);
+            tasks.add(() -> {
+                byte[] entry = glyphCache.get(key);
+                if (entry != null) {
+                    glyphCacheHits.incrementAndGet();
+                    return entry;
                 }
+                glyphCacheMisses.incrementAndGet();
+                entry = generateGlyphEntry(glyph, preview, glyphPadding, glyphCellPadding, glyphSdfSpread, glyphSdfShadowSpread, glyphBMFontImage);
+                glyphCache.put(key, entry);
+                return entry;
+            });
+        }
 
-                Pointer compressedTexture = null;
-                try {
-                    int width = paddedGlyphImage.getWidth();
-                    int height = paddedGlyphImage.getHeight();
-
-                    ByteBuffer paddedBuffer = toByteArray(paddedGlyphImage, width, height, 4, channelCount);
-
-                    compressedTexture = TexcLibrary.TEXC_CompressBuffer(paddedBuffer, paddedBuffer.limit());
-                    int texcBufferSize = TexcLibrary.TEXC_GetTotalBufferDataSize(compressedTexture);
-                    ByteBuffer compressedBuffer = ByteBuffer.allocateDirect(texcBufferSize);
-                    TexcLibrary.TEXC_GetBufferData(compressedTexture, compressedBuffer, texcBufferSize);
-
-                    byte[] uncompressedBytes = new byte[paddedBuffer.limit()];
-                    paddedBuffer.get(uncompressedBytes);
-
-                    byte[] compressedBytes = new byte[compressedBuffer.limit()];
-                    compressedBuffer.get(compressedBytes);
-
-                    // If the uncompressed size is smaller we write uncompressed
-                    // bytes instead
-                    // Note that when writing the uncompressed bytes we need to
-                    // also write the initial byte/flag telling the consumer if
-                    // the glyph is compressed or not.
-                    // - In the case of an uncompressed glyph we write a 0.
-                    // - In the case of a compressed glyph this information is
-                    // included in the compressedBytes array so we don't need to
-                    // bother with specifically writing the compressed flag.
-                    if (uncompressedBytes.length <= compressedBytes.length) {
-                        glyph.cache_entry_offset = dataOffset;
-                        glyph.cache_entry_size = 1 + uncompressedBytes.length;
-                        dataOffset += glyph.cache_entry_size;
-                        glyphDataBank.write(0); // uncompressed
-                        glyphDataBank.write(uncompressedBytes);
-                    }
-                    else {
-                        glyph.cache_entry_offset = dataOffset;
-                        glyph.cache_entry_size = compressedBytes.length;
-                        dataOffset += glyph.cache_entry_size;
-                        glyphDataBank.write(compressedBytes);
-                    }
-
-                } catch(IOException e) {
-                    throw new TextureGeneratorException(String.format("Failed to generate font texture: %s", e.getMessage()));
-                } finally {
-                    TexcLibrary.TEXC_DestroyBuffer(compressedTexture);
-                }
+        List<byte[]> entries;
+        try {
+            entries = CpuBudget.invokeAll("font-glyphs", tasks);
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof TextureGeneratorException) {
+                throw (TextureGeneratorException) e.getCause();
+            }
+            throw e;
+        }
+
+        if (!preview) {
+            for (int i = 0; i < renderedGlyphs.size(); i++) {
+                Glyph glyph = renderedGlyphs.get(i);
+                byte[] entry = entries.get(i);
+                glyph.cache_entry_offset = dataOffset;
+                glyph.cache_entry_size = entry.length;
+                dataOffset += glyph.cache_entry_size;
+                glyphDataBank.write(entry, 0, entry.length);
             }
         }
 
@@ -707,6 +663,136 @@ public class Fontc {
 
     }
 
+    private ConvolveOp createShadowConvolve() {
+        if (fontDesc.getShadowAlpha() <= 0.0f) {
+            return null;
+        }
+        float[] kernelData = {
+                0.0625f, 0.1250f, 0.0625f,
+                0.1250f, 0.2500f, 0.1250f,
+                0.0625f, 0.1250f, 0.0625f
+        };
+        Kernel kernel = new Kernel(3, 3, kernelData);
+        RenderingHints hints = new RenderingHints(null);
+        hints.put(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_QUALITY);
+        hints.put(RenderingHints.KEY_DITHERING, RenderingHints.VALUE_DITHER_DISABLE);
+        return new ConvolveOp(kernel, ConvolveOp.EDGE_NO_OP, hints);
+    }
+
+    // Renders a glyph and creates its entry in the glyph data bank: the compressed bitmap, or a 0 followed
+    // by the uncompressed bitmap if that is smaller. Returns null for previews, which keep the glyph image.
+    // Called concurrently for different glyphs, so everything but the glyph itself is read only.
+    private byte[] generateGlyphEntry(Glyph glyph, boolean preview, int padding, int cell_padding, float sdf_spread, float sdf_shadow_spread,
+                                      BufferedImage imageBMFont) throws TextureGeneratorException {
+        Color faceColor = new Color(fontDesc.getAlpha(), 0.0f, 0.0f);
+        Color outlineColor = new Color(0.0f, fontDesc.getOutlineAlpha(), 0.0f);
+        ConvolveOp shadowConvolve = createShadowConvolve();
+        Composite blendComposite = new BlendComposite();
+
+        // Generate bitmap for each glyph depending on format
+        BufferedImage glyphImage = null;
+        if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_BITMAP &&
+            inputFormat == InputFontFormat.FORMAT_TRUETYPE) {
+            glyphImage = drawGlyph(glyph, padding, font, blendComposite, faceColor, outlineColor, shadowConvolve);
+        } else if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_BITMAP &&
+                   inputFormat == InputFontFormat.FORMAT_BMFONT) {
+            glyphImage = drawBMFontGlyph(glyph, imageBMFont);
+        } else {
+            glyphImage = makeDistanceField(glyph, padding, sdf_spread, sdf_shadow_spread, font, sdf_edge, shadowConvolve);
+        }
+
+        if (preview) {
+            glyph.image = glyphImage;
+            return null;
+        }
+
+        BufferedImage paddedGlyphImage = new BufferedImage(glyphImage.getWidth() + cell_padding * 2,
+                                                            glyphImage.getHeight() + cell_padding * 2, BufferedImage.TYPE_4BYTE_ABGR);
+
+        int clearData = 0;
+        int mask = 0xFFFFFFFF;
+        if (channelCount==1)
+            mask = 0xFF;
+        else if (channelCount==2)
+            mask = 0xFFFF;
+        else if (channelCount==3)
+            mask = 0xFFFFFF;
+
+        int py = 0;
+        // Get raster data from rendered glyph and store in glyph data bank
+        for (int x = 0; x < paddedGlyphImage.getWidth(); ++x) {
+            paddedGlyphImage.setRGB(x, py, clearData);
+        }
+        py++;
+        for (int y = 0; y < glyphImage.getHeight(); y++, py++) {
+            int px = 0;
+            paddedGlyphImage.setRGB(px++, py, clearData);
+            for (int x = 0; x < glyphImage.getWidth(); x++, px++) {
+                int color = glyphImage.getRGB(x, y);
+                int blue  = (color) & 0xff;
+                int green = (color >> 8) & 0xff;
+                int red   = (color >> 16) & 0xff;
+                int alpha = (color >> 24) & 0xff;
+                blue = (blue * alpha) / 255;
+                green = (green * alpha) / 255;
+                red = (red * alpha) / 255;
+                color = ((alpha << 24) |
+                        (blue << 16) |
+                        (green << 8) |
+                        (red << 0)) & mask;
+
+                paddedGlyphImage.setRGB(px, py, color);
+            }
+            paddedGlyphImage.setRGB(px++, py, clearData);
+        }
+        for (int x = 0; x < paddedGlyphImage.getWidth(); ++x) {
+            paddedGlyphImage.setRGB(x, py, clearData);
+        }
+
+        Pointer compressedTexture = null;
+        try {
+            int width = paddedGlyphImage.getWidth();
+            int height = paddedGlyphImage.getHeight();
+
+            ByteBuffer paddedBuffer = toByteArray(paddedGlyphImage, width, height, 4, channelCount);
+
+            compressedTexture = TexcLibrary.TEXC_CompressBuffer(paddedBuffer, paddedBuffer.limit());
+            int texcBufferSize = TexcLibrary.TEXC_GetTotalBufferDataSize(compressedTexture);
+            ByteBuffer compressedBuffer = ByteBuffer.allocateDirect(texcBufferSize);
+            TexcLibrary.TEXC_GetBufferData(compressedTexture, compressedBuffer, texcBufferSize);
+
+            byte[] uncompressedBytes = new byte[paddedBuffer.limit()];
+            paddedBuffer.get(uncompressedBytes);
+
+            byte[] compressedBytes = new byte[compressedBuffer.limit()];
+            compressedBuffer.get(compressedBytes);
+
+            // If the uncompressed size is smaller we write uncompressed
+            // bytes instead
+            // Note that when writing the uncompressed bytes we need to
+            // also write the initial byte/flag telling the consumer if
+            // the glyph is compressed or not.
+            // - In the case of an uncompressed glyph we write a 0.
+            // - In the case of a compressed glyph this information is
+            // included in the compressedBytes array so we don't need to
+            // bother with specifically writing the compressed flag.
+            if (uncompressedBytes.length <= compressedBytes.length) {
+                byte[] entry = new byte[1 + uncompressedBytes.length];
+                entry[0] = 0; // uncompressed
+                System.arraycopy(uncompressedBytes, 0, entry, 1, uncompressedBytes.length);
+                return entry;
+            }
+            else {
+                return compressedBytes;
+            }
+
+        } catch(IOException e) {
+            throw new TextureGeneratorException(String.format("Failed to generate font texture: %s", e.getMessage()));
+        } finally {
+            TexcLibrary.TEXC_DestroyBuffer(compressedTexture);
+        }
+    }
+
     private BufferedImage drawBMFontGlyph(Glyph glyph, BufferedImage imageBMFontInput) {
         return imageBMFontInput.getSubimage(glyph.x, glyph.y, glyph.width, glyph.ascent + glyph.descent);
     }
@@ -722,6 +808,10 @@ public class Fontc {
         double _x = 0, _y = 0;
         double _lastmx = 0, _lastmy = 0;
         DistanceFieldGenerator df = new DistanceFieldGenerator();
+        // Both channels are clamped beyond these distances (see calculateSdfEdgeLimit), so farther
+        // pixels don't need their exact distance
+        float clampedSpread = edge / (1.0f - edge);
+        df.setMaxDistance(Math.max(clampedSpread * sdf_spread, fontDesc.getOutlineWidth() + clampedSpread * sdf_shadow_spread) + 1.0);
         while (!pi.isDone()) {
             double [] c = new double[100];
             int res = pi.currentSegment(c);
@@ -760,22 +850,20 @@ public class Fontc {
         double[] distance_data = new double[width*height];
 
         df.render(distance_data, u0, v0, u1, v1, width, height);
-
-        double widthInverse  = 1 / (double)width;
-        double heightInverse = 1 / (double)height;
+        boolean[] inside_data = new boolean[width*height];
+        df.renderInside(inside_data, u0, v0, u1, v1, width, height, pi.getWindingRule());
 
         BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        float sdf_outline = fontMapBuilder.getSdfOutline();
 
         // TODO: Split this work into a pre-pass and subsequent face/outline & shadow passes
         for (int v=0;v<height;v++) {
             int ofs = v * width;
             for (int u=0;u<width;u++) {
-                double gx = u0 + widthInverse * u * (u1 - u0);
-                double gy = v0 + heightInverse * v * (v1 - v0);
                 double distance_to_edge   = distance_data[ofs + u];
                 double distance_to_border = -(distance_to_edge - fontDesc.getOutlineWidth());
 
-                if (!sh.contains(gx, gy)) {
+                if (!inside_data[ofs + u]) {
                     distance_to_edge = -distance_to_edge;
                 }
 
@@ -785,8 +873,6 @@ public class Fontc {
                 int outline_channel = (int)(255.0f * distance_to_edge_normalized);
                 outline_channel     = Math.max(0,Math.min(255,outline_channel));
 
-                float sdf_outline = fontMapBuilder.getSdfOutline();
-
                 // This is needed to 'fill' the shadow body since
                 // we have no good way of knowing if the pixel is inside or outside
                 // of the shadow limit
@@ -937,6 +1023,19 @@ public class Fontc {
     }
 
     public BufferedImage compile(InputStream fontStream, FontDesc fontDesc, boolean preview, final FontResourceResolver resourceResolver) throws FontFormatException, TextureGeneratorException, IOException {
+        return compile(fontStream, fontDesc, preview, resourceResolver, null);
+    }
+
+    // The glyphs are reused from the cache, if one is given, when they were built from the same font file with the same settings before.
+    public BufferedImage compile(InputStream fontStream, FontDesc fontDesc, boolean preview, final FontResourceResolver resourceResolver, BuildCache glyphCache) throws FontFormatException, TextureGeneratorException, IOException {
+        this.glyphCache = glyphCache;
+        this.fontKey = null;
+        if (glyphCache != null && glyphCache.isCacheEnabled() && !preview) {
+            byte[] fontContent = IOUtils.toByteArray(fontStream);
+            this.fontKey = BuildCache.calculateKey(fontContent);
+            fontStream = new ByteArrayInputStream(fontContent);
+        }
+
         this.fontDesc = fontDesc;
         this.fontMapBuilder = FontMap.newBuilder();
 
@@ -955,6 +1054,25 @@ public class Fontc {
         return fontMapBuilder.build();
     }
 
+    public static void resetGlyphCacheStats() {
+        glyphCacheHits.set(0);
+        glyphCacheMisses.set(0);
+    }
+
+    /**
+     * @return The number of glyphs taken from a build cache since the stats were reset
+     */
+    public static int getGlyphCacheHits() {
+        return glyphCacheHits.get();
+    }
+
+    /**
+     * @return The number of glyphs rendered and put in a build cache since the stats were reset
+     */
+    public static int getGlyphCacheMisses() {
+        return glyphCacheMisses.get();
+    }
+
     public BufferedImage generatePreviewImage() throws IOException {
 
         Graphics2D g;
@@ -17,6 +17,7 @@ package com.dynamo.bob.pipeline;
 import java.io.IOException;
 import java.io.ByteArrayOutputStream;
 import java.awt.image.BufferedImage;
+import java.util.EnumSet;
 
 import com.dynamo.bob.Bob;
 import com.dynamo.bob.Builder;
@@ -25,6 +26,7 @@ import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.Project;
 import com.dynamo.bob.Task;
 import com.dynamo.bob.Task.TaskBuilder;
+import com.dynamo.bob.TexcLibrary.FlipAxis;
 import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.textureset.TextureSetGenerator.TextureSetResult;
 import com.dynamo.bob.util.TextureUtil;
@@ -98,7 +100,7 @@ public class AtlasBuilder extends Builder<TextureImage.Type>  {
             TextureImage texture;
             try {
                 boolean compress = project.option("texture-compression", "false").equals("true");
-                texture = TextureGenerator.generate(result.images.get(i), texProfile, compress);
+                texture = TextureGenerator.generate(result.images.get(i), texProfile, compress, EnumSet.of(FlipAxis.FLIP_AXIS_Y), TextureGenerator.getBuildCache(project));
             } catch (TextureGeneratorException e) {
                 throw new CompileExceptionError(task.input(0), -1, e.getMessage(), e);
             }
@@ -29,12 +29,14 @@ import javax.imageio.ImageIO;
 import org.apache.commons.io.FilenameUtils;
 import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.Project;
+import com.dynamo.bob.cache.BuildCache;
 import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.util.TimeProfiler;
 import com.dynamo.bob.textureset.TextureSetGenerator;
 import com.dynamo.bob.textureset.TextureSetGenerator.AnimDesc;
 import com.dynamo.bob.textureset.TextureSetGenerator.AnimIterator;
 import com.dynamo.bob.textureset.TextureSetGenerator.TextureSetResult;
+import com.dynamo.bob.textureset.TextureSetImageCache;
 import com.dynamo.gamesys.proto.AtlasProto.Atlas;
 import com.dynamo.gamesys.proto.AtlasProto.AtlasAnimation;
 import com.dynamo.gamesys.proto.AtlasProto.AtlasImage;
@@ -43,6 +45,10 @@ import com.dynamo.gamesys.proto.Tile.SpriteTrimmingMode;
 import com.dynamo.proto.DdfMath.Point3;
 
 public class AtlasUtil {
+
+    // The hulls and padded, extruded pixels of the images of all atlases, kept between builds
+    private static final long IMAGE_CACHE_SIZE = 512 * 1024 * 1024;
+
     public static class MappedAnimDesc extends AnimDesc {
         List<String> ids;
 
@@ -165,6 +171,20 @@ public class AtlasUtil {
         return images;
     }
 
+    /**
+     * Get the decoded images of a number of resources from the image cache of a project, decoding them concurrently
+     */
+    public static List<BufferedImage> loadImages(Project project, List<IResource> resources) throws IOException, CompileExceptionError {
+        List<BufferedImage> images = project.getDecodedImageCache().getAll(resources);
+        for (int i = 0; i < images.size(); ++i) {
+            if (images.get(i) == null) {
+                IResource resource = resources.get(i);
+                throw new CompileExceptionError(resource, -1, "Unable to load image " + resource.getPath());
+            }
+        }
+        return images;
+    }
+
     private interface PathTransformer {
         String transform(String path);
     }
@@ -214,7 +234,12 @@ public class AtlasUtil {
             imageHullSizes.add(spriteTrimModeToInt(image.getSpriteTrimMode()));
         }
         List<IResource> imageResources = toResources(atlasResource, imagePaths);
-        List<BufferedImage> images = AtlasUtil.loadImages(imageResources);
+        List<BufferedImage> images = AtlasUtil.loadImages(project, imageResources);
+        List<String> imageKeys = new ArrayList<String>(imageResources.size());
+        for (IResource resource : imageResources) {
+            imageKeys.add(BuildCache.calculateKey(resource.sha1()));
+        }
+        TextureSetImageCache imageCache = new TextureSetImageCache(project.getBuildCache("atlasimage", IMAGE_CACHE_SIZE), imageKeys);
         PathTransformer transformer = new PathTransformer() {
             @Override
             public String transform(String path) {
@@ -234,8 +259,10 @@ public class AtlasUtil {
                 Math.max(0, atlas.getInnerPadding()),
                 Math.max(0, atlas.getExtrudeBorders()),
                 true, false, null,
-                atlas.getMaxPageWidth(), atlas.getMaxPageHeight());
+                atlas.getMaxPageWidth(), atlas.getMaxPageHeight(), imageCache);
 
+            TimeProfiler.addData("cachedImageItems", imageCache.getHitCount());
+            TimeProfiler.addData("processedImageItems", imageCache.getMissCount());
             TimeProfiler.stop();
             return result;
         }
@@ -14,10 +14,10 @@
 
 package com.dynamo.bob.pipeline;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.util.EnumSet;
+import java.util.List;
 
 import com.dynamo.bob.Bob;
 import com.dynamo.bob.Builder;
@@ -73,8 +73,12 @@ public class CubemapBuilder extends Builder<Void> {
 
         TextureImage[] textures = new TextureImage[6];
         try {
+            List<BufferedImage> images = this.project.getDecodedImageCache().getAll(task.getInputs().subList(1, 7));
             for (int i = 0; i < 6; i++) {
-                ByteArrayInputStream is = new ByteArrayInputStream(task.input(i + 1).getContent());
+                BufferedImage image = images.get(i);
+                if (image == null) {
+                    throw new TextureGeneratorException("Unknown texture format.");
+                }
                 boolean compress = project.option("texture-compression", "false").equals("true");
                 // NOTE: Cubemap sides should not have a flipped Y axis (as opposed to any other texture).
                 // I could only find tidbits of information regarding this online, as far as I understand
@@ -91,7 +95,7 @@ public class CubemapBuilder extends Builder<Void> {
 
 
                 // NOTE: Setting the same input for more than one side will cause a NPE when generating!
-                TextureImage texture = TextureGenerator.generate(is, texProfile, compress, EnumSet.noneOf(FlipAxis.class));
+                TextureImage texture = TextureGenerator.generate(image, texProfile, compress, EnumSet.noneOf(FlipAxis.class), TextureGenerator.getBuildCache(project));
                 textures[i] = texture;
             }
             validate(task, textures);
@@ -100,10 +104,7 @@ public class CubemapBuilder extends Builder<Void> {
         }
 
         TextureImage texture = TextureUtil.createCombinedTextureImage(textures, Type.TYPE_CUBEMAP);
-        ByteArrayOutputStream out = new ByteArrayOutputStream(1024 * 1024);
-        texture.writeTo(out);
-        out.close();
-        task.output(0).setContent(out.toByteArray());
+        task.output(0).setContent(texture.toByteArray());
     }
 
     private void validate(Task<Void> task, TextureImage[] textures) throws CompileExceptionError {
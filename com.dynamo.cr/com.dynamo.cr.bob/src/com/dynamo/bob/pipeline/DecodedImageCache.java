@@ -0,0 +1,180 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.imageio.ImageIO;
+
+import com.dynamo.bob.cache.BuildCache;
+import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.util.CpuBudget;
+
+/**
+ * Decodes images for the builders of a project. An image is decoded once and
+ * shared by all builders using it, until the decoded images exceed the memory
+ * budget and the least recently used ones are dropped. The images are keyed on
+ * the content of the image file.
+ *
+ * The returned images are shared and must not be modified.
+ */
+public class DecodedImageCache {
+
+    private static class Entry {
+        final FutureTask<BufferedImage> decode;
+        // The size of the decoded pixels, or -1 while decoding
+        long size = -1;
+
+        Entry(byte[] content) {
+            this.decode = new FutureTask<BufferedImage>(() -> ImageIO.read(new ByteArrayInputStream(content)));
+        }
+    }
+
+    private final long maxSize;
+    // In least recently used order
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long size;
+
+    /**
+     * @param maxSize The memory budget for decoded pixels, in bytes
+     */
+    public DecodedImageCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    private static long sizeOf(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    /**
+     * Get the decoded image of a resource
+     * @param resource The image file
+     * @return The image, or null if the file isn't a supported image format
+     */
+    public BufferedImage get(IResource resource) throws IOException {
+        return getAll(Collections.singletonList(resource)).get(0);
+    }
+
+    /**
+     * Get the decoded images of a list of resources. The images not already
+     * in the cache are decoded concurrently, within the CPU budget of the build.
+     * @param resources The image files
+     * @return The images, in the same order. An image is null if the file isn't a supported image format
+     */
+    public List<BufferedImage> getAll(List<IResource> resources) throws IOException {
+        List<String> keys = new ArrayList<String>(resources.size());
+        List<Entry> requested = new ArrayList<Entry>(resources.size());
+        List<Entry> created = new ArrayList<Entry>();
+        for (IResource resource : resources) {
+            byte[] content = resource.getContent();
+            if (content == null) {
+                throw new IOException("Unable to read image " + resource.getPath());
+            }
+            String key = BuildCache.calculateKey(content);
+            Entry entry;
+            synchronized (this) {
+                entry = entries.get(key);
+                if (entry == null) {
+                    entry = new Entry(content);
+                    entries.put(key, entry);
+                    created.add(entry);
+                }
+            }
+            keys.add(key);
+            requested.add(entry);
+        }
+
+        // Decode the last image on this thread while the others are decoded by the threads of the lease
+        if (created.size() > 1) {
+            try (CpuBudget.Lease lease = CpuBudget.acquire("image-decode", created.size())) {
+                for (int i = 0; i < created.size() - 1; ++i) {
+                    lease.execute(created.get(i).decode);
+                }
+                lease.run(created.get(created.size() - 1).decode);
+            }
+        } else if (created.size() == 1) {
+            created.get(0).decode.run();
+        }
+
+        List<BufferedImage> images = new ArrayList<BufferedImage>(resources.size());
+        Throwable error = null;
+        for (int i = 0; i < requested.size(); ++i) {
+            Entry entry = requested.get(i);
+            BufferedImage image = null;
+            try {
+                image = entry.decode.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                error = error != null ? error : e;
+            } catch (ExecutionException e) {
+                error = error != null ? error : e.getCause();
+            }
+            decoded(keys.get(i), entry, image);
+            images.add(image);
+        }
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        } else if (error instanceof Error) {
+            throw (Error) error;
+        } else if (error instanceof IOException) {
+            throw (IOException) error;
+        } else if (error != null) {
+            throw new IOException(error);
+        }
+        return images;
+    }
+
+    private synchronized void decoded(String key, Entry entry, BufferedImage image) {
+        if (entry.size >= 0 || entries.get(key) != entry) {
+            return;
+        }
+        if (image == null) {
+            // Unsupported formats and failures are not cached
+            entries.remove(key);
+            return;
+        }
+        entry.size = sizeOf(image);
+        size += entry.size;
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (size > maxSize && it.hasNext()) {
+            Entry oldest = it.next().getValue();
+            if (oldest.size >= 0) {
+                size -= oldest.size;
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+}
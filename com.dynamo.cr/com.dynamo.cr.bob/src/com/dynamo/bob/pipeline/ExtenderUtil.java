@@ -60,6 +60,7 @@ import com.dynamo.bob.Project;
 import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.util.BobProjectProperties;
 import com.dynamo.bob.util.FileUtil;
+import com.dynamo.bob.util.IgnoreMatcher;
 
 public class ExtenderUtil {
 
@@ -398,12 +399,19 @@ public class ExtenderUtil {
         return new ArrayList(FileUtils.listFiles(baseDir, new RegexFileFilter(pattern), DirectoryFileFilter.DIRECTORY));
     }
 
-    private static List<String> trimExcludePaths(List<String> excludes) {
-        List<String> trimmedExcludes = new ArrayList<String>();
-        for (String path : excludes) {
-            trimmedExcludes.add(path.trim());
+    /**
+     * Get a matcher for the resources excluded from the bundle with the
+     * "bundle_exclude_resources" project setting. Each entry excludes the
+     * matching paths and everything below them, see IgnoreMatcher.addPattern.
+     * @param project
+     * @return the exclude matcher
+     */
+    public static IgnoreMatcher getBundleExcludeMatcher(Project project) {
+        IgnoreMatcher matcher = new IgnoreMatcher();
+        for (String path : project.getProjectProperties().getStringValue("project", "bundle_exclude_resources", "").split(",")) {
+            matcher.addPattern(path.trim(), false);
         }
-        return trimmedExcludes;
+        return matcher;
     }
 
     public static void mergeBundleMap(Map<String, IResource> into, Map<String, IResource> from, boolean allowOverrides) throws CompileExceptionError{
@@ -636,9 +644,16 @@ public class ExtenderUtil {
      * @throws CompileExceptionError if a output conflict occurs.
      */
     public static Map<String, IResource> collectResources(Project project, String path, List<String> excludes) throws CompileExceptionError {
-        if (excludes == null) {
-            excludes = new ArrayList<>();
+        IgnoreMatcher excludeMatcher = new IgnoreMatcher();
+        if (excludes != null) {
+            for (String exclude : excludes) {
+                excludeMatcher.addPattern(exclude.trim(), false);
+            }
         }
+        return collectResources(project, path, excludeMatcher);
+    }
+
+    public static Map<String, IResource> collectResources(Project project, String path, IgnoreMatcher excludeMatcher) throws CompileExceptionError {
 
         // Make sure the path has Unix separators, since this is how
         // paths are specified game project relative internally.
@@ -649,7 +664,7 @@ public class ExtenderUtil {
         project.findResourcePaths(path, paths);
         for (String p : paths) {
             String pathProjectAbsolute = "/" + p;
-            if (!excludes.contains(pathProjectAbsolute)) {
+            if (!excludeMatcher.isIgnored(pathProjectAbsolute)) {
                 IResource r = project.getResource(p);
                 // Note: findResourcePaths will return the supplied path even if it's not a file.
                 // We need to check if the resource is not a directory before adding it to the list of paths found.
@@ -690,7 +705,7 @@ public class ExtenderUtil {
     public static Map<String, IResource> collectBundleResources(Project project, List<Platform> platforms) throws CompileExceptionError {
 
         Map<String, IResource> bundleResources = new HashMap<String, IResource>();
-        List<String> bundleExcludeList = trimExcludePaths(Arrays.asList(project.getProjectProperties().getStringValue("project", "bundle_exclude_resources", "").split(",")));
+        IgnoreMatcher bundleExcludeMatcher = getBundleExcludeMatcher(project);
         List<String> platformFolderAlternatives = new ArrayList<String>();
         platformFolderAlternatives.add("common");
         for (Platform platform : platforms) {
@@ -706,7 +721,7 @@ public class ExtenderUtil {
         for (String bundleResourcesPath : bundleResourcesPaths) {
             for (String platformAlt : platformFolderAlternatives) {
                 String platformPath = FilenameUtils.concat(bundleResourcesPath, platformAlt + "/");
-                Map<String, IResource> projectBundleResources = ExtenderUtil.collectResources(project, platformPath, bundleExcludeList);
+                Map<String, IResource> projectBundleResources = ExtenderUtil.collectResources(project, platformPath, bundleExcludeMatcher);
                 String platformResourcePath = "res/"; // the paths are relative to platformPath
                 projectBundleResources = ExtenderUtil.pruneResourcesWithString(projectBundleResources, platformResourcePath);
                 mergeBundleMap(bundleResources, projectBundleResources, true);
@@ -718,7 +733,7 @@ public class ExtenderUtil {
         for (String extension : extensionFolders) {
             for (String platformAlt : platformFolderAlternatives) {
                 String platformPath = FilenameUtils.concat("/" + extension, "res/" + platformAlt + "/");
-                Map<String, IResource> extensionBundleResources = ExtenderUtil.collectResources(project, platformPath, bundleExcludeList);
+                Map<String, IResource> extensionBundleResources = ExtenderUtil.collectResources(project, platformPath, bundleExcludeMatcher);
                 String platformResourcePath = "res/"; // the paths are relative to platformPath
                 extensionBundleResources = ExtenderUtil.pruneResourcesWithString(extensionBundleResources, platformResourcePath);
                 mergeBundleMap(bundleResources, extensionBundleResources, true);
@@ -872,7 +887,7 @@ public class ExtenderUtil {
     public static Map<String, IResource> getAndroidResources(Project project) throws CompileExceptionError {
 
         Map<String, IResource> androidResources = new HashMap<String, IResource>();
-        List<String> bundleExcludeList = trimExcludePaths(Arrays.asList(project.getProjectProperties().getStringValue("project", "bundle_exclude_resources", "").split(",")));
+        IgnoreMatcher bundleExcludeMatcher = getBundleExcludeMatcher(project);
         List<String> platformFolderAlternatives = new ArrayList<String>();
 
         List<String> armv7ExtenderPaths = new ArrayList<String>(Arrays.asList(Platform.Armv7Android.getExtenderPaths()));
@@ -887,7 +902,7 @@ public class ExtenderUtil {
                 for (String platformAlt : platformFolderAlternatives) {
                     String platformPath = FilenameUtils.concat(bundleResourcesPath, platformAlt + "/res/");
                     if (ExtenderUtil.isAndroidAssetDirectory(project, platformPath)) {
-                        Map<String, IResource> projectBundleResources = ExtenderUtil.collectResources(project, platformPath, bundleExcludeList);
+                        Map<String, IResource> projectBundleResources = ExtenderUtil.collectResources(project, platformPath, bundleExcludeMatcher);
                         projectBundleResources = ExtenderUtil.prependResourcePaths(projectBundleResources, Project.stripLeadingSlash(bundleResourcesPath).replace('/', '_'));
                         mergeBundleMap(androidResources, projectBundleResources, false);
                     } else {
@@ -895,7 +910,7 @@ public class ExtenderUtil {
                         project.findResourceDirs(platformPath, subdirs);
                         for (String subdir : subdirs) {
                             String subdirPath = FilenameUtils.concat(platformPath, subdir);
-                            Map<String, IResource> projectBundleResources = ExtenderUtil.collectResources(project, subdirPath, bundleExcludeList);
+                            Map<String, IResource> projectBundleResources = ExtenderUtil.collectResources(project, subdirPath, bundleExcludeMatcher);
                             projectBundleResources = ExtenderUtil.prependResourcePaths(projectBundleResources, Project.stripLeadingSlash(bundleResourcesPath + "/" + subdir).replace('/', '_'));
                             mergeBundleMap(androidResources, projectBundleResources, false);
                         }
@@ -910,7 +925,7 @@ public class ExtenderUtil {
             for (String platformAlt : platformFolderAlternatives) {
                 String platformPath = FilenameUtils.concat("/" + extension, "res/" + platformAlt + "/res/");
                 if (ExtenderUtil.isAndroidAssetDirectory(project, platformPath)) {
-                    Map<String, IResource> projectBundleResources = ExtenderUtil.collectResources(project, platformPath, bundleExcludeList);
+                    Map<String, IResource> projectBundleResources = ExtenderUtil.collectResources(project, platformPath, bundleExcludeMatcher);
                     projectBundleResources = ExtenderUtil.prependResourcePaths(projectBundleResources, extension);
                     mergeBundleMap(androidResources, projectBundleResources, false);
 
@@ -919,7 +934,7 @@ public class ExtenderUtil {
                     project.findResourceDirs(platformPath, subdirs);
                     for (String subdir : subdirs) {
                         String subdirPath = FilenameUtils.concat(platformPath, subdir);
-                        Map<String, IResource> projectBundleResources = ExtenderUtil.collectResources(project, subdirPath, bundleExcludeList);
+                        Map<String, IResource> projectBundleResources = ExtenderUtil.collectResources(project, subdirPath, bundleExcludeMatcher);
                         projectBundleResources = ExtenderUtil.prependResourcePaths(projectBundleResources, extension + "/" + subdir);
                         mergeBundleMap(androidResources, projectBundleResources, false);
                     }
@@ -33,6 +33,9 @@ import com.dynamo.render.proto.Font.FontDesc;
 @BuilderParams(name = "Font", inExts = ".font", outExt = ".fontc")
 public class FontBuilder extends Builder<Void>  {
 
+    // The rendered glyphs of all fonts, kept between builds
+    private static final long GLYPH_CACHE_SIZE = 256 * 1024 * 1024;
+
     @Override
     public Task<Void> create(IResource input) throws IOException, CompileExceptionError {
         FontDesc.Builder fontDescbuilder = FontDesc.newBuilder();
@@ -79,7 +82,7 @@ public class FontBuilder extends Builder<Void>  {
                         throw new FileNotFoundException("Could not find resource: " + res.getPath());
                     }
                 }
-            });
+            }, this.project.getBuildCache("fontglyph", GLYPH_CACHE_SIZE));
 
             // Save fontmap file
             task.output(0).setContent(fontc.getFontMap().toByteArray());
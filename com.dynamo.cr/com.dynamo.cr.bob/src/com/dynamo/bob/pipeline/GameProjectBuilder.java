@@ -186,6 +186,11 @@ public class GameProjectBuilder extends Builder<Void> {
             project.setTextureProfiles(textureProfiles);
         }
 
+        // Modules that no script can require are left out of the archive, so there's no need to build them
+        if (project.option("archive", "false").equals("true") && !project.option("keep-unused", "false").equals("true")) {
+            removeUnusedLuaModules();
+        }
+
         for (Task<?> task : project.getTasks()) {
             for (IResource output : task.getOutputs()) {
                 builder.addInput(output);
@@ -195,6 +200,25 @@ public class GameProjectBuilder extends Builder<Void> {
         return builder.build();
     }
 
+    private void removeUnusedLuaModules() throws IOException, CompileExceptionError {
+        TimeProfiler.start("removeUnusedLuaModules");
+        List<Task<?>> unusedModules = new LuaRequireGraph(project).findUnusedModules();
+        StringBuilder report = new StringBuilder();
+        for (Task<?> task : unusedModules) {
+            String path = task.input(0).getPath();
+            Bob.verbose("Excluding Lua module '%s' since no script requires it", path);
+            report.append(path).append("\n");
+            project.removeTask(task);
+        }
+        TimeProfiler.addData("unusedLuaModules", unusedModules.size());
+
+        String reportPath = project.option("lua-module-report", null);
+        if (reportPath != null) {
+            FileUtils.writeStringToFile(new File(reportPath), report.toString(), "UTF-8");
+        }
+        TimeProfiler.stop();
+    }
+
     private void createArchive(Collection<String> resources, RandomAccessFile archiveIndex, RandomAccessFile archiveData, ManifestBuilder manifestBuilder, List<String> excludedResources, Path resourcePackDirectory) throws IOException, CompileExceptionError {
         TimeProfiler.start("createArchive");
         Bob.verbose("GameProjectBuilder.createArchive\n");
@@ -420,6 +444,14 @@ public class GameProjectBuilder extends Builder<Void> {
             }
         }
 
+        // Lua modules loaded with a dynamic require()
+        LuaRequireGraph requireGraph = new LuaRequireGraph(project);
+        for (Task<?> task : project.getTasks()) {
+            if (task.getBuilder() instanceof ScriptBuilders.LuaScriptBuilder && requireGraph.isDynamicModule(task.input(0).getPath())) {
+                findResources(project, task.input(0), resources);
+            }
+        }
+
         // Editor debugger scripts
         if (project.option("variant", Bob.VARIANT_RELEASE).equals(Bob.VARIANT_DEBUG)) {
             findResources(project, project.getResource("/builtins/scripts/debugger.luac"), resources);
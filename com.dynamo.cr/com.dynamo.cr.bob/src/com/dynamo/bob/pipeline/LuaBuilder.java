@@ -17,7 +17,6 @@ package com.dynamo.bob.pipeline;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.io.FileOutputStream;
 import java.util.Collection;
@@ -28,8 +27,6 @@ import java.util.Set;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 import java.net.URLClassLoader;
 import java.net.URL;
 import java.lang.Math;
@@ -50,9 +47,12 @@ import com.dynamo.bob.BuilderParams;
 import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.Platform;
 import com.dynamo.bob.Task;
+import com.dynamo.bob.archive.EngineVersion;
+import com.dynamo.bob.cache.BuildCache;
 import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.pipeline.LuaScanner.Property.Status;
 import com.dynamo.bob.plugin.PluginScanner;
+import com.dynamo.bob.util.Exec;
 import com.dynamo.bob.util.MurmurHash;
 import com.dynamo.bob.util.PropertiesUtil;
 import com.dynamo.gameobject.proto.GameObject.PropertyType;
@@ -111,13 +111,49 @@ public abstract class LuaBuilder extends Builder<Void> {
                 }
             }
 
-            scanner = new LuaScanner();
-            scanner.parse(script);
+            scanner = scanLua(script);
             luaScanners.put(path, scanner);
         }
         return scanner;
     }
 
+    /**
+     * Get the Lua modules required by a resource
+     * @param resource The resource to get the required modules of
+     * @return List of module names, e.g. "foo.bar"
+     */
+    public List<String> getModules(IResource resource) throws IOException, CompileExceptionError {
+        return getLuaScanner(resource).getModules();
+    }
+
+    /**
+     * Scan Lua code, or get the result of an earlier scan of the same code
+     * from the build cache. The scan result only depends on the code and the
+     * version of the scanner, so it can be shared between resources, builds
+     * and projects.
+     * @param script The Lua code, after running the preprocessors
+     * @return A LuaScanner instance
+     */
+    private LuaScanner scanLua(String script) throws IOException {
+        BuildCache cache = project.getBuildCache("luascanner");
+        String key = BuildCache.calculateKey("luascanner", LuaScanner.VERSION, EngineVersion.sha1, script);
+        byte[] data = cache.get(key);
+        if (data != null) {
+            try {
+                return LuaScanner.deserialize(data);
+            }
+            catch (IOException e) {
+                // corrupt cache entry, parse the code again
+            }
+        }
+        LuaScanner scanner = new LuaScanner();
+        scanner.parse(script);
+        if (cache.isCacheEnabled()) {
+            cache.put(key, scanner.serialize());
+        }
+        return scanner;
+    }
+
     @Override
     public Task<Void> create(IResource input) throws IOException, CompileExceptionError {
         Task.TaskBuilder<Void> taskBuilder = Task.<Void>newBuilder(this)
@@ -152,6 +188,31 @@ public abstract class LuaBuilder extends Builder<Void> {
         return taskBuilder.build();
     }
 
+    private void throwLuaError(Task<Void> task, String cmdOutput) throws CompileExceptionError {
+        // first delimiter is the executable name "luajit:" or "luac:"
+        int execSep = cmdOutput.indexOf(':');
+        if (execSep > 0) {
+            // then comes the filename and the line like this:
+            // "file.lua:30: <error message>"
+            int lineBegin = cmdOutput.indexOf(':', execSep + 1);
+            if (lineBegin > 0) {
+                int lineEnd = cmdOutput.indexOf(':', lineBegin + 1);
+                if (lineEnd > 0) {
+                    throw new CompileExceptionError(task.input(0),
+                            Integer.parseInt(cmdOutput.substring(
+                                    lineBegin + 1, lineEnd)),
+                            cmdOutput.substring(lineEnd + 2));
+                }
+            }
+        }
+        else {
+            System.out.printf("Lua Error: for file %s: '%s'\n", task.input(0).getPath(), cmdOutput);
+        }
+        // Since parsing out the actual error failed, as a backup just
+        // spit out whatever luajit/luac said.
+        throw new CompileExceptionError(task.input(0), 1, cmdOutput);
+    }
+
     public byte[] constructBytecode(Task<Void> task, String source, File inputFile, File outputFile, List<String> options, Map<String, String> env) throws IOException, CompileExceptionError {
         FileOutputStream fo = null;
         RandomAccessFile rdr = null;
@@ -165,51 +226,10 @@ public abstract class LuaBuilder extends Builder<Void> {
             fo.write(source.getBytes());
             fo.close();
 
-            ProcessBuilder pb = new ProcessBuilder(options).redirectErrorStream(true);
-            pb.environment().putAll(env);
-
-            Process p = pb.start();
-            InputStream is = null;
-            int ret = 127;
-
-            try {
-                ret = p.waitFor();
-                is = p.getInputStream();
-
-                int toRead = is.available();
-                byte[] buf = new byte[toRead];
-                is.read(buf);
-
-                String cmdOutput = new String(buf);
-                if (ret != 0) {
-                    // first delimiter is the executable name "luajit:" or "luac:"
-                    int execSep = cmdOutput.indexOf(':');
-                    if (execSep > 0) {
-                        // then comes the filename and the line like this:
-                        // "file.lua:30: <error message>"
-                        int lineBegin = cmdOutput.indexOf(':', execSep + 1);
-                        if (lineBegin > 0) {
-                            int lineEnd = cmdOutput.indexOf(':', lineBegin + 1);
-                            if (lineEnd > 0) {
-                                throw new CompileExceptionError(task.input(0),
-                                        Integer.parseInt(cmdOutput.substring(
-                                                lineBegin + 1, lineEnd)),
-                                        cmdOutput.substring(lineEnd + 2));
-                            }
-                        }
-                    }
-                    else {
-                        System.out.printf("Lua Error: for file %s: '%s'\n", task.input(0).getPath(), cmdOutput);
-                    }
-                    // Since parsing out the actual error failed, as a backup just
-                    // spit out whatever luajit/luac said.
-                    inputFile.delete();
-                    throw new CompileExceptionError(task.input(0), 1, cmdOutput);
-                }
-            } catch (InterruptedException e) {
-                Logger.getLogger(LuaBuilder.class.getCanonicalName()).log(Level.SEVERE, "Unexpected interruption", e);
-            } finally {
-                IOUtils.closeQuietly(is);
+            Exec.Result result = Exec.execResultWithEnvironment(env, options);
+            if (result.ret != 0) {
+                inputFile.delete();
+                throwLuaError(task, new String(result.stdOutErr));
             }
 
             long resultBytes = outputFile.length();
@@ -294,6 +314,21 @@ public abstract class LuaBuilder extends Builder<Void> {
 
         Bob.initLua(); // unpack the lua resources
 
+        // Compile using a long running luajit process, which produces the same bytecode
+        // as the command line below, without the cost of starting a new process per file
+        String exe = Bob.getExe(Platform.getHostPlatform(), luajitExe);
+        Map<String, String> serverEnv = new HashMap<String, String>();
+        serverEnv.put("LUA_PATH", Bob.getPath("share/luajit/") + "/?.lua");
+        try {
+            LuaJITCompileServer.Result result = LuaJITCompileServer.compile(exe, serverEnv, task.input(0).getPath(), source.getBytes());
+            if (!result.ok) {
+                throwLuaError(task, new String(result.data));
+            }
+            return result.data;
+        } catch (IOException e) {
+            Bob.verbose("luajit compile server failed for %s, falling back to a separate process: %s", task.input(0).getPath(), e.getMessage());
+        }
+
         File outputFile = File.createTempFile("script", ".raw");
         File inputFile = File.createTempFile("script", ".lua");
 
@@ -309,7 +344,7 @@ public abstract class LuaBuilder extends Builder<Void> {
         //
         final String chunkName = getChunkName(task);
         List<String> options = new ArrayList<String>();
-        options.add(Bob.getExe(Platform.getHostPlatform(), luajitExe));
+        options.add(exe);
         options.add("-b");
         options.add("-g"); // Keep debug info
         options.add("-F"); options.add(task.input(0).getPath()); // The @ is added in the tool
@@ -0,0 +1,289 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import com.dynamo.bob.Bob;
+import com.dynamo.bob.util.CpuBudget;
+import com.dynamo.bob.util.Exec;
+
+/**
+ * Pool of long running luajit processes used to compile Lua source to bytecode.
+ *
+ * Starting a new luajit process for every script dominates the build time of projects
+ * with many Lua modules. Instead each worker runs luajit_compile_server.lua, which reads
+ * source from stdin and writes bytecode to stdout, and the workers are reused across tasks.
+ * The bytecode is identical to the output of "luajit -b -g -F <chunk name>".
+ *
+ * Each request is a run of the luajit tool in Exec, so the workers share its limit on
+ * concurrent processes, timeout and statistics. A worker that doesn't respond within the
+ * timeout is killed, and a worker that has died while idle is replaced.
+ */
+public class LuaJITCompileServer {
+
+    private static final String DRIVER_SCRIPT = "luajit_compile_server.lua";
+
+    public static class Result {
+        public Result(boolean ok, byte[] data) {
+            this.ok = ok;
+            this.data = data;
+        }
+        // true if the source compiled, in which case data is the bytecode
+        // false if it didn't, in which case data is the error message
+        public boolean ok;
+        public byte[] data;
+    }
+
+    private static class Worker {
+        Process process;
+        OutputStream stdin;
+        InputStream stdout;
+        volatile boolean killed = false;
+
+        void destroy() {
+            IOUtils.closeQuietly(stdin);
+            IOUtils.closeQuietly(stdout);
+            process.destroy();
+        }
+    }
+
+    private static Map<String, Queue<Worker>> idleWorkers = new ConcurrentHashMap<>();
+    private static Set<Worker> allWorkers = ConcurrentHashMap.newKeySet();
+    private static File driverFile = null;
+
+    // Kills the workers that don't respond within the timeout of the tool
+    private static ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "luajit-compile-server-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static synchronized File getDriverFile() throws IOException {
+        if (driverFile == null) {
+            File f = File.createTempFile("luajit_compile_server", ".lua");
+            f.deleteOnExit();
+            try (InputStream is = LuaJITCompileServer.class.getResourceAsStream(DRIVER_SCRIPT)) {
+                if (is == null) {
+                    throw new IOException(String.format("Unable to find %s", DRIVER_SCRIPT));
+                }
+                FileUtils.copyInputStreamToFile(is, f);
+            }
+            driverFile = f;
+
+            // The workers exit when their stdin is closed, but make sure they don't outlive us
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    shutdown();
+                }
+            }));
+        }
+        return driverFile;
+    }
+
+    private static Worker startWorker(String exe, Map<String, String> env) throws IOException {
+        List<String> args = new ArrayList<String>();
+        args.add(exe);
+        args.add(getDriverFile().getAbsolutePath());
+
+        ProcessBuilder pb = new ProcessBuilder(args);
+        pb.environment().putAll(env);
+        pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+
+        Worker worker = new Worker();
+        worker.process = pb.start();
+        worker.stdin = new BufferedOutputStream(worker.process.getOutputStream(), 64 * 1024);
+        worker.stdout = new BufferedInputStream(worker.process.getInputStream(), 64 * 1024);
+        allWorkers.add(worker);
+        Bob.verbose("Started luajit compile server %s", exe);
+        return worker;
+    }
+
+    private static Worker acquireIdleWorker(String exe) {
+        Queue<Worker> queue = idleWorkers.get(exe);
+        if (queue != null) {
+            Worker worker;
+            while ((worker = queue.poll()) != null) {
+                if (worker.process.isAlive()) {
+                    return worker;
+                }
+                destroyWorker(worker);
+            }
+        }
+        return null;
+    }
+
+    private static void releaseWorker(String exe, Worker worker) {
+        Queue<Worker> queue = idleWorkers.computeIfAbsent(exe, k -> new ConcurrentLinkedQueue<Worker>());
+        // At most one idle worker per thread of the build
+        if (queue.size() < CpuBudget.getThreads()) {
+            queue.add(worker);
+        } else {
+            destroyWorker(worker);
+        }
+    }
+
+    private static void destroyWorker(Worker worker) {
+        allWorkers.remove(worker);
+        worker.destroy();
+    }
+
+    private static String readLine(InputStream is) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(32);
+        int c;
+        while ((c = is.read()) != '\n') {
+            if (c == -1) {
+                throw new EOFException("luajit compile server closed the connection");
+            }
+            line.write(c);
+        }
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static Result request(Worker worker, String chunkName, byte[] source, long timeout) throws IOException {
+        // Killing the process closes its pipes, which makes the blocked read or write below fail
+        ScheduledFuture<?> kill = null;
+        if (timeout > 0) {
+            kill = watchdog.schedule(() -> {
+                worker.killed = true;
+                worker.process.destroyForcibly();
+            }, timeout, TimeUnit.SECONDS);
+        }
+        try {
+            worker.stdin.write((chunkName + "\n" + source.length + "\n").getBytes(StandardCharsets.UTF_8));
+            worker.stdin.write(source);
+            worker.stdin.flush();
+
+            String header = readLine(worker.stdout);
+            int sep = header.indexOf(' ');
+            if (sep == -1) {
+                throw new IOException(String.format("Unexpected response from luajit compile server: '%s'", header));
+            }
+            String status = header.substring(0, sep);
+            int size = Integer.parseInt(header.substring(sep + 1));
+            byte[] data = new byte[size];
+            IOUtils.readFully(worker.stdout, data);
+            return new Result(status.equals("OK"), data);
+        } finally {
+            if (kill != null) {
+                kill.cancel(false);
+            }
+        }
+    }
+
+    private static Result request(String exe, Map<String, String> env, Worker worker, Exec.ToolRun run, String chunkName, byte[] source) throws IOException {
+        try {
+            // The worker is idle between requests, so the CPU time it used in between is the work of this request
+            long cpuStart = Exec.getCpuTime(worker.process);
+            Result result = request(worker, chunkName, source, run.getTimeout());
+            long cpuEnd = Exec.getCpuTime(worker.process);
+            if (cpuStart >= 0 && cpuEnd >= 0) {
+                run.addCpuTime(cpuEnd - cpuStart);
+            }
+            releaseWorker(exe, worker);
+            return result;
+        } catch (IOException|RuntimeException e) {
+            // The process is in an unknown state, don't reuse it
+            destroyWorker(worker);
+            if (worker.killed) {
+                run.setTimedOut();
+                throw new IOException(String.format("'%s' timed out after %d seconds compiling %s", Exec.getToolName(exe), run.getTimeout(), chunkName), e);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Compile Lua source to bytecode
+     * @param exe absolute path to the luajit executable
+     * @param env environment of the luajit process
+     * @param chunkName chunk name, without the '@' prefix
+     * @param source the Lua source
+     * @return the bytecode or the error message reported by luajit
+     * @throws IOException if the communication with the luajit process failed
+     */
+    public static Result compile(String exe, Map<String, String> env, String chunkName, byte[] source) throws IOException {
+        Exec.ToolRun run;
+        try {
+            run = Exec.startToolRun(Exec.getToolName(exe));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(String.format("Interrupted while waiting to compile %s", chunkName));
+        }
+        try {
+            Worker worker = acquireIdleWorker(exe);
+            if (worker != null) {
+                try {
+                    return request(exe, env, worker, run, chunkName, source);
+                } catch (IOException e) {
+                    if (worker.killed) {
+                        throw e;
+                    }
+                    // The idle worker may have died since it was last used, retry once with a new one
+                    Bob.verbose("Restarting luajit compile server %s: %s", exe, e.getMessage());
+                }
+            }
+            return request(exe, env, startWorker(exe, env), run, chunkName, source);
+        } finally {
+            run.close();
+        }
+    }
+
+    // Kill the idle processes without removing them from the pool, to test that they are replaced
+    static void killIdleWorkers() throws InterruptedException {
+        for (Queue<Worker> queue : idleWorkers.values()) {
+            for (Worker worker : queue) {
+                worker.process.destroyForcibly().waitFor();
+            }
+        }
+    }
+
+    /**
+     * Stop all luajit processes
+     */
+    public static void shutdown() {
+        for (Queue<Worker> queue : idleWorkers.values()) {
+            queue.clear();
+        }
+        for (Worker worker : allWorkers) {
+            worker.destroy();
+        }
+        allWorkers.clear();
+    }
+}
@@ -0,0 +1,155 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.dynamo.bob.Bob;
+import com.dynamo.bob.CompileExceptionError;
+import com.dynamo.bob.Project;
+import com.dynamo.bob.Task;
+import com.dynamo.bob.bundle.BundleHelper;
+import com.dynamo.bob.pipeline.ScriptBuilders.LuaScriptBuilder;
+import com.dynamo.bob.util.IgnoreMatcher;
+
+/**
+ * Static graph of the require() calls between Lua scripts and modules.
+ *
+ * Every .lua file in the project and its libraries gets a build task, but a
+ * module can only be loaded if a script component requires it, directly or
+ * through other modules. The graph is used to find the modules that can't be
+ * reached from any script, so that they can be left out of the build.
+ *
+ * Modules loaded with a require() of a non-constant name can't be found by
+ * scanning the code. Such modules must be listed in the "script.dynamic_modules"
+ * project setting, as module names or patterns, e.g. "levels.*" or "levels.**".
+ */
+public class LuaRequireGraph {
+
+    private Project project;
+    private IgnoreMatcher dynamicModules;
+
+    public LuaRequireGraph(Project project) {
+        this.project = project;
+        this.dynamicModules = new IgnoreMatcher();
+        String setting = project.getProjectProperties().getStringValue("script", "dynamic_modules", "");
+        for (String module : BundleHelper.createArrayFromString(setting)) {
+            dynamicModules.addPattern(module.trim().replace('.', '/'), false);
+        }
+    }
+
+    // The paths of task inputs have no leading "/", unlike the module paths and the paths in the project settings
+    private static String toAbsPath(String path) {
+        return path.startsWith("/") ? path : "/" + path;
+    }
+
+    /**
+     * Get the resource path of a module
+     * @param module The module name, e.g. "foo.bar"
+     * @return The resource path, e.g. "/foo/bar.lua"
+     */
+    public static String getModulePath(String module) {
+        return String.format("/%s.lua", module.replace('.', '/'));
+    }
+
+    /**
+     * Check if a module is listed in the "script.dynamic_modules" setting
+     * @param path The resource path of the module, e.g. "/foo/bar.lua" or "foo/bar.lua"
+     * @return true if the module may be loaded with a dynamic require()
+     */
+    public boolean isDynamicModule(String path) {
+        if (!path.endsWith(".lua")) {
+            return false;
+        }
+        path = toAbsPath(path);
+        return dynamicModules.isIgnored(path.substring(0, path.length() - ".lua".length()));
+    }
+
+    /**
+     * Find the Lua modules that can't be reached from any script component,
+     * the debug init script or a dynamic module.
+     * @return The tasks of the unreachable modules, sorted on path
+     */
+    public List<Task<?>> findUnusedModules() throws IOException, CompileExceptionError {
+        Map<String, Task<?>> moduleTasks = new HashMap<>();
+        Deque<Task<?>> queue = new ArrayDeque<>();
+        for (Task<?> task : project.getTasks()) {
+            if (!(task.getBuilder() instanceof LuaBuilder)) {
+                continue;
+            }
+            String path = toAbsPath(task.input(0).getPath());
+            if (task.getBuilder() instanceof LuaScriptBuilder) {
+                moduleTasks.put(path, task);
+                if (isDynamicModule(path)) {
+                    queue.add(task);
+                }
+            } else {
+                // .script, .gui_script and .render_script
+                queue.add(task);
+            }
+        }
+
+        // Scripts that the engine loads as modules
+        List<String> roots = new ArrayList<>();
+        String debugInitScript = project.getProjectProperties().getStringValue("bootstrap", "debug_init_script", null);
+        if (debugInitScript != null) {
+            roots.add(debugInitScript);
+        }
+        if (project.option("variant", Bob.VARIANT_RELEASE).equals(Bob.VARIANT_DEBUG)) {
+            roots.add("/builtins/scripts/debugger.luac");
+        }
+        for (String root : roots) {
+            Task<?> task = moduleTasks.get(toAbsPath(root.replaceAll("\\.luac$", ".lua")));
+            if (task != null) {
+                queue.add(task);
+            }
+        }
+
+        Set<Task<?>> visited = new HashSet<>(queue);
+        while (!queue.isEmpty()) {
+            Task<?> task = queue.poll();
+            LuaBuilder builder = (LuaBuilder) task.getBuilder();
+            for (String module : builder.getModules(task.input(0))) {
+                Task<?> moduleTask = moduleTasks.get(getModulePath(module));
+                // missing modules are reported when the requiring script is built
+                if (moduleTask != null && visited.add(moduleTask)) {
+                    queue.add(moduleTask);
+                }
+            }
+        }
+
+        List<String> unusedPaths = new ArrayList<>();
+        for (Map.Entry<String, Task<?>> entry : moduleTasks.entrySet()) {
+            if (!visited.contains(entry.getValue())) {
+                unusedPaths.add(entry.getKey());
+            }
+        }
+        Collections.sort(unusedPaths);
+        List<Task<?>> unused = new ArrayList<>();
+        for (String path : unusedPaths) {
+            unused.add(moduleTasks.get(path));
+        }
+        return unused;
+    }
+}
@@ -14,7 +14,12 @@
 
 package com.dynamo.bob.pipeline;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -52,6 +57,13 @@ public class LuaScanner extends LuaParserBaseListener {
 
     private static final Logger LOGGER = Logger.getLogger(LuaScanner.class.getName());
 
+    /**
+     * Version of the scan result. Increase it whenever a change to the scanner
+     * affects the parsed Lua, the modules or the properties, to invalidate
+     * the scan results stored by serialize().
+     */
+    public static final int VERSION = 1;
+
     /**
      * This list of Lua libraries represent the Lua standard libraries as well
      * as other very commonly used libraries that are included in the Defold
@@ -102,6 +114,9 @@ public class LuaScanner extends LuaParserBaseListener {
 
     private List<String> modules = new ArrayList<String>();
     private List<Property> properties = new ArrayList<Property>();
+    // the go.property() call and line of each entry in properties
+    private List<String> propertyDeclarations = new ArrayList<String>();
+    private List<Integer> propertyLines = new ArrayList<Integer>();
 
     public static class Property {
         public enum Status {
@@ -143,6 +158,8 @@ public class LuaScanner extends LuaParserBaseListener {
         TimeProfiler.start("Parse");
         modules.clear();
         properties.clear();
+        propertyDeclarations.clear();
+        propertyLines.clear();
 
         parsedBuffer = new StringBuffer(str);
 
@@ -176,6 +193,80 @@ public class LuaScanner extends LuaParserBaseListener {
         return parsedBuffer.toString();
     }
 
+    /**
+     * Serialize the result of a call to parse(). The properties are stored as
+     * their go.property() declarations, and are parsed again by deserialize().
+     * @return The serialized scan result
+     */
+    public byte[] serialize() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        out.writeInt(VERSION);
+        writeString(out, parsedBuffer.toString());
+        out.writeInt(modules.size());
+        for (String module : modules) {
+            writeString(out, module);
+        }
+        out.writeInt(propertyDeclarations.size());
+        for (int i = 0; i < propertyDeclarations.size(); ++i) {
+            writeString(out, propertyDeclarations.get(i));
+            out.writeInt(propertyLines.get(i));
+        }
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    /**
+     * Create a scanner from a scan result created by serialize(), without
+     * parsing the Lua code again.
+     * @param data The serialized scan result
+     * @return The scanner
+     * @throws IOException if the data is invalid or from another version of the scanner
+     */
+    public static LuaScanner deserialize(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException(String.format("Unsupported scan result version %d", version));
+        }
+        LuaScanner scanner = new LuaScanner();
+        scanner.parsedBuffer = new StringBuffer(readString(in));
+        int moduleCount = in.readInt();
+        for (int i = 0; i < moduleCount; ++i) {
+            scanner.modules.add(readString(in));
+        }
+        int propertyCount = in.readInt();
+        for (int i = 0; i < propertyCount; ++i) {
+            scanner.addProperty(readString(in), in.readInt());
+        }
+        return scanner;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Invalid scan result");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void addProperty(String declaration, int line) {
+        Property property = parseProperty(declaration, line);
+        if (property != null) {
+            properties.add(property);
+            propertyDeclarations.add(declaration);
+            propertyLines.add(line);
+        }
+    }
+
     /**
      * Get a list of all Lua modules found by a call to parse().
      * @return List of Lua modules
@@ -305,10 +396,7 @@ public class LuaScanner extends LuaParserBaseListener {
         else if (text.startsWith("go.property")) {
             TimeProfiler.start("Lua Function Property Parser");
             List<Token> tokens = getTokens(ctx, Token.DEFAULT_CHANNEL);
-            Property property = parseProperty(text, tokens.get(0).getLine() - 1);
-            if (property != null) {
-                properties.add(property);
-            }
+            addProperty(text, tokens.get(0).getLine() - 1);
             // strip property from code
             for (Token token : tokens) {
                 removeToken(token);
@@ -80,6 +80,12 @@ public class MeshsetBuilder extends Builder<Void>  {
         taskBuilder.addOutput(input.changeExt(params.outExt()));
         taskBuilder.addOutput(input.changeExt(".skeletonc"));
         taskBuilder.addOutput(input.changeExt("_generated_0.animationsetc"));
+
+        // The meshes are built differently with these project settings, so they are part of the task signature
+        int splitMeshes = this.project.getProjectProperties().getIntValue("model", "split_large_meshes", 0);
+        boolean optimizeVertexCache = this.project.getProjectProperties().getBooleanValue("model", "optimize_vertex_cache", false);
+        taskBuilder.addExtraCacheKey("split_large_meshes=" + splitMeshes);
+        taskBuilder.addExtraCacheKey("optimize_vertex_cache=" + optimizeVertexCache);
         return taskBuilder.build();
     }
 
@@ -92,8 +98,9 @@ public class MeshsetBuilder extends Builder<Void>  {
         MeshSet.Builder meshSetBuilder = MeshSet.newBuilder();
 
         boolean split_meshes = this.project.getProjectProperties().getIntValue("model", "split_large_meshes", 0) != 0;
+        boolean optimize_vertex_cache = this.project.getProjectProperties().getBooleanValue("model", "optimize_vertex_cache", false);
         try {
-            ColladaUtil.loadMesh(collada_is, meshSetBuilder, true, split_meshes);
+            ColladaUtil.loadMesh(collada_is, meshSetBuilder, true, split_meshes, optimize_vertex_cache);
         } catch (XMLStreamException e) {
             throw new CompileExceptionError(task.input(0), e.getLocation().getLineNumber(), "Failed to compile mesh: " + e.getLocalizedMessage(), e);
         } catch (LoaderException e) {
@@ -160,6 +167,10 @@ public class MeshsetBuilder extends Builder<Void>  {
                 ModelUtil.splitMeshes(scene);
             }
 
+            if (this.project.getProjectProperties().getBooleanValue("model", "optimize_vertex_cache", false)) {
+                ModelUtil.optimizeVertexCache(scene);
+            }
+
             ModelUtil.loadModels(scene, meshSetBuilder);
 
             ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
@@ -55,6 +55,7 @@ import javax.vecmath.Vector3d;
 import javax.vecmath.Vector3f;
 import javax.vecmath.Vector4d;
 
+import com.dynamo.bob.util.IntIntMap;
 import com.dynamo.bob.util.MathUtil;
 
 import com.dynamo.bob.util.MurmurHash;
@@ -451,14 +452,15 @@ public class ModelUtil {
 
         int vcount = 0;
         ModelImporter.Mesh newMesh = null;
-        HashMap<Integer, Integer> oldToNewIndex = null;
-        ArrayList<Integer> newIndices = null;
+        IntIntMap oldToNewIndex = new IntIntMap(MAX_SPLIT_VCOUNT);
+        int[] newIndices = new int[Math.min(inMesh.indexCount, MAX_SPLIT_VCOUNT * 3)];
+        int newIndexCount = 0;
 
         for (int i = 0; i < triangleCount; ++i) {
 
             if (newMesh == null) {
-                oldToNewIndex = new HashMap<Integer, Integer>();
-                newIndices = new ArrayList<Integer>();
+                oldToNewIndex.clear();
+                newIndexCount = 0;
 
                 newMesh = new Mesh();
                 newMesh.material = inMesh.material;
@@ -490,9 +492,9 @@ public class ModelUtil {
             int index1 = inMesh.indices[i*3+1];
             int index2 = inMesh.indices[i*3+2];
 
-            int newIndex0 = oldToNewIndex.getOrDefault(index0, -1);
-            int newIndex1 = oldToNewIndex.getOrDefault(index1, -1);
-            int newIndex2 = oldToNewIndex.getOrDefault(index2, -1);
+            int newIndex0 = oldToNewIndex.get(index0, -1);
+            int newIndex1 = oldToNewIndex.get(index1, -1);
+            int newIndex2 = oldToNewIndex.get(index2, -1);
 
             if (newIndex0 == -1) {
                 newIndex0 = vcount++;
@@ -512,17 +514,20 @@ public class ModelUtil {
                 copyVertex(inMesh, index2, newMesh, newIndex2);
             }
 
-            newIndices.add(newIndex0);
-            newIndices.add(newIndex1);
-            newIndices.add(newIndex2);
+            if (newIndexCount + 3 > newIndices.length) {
+                newIndices = Arrays.copyOf(newIndices, newIndices.length * 2 + 3);
+            }
+            newIndices[newIndexCount++] = newIndex0;
+            newIndices[newIndexCount++] = newIndex1;
+            newIndices[newIndexCount++] = newIndex2;
 
             // We need to make sure that we don't split a triangle into two different buffers
             boolean flush = (vcount+3) >= MAX_SPLIT_VCOUNT || ((i+1) == triangleCount);
 
             if (flush) {
 
-                newMesh.indices = newIndices.stream().mapToInt(idx->idx).toArray();
-                newMesh.indexCount = newIndices.size();
+                newMesh.indices = Arrays.copyOf(newIndices, newIndexCount);
+                newMesh.indexCount = newIndexCount;
                 newMesh.vertexCount = vcount;
 
                 // Resize to actual size
@@ -575,6 +580,55 @@ public class ModelUtil {
         }
     }
 
+    private static float[] newArrayLike(float[] array) {
+        return array != null ? new float[array.length] : null;
+    }
+
+    // Reorders the triangles of a mesh for the post transform vertex cache, and the vertices in the order they are used
+    public static void optimizeVertexCache(Mesh mesh) {
+        if (mesh.positions == null || mesh.indices == null || mesh.indexCount < 3) {
+            return;
+        }
+        int vertexCount = mesh.positions.length / 3;
+        int[] indices = VertexCacheOptimizer.optimizeTriangleOrder(Arrays.copyOf(mesh.indices, mesh.indexCount), vertexCount);
+        int[] remap = VertexCacheOptimizer.createVertexRemap(indices, vertexCount);
+        for (int i = 0; i < indices.length; ++i) {
+            indices[i] = remap[indices[i]];
+        }
+
+        Mesh remapped = new Mesh();
+        remapped.positions = newArrayLike(mesh.positions);
+        remapped.normals = newArrayLike(mesh.normals);
+        remapped.tangents = newArrayLike(mesh.tangents);
+        remapped.colors = newArrayLike(mesh.colors);
+        remapped.weights = newArrayLike(mesh.weights);
+        remapped.bones = mesh.bones != null ? new int[mesh.bones.length] : null;
+        remapped.texCoords0 = newArrayLike(mesh.texCoords0);
+        remapped.texCoords1 = newArrayLike(mesh.texCoords1);
+        for (int i = 0; i < vertexCount; ++i) {
+            copyVertex(mesh, i, remapped, remap[i]);
+        }
+
+        mesh.positions = remapped.positions;
+        mesh.normals = remapped.normals;
+        mesh.tangents = remapped.tangents;
+        mesh.colors = remapped.colors;
+        mesh.weights = remapped.weights;
+        mesh.bones = remapped.bones;
+        mesh.texCoords0 = remapped.texCoords0;
+        mesh.texCoords1 = remapped.texCoords1;
+        mesh.indices = indices;
+    }
+
+    // Optimizes the meshes for the post transform vertex cache, after they have been split
+    public static void optimizeVertexCache(Scene scene) {
+        for (Model model : scene.models) {
+            for (Mesh mesh : model.meshes) {
+                optimizeVertexCache(mesh);
+            }
+        }
+    }
+
     public static List<Integer> toList(int[] array) {
         return Arrays.asList(ArrayUtils.toObject(array));
     }
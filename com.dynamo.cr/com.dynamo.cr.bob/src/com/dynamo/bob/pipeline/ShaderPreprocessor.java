@@ -4,8 +4,11 @@ import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.Scanner;
 import java.io.IOException;
 import java.io.File;
@@ -15,6 +18,7 @@ import java.nio.file.Paths;
 
 import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.Project;
+import com.dynamo.bob.cache.BuildCache;
 import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.pipeline.ShaderUtil.Common;
 
@@ -33,13 +37,41 @@ import com.dynamo.bob.pipeline.ShaderUtil.Common;
  * #include "path/to/sub-folder-file.glsl"
  * #include "../file-in-parent-dir.glsl"
  *
+ * Parsing a file only depends on its path and content, so the parsed files are kept in an
+ * IncludeCache on the project and shared by all shaders that include them.
+ *
  */
 public class ShaderPreprocessor {
+    // Removes the include directives from the included sources
+    private static final Pattern includeDirectiveRemovePattern = Pattern.compile(String.format(Common.includeDirectiveReplaceBaseStr, ".*", ".*"));
+    // Finds the include directives to replace in the shader source
+    private static final Pattern includeDirectiveSplicePattern = Pattern.compile("\\#include\\s+(?:<(?<pathbrackets>[^<>\"\\n]*)>|\"(?<pathquotes>[^<>\"\\n]*)\")");
+
     // Compiler state
     private Project     project;
     private String      sourcePath;
     private IncludeNode root;
 
+    // A shader file with the comments stripped and the include directives found in it
+    private static class IncludeFile {
+        public String   source;
+        public String[] includePaths;
+        public String[] projectRelativePaths;
+    }
+
+    // Parsed shader files, keyed by path and content
+    public static class IncludeCache {
+        private ConcurrentHashMap<String, IncludeFile> files = new ConcurrentHashMap<String, IncludeFile>();
+
+        public int size() {
+            return files.size();
+        }
+
+        public void clear() {
+            files.clear();
+        }
+    }
+
     private class IncludeNode {
         public String                             path;
         public String                             source;
@@ -86,7 +118,7 @@ public class ShaderPreprocessor {
     public ShaderPreprocessor(Project project, String fromPath, String fromSource) throws IOException, CompileExceptionError {
         this.project    = project;
         this.sourcePath = fromPath;
-        this.root       = buildShaderIncludeTree(null, fromPath, Common.stripComments(fromSource));
+        this.root       = buildShaderIncludeTree(null, fromPath, getIncludeFile(fromPath, fromSource));
     }
 
     public String[] getIncludes() {
@@ -103,26 +135,87 @@ public class ShaderPreprocessor {
 
     // walks all the children of the tree root
     public String getCompiledSource() throws CompileExceptionError {
-        String source = this.root.source;
-        for (Map.Entry<String, IncludeNode> child : this.root.children.entrySet()) {
+        HashMap<String, Integer> includeIndices = new HashMap<String, Integer>();
+        String[] includeSources = new String[this.root.children.size()];
 
-            ArrayList<String> stringBuffer = new ArrayList<String>();
+        for (Map.Entry<String, IncludeNode> child : this.root.children.entrySet()) {
+            StringBuilder compiledNode = new StringBuilder();
 
             IncludeDirectiveTreeIterator iterator = new IncludeDirectiveTreeIterator(child.getValue());
             while(iterator.hasNext()) {
                 IncludeNode n = iterator.next();
-                stringBuffer.add(n.source);
+                compiledNode.append('\n').append(n.source);
             }
 
-            String compiledNode                       = "\n" + String.join("\n", stringBuffer);
-            String includeReplaceIncludeDirectivesStr = String.format(Common.includeDirectiveReplaceBaseStr, ".*", ".*");
-            String nodePatternReplaceDataStr          = String.format(Common.includeDirectiveReplaceBaseStr, child.getKey(), child.getKey());
+            int index = includeIndices.size();
+            includeSources[index] = includeDirectiveRemovePattern.matcher(compiledNode).replaceAll("");
+            includeIndices.put(child.getKey(), index);
+        }
+
+        return spliceIncludes(this.root.source, includeIndices, includeSources);
+    }
 
-            compiledNode = compiledNode.replaceAll(includeReplaceIncludeDirectivesStr, "");
-            source       = source.replaceAll(nodePatternReplaceDataStr, compiledNode);
+    // Same as the \s character class in regular expressions
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /*
+     * Replaces the include directives in the source with the include sources in a single pass.
+     * The result is the same as replacing the directives of one include at a time, in the order
+     * the includes are indexed, where every replacement also removes all whitespace in front of
+     * the directive. This means that the whitespace in front of a directive is removed up to the
+     * first non whitespace character, or up to an include with the same or a higher index since
+     * that one is still a directive at the time of the replacement.
+     */
+    private static String spliceIncludes(String source, Map<String, Integer> includeIndices, String[] includeSources) {
+        StringBuilder out = new StringBuilder(source.length());
+        // start, end and index of each include spliced into the output
+        ArrayList<int[]> spliced = new ArrayList<int[]>();
+        int sourceOffset = 0;
+
+        Matcher matcher = includeDirectiveSplicePattern.matcher(source);
+        while (matcher.find()) {
+            Integer index = includeIndices.get(getPathFromMatcher(matcher));
+            if (index == null) {
+                continue;
+            }
+            out.append(source, sourceOffset, matcher.start());
+            sourceOffset = matcher.end();
+
+            int end     = out.length();
+            int segment = spliced.size() - 1;
+            whitespace:
+            while (true) {
+                while (segment >= 0 && spliced.get(segment)[1] >= end) {
+                    int[] s = spliced.get(segment);
+                    if (s[2] >= index) {
+                        break whitespace;
+                    }
+                    if (s[0] < end) {
+                        break;
+                    }
+                    segment--;
+                }
+                if (end == 0 || !isWhitespace(out.charAt(end - 1))) {
+                    break;
+                }
+                end--;
+            }
+            out.setLength(end);
+            for (int i = spliced.size() - 1; i >= 0 && spliced.get(i)[1] > end; --i) {
+                int[] s = spliced.get(i);
+                s[0] = Math.min(s[0], end);
+                s[1] = end;
+            }
+
+            String includeSource = includeSources[index];
+            spliced.add(new int[] { end, end + includeSource.length(), index });
+            out.append(includeSource);
         }
+        out.append(source, sourceOffset, source.length());
 
-        return source;
+        return out.toString();
     }
 
     private String toProjectRelativePath(String fromFilePath, String includePath) throws CompileExceptionError, IOException {
@@ -162,47 +255,78 @@ public class ShaderPreprocessor {
                 "Make sure that the path is relative to the project root and that the file is valid!");
         }
 
-        String resData = new String(res.getContent(), StandardCharsets.UTF_8);
-        return Common.stripComments(resData);
+        return new String(res.getContent(), StandardCharsets.UTF_8);
     }
 
-    private String getPathFromMatcher(Matcher includeMatcher)
+    private static String getPathFromMatcher(Matcher includeMatcher)
     {
         String fromBrackets  = includeMatcher.group("pathbrackets");
         String fromQuotes    = includeMatcher.group("pathquotes");
         return fromBrackets == null ? fromQuotes : fromBrackets;
     }
 
-    private IncludeNode buildShaderIncludeTree(IncludeNode parent, String fromPath, String fromSource) throws IOException, CompileExceptionError {
+    private IncludeFile getIncludeFile(String fromPath, String fromSource) throws IOException, CompileExceptionError {
+        IncludeCache cache = this.project.getShaderIncludeCache();
+        String key         = BuildCache.calculateKey(fromPath, fromSource);
+        IncludeFile file   = cache.files.get(key);
+        if (file == null) {
+            file = parseIncludeFile(fromPath, fromSource);
+            cache.files.put(key, file);
+        }
+        return file;
+    }
 
-        IncludeNode newIncludeNode = new IncludeNode();
-        newIncludeNode.path        = fromPath;
-        newIncludeNode.source      = fromSource;
-        newIncludeNode.parent      = parent;
+    private IncludeFile parseIncludeFile(String fromPath, String fromSource) throws IOException, CompileExceptionError {
+        ArrayList<String> includePaths         = new ArrayList<String>();
+        ArrayList<String> projectRelativePaths = new ArrayList<String>();
+
+        IncludeFile file = new IncludeFile();
+        file.source      = Common.stripComments(fromSource);
 
-        Scanner scanner = new Scanner(fromSource);
+        Scanner scanner = new Scanner(file.source);
         while (scanner.hasNextLine()) {
             String line = scanner.nextLine();
             Matcher includeMatcher = Common.includeDirectivePattern.matcher(line);
             if(includeMatcher.find()) {
-                String path                = getPathFromMatcher(includeMatcher);
-                String projectRelativePath = toProjectRelativePath(fromPath, path);
+                String path = getPathFromMatcher(includeMatcher);
+                includePaths.add(path);
+                projectRelativePaths.add(toProjectRelativePath(fromPath, path));
+            }
+        }
 
-                if (projectRelativePath.equals(fromPath)) {
-                    throw new CompileExceptionError(fromPath + " is trying to include itself from " + path);
-                }
+        file.includePaths         = includePaths.toArray(new String[0]);
+        file.projectRelativePaths = projectRelativePaths.toArray(new String[0]);
+        return file;
+    }
 
-                // Scan tree backwards to see if the path we want to add already is a parent to this node
-                IncludeNode tmp = parent;
-                while (tmp != null) {
-                    if (tmp.path.equals(projectRelativePath)) {
-                        throw new CompileExceptionError(tmp.path + " has a cyclic dependency with " + fromPath);
-                    }
-                    tmp = tmp.parent;
+    private IncludeNode buildShaderIncludeTree(IncludeNode parent, String fromPath, IncludeFile fromFile) throws IOException, CompileExceptionError {
+
+        IncludeNode newIncludeNode = new IncludeNode();
+        newIncludeNode.path        = fromPath;
+        newIncludeNode.source      = fromFile.source;
+        newIncludeNode.parent      = parent;
+
+        for (int i = 0; i < fromFile.includePaths.length; ++i) {
+            String path                = fromFile.includePaths[i];
+            String projectRelativePath = fromFile.projectRelativePaths[i];
+
+            if (projectRelativePath.equals(fromPath)) {
+                throw new CompileExceptionError(fromPath + " is trying to include itself from " + path);
+            }
+
+            // Scan tree backwards to see if the path we want to add already is a parent to this node
+            IncludeNode tmp = parent;
+            while (tmp != null) {
+                if (tmp.path.equals(projectRelativePath)) {
+                    throw new CompileExceptionError(tmp.path + " has a cyclic dependency with " + fromPath);
                 }
+                tmp = tmp.parent;
+            }
 
+            // The same directive gives the same sub tree
+            if (!newIncludeNode.children.containsKey(path)) {
                 newIncludeNode.children.put(path,
-                    buildShaderIncludeTree(newIncludeNode, projectRelativePath, getIncludeData(projectRelativePath)));
+                    buildShaderIncludeTree(newIncludeNode, projectRelativePath, getIncludeFile(projectRelativePath, getIncludeData(projectRelativePath))));
             }
         }
 
@@ -34,6 +34,10 @@ import java.util.List;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -49,19 +53,29 @@ import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.Platform;
 import com.dynamo.bob.Task;
 import com.dynamo.bob.Project;
+import com.dynamo.bob.archive.EngineVersion;
+import com.dynamo.bob.cache.BuildCache;
 import com.dynamo.bob.fs.DefaultFileSystem;
 import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.pipeline.ShaderUtil.Common;
 import com.dynamo.bob.pipeline.ShaderUtil.ES2ToES3Converter;
 import com.dynamo.bob.pipeline.ShaderUtil.VariantTextureArrayFallback;
 import com.dynamo.bob.pipeline.ShaderUtil.SPIRVReflector;
+import com.dynamo.bob.util.CpuBudget;
 import com.dynamo.bob.util.Exec;
 import com.dynamo.bob.util.Exec.Result;
 import com.dynamo.graphics.proto.Graphics.ShaderDesc;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
 
 public abstract class ShaderProgramBuilder extends Builder<ShaderPreprocessor> {
 
+    // Increase when the SPIR-V compilation changes in a way that affects the cached shaders
+    static private final int SPIRV_CACHE_VERSION = 1;
+
+    // Content hash of the external tools, per executable path
+    static private Map<String, String> toolHashes = new ConcurrentHashMap<String, String>();
+
     static public class ShaderBuildResult {
         public ShaderDesc.Shader.Builder shaderBuilder;
         public String[]                  buildWarnings;
@@ -499,8 +513,40 @@ public abstract class ShaderProgramBuilder extends Builder<ShaderPreprocessor> {
         return res;
     }
 
-    static private ShaderBuildResult buildSpirvFromGLSL(String source, ES2ToES3Converter.ShaderType shaderType, String resourceOutputPath, String targetProfile, boolean isDebug, boolean soft_fail)  throws IOException, CompileExceptionError {
+    static private String getToolHash(String tool) throws IOException {
+        String exe = Bob.getExe(Platform.getHostPlatform(), tool);
+        String hash = toolHashes.get(exe);
+        if (hash == null) {
+            hash = BuildCache.calculateKey(FileUtils.readFileToByteArray(new File(exe)));
+            toolHashes.put(exe, hash);
+        }
+        return hash;
+    }
+
+    // The compiled shader only depends on the preprocessed source, the compile settings and the tools,
+    // so it can be shared between builds, branches and projects
+    static private String getSpirvCacheKey(String source, ES2ToES3Converter.ShaderType shaderType, String targetProfile, boolean isDebug, boolean soft_fail) throws IOException {
+        return BuildCache.calculateKey("spirv", SPIRV_CACHE_VERSION, EngineVersion.sha1,
+            getToolHash("glslc"), getToolHash("spirv-cross"),
+            shaderType, targetProfile, isDebug, soft_fail, source);
+    }
+
+    static private ShaderBuildResult buildSpirvFromGLSL(String source, ES2ToES3Converter.ShaderType shaderType, String resourceOutputPath, String targetProfile, boolean isDebug, boolean soft_fail, BuildCache cache)  throws IOException, CompileExceptionError {
         source = Common.stripComments(source);
+
+        String cacheKey = null;
+        if (cache != null && cache.isCacheEnabled()) {
+            cacheKey = getSpirvCacheKey(source, shaderType, targetProfile, isDebug, soft_fail);
+            byte[] cached = cache.get(cacheKey);
+            if (cached != null) {
+                try {
+                    return new ShaderBuildResult(ShaderDesc.Shader.newBuilder().mergeFrom(cached));
+                } catch (InvalidProtocolBufferException e) {
+                    // corrupt cache entry, compile the shader again
+                }
+            }
+        }
+
         SPIRVCompileResult compile_res = compileGLSLToSPIRV(source, shaderType, resourceOutputPath, targetProfile, isDebug, soft_fail);
 
         if (compile_res.compile_warnings.size() > 0)
@@ -534,6 +580,11 @@ public abstract class ShaderProgramBuilder extends Builder<ShaderPreprocessor> {
             builder.addUniforms(resourceBindingBuilder);
         }
 
+        // Only successful compilations are cached, so that errors are always reported by the tools
+        if (cacheKey != null) {
+            cache.put(cacheKey, builder.build().toByteArray());
+        }
+
         return new ShaderBuildResult(builder);
     }
 
@@ -594,24 +645,75 @@ public abstract class ShaderProgramBuilder extends Builder<ShaderPreprocessor> {
         return shaderLanguages.toArray(new ShaderDesc.Language[0]);
     }
 
+    static private ShaderBuildResult buildShaderVariant(String resourceOutputPath, String fullShaderSource,
+            ES2ToES3Converter.ShaderType shaderType, ShaderDesc.Language shaderLanguage,
+            String spirvTargetProfile, boolean isDebug, boolean softFail, BuildCache cache) throws IOException, CompileExceptionError {
+        if (shaderLanguage == ShaderDesc.Language.LANGUAGE_SPIRV) {
+            return buildSpirvFromGLSL(fullShaderSource, shaderType, resourceOutputPath, spirvTargetProfile, isDebug, softFail, cache);
+        } else {
+            return buildGLSL(fullShaderSource, shaderType, shaderLanguage, isDebug);
+        }
+    }
+
     // Generate a shader desc struct that consists of either the built shader desc, or a list of compile warnings/errors
+    // The language variants are built concurrently on at most maxThreads threads within the CPU budget of the build, but the results are kept in the
+    // order of the languages, so the output is the same as when building them one by one
     static private ArrayList<ShaderBuildResult> getBaseShaderBuildResults(String resourceOutputPath, String fullShaderSource,
             ES2ToES3Converter.ShaderType shaderType, ShaderDesc.Language[] shaderLanguages,
-            String spirvTargetProfile, boolean isDebug, boolean softFail) throws IOException, CompileExceptionError {
+            String spirvTargetProfile, boolean isDebug, boolean softFail, BuildCache cache, int maxThreads) throws IOException, CompileExceptionError {
 
         ArrayList<ShaderBuildResult> shaderBuildResults = new ArrayList<ShaderBuildResult>();
 
+        if (maxThreads <= 1 || shaderLanguages.length <= 1) {
+            for (ShaderDesc.Language shaderLanguage : shaderLanguages) {
+                shaderBuildResults.add(buildShaderVariant(resourceOutputPath, fullShaderSource, shaderType, shaderLanguage, spirvTargetProfile, isDebug, softFail, cache));
+            }
+            return shaderBuildResults;
+        }
+
+        CpuBudget.Lease lease = CpuBudget.acquire("shader-variant", Math.min(maxThreads, shaderLanguages.length));
+        ArrayList<FutureTask<ShaderBuildResult>> futures = new ArrayList<FutureTask<ShaderBuildResult>>();
         for (ShaderDesc.Language shaderLanguage : shaderLanguages) {
-            if (shaderLanguage == ShaderDesc.Language.LANGUAGE_SPIRV) {
-                shaderBuildResults.add(buildSpirvFromGLSL(fullShaderSource, shaderType, resourceOutputPath, spirvTargetProfile, isDebug, softFail));
-            } else {
-                shaderBuildResults.add(buildGLSL(fullShaderSource, shaderType, shaderLanguage, isDebug));
+            futures.add(new FutureTask<ShaderBuildResult>(() -> buildShaderVariant(resourceOutputPath, fullShaderSource, shaderType, shaderLanguage, spirvTargetProfile, isDebug, softFail, cache)));
+        }
+
+        try {
+            // The last variant is built on this thread, which is one of the threads of the lease
+            for (int i = 0; i < futures.size() - 1; ++i) {
+                lease.execute(futures.get(i));
             }
+            lease.run(futures.get(futures.size() - 1));
+
+            for (Future<ShaderBuildResult> future : futures) {
+                shaderBuildResults.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while building shader " + resourceOutputPath, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CompileExceptionError) {
+                throw (CompileExceptionError) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            for (Future<ShaderBuildResult> future : futures) {
+                future.cancel(true);
+            }
+            lease.close();
         }
 
         return shaderBuildResults;
     }
 
+    static private int getDefaultThreadCount() {
+        return CpuBudget.getThreads();
+    }
+
     static private ShaderDescBuildResult buildResultsToShaderDescBuildResults(ArrayList<ShaderBuildResult> shaderBuildResults) {
 
         ShaderDescBuildResult shaderDescBuildResult = new ShaderDescBuildResult();
@@ -639,7 +741,7 @@ public abstract class ShaderProgramBuilder extends Builder<ShaderPreprocessor> {
     static public ShaderDescBuildResult makeShaderDescWithVariants(String resourceOutputPath, String shaderSource, ES2ToES3Converter.ShaderType shaderType,
             ShaderDesc.Language[] shaderLanguages, int maxPageCount) throws IOException, CompileExceptionError {
 
-        ArrayList<ShaderBuildResult> shaderBuildResults = getBaseShaderBuildResults(resourceOutputPath, shaderSource, shaderType, shaderLanguages, "", false, true);
+        ArrayList<ShaderBuildResult> shaderBuildResults = getBaseShaderBuildResults(resourceOutputPath, shaderSource, shaderType, shaderLanguages, "", false, true, null, getDefaultThreadCount());
 
         for (ShaderDesc.Language shaderLanguage : shaderLanguages) {
             if (VariantTextureArrayFallback.isRequired(shaderLanguage)) {
@@ -660,10 +762,15 @@ public abstract class ShaderProgramBuilder extends Builder<ShaderPreprocessor> {
 
         String finalShaderSource  = shaderPreprocessor.getCompiledSource();
         String spirvTargetProfile = platformKey == Platform.X86_64Ios ? "es" : "";
+        BuildCache cache          = this.project != null ? this.project.getBuildCache("shader") : null;
+        int maxThreads            = getDefaultThreadCount();
+        if (this.project != null) {
+            maxThreads = Integer.parseInt(this.project.option("shader-threads", String.valueOf(maxThreads)));
+        }
 
         return buildResultsToShaderDescBuildResults(getBaseShaderBuildResults(resourceOutputPath, finalShaderSource, shaderType,
             getShaderLanguagesList(platformKey, outputSpirv),
-            spirvTargetProfile, isDebug, softFail));
+            spirvTargetProfile, isDebug, softFail, cache, maxThreads));
     }
 
     // Called from command line to invoke shader pipeline directly (mostly for tests)
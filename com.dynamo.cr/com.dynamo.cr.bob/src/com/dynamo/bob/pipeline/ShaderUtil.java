@@ -177,8 +177,10 @@ public class ShaderUtil {
         }
     }
 
+    // Reflection data of a SPIR-V module, as written by "spirv-cross --reflect".
+    // The reflector is immutable and can be used from several threads.
     public static class SPIRVReflector {
-        private static JsonNode root;
+        private final JsonNode root;
 
         public SPIRVReflector(String json) throws IOException
         {
@@ -199,7 +201,7 @@ public class ShaderUtil {
             public ArrayList<Resource> uniforms;
         }
 
-        public static ArrayList<UniformBlock> getUniformBlocks()
+        public ArrayList<UniformBlock> getUniformBlocks()
         {
             ArrayList<UniformBlock> uniformBlocks = new ArrayList<UniformBlock>();
 
@@ -248,7 +250,7 @@ public class ShaderUtil {
             return uniformBlocks;
         }
 
-        public static ArrayList<Resource> getTextures() {
+        public ArrayList<Resource> getTextures() {
             ArrayList<Resource> textures = new ArrayList<Resource>();
 
             JsonNode texturesNode = root.get("textures");
@@ -271,7 +273,7 @@ public class ShaderUtil {
             return textures;
         }
 
-        public static ArrayList<Resource> getInputs() {
+        public ArrayList<Resource> getInputs() {
             ArrayList<Resource> inputs = new ArrayList<Resource>();
 
             JsonNode inputsNode = root.get("inputs");
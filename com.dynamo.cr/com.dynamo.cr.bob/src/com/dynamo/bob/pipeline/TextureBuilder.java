@@ -14,9 +14,9 @@
 
 package com.dynamo.bob.pipeline;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.util.EnumSet;
 
 import com.dynamo.bob.Bob;
 import com.dynamo.bob.Builder;
@@ -25,6 +25,7 @@ import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.Project;
 import com.dynamo.bob.Task;
 import com.dynamo.bob.Task.TaskBuilder;
+import com.dynamo.bob.TexcLibrary.FlipAxis;
 import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.util.TextureUtil;
 import com.dynamo.graphics.proto.Graphics.TextureImage;
@@ -58,19 +59,19 @@ public class TextureBuilder extends Builder<Void> {
         TextureProfile texProfile = TextureUtil.getTextureProfileByPath(this.project.getTextureProfiles(), task.input(0).getPath());
         Bob.verbose("Compiling %s using profile %s", task.input(0).getPath(), texProfile!=null?texProfile.getName():"<none>");
 
-        ByteArrayInputStream is = new ByteArrayInputStream(task.input(0).getContent());
+        BufferedImage image = this.project.getDecodedImageCache().get(task.input(0));
         TextureImage texture;
         try {
+            if (image == null) {
+                throw new TextureGeneratorException("Unknown texture format.");
+            }
             boolean compress = project.option("texture-compression", "false").equals("true");
-            texture = TextureGenerator.generate(is, texProfile, compress);
+            texture = TextureGenerator.generate(image, texProfile, compress, EnumSet.of(FlipAxis.FLIP_AXIS_Y), TextureGenerator.getBuildCache(project));
         } catch (TextureGeneratorException e) {
             throw new CompileExceptionError(task.input(0), -1, e.getMessage(), e);
         }
 
-        ByteArrayOutputStream out = new ByteArrayOutputStream(1024 * 1024);
-        texture.writeTo(out);
-        out.close();
-        task.output(0).setContent(out.toByteArray());
+        task.output(0).setContent(texture.toByteArray());
     }
 
 }
@@ -34,13 +34,21 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.EnumSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.imageio.ImageIO;
 
+import com.dynamo.bob.CompileExceptionError;
+import com.dynamo.bob.Project;
 import com.dynamo.bob.TexcLibrary;
 import com.dynamo.bob.TexcLibrary.ColorSpace;
 import com.dynamo.bob.TexcLibrary.DitherType;
@@ -48,6 +56,9 @@ import com.dynamo.bob.TexcLibrary.PixelFormat;
 import com.dynamo.bob.TexcLibrary.CompressionLevel;
 import com.dynamo.bob.TexcLibrary.CompressionType;
 import com.dynamo.bob.TexcLibrary.FlipAxis;
+import com.dynamo.bob.archive.EngineVersion;
+import com.dynamo.bob.cache.BuildCache;
+import com.dynamo.bob.util.CpuBudget;
 import com.dynamo.bob.util.TextureUtil;
 import com.dynamo.bob.util.TimeProfiler;
 import com.dynamo.graphics.proto.Graphics.PlatformProfile;
@@ -56,12 +67,42 @@ import com.dynamo.graphics.proto.Graphics.TextureImage.TextureFormat;
 import com.dynamo.graphics.proto.Graphics.TextureFormatAlternative;
 import com.dynamo.graphics.proto.Graphics.TextureImage.Type;
 import com.dynamo.graphics.proto.Graphics.TextureProfile;
-import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.UnsafeByteOperations;
 import com.sun.jna.Pointer;
 
 
 public class TextureGenerator {
 
+    // Change when the encoded images are created differently, to invalidate old cache entries
+    private static final int ENCODE_CACHE_VERSION = 1;
+
+    // The max size of the encoded textures kept between builds, unless set with the "texture-cache-size" option
+    private static final long DEFAULT_ENCODE_CACHE_SIZE_MB = 1024;
+
+    private static AtomicInteger encodeCacheHits = new AtomicInteger();
+    private static AtomicInteger encodeCacheMisses = new AtomicInteger();
+
+    /**
+     * Get the persistent cache of encoded textures, shared by all texture, atlas, tile source and cubemap builders
+     * @param project The project
+     * @return The cache, bounded by the "texture-cache-size" option (in megabytes)
+     * @throws CompileExceptionError if the option is not a valid size
+     */
+    public static BuildCache getBuildCache(Project project) throws CompileExceptionError {
+        String size = project.option("texture-cache-size", String.valueOf(DEFAULT_ENCODE_CACHE_SIZE_MB));
+        long sizeMB;
+        try {
+            sizeMB = Long.parseLong(size.trim());
+        } catch (NumberFormatException e) {
+            sizeMB = -1;
+        }
+        if (sizeMB <= 0) {
+            throw new CompileExceptionError(String.format("Invalid value of option 'texture-cache-size': '%s', expected a size in megabytes", size));
+        }
+        return project.getBuildCache("texture", sizeMB * 1024 * 1024);
+    }
+
     private static HashMap<TextureFormatAlternative.CompressionLevel, Integer> compressionLevelLUT = new HashMap<TextureFormatAlternative.CompressionLevel, Integer>();
     static {
         compressionLevelLUT.put(TextureFormatAlternative.CompressionLevel.FAST, CompressionLevel.CL_FAST);
@@ -190,104 +231,103 @@ public class TextureGenerator {
         return targetFormat;
     }
 
+    // Copy the pixels of the image into native memory once, where texc can read them
+    // directly for each texture format without JNA copying them in and back out again
     private static ByteBuffer getByteBuffer(BufferedImage bi)
     {
         ByteBuffer byteBuffer;
         DataBuffer dataBuffer = bi.getRaster().getDataBuffer();
 
-        if (dataBuffer instanceof DataBufferByte) { // This is the usual case, where data is simply wrapped
+        if (dataBuffer instanceof DataBufferByte) { // This is the usual case
             byte[] pixelData = ((DataBufferByte) dataBuffer).getData();
-            byteBuffer = ByteBuffer.wrap(pixelData);
+            byteBuffer = ByteBuffer.allocateDirect(pixelData.length);
+            byteBuffer.put(pixelData);
         }
         else if (dataBuffer instanceof DataBufferUShort) {
             short[] pixelData = ((DataBufferUShort) dataBuffer).getData();
-            byteBuffer = ByteBuffer.allocate(pixelData.length * 2);
+            byteBuffer = ByteBuffer.allocateDirect(pixelData.length * 2);
             byteBuffer.asShortBuffer().put(ShortBuffer.wrap(pixelData));
         }
         else if (dataBuffer instanceof DataBufferShort) {
             short[] pixelData = ((DataBufferShort) dataBuffer).getData();
-            byteBuffer = ByteBuffer.allocate(pixelData.length * 2);
+            byteBuffer = ByteBuffer.allocateDirect(pixelData.length * 2);
             byteBuffer.asShortBuffer().put(ShortBuffer.wrap(pixelData));
         }
         else if (dataBuffer instanceof DataBufferInt) {
             int[] pixelData = ((DataBufferInt) dataBuffer).getData();
-            byteBuffer = ByteBuffer.allocate(pixelData.length * 4);
+            byteBuffer = ByteBuffer.allocateDirect(pixelData.length * 4);
             byteBuffer.asIntBuffer().put(IntBuffer.wrap(pixelData));
         }
         else {
             throw new IllegalArgumentException("Not implemented for data buffer type: " + dataBuffer.getClass());
         }
 
+        byteBuffer.rewind();
         return byteBuffer;
     }
 
-    private static TextureImage.Image generateFromColorAndFormat(String name, BufferedImage image, ColorModel colorModel, TextureFormat textureFormat, TextureFormatAlternative.CompressionLevel compressionLevel, TextureImage.CompressionType compressionType, boolean generateMipMaps, int maxTextureSize, boolean compress, boolean premulAlpha, EnumSet<FlipAxis> flipAxis) throws TextureGeneratorException, IOException {
-
-        int width = image.getWidth();
-        int height = image.getHeight();
-        int componentCount = colorModel.getNumComponents();
-        Integer pixelFormat = PixelFormat.R8G8B8A8;
+    // The settings of one texture format alternative, as they are passed to texc, and its encoded image
+    private static class Encoding {
+        TextureFormat textureFormat;
+        TextureImage.CompressionType compressionType;
         int texcCompressionLevel;
         int texcCompressionType;
+        int pixelFormat;
+        boolean generateMipMaps;
+        boolean premultiply;
+        EnumSet<FlipAxis> flipAxis;
+        int newWidth;
+        int newHeight;
+        // The key of the encoded image in the build cache, or null if it isn't cached
+        String cacheKey;
+        TextureImage.Image image;
+
+        Encoding(int width, int height, TextureFormat textureFormat, TextureFormatAlternative.CompressionLevel compressionLevel, TextureImage.CompressionType compressionType, boolean generateMipMaps, int maxTextureSize, boolean compress, boolean premulAlpha, EnumSet<FlipAxis> flipAxis) throws TextureGeneratorException {
+            // convert from protobuf specified compressionlevel to texc int
+            texcCompressionLevel = compressionLevelLUT.get(compressionLevel);
+
+            // convert compression type from WebP to something else
+            if (compressionType == TextureImage.CompressionType.COMPRESSION_TYPE_WEBP)
+                compressionType = TextureImage.CompressionType.COMPRESSION_TYPE_DEFAULT;
+            else
+            if (compressionType == TextureImage.CompressionType.COMPRESSION_TYPE_WEBP_LOSSY)
+                compressionType = TextureImage.CompressionType.COMPRESSION_TYPE_BASIS_UASTC;
 
-        int dataSize = width * height * 4;
-
-
-        ByteBuffer buffer_input = getByteBuffer(image);
-
-
-        // convert from protobuf specified compressionlevel to texc int
-        texcCompressionLevel = compressionLevelLUT.get(compressionLevel);
-
-        // convert compression type from WebP to something else
-        if (compressionType == TextureImage.CompressionType.COMPRESSION_TYPE_WEBP)
-            compressionType = TextureImage.CompressionType.COMPRESSION_TYPE_DEFAULT;
-        else
-        if (compressionType == TextureImage.CompressionType.COMPRESSION_TYPE_WEBP_LOSSY)
-            compressionType = TextureImage.CompressionType.COMPRESSION_TYPE_BASIS_UASTC;
-
-        // convert from protobuf specified compressionType to texc int
-        texcCompressionType = compressionTypeLUT.get(compressionType);
+            // convert from protobuf specified compressionType to texc int
+            texcCompressionType = compressionTypeLUT.get(compressionType);
 
-        if (!compress) {
-            texcCompressionLevel = CompressionLevel.CL_FAST;
-            texcCompressionType = CompressionType.CT_DEFAULT;
-            compressionType = TextureImage.CompressionType.COMPRESSION_TYPE_DEFAULT;
+            if (!compress) {
+                texcCompressionLevel = CompressionLevel.CL_FAST;
+                texcCompressionType = CompressionType.CT_DEFAULT;
+                compressionType = TextureImage.CompressionType.COMPRESSION_TYPE_DEFAULT;
 
-            // If pvrtc or etc1, set these as rgba instead. Since these formats will take some time to compress even
-            // with "fast" setting and we don't want to increase the build time more than we have to.
-            if (textureFormat == TextureFormat.TEXTURE_FORMAT_RGB_PVRTC_2BPPV1 || textureFormat == TextureFormat.TEXTURE_FORMAT_RGB_PVRTC_4BPPV1 || textureFormat == TextureFormat.TEXTURE_FORMAT_RGB_ETC1) {
-                textureFormat = TextureFormat.TEXTURE_FORMAT_RGB;
-            } else if (textureFormat == TextureFormat.TEXTURE_FORMAT_RGBA_PVRTC_2BPPV1 || textureFormat == TextureFormat.TEXTURE_FORMAT_RGBA_PVRTC_4BPPV1) {
-                textureFormat = TextureFormat.TEXTURE_FORMAT_RGBA;
+                // If pvrtc or etc1, set these as rgba instead. Since these formats will take some time to compress even
+                // with "fast" setting and we don't want to increase the build time more than we have to.
+                if (textureFormat == TextureFormat.TEXTURE_FORMAT_RGB_PVRTC_2BPPV1 || textureFormat == TextureFormat.TEXTURE_FORMAT_RGB_PVRTC_4BPPV1 || textureFormat == TextureFormat.TEXTURE_FORMAT_RGB_ETC1) {
+                    textureFormat = TextureFormat.TEXTURE_FORMAT_RGB;
+                } else if (textureFormat == TextureFormat.TEXTURE_FORMAT_RGBA_PVRTC_2BPPV1 || textureFormat == TextureFormat.TEXTURE_FORMAT_RGBA_PVRTC_4BPPV1) {
+                    textureFormat = TextureFormat.TEXTURE_FORMAT_RGBA;
+                }
             }
-        }
-        else {
-            // Issue 5753: Since we currently don't support precompressed hardware textures so we use UASTC instead
-            if (textureFormat == TextureFormat.TEXTURE_FORMAT_RGB_PVRTC_2BPPV1 || textureFormat == TextureFormat.TEXTURE_FORMAT_RGB_PVRTC_4BPPV1 || textureFormat == TextureFormat.TEXTURE_FORMAT_RGB_ETC1) {
-                compressionType = TextureImage.CompressionType.COMPRESSION_TYPE_BASIS_UASTC;
-                textureFormat = TextureFormat.TEXTURE_FORMAT_RGB;
-            } else if (textureFormat == TextureFormat.TEXTURE_FORMAT_RGBA_PVRTC_2BPPV1 || textureFormat == TextureFormat.TEXTURE_FORMAT_RGBA_PVRTC_4BPPV1) {
-                compressionType = TextureImage.CompressionType.COMPRESSION_TYPE_BASIS_UASTC;
-                textureFormat = TextureFormat.TEXTURE_FORMAT_RGBA;
+            else {
+                // Issue 5753: Since we currently don't support precompressed hardware textures so we use UASTC instead
+                if (textureFormat == TextureFormat.TEXTURE_FORMAT_RGB_PVRTC_2BPPV1 || textureFormat == TextureFormat.TEXTURE_FORMAT_RGB_PVRTC_4BPPV1 || textureFormat == TextureFormat.TEXTURE_FORMAT_RGB_ETC1) {
+                    compressionType = TextureImage.CompressionType.COMPRESSION_TYPE_BASIS_UASTC;
+                    textureFormat = TextureFormat.TEXTURE_FORMAT_RGB;
+                } else if (textureFormat == TextureFormat.TEXTURE_FORMAT_RGBA_PVRTC_2BPPV1 || textureFormat == TextureFormat.TEXTURE_FORMAT_RGBA_PVRTC_4BPPV1) {
+                    compressionType = TextureImage.CompressionType.COMPRESSION_TYPE_BASIS_UASTC;
+                    textureFormat = TextureFormat.TEXTURE_FORMAT_RGBA;
+                }
             }
-        }
-
-        // pick a pixel format (for texc) based on the texture format
-        pixelFormat = pixelFormatLUT.get(textureFormat);
-        if (pixelFormat == null) {
-            throw new TextureGeneratorException("Invalid texture format.");
-        }
 
-        Pointer texture = TexcLibrary.TEXC_Create(name, width, height, PixelFormat.A8B8G8R8, ColorSpace.SRGB, texcCompressionType, buffer_input);
-        if (texture == null) {
-            throw new TextureGeneratorException("Failed to create texture");
-        }
-
-        try {
+            // pick a pixel format (for texc) based on the texture format
+            Integer pixelFormat = pixelFormatLUT.get(textureFormat);
+            if (pixelFormat == null) {
+                throw new TextureGeneratorException("Invalid texture format.");
+            }
 
-            int newWidth  = image.getWidth();
-            int newHeight = image.getHeight();
+            int newWidth  = width;
+            int newHeight = height;
 
             // For pvrtc textures
             newWidth = TextureUtil.closestPOT(newWidth);
@@ -317,51 +357,118 @@ public class TextureGenerator {
                 newHeight = newWidth;
             }
 
+            this.textureFormat = textureFormat;
+            this.compressionType = compressionType;
+            this.pixelFormat = pixelFormat;
+            this.generateMipMaps = generateMipMaps;
+            this.premultiply = premulAlpha && !ColorModel.getRGBdefault().isAlphaPremultiplied();
+            this.flipAxis = flipAxis;
+            this.newWidth = newWidth;
+            this.newHeight = newHeight;
+        }
+
+        // The encodings with the same base key start from the same premultiplied, resized and flipped pixels
+        String getBaseKey() {
+            return String.format("%b:%dx%d:%s", premultiply, newWidth, newHeight, flipAxis);
+        }
+    }
+
+    // The pixels an encoding starts from
+    private static class Base {
+        final ByteBuffer data;
+        final int pixelFormat;
+
+        Base(ByteBuffer data, int pixelFormat) {
+            this.data = data;
+            this.pixelFormat = pixelFormat;
+        }
+    }
+
+    // Creating textures isn't thread safe in texc, since the encoders are initialized on first use
+    private static synchronized Pointer createTexture(int width, int height, int pixelFormat, int texcCompressionType, ByteBuffer data) throws TextureGeneratorException {
+        Pointer texture = TexcLibrary.TEXC_Create(null, width, height, pixelFormat, ColorSpace.SRGB, texcCompressionType, data);
+        if (texture == null) {
+            throw new TextureGeneratorException("Failed to create texture");
+        }
+        return texture;
+    }
+
+    // Premultiply, resize and flip the image as the encoding needs it. The result is the same for all texc encoders.
+    private static Base createBase(ByteBuffer buffer_input, int width, int height, Encoding encoding) throws TextureGeneratorException {
+        if (!encoding.premultiply && width == encoding.newWidth && height == encoding.newHeight && encoding.flipAxis.isEmpty()) {
+            return new Base(buffer_input, PixelFormat.A8B8G8R8);
+        }
+
+        Pointer texture = createTexture(width, height, PixelFormat.A8B8G8R8, CompressionType.CT_DEFAULT, buffer_input);
+        try {
             // Premultiply before scale so filtering cannot introduce colour artefacts.
-            if (premulAlpha && !ColorModel.getRGBdefault().isAlphaPremultiplied()) {
+            if (encoding.premultiply) {
                 if (!TexcLibrary.TEXC_PreMultiplyAlpha(texture)) {
                     throw new TextureGeneratorException("could not premultiply alpha");
                 }
             }
 
-            if (width != newWidth || height != newHeight) {
-                if (!TexcLibrary.TEXC_Resize(texture, newWidth, newHeight)) {
+            if (width != encoding.newWidth || height != encoding.newHeight) {
+                if (!TexcLibrary.TEXC_Resize(texture, encoding.newWidth, encoding.newHeight)) {
                     throw new TextureGeneratorException("could not resize texture to POT");
                 }
             }
 
             // Loop over all axis that should be flipped.
-            for (FlipAxis flip : flipAxis) {
+            for (FlipAxis flip : encoding.flipAxis) {
                 if (!TexcLibrary.TEXC_Flip(texture, flip.getValue())) {
                     throw new TextureGeneratorException("could not flip on " + flip.toString());
                 }
             }
 
+            // Before encoding, the data is the single RGBA8888 mip map
+            int bufferSize = TexcLibrary.TEXC_GetTotalDataSize(texture);
+            ByteBuffer data = ByteBuffer.allocateDirect(bufferSize);
+            TexcLibrary.TEXC_GetData(texture, data, bufferSize);
+            return new Base(data, PixelFormat.R8G8B8A8);
+        } finally {
+            TexcLibrary.TEXC_Destroy(texture);
+        }
+    }
+
+    private static TextureImage.Image encode(Base base, Encoding encoding, int width, int height) throws TextureGeneratorException {
+        int newWidth = encoding.newWidth;
+        int newHeight = encoding.newHeight;
+        boolean generateMipMaps = encoding.generateMipMaps;
+
+        Pointer texture = createTexture(newWidth, newHeight, base.pixelFormat, encoding.texcCompressionType, base.data);
+        try {
+
             if (generateMipMaps) {
                 if (!TexcLibrary.TEXC_GenMipMaps(texture)) {
                     throw new TextureGeneratorException("could not generate mip-maps");
                 }
             }
 
-            int max_threads = 8;
-            if (!TexcLibrary.TEXC_Encode(texture, pixelFormat, ColorSpace.SRGB, texcCompressionLevel, texcCompressionType, generateMipMaps, max_threads)) {
-                throw new TextureGeneratorException("could not encode");
+            // texc starts its own threads, as many as the CPU budget of the build has free
+            try (CpuBudget.Lease lease = CpuBudget.acquire("texture-encode", Integer.MAX_VALUE)) {
+                // The work of the native threads can't be timed from here
+                lease.setUnmeasured();
+                boolean encoded = TexcLibrary.TEXC_Encode(texture, encoding.pixelFormat, ColorSpace.SRGB, encoding.texcCompressionLevel, encoding.texcCompressionType, generateMipMaps, lease.getThreads());
+                if (!encoded) {
+                    throw new TextureGeneratorException("could not encode");
+                }
             }
 
             int bufferSize = TexcLibrary.TEXC_GetTotalDataSize(texture);
             ByteBuffer buffer_output = ByteBuffer.allocateDirect(bufferSize);
-            dataSize = TexcLibrary.TEXC_GetData(texture, buffer_output, bufferSize);
+            int dataSize = TexcLibrary.TEXC_GetData(texture, buffer_output, bufferSize);
             buffer_output.limit(dataSize);
 
             TextureImage.Image.Builder raw = TextureImage.Image.newBuilder().setWidth(newWidth).setHeight(newHeight)
-                    .setOriginalWidth(width).setOriginalHeight(height).setFormat(textureFormat);
+                    .setOriginalWidth(width).setOriginalHeight(height).setFormat(encoding.textureFormat);
 
             boolean texcBasisCompression = false;
 
             // If we're writing a .basis file, we don't actually store each mip map separately
             // In this case, we pretend that there's only one mip level
-            if (texcCompressionType == CompressionType.CT_BASIS_UASTC ||
-                texcCompressionType == CompressionType.CT_BASIS_ETC1S )
+            if (encoding.texcCompressionType == CompressionType.CT_BASIS_UASTC ||
+                encoding.texcCompressionType == CompressionType.CT_BASIS_ETC1S )
             {
                 generateMipMaps = false;
                 texcBasisCompression = true;
@@ -403,9 +510,10 @@ public class TextureGenerator {
                     break;
             }
 
-            raw.setData(ByteString.copyFrom(buffer_output));
-            raw.setFormat(textureFormat);
-            raw.setCompressionType(compressionType);
+            // The output buffer is never written again, so the data can be used without a copy
+            raw.setData(UnsafeByteOperations.unsafeWrap(buffer_output));
+            raw.setFormat(encoding.textureFormat);
+            raw.setCompressionType(encoding.compressionType);
             raw.setCompressionFlags(TexcLibrary.TEXC_GetCompressionFlags(texture));
 
             return raw.build();
@@ -415,6 +523,115 @@ public class TextureGenerator {
         }
     }
 
+    // Encoding is by far the most expensive part of generating a texture, so the encoded images are
+    // kept in a build cache keyed on the pixels and every setting the encoding depends on
+    private static String getEncodeCacheKey(String pixelKey, int componentCount, TextureFormat textureFormat, TextureFormatAlternative.CompressionLevel compressionLevel, TextureImage.CompressionType compressionType, boolean generateMipMaps, int maxTextureSize, boolean compress, boolean premulAlpha, EnumSet<FlipAxis> flipAxis) {
+        if (pixelKey == null) {
+            return null;
+        }
+        // The texc library is part of bob, so the engine version also identifies the encoder version
+        return BuildCache.calculateKey("texture", ENCODE_CACHE_VERSION, EngineVersion.sha1, pixelKey, componentCount,
+                textureFormat, compressionLevel, compressionType, generateMipMaps, maxTextureSize, compress, premulAlpha, flipAxis);
+    }
+
+    private static TextureImage.Image getCached(BuildCache cache, String key) {
+        byte[] data = cache.get(key);
+        if (data != null) {
+            try {
+                TextureImage.Image raw = TextureImage.Image.parseFrom(data);
+                encodeCacheHits.incrementAndGet();
+                return raw;
+            } catch (InvalidProtocolBufferException e) {
+                // a broken entry is encoded again
+            }
+        }
+        encodeCacheMisses.incrementAndGet();
+        return null;
+    }
+
+    // Generate the encoded image of each encoding. The image is premultiplied, resized and flipped once
+    // per distinct base key, and the format encodes are then run concurrently within the CPU budget.
+    private static void encodeAll(List<Encoding> encodings, ByteBuffer buffer_input, int width, int height, BuildCache cache) throws TextureGeneratorException, IOException {
+        List<Encoding> pending = new ArrayList<Encoding>();
+        for (Encoding encoding : encodings) {
+            if (encoding.cacheKey != null) {
+                encoding.image = getCached(cache, encoding.cacheKey);
+            }
+            if (encoding.image == null) {
+                pending.add(encoding);
+            }
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        Map<String, Base> bases = new HashMap<String, Base>();
+        for (Encoding encoding : pending) {
+            String baseKey = encoding.getBaseKey();
+            if (!bases.containsKey(baseKey)) {
+                bases.put(baseKey, createBase(buffer_input, width, height, encoding));
+            }
+        }
+
+        List<FutureTask<TextureImage.Image>> tasks = new ArrayList<FutureTask<TextureImage.Image>>();
+        for (Encoding encoding : pending) {
+            Base base = bases.get(encoding.getBaseKey());
+            tasks.add(new FutureTask<TextureImage.Image>(() -> encode(base, encoding, width, height)));
+        }
+
+        try (CpuBudget.Lease lease = CpuBudget.acquire("texture-formats", tasks.size())) {
+            // The last format is encoded on this thread, which is one of the threads of the lease
+            for (int i = 0; i < tasks.size() - 1; ++i) {
+                lease.execute(tasks.get(i));
+            }
+            lease.run(tasks.get(tasks.size() - 1));
+
+            for (int i = 0; i < tasks.size(); ++i) {
+                Encoding encoding = pending.get(i);
+                encoding.image = tasks.get(i).get();
+                if (encoding.cacheKey != null) {
+                    cache.put(encoding.cacheKey, encoding.image.toByteArray());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while encoding texture", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TextureGeneratorException) {
+                throw (TextureGeneratorException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            for (FutureTask<TextureImage.Image> task : tasks) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    public static void resetEncodeCacheStats() {
+        encodeCacheHits.set(0);
+        encodeCacheMisses.set(0);
+    }
+
+    /**
+     * @return The number of encoded images taken from a build cache since the stats were reset
+     */
+    public static int getEncodeCacheHits() {
+        return encodeCacheHits.get();
+    }
+
+    /**
+     * @return The number of images encoded and put in a build cache since the stats were reset
+     */
+    public static int getEncodeCacheMisses() {
+        return encodeCacheMisses.get();
+    }
+
     // For convenience, some methods without the flipAxis and/or compress argument.
     // It will always try to flip on Y axis since this is the byte order that OpenGL expects for regular/most textures,
     // for those methods without this argument.
@@ -457,9 +674,14 @@ public class TextureGenerator {
         return generate(origImage, texProfile, compress, EnumSet.of(FlipAxis.FLIP_AXIS_Y));
     }
 
-    // Main TextureGenerator.generate method that has all required arguments and the expected BufferedImage type for origImage.
     // Used by the editor
     public static TextureImage generate(BufferedImage origImage, TextureProfile texProfile, boolean compress, EnumSet<FlipAxis> flipAxis) throws TextureGeneratorException, IOException {
+        return generate(origImage, texProfile, compress, flipAxis, null);
+    }
+
+    // Main TextureGenerator.generate method that has all required arguments and the expected BufferedImage type for origImage.
+    // The encoded images are reused from the cache, if one is given, when the same pixels were encoded with the same settings before.
+    public static TextureImage generate(BufferedImage origImage, TextureProfile texProfile, boolean compress, EnumSet<FlipAxis> flipAxis, BuildCache cache) throws TextureGeneratorException, IOException {
         // Convert image into readable format
         // Always convert to ABGR since the texc lib demands that for resizing etc
         TimeProfiler.start("generateTexture");
@@ -470,10 +692,20 @@ public class TextureGenerator {
             image = origImage;
         }
 
+        ByteBuffer buffer_input = getByteBuffer(image);
+
+        String pixelKey = null;
+        if (cache != null && cache.isCacheEnabled()) {
+            byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+            pixelKey = BuildCache.calculateKey(pixels, image.getWidth(), image.getHeight());
+        }
+
         // Setup texture format and settings
         ColorModel colorModel = origImage.getColorModel();
         int componentCount = colorModel.getNumComponents();
-        TextureImage.Builder textureBuilder = TextureImage.newBuilder();
+        int width = image.getWidth();
+        int height = image.getHeight();
+        List<Encoding> encodings = new ArrayList<Encoding>();
 
         if (texProfile != null) {
 
@@ -489,32 +721,30 @@ public class TextureGenerator {
                     // image has 3 channels, even if the texture profile specified a format with 4 channels.
                     textureFormat = pickOptimalFormat(componentCount, textureFormat);
 
-                    try {
-                        TextureImage.Image raw = generateFromColorAndFormat(null, image, colorModel, textureFormat, compressionLevel, compressionType, platformProfile.getMipmaps(), platformProfile.getMaxTextureSize(), compress, platformProfile.getPremultiplyAlpha(), flipAxis);
-                        textureBuilder.addAlternatives(raw);
-                    } catch (TextureGeneratorException e) {
-                        throw e;
-                    }
-
+                    Encoding encoding = new Encoding(width, height, textureFormat, compressionLevel, compressionType, platformProfile.getMipmaps(), platformProfile.getMaxTextureSize(), compress, platformProfile.getPremultiplyAlpha(), flipAxis);
+                    encoding.cacheKey = getEncodeCacheKey(pixelKey, componentCount, textureFormat, compressionLevel, compressionType, platformProfile.getMipmaps(), platformProfile.getMaxTextureSize(), compress, platformProfile.getPremultiplyAlpha(), flipAxis);
+                    encodings.add(encoding);
                 }
             }
-
-            textureBuilder.setCount(1);
-            if (textureBuilder.getAlternativesCount() == 0) {
-                texProfile = null;
-            }
         }
 
         // If no texture profile was supplied, or no matching format was found
-        if (texProfile == null) {
+        if (encodings.isEmpty()) {
 
             // Guess texture format based on number color components of input image
             TextureFormat textureFormat = pickOptimalFormat(componentCount, TextureFormat.TEXTURE_FORMAT_RGBA);
-            TextureImage.Image raw = generateFromColorAndFormat(null, image, colorModel, textureFormat, TextureFormatAlternative.CompressionLevel.NORMAL, TextureImage.CompressionType.COMPRESSION_TYPE_DEFAULT, true, 0, false, true, flipAxis);
-            textureBuilder.addAlternatives(raw);
-            textureBuilder.setCount(1);
+            Encoding encoding = new Encoding(width, height, textureFormat, TextureFormatAlternative.CompressionLevel.NORMAL, TextureImage.CompressionType.COMPRESSION_TYPE_DEFAULT, true, 0, false, true, flipAxis);
+            encoding.cacheKey = getEncodeCacheKey(pixelKey, componentCount, textureFormat, TextureFormatAlternative.CompressionLevel.NORMAL, TextureImage.CompressionType.COMPRESSION_TYPE_DEFAULT, true, 0, false, true, flipAxis);
+            encodings.add(encoding);
+        }
+
+        encodeAll(encodings, buffer_input, width, height, cache);
 
+        TextureImage.Builder textureBuilder = TextureImage.newBuilder();
+        for (Encoding encoding : encodings) {
+            textureBuilder.addAlternatives(encoding.image);
         }
+        textureBuilder.setCount(1);
 
         textureBuilder.setType(Type.TYPE_2D);
         TextureImage textureImage = textureBuilder.build();
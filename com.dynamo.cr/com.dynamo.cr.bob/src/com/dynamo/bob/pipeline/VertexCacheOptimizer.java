@@ -0,0 +1,235 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import java.util.Arrays;
+
+/**
+ * Reorders the triangles of an indexed triangle list so that the GPU can reuse
+ * more of the vertices it has already transformed, and the vertices so that they
+ * are fetched in the order they are used.
+ *
+ * The triangle order is Tom Forsyth's "Linear-Speed Vertex Cache Optimisation":
+ * triangles are added greedily, picking the one with the highest score among the
+ * triangles of the vertices in a simulated LRU cache. A vertex scores higher the
+ * more recently it was used and the fewer triangles it has left.
+ */
+public class VertexCacheOptimizer {
+
+    // The size of the simulated cache, and the tuning of the score from the paper
+    private static final int CACHE_SIZE = 32;
+    private static final float CACHE_DECAY_POWER = 1.5f;
+    private static final float LAST_TRIANGLE_SCORE = 0.75f;
+    private static final float VALENCE_BOOST_SCALE = 2.0f;
+    private static final float VALENCE_BOOST_POWER = 0.5f;
+    private static final int MAX_VALENCE = 64;
+
+    private static final float[] CACHE_SCORES = new float[CACHE_SIZE];
+    private static final float[] VALENCE_SCORES = new float[MAX_VALENCE];
+
+    static {
+        for (int i = 0; i < CACHE_SIZE; ++i) {
+            if (i < 3) {
+                // The vertices of the last triangle are scored the same, to not favour any direction
+                CACHE_SCORES[i] = LAST_TRIANGLE_SCORE;
+            } else {
+                CACHE_SCORES[i] = (float) Math.pow(1.0f - (i - 3) / (float) (CACHE_SIZE - 3), CACHE_DECAY_POWER);
+            }
+        }
+        for (int i = 1; i < MAX_VALENCE; ++i) {
+            VALENCE_SCORES[i] = VALENCE_BOOST_SCALE * (float) Math.pow(i, -VALENCE_BOOST_POWER);
+        }
+    }
+
+    private static float vertexScore(int cachePosition, int remainingTriangles) {
+        if (remainingTriangles == 0) {
+            return -1.0f;
+        }
+        float score = cachePosition >= 0 ? CACHE_SCORES[cachePosition] : 0.0f;
+        // Vertices with few triangles left are boosted, to get rid of lone triangles early
+        return score + VALENCE_SCORES[Math.min(remainingTriangles, MAX_VALENCE - 1)];
+    }
+
+    /**
+     * Reorder triangles for the post transform vertex cache. The vertices of each
+     * triangle are kept in the same order, so the winding is unchanged.
+     * @param indices the triangle list
+     * @param vertexCount the number of vertices
+     * @return the reordered triangle list
+     */
+    public static int[] optimizeTriangleOrder(int[] indices, int vertexCount) {
+        int triangleCount = indices.length / 3;
+        if (triangleCount == 0) {
+            return Arrays.copyOf(indices, indices.length);
+        }
+
+        // The triangles of each vertex, in offset order
+        int[] remaining = new int[vertexCount];
+        for (int i = 0; i < triangleCount * 3; ++i) {
+            ++remaining[indices[i]];
+        }
+        int[] offsets = new int[vertexCount + 1];
+        for (int v = 0; v < vertexCount; ++v) {
+            offsets[v + 1] = offsets[v] + remaining[v];
+        }
+        int[] vertexTriangles = new int[triangleCount * 3];
+        int[] fill = Arrays.copyOf(offsets, vertexCount);
+        for (int i = 0; i < triangleCount * 3; ++i) {
+            vertexTriangles[fill[indices[i]]++] = i / 3;
+        }
+
+        int[] cachePositions = new int[vertexCount];
+        Arrays.fill(cachePositions, -1);
+        float[] vertexScores = new float[vertexCount];
+        for (int v = 0; v < vertexCount; ++v) {
+            vertexScores[v] = vertexScore(-1, remaining[v]);
+        }
+        // Start with the triangle with the highest score
+        boolean[] added = new boolean[triangleCount];
+        int bestTriangle = 0;
+        float bestScore = -1.0f;
+        for (int t = 0; t < triangleCount; ++t) {
+            float score = vertexScores[indices[t * 3]] + vertexScores[indices[t * 3 + 1]] + vertexScores[indices[t * 3 + 2]];
+            if (score > bestScore) {
+                bestScore = score;
+                bestTriangle = t;
+            }
+        }
+
+        // The cache holds the vertices of the last triangle in front of the LRU vertices
+        int[] cache = new int[CACHE_SIZE + 3];
+        int[] newCache = new int[CACHE_SIZE + 3];
+        int cacheSize = 0;
+
+        int[] result = new int[triangleCount * 3];
+        int nextUnadded = 0;
+        for (int n = 0; n < triangleCount; ++n) {
+            if (bestTriangle < 0) {
+                // None of the cached vertices have triangles left, continue with the next triangle in the input
+                while (added[nextUnadded]) {
+                    ++nextUnadded;
+                }
+                bestTriangle = nextUnadded;
+            }
+            int t = bestTriangle;
+            added[t] = true;
+            System.arraycopy(indices, t * 3, result, n * 3, 3);
+
+            int newCacheSize = 0;
+            for (int c = 0; c < 3; ++c) {
+                int v = indices[t * 3 + c];
+                // Remove the triangle from the vertex
+                int end = offsets[v] + remaining[v];
+                for (int i = offsets[v]; i < end; ++i) {
+                    if (vertexTriangles[i] == t) {
+                        vertexTriangles[i] = vertexTriangles[end - 1];
+                        break;
+                    }
+                }
+                --remaining[v];
+                if (cachePositions[v] != -2) {
+                    // -2 marks the vertices that are already in the new cache
+                    cachePositions[v] = -2;
+                    newCache[newCacheSize++] = v;
+                }
+            }
+            for (int i = 0; i < cacheSize; ++i) {
+                int v = cache[i];
+                if (cachePositions[v] != -2) {
+                    newCache[newCacheSize++] = v;
+                    cachePositions[v] = -2;
+                }
+            }
+
+            // Update the scores of the vertices in the cache, and the ones that fell out of it
+            for (int i = 0; i < newCacheSize; ++i) {
+                int v = newCache[i];
+                int position = i < CACHE_SIZE ? i : -1;
+                cachePositions[v] = position;
+                vertexScores[v] = vertexScore(position, remaining[v]);
+            }
+            // The next triangle is the best one that uses a vertex in the cache
+            bestTriangle = -1;
+            bestScore = -1.0f;
+            for (int i = 0; i < Math.min(newCacheSize, CACHE_SIZE); ++i) {
+                int v = newCache[i];
+                for (int j = offsets[v], end = offsets[v] + remaining[v]; j < end; ++j) {
+                    int adjacent = vertexTriangles[j];
+                    float score = vertexScores[indices[adjacent * 3]] + vertexScores[indices[adjacent * 3 + 1]] + vertexScores[indices[adjacent * 3 + 2]];
+                    if (score > bestScore) {
+                        bestScore = score;
+                        bestTriangle = adjacent;
+                    }
+                }
+            }
+            int[] swap = cache;
+            cache = newCache;
+            newCache = swap;
+            cacheSize = Math.min(newCacheSize, CACHE_SIZE);
+        }
+        return result;
+    }
+
+    /**
+     * Create the order of the vertices in which they are first used by a triangle
+     * list. Vertices that aren't used are placed last, in their current order.
+     * @param indices the triangle list
+     * @param vertexCount the number of vertices
+     * @return the new index of each vertex
+     */
+    public static int[] createVertexRemap(int[] indices, int vertexCount) {
+        int[] remap = new int[vertexCount];
+        Arrays.fill(remap, -1);
+        int next = 0;
+        for (int index : indices) {
+            if (remap[index] == -1) {
+                remap[index] = next++;
+            }
+        }
+        for (int v = 0; v < vertexCount; ++v) {
+            if (remap[v] == -1) {
+                remap[v] = next++;
+            }
+        }
+        return remap;
+    }
+
+    /**
+     * Calculate the average cache miss ratio (ACMR) of a triangle list: the number
+     * of vertices transformed per triangle, with a FIFO post transform cache. It
+     * ranges from 3 for no reuse, down to about 0.5 for a regular grid.
+     * @param indices the triangle list
+     * @param vertexCount the number of vertices
+     * @param cacheSize the number of vertices in the cache
+     * @return the ACMR
+     */
+    public static float calcAcmr(int[] indices, int vertexCount, int cacheSize) {
+        int triangleCount = indices.length / 3;
+        if (triangleCount == 0) {
+            return 0.0f;
+        }
+        // A vertex is in the cache if fewer than cacheSize vertices were added to it after the vertex
+        int[] addedAt = new int[vertexCount];
+        Arrays.fill(addedAt, Integer.MIN_VALUE / 2);
+        int misses = 0;
+        for (int i = 0; i < triangleCount * 3; ++i) {
+            int v = indices[i];
+            if (misses - addedAt[v] >= cacheSize) {
+                addedAt[v] = ++misses;
+            }
+        }
+        return misses / (float) triangleCount;
+    }
+}
@@ -0,0 +1,62 @@
+-- Copyright 2020-2023 The Defold Foundation
+-- Copyright 2014-2020 King
+-- Copyright 2009-2014 Ragnar Svensson, Christian Murray
+-- Licensed under the Defold License version 1.0 (the "License"); you may not use
+-- this file except in compliance with the License.
+-- 
+-- You may obtain a copy of the License, together with FAQs at
+-- https://www.defold.com/license
+-- 
+-- Unless required by applicable law or agreed to in writing, software distributed
+-- under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+-- CONDITIONS OF ANY KIND, either express or implied. See the License for the
+-- specific language governing permissions and limitations under the License.
+
+-- Long running LuaJIT bytecode compiler used by LuaJITCompileServer.java
+--
+-- Each request on stdin is:
+--   <chunk name>\n<source size>\n<source bytes>
+-- Each response on stdout is:
+--   OK <size>\n<bytecode bytes>      or
+--   ERR <size>\n<error message bytes>
+--
+-- The bytecode is produced the same way as "luajit -b -g -F <chunk name> in.lua out.raw"
+-- (see jit/bcsave.lua), i.e. string.dump() without stripping the debug info.
+
+if jit.os == "Windows" then
+    local ffi = require("ffi")
+    ffi.cdef[[int _setmode(int fd, int mode);]]
+    ffi.C._setmode(0, 0x8000)
+    ffi.C._setmode(1, 0x8000)
+end
+
+local stdin = io.stdin
+local stdout = io.stdout
+
+while true do
+    local name = stdin:read("*l")
+    if not name then
+        break
+    end
+    local size = tonumber(stdin:read("*l"))
+    if not size then
+        break
+    end
+    local source = ""
+    if size > 0 then
+        source = stdin:read(size)
+    end
+
+    local status, result
+    local f, err = load(source, "@" .. name)
+    if f then
+        status = "OK"
+        result = string.dump(f, false)
+    else
+        -- same format as the check() function in jit/bcsave.lua
+        status = "ERR"
+        result = "luajit: " .. err .. "\n"
+    end
+    stdout:write(status, " ", #result, "\n", result)
+    stdout:flush()
+end
@@ -15,10 +15,17 @@
 package com.dynamo.bob.textureset;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import com.dynamo.bob.textureset.TextureSetLayout.Layout;
 import com.dynamo.bob.textureset.TextureSetLayout.Rect;
+import com.dynamo.bob.util.CpuBudget;
 
 /**
  * MaxRectsLayoutStrategy - derived from libgdx implementation:
@@ -37,10 +44,11 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
         public int paddingY;
         public boolean rotation;
         public boolean square;
+        // The max number of threads to pack with, within the CPU budget of the build. 1 packs on the calling thread
+        public int threads = Integer.MAX_VALUE;
     }
 
     private Settings settings;
-    private MaxRects maxRects = new MaxRects();
     private FreeRectChoiceHeuristic[] methods = FreeRectChoiceHeuristic.values();
 
     public MaxRectsLayoutStrategy(Settings settings) {
@@ -111,82 +119,224 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
         minHeight = Math.max(minHeight, settings.minPageHeight);
 
         // Find the minimal page size that fits all rects.
+        // The probes run concurrently, and while one is packing the probes for both of the sizes the binary search
+        // can continue with are started as well. Once the result is known, the probe that isn't needed is cancelled.
+        // The searches and results are the same as when packing one size at a time.
+        CpuBudget.Lease lease = CpuBudget.acquire("texture-layout", settings.threads);
+        ProbeSet probes = new ProbeSet(inputRects, lease);
         Page bestResult = null;
-        if (settings.square) {
-            int minSize = Math.max(minWidth, minHeight);
-            int maxSize = Math.min(settings.maxPageWidth, settings.maxPageHeight);
-            BinarySearch sizeSearch = new BinarySearch(minSize, maxSize);
-            int size = sizeSearch.reset();
-            while (size != -1) {
-                Page result = packAtSize(true, size, size, inputRects);
-                bestResult = getBest(bestResult, result);
-                size = sizeSearch.next(result == null);
+        try {
+            if (settings.square) {
+                int minSize = Math.max(minWidth, minHeight);
+                int maxSize = Math.min(settings.maxPageWidth, settings.maxPageHeight);
+                BinarySearch sizeSearch = new BinarySearch(minSize, maxSize);
+                int size = sizeSearch.reset();
+                while (size != -1) {
+                    probes.speculate(sizeSearch, -1, -1);
+                    Page result = probes.get(size, size);
+                    bestResult = getBest(bestResult, result);
+                    size = sizeSearch.next(result == null);
+                    probes.cancelExcept(size, size);
+                }
+
+                // Rects don't fit on one page. Fill a whole page and return.
+                if (bestResult == null) {
+                    bestResult = packAtSize(false, maxSize, maxSize, inputRects, null);
+                }
+
+                 bestResult.width = Math.max(bestResult.width, bestResult.height);
+                 bestResult.height = Math.max(bestResult.width, bestResult.height);
+            } else {
+                BinarySearch widthSearch = new BinarySearch(minWidth, settings.maxPageWidth);
+                BinarySearch heightSearch = new BinarySearch(minHeight, settings.maxPageHeight);
+                int width = widthSearch.reset();
+                int height = heightSearch.reset();
+                while (true) {
+                    Page bestWidthResult = null;
+                    while (width != -1) {
+                        if (!probes.speculate(widthSearch, -1, height)) {
+                            // The last width for this height, start on the next heights
+                            probes.speculate(heightSearch, widthSearch.first(), -1);
+                        }
+                        Page result = probes.get(width, height);
+                        bestWidthResult = getBest(bestWidthResult, result);
+                        width = widthSearch.next(result == null);
+                        if (width != -1) {
+                            probes.cancelExcept(width, height);
+                        }
+                    }
+                    bestResult = getBest(bestResult, bestWidthResult);
+                    height = heightSearch.next(bestWidthResult == null);
+                    if (height == -1) {
+                        break;
+                    }
+                    width = widthSearch.reset();
+                    probes.cancelExcept(width, height);
+                }
+                // Rects don't fit on one page. Fill a whole page and return.
+                if (bestResult == null) {
+                    bestResult = packAtSize(false, settings.maxPageWidth, settings.maxPageHeight, inputRects, null);
+                }
             }
+        } finally {
+            probes.cancelExcept(-1, -1);
+            lease.close();
+        }
+        return bestResult;
+    }
 
-            // Rects don't fit on one page. Fill a whole page and return.
-            if (bestResult == null) {
-                bestResult = packAtSize(false, maxSize, maxSize, inputRects);
+    /** The packing of all heuristics at one page size. */
+    private class Probe {
+        final int width, height;
+        final ArrayList<RectNode> inputRects;
+        final ArrayList<Future<Page>> results = new ArrayList<Future<Page>>();
+        final CpuBudget.Lease lease;
+        volatile boolean cancelled;
+
+        Probe(int width, int height, ArrayList<RectNode> inputRects, CpuBudget.Lease lease) {
+            this.width = width;
+            this.height = height;
+            this.inputRects = inputRects;
+            this.lease = lease;
+            if (lease.getThreads() > 1) {
+                for (FreeRectChoiceHeuristic method : methods) {
+                    FutureTask<Page> result = new FutureTask<Page>(() -> packWithMethod(true, width, height, inputRects, method, this));
+                    lease.execute(result);
+                    results.add(result);
+                }
             }
+        }
 
-             bestResult.width = Math.max(bestResult.width, bestResult.height);
-             bestResult.height = Math.max(bestResult.width, bestResult.height);
-        } else {
-            BinarySearch widthSearch = new BinarySearch(minWidth, settings.maxPageWidth);
-            BinarySearch heightSearch = new BinarySearch(minHeight, settings.maxPageHeight);
-            int width = widthSearch.reset();
-            int height = heightSearch.reset();
-            while (true) {
-                Page bestWidthResult = null;
-                while (width != -1) {
-                    Page result = packAtSize(true, width, height, inputRects);
-                    bestWidthResult = getBest(bestWidthResult, result);
-                    width = widthSearch.next(result == null);
+        Page get() {
+            if (results.isEmpty()) {
+                // Without additional threads, all heuristics are packed on this thread
+                FutureTask<Page> result = new FutureTask<Page>(() -> packAtSize(true, width, height, inputRects, this));
+                lease.run(result);
+                results.add(result);
+            }
+            // Pick the best result in the same order as packAtSize
+            Page bestResult = null;
+            try {
+                for (Future<Page> result : results) {
+                    bestResult = getBest(bestResult, result.get());
                 }
-                bestResult = getBest(bestResult, bestWidthResult);
-                height = heightSearch.next(bestWidthResult == null);
-                if (height == -1) {
-                    break;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException)e.getCause();
                 }
-                width = widthSearch.reset();
+                throw new RuntimeException(e.getCause());
             }
-            // Rects don't fit on one page. Fill a whole page and return.
-            if (bestResult == null) {
-                bestResult = packAtSize(false, settings.maxPageWidth, settings.maxPageHeight, inputRects);
+            return bestResult;
+        }
+
+        void cancel() {
+            cancelled = true;
+            for (Future<Page> result : results) {
+                result.cancel(false);
             }
         }
-        return bestResult;
+    }
+
+    /** The probes of one page, started ahead of when the search needs them. */
+    private class ProbeSet {
+        final ArrayList<RectNode> inputRects;
+        final Map<Long, Probe> probes = new HashMap<Long, Probe>();
+        final CpuBudget.Lease lease;
+
+        ProbeSet(ArrayList<RectNode> inputRects, CpuBudget.Lease lease) {
+            this.inputRects = inputRects;
+            this.lease = lease;
+        }
+
+        private long key(int width, int height) {
+            return ((long)width << 32) | height;
+        }
+
+        Probe start(int width, int height) {
+            long key = key(width, height);
+            Probe probe = probes.get(key);
+            if (probe == null) {
+                probe = new Probe(width, height, inputRects, lease);
+                probes.put(key, probe);
+            }
+            return probe;
+        }
+
+        Page get(int width, int height) {
+            return start(width, height).get();
+        }
+
+        /** Starts the probes for the next sizes of a search, where a width or height of -1 is the searched size.
+         *  Returns false if the search has no next size */
+        boolean speculate(BinarySearch search, int width, int height) {
+            if (lease.getThreads() <= 1) {
+                return true;
+            }
+            boolean hasNext = false;
+            for (boolean fits : new boolean[] { true, false }) {
+                int size = search.peek(!fits);
+                if (size != -1) {
+                    start(width == -1 ? size : width, height == -1 ? size : height);
+                    hasNext = true;
+                }
+            }
+            return hasNext;
+        }
+
+        /** Cancels all started probes but the one the search continues with */
+        void cancelExcept(int width, int height) {
+            long keep = key(width, height);
+            probes.entrySet().removeIf(entry -> {
+                if (entry.getKey() != keep) {
+                    entry.getValue().cancel();
+                    return true;
+                }
+                return false;
+            });
+        }
     }
 
     /** @param fully If true, the only results that pack all rects will be considered. If false, all results are considered, not all
      *           rects may be packed.
      **/
-    private Page packAtSize(boolean fully, int width, int height, ArrayList<RectNode> inputRects) {
+    private Page packAtSize(boolean fully, int width, int height, ArrayList<RectNode> inputRects, Probe probe) {
         Page bestResult = null;
         for (int i = 0, n = methods.length; i < n; i++) {
-            maxRects.init(width, height);
-            Page result;
-
-            ArrayList<RectNode> remaining = new ArrayList<RectNode>();
-            for (int ii = 0, nn = inputRects.size(); ii < nn; ii++) {
-                RectNode rect = inputRects.get(ii);
-                if (maxRects.insert(rect, methods[i]) == null) {
-                    while (ii < nn) {
-                        remaining.add(inputRects.get(ii++));
-                    }
-                }
-            }
-            result = maxRects.getResult();
-            result.remainingRects = remaining;
+            bestResult = getBest(bestResult, packWithMethod(fully, width, height, inputRects, methods[i], probe));
+        }
+        return bestResult;
+    }
+
+    private Page packWithMethod(boolean fully, int width, int height, ArrayList<RectNode> inputRects, FreeRectChoiceHeuristic method, Probe probe) {
+        MaxRects maxRects = new MaxRects();
+        maxRects.init(width, height);
+        Page result;
 
-            if (fully && result.remainingRects.size() > 0) {
-                continue;
+        ArrayList<RectNode> remaining = new ArrayList<RectNode>();
+        for (int ii = 0, nn = inputRects.size(); ii < nn; ii++) {
+            if (probe != null && probe.cancelled) {
+                return null;
             }
-            if (result.outputRects.size() == 0) {
-                continue;
+            RectNode rect = inputRects.get(ii);
+            if (!maxRects.insert(rect, method)) {
+                while (ii < nn) {
+                    remaining.add(inputRects.get(ii++));
+                }
             }
-            bestResult = getBest(bestResult, result);
         }
-        return bestResult;
+        result = maxRects.getResult();
+        result.remainingRects = remaining;
+
+        if (fully && result.remainingRects.size() > 0) {
+            return null;
+        }
+        if (result.outputRects.size() == 0) {
+            return null;
+        }
+        return result;
     }
 
     private Page getBest (Page result1, Page result2) {
@@ -218,6 +368,19 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
             return 1 << current;
         }
 
+        /** The first size after a reset */
+        public int first () {
+            return 1 << ((min + max) >>> 1);
+        }
+
+        /** The size next() would return, without advancing the search */
+        public int peek (boolean result) {
+            if (low >= high) return -1;
+            int peekLow = result ? current + 1 : low;
+            int peekHigh = result ? high : current - 1;
+            return 1 << ((peekLow + peekHigh) >>> 1);
+        }
+
         public int next (boolean result) {
             if (low >= high) return -1;
             if (result)
@@ -277,302 +440,304 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
     class MaxRects {
         private int binWidth;
         private int binHeight;
-        private final ArrayList<RectNode> usedRectangles = new ArrayList<RectNode>();
-        private final ArrayList<RectNode> freeRectangles = new ArrayList<RectNode>();
+
+        // The used rectangles, and the nodes they were packed from.
+        private int usedCount;
+        private int[] usedX = new int[64];
+        private int[] usedY = new int[64];
+        private int[] usedWidth = new int[64];
+        private int[] usedHeight = new int[64];
+        private boolean[] usedRotated = new boolean[64];
+        private final ArrayList<RectNode> usedNodes = new ArrayList<RectNode>();
+        private int usedSurfaceArea;
+
+        // The used rectangles by the position of each of their edges, for the contact point scoring.
+        // The first* arrays hold the first used rectangle with an edge at a position, and the next* arrays link it to the next one.
+        private int[] firstByLeft, firstByRight, firstByTop, firstByBottom;
+        private int[] nextByLeft = new int[64];
+        private int[] nextByRight = new int[64];
+        private int[] nextByTop = new int[64];
+        private int[] nextByBottom = new int[64];
+
+        // The free rectangles, in the order they were added since the heuristics pick the first of equally good positions.
+        // Removed rectangles get a width of -1, and are compacted away once they are half of the list.
+        private int freeCount;
+        private int freeRemoved;
+        private int[] freeX = new int[64];
+        private int[] freeY = new int[64];
+        private int[] freeWidth = new int[64];
+        private int[] freeHeight = new int[64];
+
+        // The free rectangles by the bit length of their width and height. Only the buckets of large enough rectangles
+        // are visited when looking for a position, and only the buckets of small enough ones when pruning.
+        private int widthClasses, heightClasses;
+        private int[][] buckets;
+        private int[] bucketSizes;
+
+        // The best position found by the last findPosition call, by the slot of the free rectangle.
+        private int bestSlot, bestKey1, bestKey2;
+        private int bestX, bestY, bestWidth, bestHeight;
+        private boolean bestRotated;
 
         public void init (int width, int height) {
             binWidth = width;
             binHeight = height;
 
-            usedRectangles.clear();
-            freeRectangles.clear();
-            RectNode n = new RectNode(new Rect(null, 0, 0, 0, width, height));
-            freeRectangles.add(n);
-        }
-
-        /** Packs a single image. Order is defined externally. */
-        public RectNode insert (RectNode rect, FreeRectChoiceHeuristic method) {
-            RectNode newNode = scoreRect(rect, method);
-            if (newNode.rect.height == 0) return null;
-
-            int numRectanglesToProcess = freeRectangles.size();
-            for (int i = 0; i < numRectanglesToProcess; ++i) {
-                if (splitFreeNode(freeRectangles.get(i), newNode)) {
-                    freeRectangles.remove(i);
-                    --i;
-                    --numRectanglesToProcess;
-                }
-            }
-
-            pruneFreeList();
-
-            RectNode bestNode = new RectNode(rect);
-            bestNode.score1 = newNode.score1;
-            bestNode.score2 = newNode.score2;
-            bestNode.rect = new Rect(newNode.rect);
-            bestNode.rect.id = rect.rect.id;
-            bestNode.rect.index = rect.rect.index;
-
-            usedRectangles.add(bestNode);
-            return bestNode;
-        }
-
-        /** For each rectangle, packs each one then chooses the best and packs that. Slow! */
-        public Page pack (ArrayList<RectNode> rects, FreeRectChoiceHeuristic method) {
-            rects = new ArrayList<RectNode>(rects);
-            while (rects.size() > 0) {
-                int bestRectIndex = -1;
-                RectNode bestNode = new RectNode(new Rect(null, 0, 0, 0, 0, 0));
-                bestNode.score1 = Integer.MAX_VALUE;
-                bestNode.score2 = Integer.MAX_VALUE;
-
-                // Find the next rectangle that packs best.
-                for (int i = 0; i < rects.size(); i++) {
-                    RectNode newNode = scoreRect(rects.get(i), method);
-                    if (newNode.score1 < bestNode.score1 || (newNode.score1 == bestNode.score1 && newNode.score2 < bestNode.score2)) {
-                        bestNode.set(rects.get(i));
-                        bestNode.score1 = newNode.score1;
-                        bestNode.score2 = newNode.score2;
-                        bestNode.rect.x = newNode.rect.x;
-                        bestNode.rect.y = newNode.rect.y;
-                        bestNode.rect.width = newNode.rect.width;
-                        bestNode.rect.height = newNode.rect.height;
-                        bestNode.rect.rotated = newNode.rect.rotated;
-                        bestRectIndex = i;
-                    }
-                }
-
-                if (bestRectIndex == -1) break;
-
-                placeRect(bestNode);
-                rects.remove(bestRectIndex);
-            }
-
-            Page result = getResult();
-            result.remainingRects = rects;
-            return result;
+            usedCount = 0;
+            usedNodes.clear();
+            firstByLeft = newEdgeIndex(width);
+            firstByRight = newEdgeIndex(width);
+            firstByTop = newEdgeIndex(height);
+            firstByBottom = newEdgeIndex(height);
+            usedSurfaceArea = 0;
+
+            widthClasses = sizeClass(width) + 1;
+            heightClasses = sizeClass(height) + 1;
+            buckets = new int[widthClasses * heightClasses][];
+            bucketSizes = new int[widthClasses * heightClasses];
+            freeCount = 0;
+            freeRemoved = 0;
+            addFreeRect(0, 0, width, height);
+        }
+
+        /** Packs a single image. Order is defined externally.
+         * @return false if the image doesn't fit */
+        public boolean insert (RectNode node, FreeRectChoiceHeuristic method) {
+            if (!scoreRect(node, method)) return false;
+
+            splitFreeRects(bestX, bestY, bestWidth, bestHeight);
+            addUsedRect(node, bestX, bestY, bestWidth, bestHeight, bestRotated);
+            return true;
         }
 
         public Page getResult () {
             int w = 0, h = 0;
-            for (int i = 0; i < usedRectangles.size(); i++) {
-                RectNode node = usedRectangles.get(i);
-                w = Math.max(w, node.rect.x + node.rect.width);
-                h = Math.max(h, node.rect.y + node.rect.height);
+            ArrayList<RectNode> outputRects = new ArrayList<RectNode>(usedCount);
+            for (int i = 0; i < usedCount; i++) {
+                w = Math.max(w, usedX[i] + usedWidth[i]);
+                h = Math.max(h, usedY[i] + usedHeight[i]);
+
+                RectNode node = new RectNode(usedNodes.get(i));
+                node.rect.x = usedX[i];
+                node.rect.y = usedY[i];
+                node.rect.width = usedWidth[i];
+                node.rect.height = usedHeight[i];
+                node.rect.rotated = usedRotated[i];
+                outputRects.add(node);
             }
             Page result = new Page();
-            result.outputRects = new ArrayList<RectNode>(usedRectangles);
+            result.outputRects = outputRects;
             result.occupancy = getOccupancy();
             result.width = w;
             result.height = h;
             return result;
         }
 
-        private void placeRect (RectNode node) {
-            int numRectanglesToProcess = freeRectangles.size();
-            for (int i = 0; i < numRectanglesToProcess; i++) {
-                if (splitFreeNode(freeRectangles.get(i), node)) {
-                    freeRectangles.remove(i);
-                    --i;
-                    --numRectanglesToProcess;
+        private int[] newEdgeIndex (int size) {
+            int[] first = new int[size + 1];
+            Arrays.fill(first, -1);
+            return first;
+        }
+
+        // The bit length of a size, which is the same for all sizes between two powers of two
+        private int sizeClass (int size) {
+            return 32 - Integer.numberOfLeadingZeros(Math.max(0, size));
+        }
+
+        private void addToBucket (int slot) {
+            int bucket = sizeClass(freeWidth[slot]) * heightClasses + sizeClass(freeHeight[slot]);
+            int[] slots = buckets[bucket];
+            int size = bucketSizes[bucket];
+            if (slots == null) {
+                slots = new int[16];
+                buckets[bucket] = slots;
+            } else if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+                buckets[bucket] = slots;
+            }
+            slots[size] = slot;
+            bucketSizes[bucket] = size + 1;
+        }
+
+        private void addFreeRect (int x, int y, int width, int height) {
+            if (freeCount == freeX.length) {
+                int capacity = freeCount * 2;
+                freeX = Arrays.copyOf(freeX, capacity);
+                freeY = Arrays.copyOf(freeY, capacity);
+                freeWidth = Arrays.copyOf(freeWidth, capacity);
+                freeHeight = Arrays.copyOf(freeHeight, capacity);
+            }
+            freeX[freeCount] = x;
+            freeY[freeCount] = y;
+            freeWidth[freeCount] = width;
+            freeHeight[freeCount] = height;
+            addToBucket(freeCount);
+            freeCount++;
+        }
+
+        private void removeFreeRect (int slot) {
+            freeWidth[slot] = -1;
+            freeRemoved++;
+        }
+
+        // Removes the free rectangles marked as removed, keeping the order of the remaining ones
+        private void compactFreeRects () {
+            int count = 0;
+            for (int i = 0; i < freeCount; i++) {
+                if (freeWidth[i] >= 0) {
+                    freeX[count] = freeX[i];
+                    freeY[count] = freeY[i];
+                    freeWidth[count] = freeWidth[i];
+                    freeHeight[count] = freeHeight[i];
+                    count++;
+                }
+            }
+            freeCount = count;
+            freeRemoved = 0;
+            Arrays.fill(bucketSizes, 0);
+            for (int i = 0; i < freeCount; i++) {
+                addToBucket(i);
+            }
+        }
+
+        private void addUsedRect (RectNode node, int x, int y, int width, int height, boolean rotated) {
+            if (usedCount == usedX.length) {
+                int capacity = usedCount * 2;
+                usedX = Arrays.copyOf(usedX, capacity);
+                usedY = Arrays.copyOf(usedY, capacity);
+                usedWidth = Arrays.copyOf(usedWidth, capacity);
+                usedHeight = Arrays.copyOf(usedHeight, capacity);
+                usedRotated = Arrays.copyOf(usedRotated, capacity);
+                nextByLeft = Arrays.copyOf(nextByLeft, capacity);
+                nextByRight = Arrays.copyOf(nextByRight, capacity);
+                nextByTop = Arrays.copyOf(nextByTop, capacity);
+                nextByBottom = Arrays.copyOf(nextByBottom, capacity);
+            }
+            int i = usedCount++;
+            usedX[i] = x;
+            usedY[i] = y;
+            usedWidth[i] = width;
+            usedHeight[i] = height;
+            usedRotated[i] = rotated;
+            usedNodes.add(node);
+
+            nextByLeft[i] = firstByLeft[x];
+            firstByLeft[x] = i;
+            nextByRight[i] = firstByRight[x + width];
+            firstByRight[x + width] = i;
+            nextByTop[i] = firstByTop[y];
+            firstByTop[y] = i;
+            nextByBottom[i] = firstByBottom[y + height];
+            firstByBottom[y + height] = i;
+            usedSurfaceArea += width * height;
+        }
+
+        private void splitFreeRects (int x, int y, int width, int height) {
+            int firstNew = freeCount;
+            for (int i = 0; i < firstNew; ++i) {
+                if (freeWidth[i] >= 0 && splitFreeNode(i, x, y, width, height)) {
+                    removeFreeRect(i);
                 }
             }
 
-            pruneFreeList();
+            // The free rectangles that weren't split are already pruned against each other
+            pruneFreeList(firstNew);
 
-            usedRectangles.add(node);
+            if (freeRemoved * 2 > freeCount) {
+                compactFreeRects();
+            }
         }
 
-        private RectNode scoreRect (RectNode node, FreeRectChoiceHeuristic method) {
+        /** Finds the best position of a node with the heuristic, and stores it in the best* fields.
+         * @return false if the node doesn't fit */
+        private boolean scoreRect (RectNode node, FreeRectChoiceHeuristic method) {
             int width = node.rect.width;
             int height = node.rect.height;
             int rotatedWidth = height - settings.paddingY + settings.paddingX;
             int rotatedHeight = width - settings.paddingX + settings.paddingY;
             boolean rotate = /*node.rect.canRotate &&*/ settings.rotation;
 
-            RectNode newNode = null;
-            switch (method) {
-            case BestShortSideFit:
-                newNode = findPositionForNewNodeBestShortSideFit(width, height, rotatedWidth, rotatedHeight, rotate);
-                break;
-            case BottomLeftRule:
-                newNode = findPositionForNewNodeBottomLeft(width, height, rotatedWidth, rotatedHeight, rotate);
-                break;
-            case ContactPointRule:
-                newNode = findPositionForNewNodeContactPoint(width, height, rotatedWidth, rotatedHeight, rotate);
-                newNode.score1 = -newNode.score1; // Reverse since we are minimizing, but for contact point score bigger is better.
-                break;
-            case BestLongSideFit:
-                newNode = findPositionForNewNodeBestLongSideFit(width, height, rotatedWidth, rotatedHeight, rotate);
-                break;
-            case BestAreaFit:
-                newNode = findPositionForNewNodeBestAreaFit(width, height, rotatedWidth, rotatedHeight, rotate);
-                break;
-            }
+            bestSlot = -1;
+            bestX = 0;
+            bestY = 0;
+            bestWidth = 0;
+            bestHeight = 0;
+            bestRotated = false;
+            findPosition(method, width, height, rotatedWidth, rotatedHeight, rotate);
 
             // Cannot fit the current rectangle.
-            if (newNode.rect.height == 0) {
-                newNode.score1 = Integer.MAX_VALUE;
-                newNode.score2 = Integer.MAX_VALUE;
-            }
-
-            return newNode;
+            return bestHeight != 0;
         }
 
         // / Computes the ratio of used surface area.
         private float getOccupancy () {
-            int usedSurfaceArea = 0;
-            for (int i = 0; i < usedRectangles.size(); i++)
-                usedSurfaceArea += usedRectangles.get(i).rect.area();
             return (float)usedSurfaceArea / (binWidth * binHeight);
         }
 
-        private RectNode findPositionForNewNodeBottomLeft (int width, int height, int rotatedWidth, int rotatedHeight, boolean rotate) {
-            RectNode bestNode = new RectNode();
-            bestNode.rect = new Rect(null, 0,0,0,0,0);
-            bestNode.score1 = Integer.MAX_VALUE; // best y, score2 is best x
-
-            for (int i = 0; i < freeRectangles.size(); i++) {
-                // Try to place the rectangle in upright (non-rotated) orientation.
-                RectNode currentNode = freeRectangles.get(i);
-                if (currentNode.rect.width >= width && currentNode.rect.height >= height) {
-                    int topSideY = currentNode.rect.y + height;
-                    if (topSideY < bestNode.score1 || (topSideY == bestNode.score1 && currentNode.rect.x < bestNode.score2)) {
-                        bestNode.rect = new Rect(currentNode.rect.id, currentNode.rect.index, currentNode.rect.x, currentNode.rect.y, width, height);
-                        bestNode.score1 = topSideY;
-                        bestNode.score2 = currentNode.rect.x;
-                    }
-                }
-                if (rotate && currentNode.rect.width >= rotatedWidth && currentNode.rect.height >= rotatedHeight) {
-                    int topSideY = currentNode.rect.y + rotatedHeight;
-                    if (topSideY < bestNode.score1 || (topSideY == bestNode.score1 && currentNode.rect.x < bestNode.score2)) {
-                        bestNode.rect = new Rect(currentNode.rect.id, currentNode.rect.index, currentNode.rect.x, currentNode.rect.y, rotatedWidth, rotatedHeight);
-                        bestNode.score1 = topSideY;
-                        bestNode.score2 = currentNode.rect.x;
-                        bestNode.rect.rotated = true;
-                    }
-                }
-            }
-            return bestNode;
-        }
-
-        private RectNode findPositionForNewNodeBestShortSideFit (int width, int height, int rotatedWidth, int rotatedHeight,
-            boolean rotate) {
-            RectNode bestNode = new RectNode();
-            bestNode.rect = new Rect(null, 0,0,0,0,0);
-            bestNode.score1 = Integer.MAX_VALUE;
-
-            for (int i = 0; i < freeRectangles.size(); i++) {
-                // Try to place the rectangle in upright (non-rotated) orientation.
-                RectNode currentNode = freeRectangles.get(i);
-                if (currentNode.rect.width >= width && currentNode.rect.height >= height) {
-                    int leftoverHoriz = Math.abs(currentNode.rect.width - width);
-                    int leftoverVert = Math.abs(currentNode.rect.height - height);
-                    int shortSideFit = Math.min(leftoverHoriz, leftoverVert);
-                    int longSideFit = Math.max(leftoverHoriz, leftoverVert);
-
-                    if (shortSideFit < bestNode.score1 || (shortSideFit == bestNode.score1 && longSideFit < bestNode.score2)) {
-                        bestNode.rect = new Rect(currentNode.rect.id, currentNode.rect.index, currentNode.rect.x, currentNode.rect.y, width, height);
-                        bestNode.score1 = shortSideFit;
-                        bestNode.score2 = longSideFit;
-                    }
-                }
-
-                if (rotate && currentNode.rect.width >= rotatedWidth && currentNode.rect.height >= rotatedHeight) {
-                    int flippedLeftoverHoriz = Math.abs(currentNode.rect.width - rotatedWidth);
-                    int flippedLeftoverVert = Math.abs(currentNode.rect.height - rotatedHeight);
-                    int flippedShortSideFit = Math.min(flippedLeftoverHoriz, flippedLeftoverVert);
-                    int flippedLongSideFit = Math.max(flippedLeftoverHoriz, flippedLeftoverVert);
-
-                    if (flippedShortSideFit < bestNode.score1
-                        || (flippedShortSideFit == bestNode.score1 && flippedLongSideFit < bestNode.score2)) {
-                        bestNode.rect = new Rect(currentNode.rect.id, currentNode.rect.index, currentNode.rect.x, currentNode.rect.y, rotatedWidth, rotatedHeight);
-                        bestNode.score1 = flippedShortSideFit;
-                        bestNode.score2 = flippedLongSideFit;
-                        bestNode.rect.rotated = true;
-                    }
-                }
-            }
-
-            return bestNode;
-        }
-
-        private RectNode findPositionForNewNodeBestLongSideFit (int width, int height, int rotatedWidth, int rotatedHeight,
-            boolean rotate) {
-            RectNode bestNode = new RectNode();
-            bestNode.rect = new Rect(null, 0,0,0,0,0);
-            bestNode.score2 = Integer.MAX_VALUE;
-
-            for (int i = 0; i < freeRectangles.size(); i++) {
-                // Try to place the rectangle in upright (non-rotated) orientation.
-                RectNode currentNode = freeRectangles.get(i);
-                if (currentNode.rect.width >= width && currentNode.rect.height >= height) {
-                    int leftoverHoriz = Math.abs(currentNode.rect.width - width);
-                    int leftoverVert = Math.abs(currentNode.rect.height - height);
-                    int shortSideFit = Math.min(leftoverHoriz, leftoverVert);
-                    int longSideFit = Math.max(leftoverHoriz, leftoverVert);
-
-                    if (longSideFit < bestNode.score2 || (longSideFit == bestNode.score2 && shortSideFit < bestNode.score1)) {
-                        bestNode.rect = new Rect(currentNode.rect.id, currentNode.rect.index, currentNode.rect.x, currentNode.rect.y, width, height);
-                        bestNode.rect.rotated = currentNode.rect.rotated;
-                        bestNode.score1 = shortSideFit;
-                        bestNode.score2 = longSideFit;
-                    }
-                }
-
-                if (rotate && currentNode.rect.width >= rotatedWidth && currentNode.rect.height >= rotatedHeight) {
-                    int leftoverHoriz = Math.abs(currentNode.rect.width - rotatedWidth);
-                    int leftoverVert = Math.abs(currentNode.rect.height - rotatedHeight);
-                    int shortSideFit = Math.min(leftoverHoriz, leftoverVert);
-                    int longSideFit = Math.max(leftoverHoriz, leftoverVert);
-
-                    if (longSideFit < bestNode.score2 || (longSideFit == bestNode.score2 && shortSideFit < bestNode.score1)) {
-                        bestNode.rect = new Rect(currentNode.rect.id, currentNode.rect.index, currentNode.rect.x, currentNode.rect.y, rotatedWidth, rotatedHeight);
-                        bestNode.score1 = shortSideFit;
-                        bestNode.score2 = longSideFit;
-                        bestNode.rect.rotated = true;
+        private void findPosition (FreeRectChoiceHeuristic method, int width, int height, int rotatedWidth, int rotatedHeight, boolean rotate) {
+            int minWidth = rotate ? Math.min(width, rotatedWidth) : width;
+            int minHeight = rotate ? Math.min(height, rotatedHeight) : height;
+            for (int cw = sizeClass(minWidth); cw < widthClasses; ++cw) {
+                for (int ch = sizeClass(minHeight); ch < heightClasses; ++ch) {
+                    int bucket = cw * heightClasses + ch;
+                    int[] slots = buckets[bucket];
+                    for (int k = 0, n = bucketSizes[bucket]; k < n; ++k) {
+                        int i = slots[k];
+                        // Try to place the rectangle in upright (non-rotated) orientation.
+                        if (freeWidth[i] >= width && freeHeight[i] >= height) {
+                            scorePosition(method, i, width, height, false, width * height);
+                        }
+                        if (rotate && freeWidth[i] >= rotatedWidth && freeHeight[i] >= rotatedHeight) {
+                            scorePosition(method, i, rotatedWidth, rotatedHeight, true, width * height);
+                        }
                     }
                 }
             }
-            return bestNode;
         }
 
-        private RectNode findPositionForNewNodeBestAreaFit (int width, int height, int rotatedWidth, int rotatedHeight, boolean rotate) {
-            RectNode bestNode = new RectNode();
-            bestNode.rect = new Rect(null, 0,0,0,0,0);
-            bestNode.score1 = Integer.MAX_VALUE; // best area fit, score2 is best short side fit
-
-            for (int i = 0; i < freeRectangles.size(); i++) {
-                RectNode currentNode = freeRectangles.get(i);
-                int areaFit = currentNode.rect.area() - width * height;
-
-                // Try to place the rectangle in upright (non-rotated) orientation.
-                if (currentNode.rect.width >= width && currentNode.rect.height >= height) {
-                    int leftoverHoriz = Math.abs(currentNode.rect.width - width);
-                    int leftoverVert = Math.abs(currentNode.rect.height - height);
-                    int shortSideFit = Math.min(leftoverHoriz, leftoverVert);
-
-                    if (areaFit < bestNode.score1 || (areaFit == bestNode.score1 && shortSideFit < bestNode.score2)) {
-                        bestNode.rect = new Rect(currentNode.rect.id, currentNode.rect.index, currentNode.rect.x, currentNode.rect.y, width, height);
-                        bestNode.score2 = shortSideFit;
-                        bestNode.score1 = areaFit;
-                    }
-                }
-
-                if (rotate && currentNode.rect.width >= rotatedWidth && currentNode.rect.height >= rotatedHeight) {
-                    int leftoverHoriz = Math.abs(currentNode.rect.width - rotatedWidth);
-                    int leftoverVert = Math.abs(currentNode.rect.height - rotatedHeight);
-                    int shortSideFit = Math.min(leftoverHoriz, leftoverVert);
+        // Keeps the position if it scores better than the best one so far. Lower scores are better, and of
+        // equal scores the first free rectangle wins, in upright orientation.
+        private void scorePosition (FreeRectChoiceHeuristic method, int i, int width, int height, boolean rotated, int area) {
+            int leftoverHoriz = freeWidth[i] - width;
+            int leftoverVert = freeHeight[i] - height;
+            int key1, key2;
+            switch (method) {
+            case BestShortSideFit:
+                key1 = Math.min(leftoverHoriz, leftoverVert);
+                key2 = Math.max(leftoverHoriz, leftoverVert);
+                break;
+            case BestLongSideFit:
+                key1 = Math.max(leftoverHoriz, leftoverVert);
+                key2 = Math.min(leftoverHoriz, leftoverVert);
+                break;
+            case BestAreaFit:
+                // The area of the upright rectangle, also when rotated
+                key1 = freeWidth[i] * freeHeight[i] - area;
+                key2 = Math.min(leftoverHoriz, leftoverVert);
+                break;
+            case BottomLeftRule:
+                key1 = freeY[i] + height;
+                key2 = freeX[i];
+                break;
+            case ContactPointRule:
+                // Reverse since we are minimizing, but for contact point score bigger is better.
+                key1 = -contactPointScoreNode(freeX[i], freeY[i], width, height);
+                key2 = 0;
+                break;
+            default:
+                return;
+            }
 
-                    if (areaFit < bestNode.score1 || (areaFit == bestNode.score1 && shortSideFit < bestNode.score2)) {
-                        bestNode.rect = new Rect(currentNode.rect.id, currentNode.rect.index, currentNode.rect.x, currentNode.rect.y, rotatedWidth, rotatedHeight);
-                        bestNode.score2 = shortSideFit;
-                        bestNode.score1 = areaFit;
-                        bestNode.rect.rotated = true;
-                    }
-                }
+            if (bestSlot == -1 || key1 < bestKey1 || (key1 == bestKey1 && (key2 < bestKey2 || (key2 == bestKey2 && i < bestSlot)))) {
+                bestSlot = i;
+                bestKey1 = key1;
+                bestKey2 = key2;
+                bestX = freeX[i];
+                bestY = freeY[i];
+                bestWidth = width;
+                bestHeight = height;
+                bestRotated = rotated;
             }
-            return bestNode;
         }
 
         // / Returns 0 if the two intervals i1 and i2 are disjoint, or the length of their overlap otherwise.
@@ -587,120 +752,123 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
             if (x == 0 || x + width == binWidth) score += height;
             if (y == 0 || y + height == binHeight) score += width;
 
-            for (int i = 0; i < usedRectangles.size(); i++) {
-                RectNode currentNode = usedRectangles.get(i);
-                if (currentNode.rect.x == x + width || currentNode.rect.x + currentNode.rect.width == x)
-                    score += commonIntervalLength(currentNode.rect.y, currentNode.rect.y + currentNode.rect.height, y,
-                        y + height);
-                if (currentNode.rect.y == y + height || currentNode.rect.y + currentNode.rect.height == y)
-                    score += commonIntervalLength(currentNode.rect.x, currentNode.rect.x + currentNode.rect.width, x, x
-                        + width);
+            // Only the used rectangles with an edge on one of the edges of the node can touch it
+            if (x + width <= binWidth) {
+                for (int i = firstByLeft[x + width]; i != -1; i = nextByLeft[i]) {
+                    score += commonIntervalLength(usedY[i], usedY[i] + usedHeight[i], y, y + height);
+                }
             }
-            return score;
-        }
-
-        private RectNode findPositionForNewNodeContactPoint (int width, int height, int rotatedWidth, int rotatedHeight, boolean rotate) {
-            RectNode bestNode = new RectNode();
-            bestNode.rect = new Rect(null, 0,0,0,0,0);
-            bestNode.score1 = -1; // best contact score
-
-            for (int i = 0; i < freeRectangles.size(); i++) {
-                // Try to place the rectangle in upright (non-rotated) orientation.
-                RectNode currentNode = freeRectangles.get(i);
-                if (currentNode.rect.width >= width && currentNode.rect.height >= height) {
-                    int score = contactPointScoreNode(currentNode.rect.x, currentNode.rect.y, width, height);
-                    if (score > bestNode.score1) {
-                        bestNode.rect = new Rect(currentNode.rect.id, currentNode.rect.index, currentNode.rect.x, currentNode.rect.y, width, height);
-                        bestNode.score1 = score;
-                    }
+            for (int i = firstByRight[x]; i != -1; i = nextByRight[i]) {
+                if (usedX[i] != x + width) {
+                    score += commonIntervalLength(usedY[i], usedY[i] + usedHeight[i], y, y + height);
                 }
-                if (rotate && currentNode.rect.width >= rotatedWidth && currentNode.rect.height >= rotatedHeight) {
-                    // This was width,height -- bug fixed?
-                    int score = contactPointScoreNode(currentNode.rect.x, currentNode.rect.y, rotatedWidth, rotatedHeight);
-                    if (score > bestNode.score1) {
-                        bestNode.rect = new Rect(currentNode.rect.id, currentNode.rect.index, currentNode.rect.x, currentNode.rect.y, rotatedWidth, rotatedHeight);
-                        bestNode.score1 = score;
-                        bestNode.rect.rotated = true;
-                    }
+            }
+            if (y + height <= binHeight) {
+                for (int i = firstByTop[y + height]; i != -1; i = nextByTop[i]) {
+                    score += commonIntervalLength(usedX[i], usedX[i] + usedWidth[i], x, x + width);
+                }
+            }
+            for (int i = firstByBottom[y]; i != -1; i = nextByBottom[i]) {
+                if (usedY[i] != y + height) {
+                    score += commonIntervalLength(usedX[i], usedX[i] + usedWidth[i], x, x + width);
                 }
             }
-            return bestNode;
+            return score;
         }
 
-        private boolean splitFreeNode (RectNode freeNode, RectNode usedNode) {
-            Rect freeRect = freeNode.rect;
-            Rect usedRect = usedNode.rect;
+        private boolean splitFreeNode (int freeIndex, int usedX, int usedY, int usedWidth, int usedHeight) {
+            int freeRectX = freeX[freeIndex];
+            int freeRectY = freeY[freeIndex];
+            int freeRectWidth = freeWidth[freeIndex];
+            int freeRectHeight = freeHeight[freeIndex];
             // Test with SAT if the rectangles even intersect.
-            if (usedRect.x >= freeRect.x + freeRect.width || usedRect.x + usedRect.width <= freeRect.x
-                || usedRect.y >= freeRect.y + freeRect.height || usedRect.y + usedRect.height <= freeRect.y) return false;
+            if (usedX >= freeRectX + freeRectWidth || usedX + usedWidth <= freeRectX
+                || usedY >= freeRectY + freeRectHeight || usedY + usedHeight <= freeRectY) return false;
 
-            if (usedRect.x < freeRect.x + freeRect.width && usedRect.x + usedRect.width > freeRect.x) {
+            if (usedX < freeRectX + freeRectWidth && usedX + usedWidth > freeRectX) {
                 // New node at the top side of the used node.
-                if (usedRect.y > freeRect.y && usedRect.y < freeRect.y + freeRect.height) {
-                    RectNode newNode = new RectNode(freeNode);
-                    newNode.rect.height = usedRect.y - newNode.rect.y;
-                    freeRectangles.add(newNode);
+                if (usedY > freeRectY && usedY < freeRectY + freeRectHeight) {
+                    addFreeRect(freeRectX, freeRectY, freeRectWidth, usedY - freeRectY);
                 }
 
                 // New node at the bottom side of the used node.
-                if (usedRect.y + usedRect.height < freeRect.y + freeRect.height) {
-                    RectNode newNode = new RectNode(freeNode);
-                    newNode.rect.y = usedRect.y + usedRect.height;
-                    newNode.rect.height = freeRect.y + freeRect.height - (usedRect.y + usedRect.height);
-                    freeRectangles.add(newNode);
+                if (usedY + usedHeight < freeRectY + freeRectHeight) {
+                    addFreeRect(freeRectX, usedY + usedHeight, freeRectWidth, freeRectY + freeRectHeight - (usedY + usedHeight));
                 }
             }
 
-            if (usedRect.y < freeRect.y + freeRect.height && usedRect.y + usedRect.height > freeRect.y) {
+            if (usedY < freeRectY + freeRectHeight && usedY + usedHeight > freeRectY) {
                 // New node at the left side of the used node.
-                if (usedRect.x > freeRect.x && usedRect.x < freeRect.x + freeRect.width) {
-                    RectNode newNode = new RectNode(freeNode);
-                    newNode.rect.width = usedRect.x - newNode.rect.x;
-                    freeRectangles.add(newNode);
+                if (usedX > freeRectX && usedX < freeRectX + freeRectWidth) {
+                    addFreeRect(freeRectX, freeRectY, usedX - freeRectX, freeRectHeight);
                 }
 
                 // New node at the right side of the used node.
-                if (usedRect.x + usedRect.width < freeRect.x + freeRect.width) {
-                    RectNode newNode = new RectNode(freeNode);
-                    newNode.rect.x = usedRect.x + usedRect.width;
-                    newNode.rect.width = freeRect.x + freeRect.width - (usedRect.x + usedRect.width);
-                    freeRectangles.add(newNode);
+                if (usedX + usedWidth < freeRectX + freeRectWidth) {
+                    addFreeRect(usedX + usedWidth, freeRectY, freeRectX + freeRectWidth - (usedX + usedWidth), freeRectHeight);
                 }
             }
 
             return true;
         }
 
-        private void pruneFreeList () {
-            /*
-             * /// Would be nice to do something like this, to avoid a Theta(n^2) loop through each pair. /// But unfortunately it
-             * doesn't quite cut it, since we also want to detect containment. /// Perhaps there's another way to do this faster than
-             * Theta(n^2).
-             *
-             * if (freeRectangles.size > 0) clb::sort::QuickSort(&freeRectangles[0], freeRectangles.size, NodeSortCmp);
-             *
-             * for(int i = 0; i < freeRectangles.size-1; i++) if (freeRectangles[i].x == freeRectangles[i+1].x && freeRectangles[i].y
-             * == freeRectangles[i+1].y && freeRectangles[i].width == freeRectangles[i+1].width && freeRectangles[i].height ==
-             * freeRectangles[i+1].height) { freeRectangles.erase(freeRectangles.begin() + i); --i; }
-             */
-
-            // / Go through each pair and remove any rectangle that is redundant.
-            for (int i = 0; i < freeRectangles.size(); i++)
-                for (int j = i + 1; j < freeRectangles.size(); ++j) {
-                    if (isContainedIn(freeRectangles.get(i).rect, freeRectangles.get(j).rect)) {
-                        freeRectangles.remove(i);
-                        --i;
-                        break;
+        /** Removes the free rectangles that are contained in another one. Of two equal rectangles, the first one is removed.
+         * @param firstNew The free rectangles before this slot are known not to contain each other */
+        private void pruneFreeList (int firstNew) {
+            for (int j = firstNew; j < freeCount; ++j) {
+                if (freeWidth[j] < 0) {
+                    continue;
+                }
+                int cw = sizeClass(freeWidth[j]);
+                int ch = sizeClass(freeHeight[j]);
+
+                // Only rectangles at least as large can contain the new one
+                if (isPruned(j, cw, widthClasses, ch, heightClasses)) {
+                    removeFreeRect(j);
+                    continue;
+                }
+
+                // Only rectangles at most as large can be contained in the new one
+                for (int w = 0; w <= cw; ++w) {
+                    for (int h = 0; h <= ch; ++h) {
+                        int bucket = w * heightClasses + h;
+                        int[] slots = buckets[bucket];
+                        for (int k = 0, n = bucketSizes[bucket]; k < n; ++k) {
+                            int i = slots[k];
+                            if (i != j && freeWidth[i] >= 0 && isRedundant(i, j)) {
+                                removeFreeRect(i);
+                            }
+                        }
                     }
-                    if (isContainedIn(freeRectangles.get(j).rect, freeRectangles.get(i).rect)) {
-                        freeRectangles.remove(j);
-                        --j;
+                }
+            }
+        }
+
+        // Checks if a free rectangle is redundant with any of the free rectangles in a range of buckets
+        private boolean isPruned (int j, int minWidthClass, int endWidthClass, int minHeightClass, int endHeightClass) {
+            for (int w = minWidthClass; w < endWidthClass; ++w) {
+                for (int h = minHeightClass; h < endHeightClass; ++h) {
+                    int bucket = w * heightClasses + h;
+                    int[] slots = buckets[bucket];
+                    for (int k = 0, n = bucketSizes[bucket]; k < n; ++k) {
+                        int i = slots[k];
+                        if (i != j && freeWidth[i] >= 0 && isRedundant(j, i)) {
+                            return true;
+                        }
                     }
                 }
+            }
+            return false;
+        }
+
+        // A free rectangle is redundant if it is contained in another one, or equal to a later one
+        private boolean isRedundant (int a, int b) {
+            return isContainedIn(a, b) && (a < b || !isContainedIn(b, a));
         }
 
-        private boolean isContainedIn (Rect a, Rect b) {
-            return a.x >= b.x && a.y >= b.y && a.x + a.width <= b.x + b.width && a.y + a.height <= b.y + b.height;
+        private boolean isContainedIn (int a, int b) {
+            return freeX[a] >= freeX[b] && freeY[a] >= freeY[b]
+                && freeX[a] + freeWidth[a] <= freeX[b] + freeWidth[b] && freeY[a] + freeHeight[a] <= freeY[b] + freeHeight[b];
         }
     }
 
@@ -0,0 +1,238 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.textureset;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.dynamo.bob.textureset.TextureSetLayout.Layout;
+import com.dynamo.bob.textureset.TextureSetLayout.Rect;
+import com.dynamo.bob.util.CpuBudget;
+
+/**
+ * Composites the images of a texture set into its pages. The images are converted
+ * once to int ARGB pixels, which are then padded, extruded, rotated and copied into
+ * the 4 byte ABGR page with plain integer loops.
+ *
+ * The output is the same, bit for bit, as drawing the images with Graphics2D the way
+ * the texture set generator used to: semi transparent colours are rounded the same
+ * way as when Java2D draws them onto a transparent image, and fully transparent
+ * pixels are cleared. The rects of a page never overlap, so they are composited
+ * concurrently, within the CPU budget of the build.
+ */
+public class TextureSetCompositor {
+
+    // The colour channel c of a pixel with alpha a, drawn onto a transparent image, at [a * 256 + c]
+    private static final byte[] SRC_OVER_TRANSPARENT = new byte[256 * 256];
+
+    static {
+        // The same fixed point arithmetic as the multiply and divide tables of Java2D (AlphaMath.c)
+        for (int a = 1; a < 255; ++a) {
+            long mulInc = a * 0x10101L;
+            long divInc = ((0xffL << 24) + a / 2) / a;
+            for (int c = 0; c < 256; ++c) {
+                int premultiplied = (int) ((mulInc * c + (1 << 23)) >> 24);
+                int value = premultiplied < a ? (int) ((divInc * premultiplied + (1 << 23)) >> 24) : 255;
+                SRC_OVER_TRANSPARENT[a * 256 + c] = (byte) value;
+            }
+        }
+        for (int c = 0; c < 256; ++c) {
+            SRC_OVER_TRANSPARENT[255 * 256 + c] = (byte) c;
+        }
+    }
+
+    private static int srcOverTransparent(int argb) {
+        int a = argb >>> 24;
+        if (a == 255) {
+            return argb;
+        } else if (a == 0) {
+            return 0;
+        }
+        int row = a << 8;
+        int r = SRC_OVER_TRANSPARENT[row + ((argb >> 16) & 0xff)] & 0xff;
+        int g = SRC_OVER_TRANSPARENT[row + ((argb >> 8) & 0xff)] & 0xff;
+        int b = SRC_OVER_TRANSPARENT[row + (argb & 0xff)] & 0xff;
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * Get the pixels of an image as non premultiplied ARGB, with the colours the image
+     * gets when it is drawn onto a transparent image.
+     * @param image the image
+     * @return width * height pixels, row by row
+     */
+    public static int[] getArgb(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] argb = new int[width * height];
+        switch (image.getType()) {
+        case BufferedImage.TYPE_INT_ARGB: {
+            int[] data = (int[]) image.getRaster().getDataElements(0, 0, width, height, null);
+            for (int i = 0; i < argb.length; ++i) {
+                argb[i] = srcOverTransparent(data[i]);
+            }
+            break;
+        }
+        case BufferedImage.TYPE_INT_RGB: {
+            int[] data = (int[]) image.getRaster().getDataElements(0, 0, width, height, null);
+            for (int i = 0; i < argb.length; ++i) {
+                argb[i] = 0xff000000 | data[i];
+            }
+            break;
+        }
+        case BufferedImage.TYPE_4BYTE_ABGR: {
+            // The data elements are in R, G, B, A order
+            byte[] data = (byte[]) image.getRaster().getDataElements(0, 0, width, height, null);
+            for (int i = 0, j = 0; i < argb.length; ++i, j += 4) {
+                argb[i] = srcOverTransparent(((data[j + 3] & 0xff) << 24) | ((data[j] & 0xff) << 16) | ((data[j + 1] & 0xff) << 8) | (data[j + 2] & 0xff));
+            }
+            break;
+        }
+        case BufferedImage.TYPE_3BYTE_BGR: {
+            byte[] data = (byte[]) image.getRaster().getDataElements(0, 0, width, height, null);
+            for (int i = 0, j = 0; i < argb.length; ++i, j += 3) {
+                argb[i] = 0xff000000 | ((data[j] & 0xff) << 16) | ((data[j + 1] & 0xff) << 8) | (data[j + 2] & 0xff);
+            }
+            break;
+        }
+        case BufferedImage.TYPE_BYTE_GRAY: {
+            // Drawing copies the grey level to each colour channel, unlike getRGB() which converts it
+            byte[] data = (byte[]) image.getRaster().getDataElements(0, 0, width, height, null);
+            for (int i = 0; i < argb.length; ++i) {
+                argb[i] = 0xff000000 | ((data[i] & 0xff) * 0x10101);
+            }
+            break;
+        }
+        default: {
+            // Palettes, 16 bit channels, premultiplied and custom formats are converted by Java2D
+            BufferedImage converted = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = converted.createGraphics();
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+            converted.getRaster().getDataElements(0, 0, width, height, argb);
+            break;
+        }
+        }
+        return argb;
+    }
+
+    // The source pixel of each padded and extruded pixel along one axis, or -1 for the padding
+    private static int[] createSourceIndices(int size, int innerPadding, int extrudeBorders) {
+        int paddedSize = size + innerPadding * 2;
+        int[] indices = new int[paddedSize + extrudeBorders * 2];
+        for (int i = 0; i < indices.length; ++i) {
+            int p = Math.min(Math.max(i - extrudeBorders, 0), paddedSize - 1) - innerPadding;
+            indices[i] = p >= 0 && p < size ? p : -1;
+        }
+        return indices;
+    }
+
+    /**
+     * Composite an image into a 4 byte ABGR raster, padded with transparent pixels, then
+     * extruded and, if rotated, turned 90 degrees clockwise.
+     * @param src the pixels of the image, see getArgb()
+     * @param srcWidth width of the image
+     * @param srcHeight height of the image
+     * @param innerPadding transparent pixels added around the image
+     * @param extrudeBorders times the border pixels are repeated around the padded image
+     * @param rotated if the image is rotated
+     * @param dst the raster, 4 bytes per pixel
+     * @param dstWidth width of the raster
+     * @param dstX x of the top left corner of the composited image in the raster
+     * @param dstY y of the top left corner of the composited image in the raster
+     */
+    public static void composite(int[] src, int srcWidth, int srcHeight, int innerPadding, int extrudeBorders, boolean rotated,
+            byte[] dst, int dstWidth, int dstX, int dstY) {
+        int[] xs = createSourceIndices(srcWidth, innerPadding, extrudeBorders);
+        int[] ys = createSourceIndices(srcHeight, innerPadding, extrudeBorders);
+        int width = rotated ? ys.length : xs.length;
+        int height = rotated ? xs.length : ys.length;
+        for (int y = 0; y < height; ++y) {
+            int o = ((dstY + y) * dstWidth + dstX) * 4;
+            for (int x = 0; x < width; ++x, o += 4) {
+                // Rotated clockwise, pixel (x, y) comes from (y, height - 1 - x) of the unrotated image
+                int sx = rotated ? xs[y] : xs[x];
+                int sy = rotated ? ys[ys.length - 1 - x] : ys[y];
+                int argb = sx >= 0 && sy >= 0 ? src[sy * srcWidth + sx] : 0;
+                dst[o] = (byte) (argb >>> 24);
+                dst[o + 1] = (byte) argb;
+                dst[o + 2] = (byte) (argb >> 8);
+                dst[o + 3] = (byte) (argb >> 16);
+            }
+        }
+    }
+
+    /**
+     * Create the pixels of an image as they are composited into a page
+     * @return the padded, extruded and rotated pixels in the 4 byte ABGR format of the page
+     */
+    public static byte[] createPagePixels(BufferedImage image, int innerPadding, int extrudeBorders, boolean rotated) {
+        int border = innerPadding + extrudeBorders;
+        int width = (rotated ? image.getHeight() : image.getWidth()) + border * 2;
+        int height = (rotated ? image.getWidth() : image.getHeight()) + border * 2;
+        byte[] pixels = new byte[width * height * 4];
+        composite(getArgb(image), image.getWidth(), image.getHeight(), innerPadding, extrudeBorders, rotated, pixels, width, 0, 0);
+        return pixels;
+    }
+
+    private static void compositeRect(Rect rect, BufferedImage image, int innerPadding, int extrudeBorders, TextureSetImageCache imageCache,
+            byte[] page, int pageWidth) {
+        if (imageCache == null) {
+            composite(getArgb(image), image.getWidth(), image.getHeight(), innerPadding, extrudeBorders, rect.rotated, page, pageWidth, rect.x, rect.y);
+            return;
+        }
+        int border = innerPadding + extrudeBorders;
+        int width = (rect.rotated ? image.getHeight() : image.getWidth()) + border * 2;
+        int height = (rect.rotated ? image.getWidth() : image.getHeight()) + border * 2;
+        byte[] pixels = imageCache.getPixels(rect.index, innerPadding, extrudeBorders, rect.rotated, width * height * 4,
+            () -> createPagePixels(image, innerPadding, extrudeBorders, rect.rotated));
+        int stride = width * 4;
+        for (int y = 0; y < height; ++y) {
+            System.arraycopy(pixels, y * stride, page, ((rect.y + y) * pageWidth + rect.x) * 4, stride);
+        }
+    }
+
+    /**
+     * Composite the images of a layout into a page
+     * @param layout the layout of the page
+     * @param images the images, indexed by the rects of the layout
+     * @param innerPadding transparent pixels added around each image
+     * @param extrudeBorders times the border pixels are repeated around each padded image
+     * @param imageCache cache of the composited pixels of each image, or null
+     * @return the page, in 4 byte ABGR format
+     */
+    public static BufferedImage compositePage(Layout layout, List<BufferedImage> images, int innerPadding, int extrudeBorders,
+            TextureSetImageCache imageCache) {
+        BufferedImage page = new BufferedImage(layout.getWidth(), layout.getHeight(), BufferedImage.TYPE_4BYTE_ABGR);
+        byte[] pixels = ((DataBufferByte) page.getRaster().getDataBuffer()).getData();
+        int pageWidth = layout.getWidth();
+
+        // The rects never overlap, so each task writes its own part of the page
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (Rect rect : layout.getRectangles()) {
+            BufferedImage image = images.get(rect.index);
+            tasks.add(() -> {
+                compositeRect(rect, image, innerPadding, extrudeBorders, imageCache, pixels, pageWidth);
+                return null;
+            });
+        }
+        CpuBudget.invokeAll("texture-composite", tasks);
+        return page;
+    }
+}
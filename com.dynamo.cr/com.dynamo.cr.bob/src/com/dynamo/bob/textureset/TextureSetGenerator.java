@@ -20,6 +20,7 @@ import com.dynamo.bob.textureset.TextureSetLayout.Rect;
 
 import com.dynamo.bob.tile.ConvexHull2D;
 import com.dynamo.bob.tile.TileSetUtil;
+import com.dynamo.bob.util.CpuBudget;
 import com.dynamo.bob.util.TextureUtil;
 import com.dynamo.gamesys.proto.TextureSetProto;
 import com.dynamo.gamesys.proto.TextureSetProto.SpriteGeometry;
@@ -44,6 +45,7 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
 import java.util.stream.Collectors;
 
 /*
@@ -406,44 +408,44 @@ public class TextureSetGenerator {
     public static TextureSetResult generate(List<BufferedImage> images, List<Integer> imageHullSizes, List<String> paths, AnimIterator iterator,
             int margin, int innerPadding, int extrudeBorders, boolean rotate, boolean useTileGrid, Grid gridSize,
             float maxPageSizeW, float maxPageSizeH) {
+        return generate(images, imageHullSizes, paths, iterator, margin, innerPadding, extrudeBorders, rotate, useTileGrid, gridSize,
+            maxPageSizeW, maxPageSizeH, null);
+    }
+
+    /**
+     * Generate an atlas, reusing the hulls and processed pixels of unchanged images from a cache
+     * @param imageCache cache of per image work, or null to process all images
+     */
+    public static TextureSetResult generate(List<BufferedImage> images, List<Integer> imageHullSizes, List<String> paths, AnimIterator iterator,
+            int margin, int innerPadding, int extrudeBorders, boolean rotate, boolean useTileGrid, Grid gridSize,
+            float maxPageSizeW, float maxPageSizeH, TextureSetImageCache imageCache) {
 
         List<Rect> imageRects = rectanglesFromImages(images, paths);
 
         // if all sizes are 0, we still need to generate hull (or rect) data
         // since it will still be part of the new code path if there is another atlas with trimming enabled
-        List<SpriteGeometry> imageHulls = new ArrayList<SpriteGeometry>();
+        // The hulls of the images are independent of each other and built concurrently
+        List<Callable<SpriteGeometry>> hullTasks = new ArrayList<Callable<SpriteGeometry>>(images.size());
         int use_geometries = 0;
         for (int i = 0; i < images.size(); ++i) {
+            int index = i;
             BufferedImage image = images.get(i);
-            use_geometries |= imageHullSizes.get(i) > 0 ? 1 : 0;
-            imageHulls.add(buildConvexHull(image, imageHullSizes.get(i)));
+            int hullSize = imageHullSizes.get(i);
+            use_geometries |= hullSize > 0 ? 1 : 0;
+            if (imageCache != null) {
+                hullTasks.add(() -> imageCache.getHull(index, hullSize, () -> buildConvexHull(image, hullSize)));
+            } else {
+                hullTasks.add(() -> buildConvexHull(image, hullSize));
+            }
         }
+        List<SpriteGeometry> imageHulls = CpuBudget.invokeAll("texture-hulls", hullTasks);
 
         // The layout step will expand the rect, and possibly rotate them
         TextureSetResult result = calculateLayout(imageRects, imageHulls, use_geometries, iterator,
             margin, innerPadding, extrudeBorders, rotate, useTileGrid, gridSize, maxPageSizeW, maxPageSizeH);
 
         for (Layout layout : result.layoutResult.layouts) {
-            List<BufferedImage> layoutImages = new ArrayList<>();
-            List<Rect> layoutRects           = layout.getRectangles();
-
-            for (Rect rect : layoutRects) {
-                BufferedImage image = images.get(rect.index);
-
-                if (innerPadding > 0) {
-                    image = TextureUtil.createPaddedImage(image, innerPadding, paddingColour);
-                }
-                if (extrudeBorders > 0) {
-                    image = TextureUtil.extrudeBorders(image, extrudeBorders);
-                }
-                if (rect.rotated) {
-                    image = rotateImage(image);
-                }
-
-                layoutImages.add(image);
-            }
-
-            BufferedImage imgOut = composite(layoutImages, layout.getWidth(), layout.getHeight(), layoutRects);
+            BufferedImage imgOut = TextureSetCompositor.compositePage(layout, images, innerPadding, extrudeBorders, imageCache);
             result.images.add(imgOut);
             /*
             // For debugging page generation
@@ -508,17 +510,6 @@ public class TextureSetGenerator {
         return rectangles;
     }
 
-    private static BufferedImage composite(List<BufferedImage> images, int width, int height, List<Rect> rects) {
-        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
-        Graphics2D g = image.createGraphics();
-        int i = 0;
-        for (Rect r : rects) {
-            g.drawImage(images.get(i++), r.x, r.y, null);
-        }
-        g.dispose();
-        return image;
-    }
-
     private static List<Rect> clipBorders(List<Rect> rects, int borderWidth) {
         List<Rect> result = new ArrayList<Rect>(rects.size());
         for (Rect rect : rects) {
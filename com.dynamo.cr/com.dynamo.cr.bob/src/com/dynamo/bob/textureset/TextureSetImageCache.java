@@ -0,0 +1,135 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.textureset;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.dynamo.bob.cache.BuildCache;
+import com.dynamo.gamesys.proto.TextureSetProto.SpriteGeometry;
+
+/**
+ * Keeps the per image work of the texture set generator, the convex hull and
+ * the padded, extruded and rotated pixels, in a build cache. Entries are keyed
+ * on the content of the image and the settings the work depends on, so that
+ * only new or changed images are processed when an atlas is rebuilt.
+ */
+public class TextureSetImageCache {
+
+    // Change when the hull or pixels are created differently, to invalidate old entries
+    private static final int VERSION = 1;
+
+    private final BuildCache cache;
+    private final List<String> imageKeys;
+    // Counted from the threads compositing the pages
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+
+    /**
+     * Create a cache for a list of images
+     * @param cache The build cache to store the entries in
+     * @param imageKeys A key per image identifying its content, e.g. the sha1 of the image file
+     */
+    public TextureSetImageCache(BuildCache cache, List<String> imageKeys) {
+        this.cache = cache;
+        this.imageKeys = imageKeys;
+    }
+
+    public int getHitCount() {
+        return hitCount.get();
+    }
+
+    public int getMissCount() {
+        return missCount.get();
+    }
+
+    SpriteGeometry getHull(int index, int hullVertexCount, Supplier<SpriteGeometry> create) {
+        String key = BuildCache.calculateKey("hull", VERSION, imageKeys.get(index), hullVertexCount);
+        byte[] data = cache.get(key);
+        if (data != null) {
+            try {
+                SpriteGeometry hull = SpriteGeometry.parseFrom(data);
+                hitCount.incrementAndGet();
+                return hull;
+            } catch (IOException e) {
+                // a broken entry is created again below
+            }
+        }
+        missCount.incrementAndGet();
+        SpriteGeometry hull = create.get();
+        cache.put(key, hull.toByteArray());
+        return hull;
+    }
+
+    byte[] getPixels(int index, int innerPadding, int extrudeBorders, boolean rotated, int size, Supplier<byte[]> create) {
+        String key = BuildCache.calculateKey("pixels", VERSION, imageKeys.get(index), innerPadding, extrudeBorders, rotated);
+        byte[] data = cache.get(key);
+        if (data != null) {
+            byte[] pixels = inflate(data, size);
+            if (pixels != null) {
+                hitCount.incrementAndGet();
+                return pixels;
+            }
+        }
+        missCount.incrementAndGet();
+        byte[] pixels = create.get();
+        cache.put(key, deflate(pixels));
+        return pixels;
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+        byte[] buffer = new byte[64 * 1024];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    // Returns null unless the data inflates to exactly the expected size
+    private static byte[] inflate(byte[] data, int size) {
+        Inflater inflater = new Inflater();
+        inflater.setInput(data);
+        try {
+            byte[] pixels = new byte[size];
+            int length = 0;
+            while (length < size && !inflater.finished()) {
+                int n = inflater.inflate(pixels, length, size - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    return null;
+                }
+                length += n;
+            }
+            if (length != size || (!inflater.finished() && inflater.inflate(new byte[1]) != 0)) {
+                return null;
+            }
+            return inflater.finished() ? pixels : null;
+        } catch (DataFormatException e) {
+            return null;
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -193,54 +193,211 @@ public class ConvexHull2D {
         }
     }
 
+    /**
+     * The first and last foreground pixel of each row of an image. The support of a
+     * direction is the maximum of a linear function, so these are the only pixels
+     * that can affect the convex hull.
+     */
+    public static class RowExtents {
+        public final int width;
+        public final int height;
+        // Indexed by image row (top down), minX > maxX for empty rows
+        final int[] minX;
+        final int[] maxX;
+
+        RowExtents(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.minX = new int[height];
+            this.maxX = new int[height];
+            Arrays.fill(this.minX, width);
+            Arrays.fill(this.maxX, -1);
+        }
+
+        private void setRow(int y, int[] row, int offset) {
+            int x0 = 0;
+            while (x0 < width && row[offset + x0] == 0) {
+                ++x0;
+            }
+            if (x0 == width) {
+                return;
+            }
+            int x1 = width - 1;
+            while (row[offset + x1] == 0) {
+                --x1;
+            }
+            minX[y] = x0;
+            maxX[y] = x1;
+        }
+
+        /**
+         * @param mask image mask. 0 is interpreted as background. != 0 is interpreted as foreground
+         */
+        public static RowExtents fromMask(int[] mask, int width, int height) {
+            RowExtents extents = new RowExtents(width, height);
+            for (int y = 0; y < height; ++y) {
+                extents.setRow(y, mask, y * width);
+            }
+            return extents;
+        }
+
+        /**
+         * Read the extents of a region of an alpha raster, one row at a time
+         */
+        public static RowExtents fromRaster(Raster alphaRaster, int x, int y, int width, int height) {
+            RowExtents extents = new RowExtents(width, height);
+            int[] row = new int[width];
+            for (int i = 0; i < height; ++i) {
+                row = alphaRaster.getPixels(x, y + i, width, 1, row);
+                extents.setRow(i, row, 0);
+            }
+            return extents;
+        }
+
+        public boolean isEmpty() {
+            for (int y = 0; y < height; ++y) {
+                if (minX[y] <= maxX[y]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * The extents of the mask dilated by a square kernel, clipped to the image
+         */
+        public RowExtents dilate(int kernelSize) {
+            int kernelHalfSize = kernelSize / 2;
+            RowExtents extents = new RowExtents(width, height);
+            for (int y = 0; y < height; ++y) {
+                int x0 = width;
+                int x1 = -1;
+                for (int yy = Math.max(0, y - kernelHalfSize); yy <= Math.min(height - 1, y + kernelHalfSize); ++yy) {
+                    if (minX[yy] <= maxX[yy]) {
+                        x0 = Math.min(x0, minX[yy]);
+                        x1 = Math.max(x1, maxX[yy]);
+                    }
+                }
+                if (x0 <= x1) {
+                    extents.minX[y] = Math.max(0, x0 - kernelHalfSize);
+                    extents.maxX[y] = Math.min(width - 1, x1 + kernelHalfSize);
+                }
+            }
+            return extents;
+        }
+
+        /**
+         * Get the convex hull of the pixel centers, or of the pixel corners, with the
+         * origin in the lower left. Points on the edges of the hull are kept.
+         * @return the hull as x, y pairs
+         */
+        int[] hull(boolean corners) {
+            // One row of points more than pixels when using the pixel corners
+            int rows = corners ? height + 1 : height;
+            int[] xs = new int[rows * 2];
+            int[] ys = new int[rows * 2];
+            int n = 0;
+            // Sorted on y, then x
+            for (int y = 0; y < rows; ++y) {
+                int x0 = Integer.MAX_VALUE;
+                int x1 = Integer.MIN_VALUE;
+                if (corners) {
+                    // The pixels below and above the corner row
+                    for (int row = height - y - 1; row <= height - y; ++row) {
+                        if (row >= 0 && row < height && minX[row] <= maxX[row]) {
+                            x0 = Math.min(x0, minX[row]);
+                            x1 = Math.max(x1, maxX[row] + 1);
+                        }
+                    }
+                } else {
+                    int row = height - y - 1;
+                    if (minX[row] <= maxX[row]) {
+                        x0 = minX[row];
+                        x1 = maxX[row];
+                    }
+                }
+                if (x0 <= x1) {
+                    xs[n] = x0;
+                    ys[n++] = y;
+                    if (x1 != x0) {
+                        xs[n] = x1;
+                        ys[n++] = y;
+                    }
+                }
+            }
+            return monotoneChain(xs, ys, n);
+        }
+    }
+
+    private static long cross(int ox, int oy, int ax, int ay, int bx, int by) {
+        return (long)(ax - ox) * (by - oy) - (long)(ay - oy) * (bx - ox);
+    }
+
+    // Andrew's monotone chain on points sorted on y, then x. Collinear points are kept.
+    private static int[] monotoneChain(int[] xs, int[] ys, int n) {
+        if (n < 3) {
+            int[] result = new int[n * 2];
+            for (int i = 0; i < n; ++i) {
+                result[i * 2] = xs[i];
+                result[i * 2 + 1] = ys[i];
+            }
+            return result;
+        }
+        int[] hx = new int[n * 2];
+        int[] hy = new int[n * 2];
+        int k = 0;
+        for (int i = 0; i < n; ++i) {
+            while (k >= 2 && cross(hx[k-2], hy[k-2], hx[k-1], hy[k-1], xs[i], ys[i]) > 0) {
+                --k;
+            }
+            hx[k] = xs[i];
+            hy[k++] = ys[i];
+        }
+        for (int i = n - 2, lower = k + 1; i >= 0; --i) {
+            while (k >= lower && cross(hx[k-2], hy[k-2], hx[k-1], hy[k-1], xs[i], ys[i]) > 0) {
+                --k;
+            }
+            hx[k] = xs[i];
+            hy[k++] = ys[i];
+        }
+        // The last point is the first point
+        --k;
+        int[] result = new int[k * 2];
+        for (int i = 0; i < k; ++i) {
+            result[i * 2] = hx[i];
+            result[i * 2 + 1] = hy[i];
+        }
+        return result;
+    }
+
     // Used when inserting each center point of a texel
-    static double supportCenter(int width, int height, int[] mask, Vector2d dir) {
+    static double supportCenter(int width, int height, int[] hull, Vector2d dir) {
         double maxValue = -Double.MAX_VALUE;
         Vector2d p = new Vector2d();
-        for (int y = height-1; y >= 0; --y) {
-            for (int x = 0; x < width; ++x) {
-                if (mask[x + (height - y - 1) * width] != 0) {
-                    p.x = x - (width - 1.0) / 2.0;
-                    p.y = y - (height - 1.0) / 2.0;
-                    double len = p.dot(dir);
-                    maxValue = Math.max(maxValue, len);
-                }
-            }
+        for (int i = 0; i < hull.length; i += 2) {
+            p.x = hull[i] - (width - 1.0) / 2.0;
+            p.y = hull[i+1] - (height - 1.0) / 2.0;
+            double len = p.dot(dir);
+            maxValue = Math.max(maxValue, len);
         }
         return maxValue;
     }
 
-    static double supportCorners(int width, int height, int[] mask, Vector2d dir) {
+    static double supportCorners(int width, int height, int[] hull, Vector2d dir) {
         double maxValue = -Double.MAX_VALUE;
         double centerX = width / 2.0;
         double centerY = height / 2.0;
         Vector2d p = new Vector2d();
-        for (int y = height-1; y >= 0; --y) {
-            for (int x = 0; x < width; ++x) {
-                if (mask[x + (height - y - 1) * width] != 0) {
-                    p.x = x + 0 - centerX;
-                    p.y = y + 0 - centerY;
-                    maxValue = Math.max(maxValue, p.dot(dir));
-
-                    p.x = x + 1 - centerX;
-                    p.y = y + 0 - centerY;
-                    maxValue = Math.max(maxValue, p.dot(dir));
-
-                    p.x = x + 1 - centerX;
-                    p.y = y + 1 - centerY;
-                    maxValue = Math.max(maxValue, p.dot(dir));
-
-                    p.x = x + 0 - centerX;
-                    p.y = y + 1 - centerY;
-                    maxValue = Math.max(maxValue, p.dot(dir));
-                }
-            }
+        for (int i = 0; i < hull.length; i += 2) {
+            p.x = hull[i] - centerX;
+            p.y = hull[i+1] - centerY;
+            maxValue = Math.max(maxValue, p.dot(dir));
         }
         return maxValue;
     }
 
 
-    static boolean validHull(Point[] points, int[] mask, int width, int height) {
+    static boolean validHull(Point[] points, int[] hull) {
         int n = points.length;
         for (int i = 0; i < n; ++i) {
             Point p0 = points[(i+1) % n];
@@ -249,23 +406,19 @@ public class ConvexHull2D {
             normal.normalize();
             Vector2d p = new Vector2d();
 
-            for (int y = height-1; y >= 0; --y) {
-                for (int x = 0; x < width; ++x) {
-                    if (mask[x + (height - y - 1) * width] != 0) {
-                        p.x = p0.x - x;
-                        p.y = p0.y - y;
-                        double distance = p.dot(normal);
-                        if (distance < -0.01) // TODO: Epsilon for floats...
-                            return false;
-                    }
-                }
+            for (int j = 0; j < hull.length; j += 2) {
+                p.x = p0.x - hull[j];
+                p.y = p0.y - hull[j+1];
+                double distance = p.dot(normal);
+                if (distance < -0.01) // TODO: Epsilon for floats...
+                    return false;
             }
         }
 
         return true;
     }
 
-    static Point[] refine(Point[] points, int[] mask, int width, int height) {
+    static Point[] refine(Point[] points, int[] hull) {
         int n = points.length;
 
         boolean wasRefined;
@@ -275,7 +428,7 @@ public class ConvexHull2D {
                 Point[] refined = new Point[n-1];
                 System.arraycopy(points, 0, refined, 0, i);
                 System.arraycopy(points, i + 1, refined, i, n - i - 1);
-                if (validHull(refined, mask, width, height)) {
+                if (validHull(refined, hull)) {
                     // Successfully removed a point
                     points = refined;
                     --n;
@@ -325,6 +478,19 @@ public class ConvexHull2D {
      * @return convex hull
      */
     public static Point[] imageConvexHull(int[] mask, int width, int height, int nplanes) {
+        return imageConvexHull(RowExtents.fromMask(mask, width, height), nplanes);
+    }
+
+    /**
+     * Get convex shape for a single image
+     * @param extents the foreground of the image
+     * @param nplanes number of planes to use when fitting
+     * @return convex hull
+     */
+    public static Point[] imageConvexHull(RowExtents extents, int nplanes) {
+        int width = extents.width;
+        int height = extents.height;
+        int[] hull = extents.hull(false);
         Vector2d[] points = new Vector2d[nplanes];
         Vector2d[] tangents = new Vector2d[nplanes];
 
@@ -337,7 +503,7 @@ public class ConvexHull2D {
             dir.normalize();
             tangents[i] = new Vector2d(-dir.y, dir.x);
 
-            double max = supportCenter(width, height, mask, dir);
+            double max = supportCenter(width, height, hull, dir);
 
             // Create a point from the direction and distance
             dir.scale(max);
@@ -376,7 +542,7 @@ public class ConvexHull2D {
         }
 
         Point[] distinct = Arrays.copyOf(result, npoints);
-        return refine(distinct, mask, width, height);
+        return refine(distinct, hull);
     }
 
     private static double areaX2(PointF p0, PointF p1, PointF p2) {
@@ -484,7 +650,19 @@ public class ConvexHull2D {
      * @return a PointF array where each point is in the space [-0.5, 0.5]
      */
     public static PointF[] imageConvexHullCorners(int[] mask, int width, int height, int targetCount) {
+        return imageConvexHullCorners(RowExtents.fromMask(mask, width, height), targetCount);
+    }
+
+    /**
+     * @note returns CW winding
+     * @param extents the foreground of the image
+     * @return a PointF array where each point is in the space [-0.5, 0.5]
+     */
+    public static PointF[] imageConvexHullCorners(RowExtents extents, int targetCount) {
         final int nplanes = 16;
+        int width = extents.width;
+        int height = extents.height;
+        int[] hull = extents.hull(true);
         Vector2d[] points = new Vector2d[nplanes];
         Vector2d[] tangents = new Vector2d[nplanes];
 
@@ -499,7 +677,7 @@ public class ConvexHull2D {
             dir.normalize();
             tangents[i] = new Vector2d(-dir.y, dir.x);
 
-            double max = supportCorners(width, height, mask, dir);
+            double max = supportCorners(width, height, hull, dir);
 
             // Create a point from the direction and distance
             dir.scale(max);
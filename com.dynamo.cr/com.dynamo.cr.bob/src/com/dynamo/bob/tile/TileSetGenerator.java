@@ -18,6 +18,7 @@ import java.awt.Graphics;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import com.dynamo.bob.textureset.TextureSetGenerator;
 import com.dynamo.bob.textureset.TextureSetGenerator.AnimDesc;
@@ -26,6 +27,7 @@ import com.dynamo.bob.textureset.TextureSetGenerator.TextureSetResult;
 import com.dynamo.bob.textureset.TextureSetLayout.Grid;
 import com.dynamo.bob.textureset.TextureSetLayout.Rect;
 import com.dynamo.bob.tile.TileSetUtil.ConvexHulls;
+import com.dynamo.bob.util.CpuBudget;
 import com.dynamo.bob.util.TextureUtil;
 import com.dynamo.gamesys.proto.TextureSetProto.SpriteGeometry;
 import com.dynamo.gamesys.proto.TextureSetProto.TextureSet;
@@ -161,19 +163,22 @@ public class TileSetGenerator {
         int count = metrics.tilesPerRow * metrics.tilesPerColumn;
         int tileWidth = tileSet.getTileWidth();
         int tileHeight = tileSet.getTileHeight();
-        List<BufferedImage> result = new ArrayList<BufferedImage>(count);
+        // The tiles only read from the source image, and are copied concurrently
+        List<Callable<BufferedImage>> tasks = new ArrayList<Callable<BufferedImage>>(count);
         for (int i = 0; i < count; ++i) {
-            BufferedImage tgt = new BufferedImage(tileWidth, tileHeight, BufferedImage.TYPE_4BYTE_ABGR);
-            Graphics g = tgt.getGraphics();
             int tileX = i % metrics.tilesPerRow;
             int tileY = i / metrics.tilesPerRow;
             int sx = calcTileStart(tileSet, tileWidth, tileX);
             int sy = calcTileStart(tileSet, tileHeight, tileY);
-            g.drawImage(image, 0, 0, tileWidth, tileHeight, sx, sy, sx + tileWidth, sy + tileHeight, null);
-            g.dispose();
-            result.add(tgt);
+            tasks.add(() -> {
+                BufferedImage tgt = new BufferedImage(tileWidth, tileHeight, BufferedImage.TYPE_4BYTE_ABGR);
+                Graphics g = tgt.getGraphics();
+                g.drawImage(image, 0, 0, tileWidth, tileHeight, sx, sy, sx + tileWidth, sy + tileHeight, null);
+                g.dispose();
+                return tgt;
+            });
         }
-        return result;
+        return CpuBudget.invokeAll("tile-split", tasks);
     }
 
     private static AnimIterator createAnimIterator(TileSet tileSet, int tileCount) {
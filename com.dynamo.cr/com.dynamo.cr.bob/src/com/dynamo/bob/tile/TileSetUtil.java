@@ -15,11 +15,15 @@
 package com.dynamo.bob.tile;
 
 import com.dynamo.bob.textureset.TextureSetLayout.Rect;
+import com.dynamo.bob.util.CpuBudget;
 
 // The code below must remain identical to the implementation in the editor!
 // ./editor/src/java/com/defold/editor/pipeline/TileSetUtil.java
 
 import java.awt.image.Raster;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 
 public class TileSetUtil {
@@ -88,21 +92,20 @@ public class TileSetUtil {
     private static int Min(int a, int b) { return a < b ? a : b; }
 
     // Returns a CW rect
-    private static ConvexHull2D.Point[] calcRect(int[] alpha, int width, int height, int inflate) {
+    private static ConvexHull2D.Point[] calcRect(ConvexHull2D.RowExtents extents, int inflate) {
+        int width = extents.width;
+        int height = extents.height;
         int maxX = -1;
         int maxY = -1;
         int minX = width + 1;
         int minY = width + 1;
 
         for (int y = 0; y < height; ++y) {
-            for (int x = 0; x < width; ++x) {
-                int a = alpha[y * width + x];
-                if (a != 0) {
-                    maxX = Max(maxX, x);
-                    maxY = Max(maxY, y);
-                    minX = Min(minX, x);
-                    minY = Min(minY, y);
-                }
+            if (extents.minX[y] <= extents.maxX[y]) {
+                maxX = Max(maxX, extents.maxX[y]);
+                maxY = Max(maxY, y);
+                minX = Min(minX, extents.minX[y]);
+                minY = Min(minY, y);
             }
         }
 
@@ -138,50 +141,13 @@ public class TileSetUtil {
         }
         return true;
     }
-    private static int nonzeroValue(int[] mask, int width, int height, int x, int y, int kernelSize)
-    {
-        int kernelHalfSize = kernelSize / 2;
-        for (int ky = -kernelHalfSize; ky <= kernelHalfSize; ++ky) {
-            int yy = y + ky;
-            if (yy < 0 || yy >= height)
-                continue;
-            for (int kx = -kernelHalfSize; kx <= kernelHalfSize; ++kx) {
-                int xx = x + kx;
-                if (xx < 0 || xx >= width)
-                    continue;
-                if (mask[yy * width + xx] != 0)
-                    return 1;
-            }
-        }
-        return 0;
-    }
-
-    private static int[] dilate(int[] mask, int width, int height, int kernelSize) {
-        int[] tmp = new int[width*height];
-        for (int y = 0; y < height; ++y) {
-            for (int x = 0; x < width; ++x) {
-                tmp[y * width + x] = nonzeroValue(mask, width, height, x, y, kernelSize);
-            }
-        }
-        return tmp;
-    }
-
-    private static boolean isEmpty(int[] mask, int width, int height) {
-        for (int i = 0; i < width*height; ++i) {
-            if (mask[i] != 0)
-                return false;
-        }
-        return true;
-    }
-
     // returns a tight rect with CW winding
     public static ConvexHull2D.PointF[] calculateRect(Raster alphaRaster, int inflate) {
         int width = alphaRaster.getWidth();
         int height = alphaRaster.getHeight();
-        int[] alpha = new int[width * height];
-        alpha = alphaRaster.getPixels(0, 0, width, height, alpha);
+        ConvexHull2D.RowExtents extents = ConvexHull2D.RowExtents.fromRaster(alphaRaster, 0, 0, width, height);
 
-        ConvexHull2D.Point ipoints[] = calcRect(alpha, width, height, inflate);
+        ConvexHull2D.Point ipoints[] = calcRect(extents, inflate);
         ConvexHull2D.PointF points[] = new ConvexHull2D.PointF[4];
 
         // make sure we don't change winding
@@ -195,17 +161,16 @@ public class TileSetUtil {
     public static ConvexHull2D.PointF[] calculateConvexHull(Raster alphaRaster, int hullTargetVertexCount, int dilateCount) {
         int width = alphaRaster.getWidth();
         int height = alphaRaster.getHeight();
-        int[] alpha = new int[width * height];
-        alpha = alphaRaster.getPixels(0, 0, width, height, alpha);
+        ConvexHull2D.RowExtents extents = ConvexHull2D.RowExtents.fromRaster(alphaRaster, 0, 0, width, height);
 
-        if (isEmpty(alpha, width, height))
+        if (extents.isEmpty())
             return null;
 
         if (dilateCount > 0) {
-            alpha = dilate(alpha, width, height, dilateCount * 2 + 1);
+            extents = extents.dilate(dilateCount * 2 + 1);
         }
 
-        ConvexHull2D.PointF[] points = ConvexHull2D.imageConvexHullCorners(alpha, width, height, hullTargetVertexCount);
+        ConvexHull2D.PointF[] points = ConvexHull2D.imageConvexHullCorners(extents, hullTargetVertexCount);
 
         // Check the vertices, and if they're outside of the rectangle, fallback to the tight rect
         if (!isHullValid(points)) {
@@ -222,38 +187,39 @@ public class TileSetUtil {
 
         int tilesPerRow = TileSetUtil.calculateTileCount(tileWidth, width, tileMargin, tileSpacing);
         int tilesPerColumn = TileSetUtil.calculateTileCount(tileHeight, height, tileMargin, tileSpacing);
-        ConvexHull2D.Point[][] points = new ConvexHull2D.Point[tilesPerRow * tilesPerColumn][];
-        int pointCount = 0;
-        int[] mask = new int[tileWidth * tileHeight];
-
-        ConvexHull[] convexHulls = new ConvexHull[tilesPerColumn * tilesPerRow];
 
+        // Each tile reads its own region of the shared raster, so the hulls are built concurrently
+        List<Callable<ConvexHull2D.Point[]>> tasks = new ArrayList<Callable<ConvexHull2D.Point[]>>(tilesPerRow * tilesPerColumn);
         for (int row = 0; row < tilesPerColumn; ++row) {
             for (int col = 0; col < tilesPerRow; ++col) {
                 int x = tileMargin + col * (2 * tileMargin + tileSpacing + tileWidth);
                 int y = tileMargin + row * (2 * tileMargin + tileSpacing + tileHeight);
-                mask = alphaRaster.getPixels(x, y, tileWidth, tileHeight, mask);
-                int index = col + row * tilesPerRow;
-                points[index] = ConvexHull2D.imageConvexHull(mask, tileWidth, tileHeight, hullTargetVertexCount);
-
-                // Check the vertices, and if they're outside of the rectangle, fallback to the tight rect
-                if (!isHullValid(points[index], tileWidth, tileHeight)) {
-                    points[index] = calcRect(mask, tileWidth, tileHeight, 0);
-                }
-                ConvexHull convexHull = new ConvexHull(null, pointCount, points[index].length);
-                convexHulls[index] = convexHull;
-                pointCount += points[index].length;
+                tasks.add(() -> {
+                    ConvexHull2D.RowExtents extents = ConvexHull2D.RowExtents.fromRaster(alphaRaster, x, y, tileWidth, tileHeight);
+                    ConvexHull2D.Point[] hull = ConvexHull2D.imageConvexHull(extents, hullTargetVertexCount);
+
+                    // Check the vertices, and if they're outside of the rectangle, fallback to the tight rect
+                    if (!isHullValid(hull, tileWidth, tileHeight)) {
+                        hull = calcRect(extents, 0);
+                    }
+                    return hull;
+                });
             }
         }
+        List<ConvexHull2D.Point[]> points = CpuBudget.invokeAll("tile-hulls", tasks);
+
+        ConvexHull[] convexHulls = new ConvexHull[tilesPerColumn * tilesPerRow];
+        int pointCount = 0;
+        for (int index = 0; index < convexHulls.length; ++index) {
+            convexHulls[index] = new ConvexHull(null, pointCount, points.get(index).length);
+            pointCount += points.get(index).length;
+        }
         float[] convexHullPoints = new float[pointCount * 2];
         int totalIndex = 0;
-        for (int row = 0; row < tilesPerColumn; ++row) {
-            for (int col = 0; col < tilesPerRow; ++col) {
-                int index = col + row * tilesPerRow;
-                for (int i = 0; i < points[index].length; ++i) {
-                    convexHullPoints[totalIndex++] = points[index][i].getX();
-                    convexHullPoints[totalIndex++] = points[index][i].getY();
-                }
+        for (ConvexHull2D.Point[] hull : points) {
+            for (int i = 0; i < hull.length; ++i) {
+                convexHullPoints[totalIndex++] = hull[i].getX();
+                convexHullPoints[totalIndex++] = hull[i].getY();
             }
         }
 
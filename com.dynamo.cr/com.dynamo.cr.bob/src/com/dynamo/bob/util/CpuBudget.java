@@ -0,0 +1,290 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The number of threads a build may keep busy, shared by everything in the build
+ * that runs work concurrently: internal parallel loops, native encoders and external
+ * tools, which Exec runs under a lease of the thread starting them.
+ *
+ * The thread calling acquire() always counts as one thread of the budget, and the
+ * lease grants it as many additional threads as are free, up to the number asked
+ * for. Leases never block, so nested parallel work can't deadlock; a caller that
+ * gets no additional threads does the work on its own thread. The time, threads and
+ * busy time of the leases are recorded per stage (see getStageStats()). Leases doing
+ * work that can't be timed, such as native code using their threads, are recorded as
+ * granted time only.
+ */
+public class CpuBudget {
+
+    private static Logger logger = Logger.getLogger(CpuBudget.class.getCanonicalName());
+
+    public static class StageStats {
+        public int count;
+        public int maxThreads;
+        public long wallMillis;
+        // The threads granted, times the time they were granted for
+        public long grantedMillis;
+        // The part of grantedMillis of the leases with a measured busy time
+        public long measuredMillis;
+        // The time the threads of those leases spent running the work of the stage
+        public long busyMillis;
+    }
+
+    private static int threads = Runtime.getRuntime().availableProcessors();
+    // The additional threads currently granted to leases
+    private static int granted = 0;
+    private static Map<String, StageStats> stageStats = new HashMap<>();
+
+    // The leases bound the number of threads in use, so the pool itself doesn't need to
+    private static ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "cpu-budget-worker");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * A number of threads granted to a stage of the build, until the lease is closed.
+     * The lease is also an executor running commands on its additional threads.
+     */
+    public static class Lease implements Executor, AutoCloseable {
+        private final String stage;
+        private final int threads;
+        private final long startTime = System.nanoTime();
+        private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+        private int running;
+        private boolean closed;
+        private long busyNanos;
+        private boolean measured = true;
+
+        private Lease(String stage, int threads) {
+            this.stage = stage;
+            this.threads = threads;
+        }
+
+        /**
+         * @return The number of threads of the lease, including the calling thread. Always at least 1
+         */
+        public int getThreads() {
+            return threads;
+        }
+
+        /**
+         * Run a command on one of the additional threads of the lease, or queue it until
+         * one is free. A lease without additional threads runs the command on the calling thread.
+         * @param command The command, e.g. a FutureTask to get the result or failure from
+         */
+        @Override
+        public void execute(Runnable command) {
+            synchronized (this) {
+                if (threads > 1) {
+                    if (running < threads - 1) {
+                        ++running;
+                        executor.execute(() -> work(command));
+                    } else {
+                        queue.add(command);
+                    }
+                    return;
+                }
+            }
+            run(command);
+        }
+
+        /**
+         * Run a command on the calling thread, recording the time as busy time of the lease.
+         * Used for the share of the work the calling thread does itself.
+         * @param command The command
+         */
+        public void run(Runnable command) {
+            long start = System.nanoTime();
+            try {
+                command.run();
+            } finally {
+                addBusyTime(System.nanoTime() - start);
+            }
+        }
+
+        /**
+         * Record work done on the threads of the lease that didn't go through execute() or
+         * run(), such as native code using the threads of the lease, or an external process.
+         * @param nanos The busy time, summed over the threads
+         */
+        public synchronized void addBusyTime(long nanos) {
+            busyNanos += nanos;
+        }
+
+        /**
+         * Record that the threads of the lease do work that can't be timed, such as native
+         * code using the threads of the lease. The lease only counts as granted time of the stage.
+         */
+        public synchronized void setUnmeasured() {
+            measured = false;
+        }
+
+        private void work(Runnable command) {
+            while (command != null) {
+                try {
+                    run(command);
+                } catch (RuntimeException e) {
+                    logger.log(Level.SEVERE, String.format("Uncaught exception in '%s'", stage), e);
+                }
+                synchronized (this) {
+                    command = queue.poll();
+                    if (command == null) {
+                        --running;
+                        if (closed && running == 0) {
+                            release(this);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Return the threads to the budget. Commands still running keep their threads until they are done.
+         */
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                if (running == 0) {
+                    release(this);
+                }
+            }
+        }
+    }
+
+    /**
+     * Set the number of threads of the budget
+     * @param threads max number of threads busy at the same time, including the build thread
+     */
+    public static synchronized void setThreads(int threads) {
+        CpuBudget.threads = Math.max(1, threads);
+    }
+
+    public static synchronized int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Lease threads for a stage of the build. Never blocks.
+     * @param stage name of the stage, for the statistics
+     * @param maxThreads the number of threads the stage can use, including the calling thread
+     * @return the lease, to be closed when the stage is done
+     */
+    public static synchronized Lease acquire(String stage, int maxThreads) {
+        int additional = Math.max(0, Math.min(maxThreads - 1, threads - 1 - granted));
+        granted += additional;
+        return new Lease(stage, 1 + additional);
+    }
+
+    /**
+     * Run independent tasks of a stage concurrently, as many at a time as the budget allows.
+     * The last task runs on the calling thread.
+     * @param stage name of the stage, for the statistics
+     * @param tasks the tasks
+     * @return the results of the tasks, in the same order
+     * @throws RuntimeException the first exception thrown by a task, wrapped unless it is unchecked
+     */
+    public static <T> List<T> invokeAll(String stage, List<? extends Callable<T>> tasks) {
+        List<FutureTask<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(new FutureTask<T>(task));
+        }
+        if (futures.size() > 1) {
+            try (Lease lease = acquire(stage, futures.size())) {
+                for (int i = 0; i < futures.size() - 1; ++i) {
+                    lease.execute(futures.get(i));
+                }
+                lease.run(futures.get(futures.size() - 1));
+            }
+        } else if (futures.size() == 1) {
+            futures.get(0).run();
+        }
+
+        List<T> results = new ArrayList<>(futures.size());
+        for (FutureTask<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new RuntimeException(cause);
+            }
+        }
+        return results;
+    }
+
+    private static synchronized void release(Lease lease) {
+        granted -= lease.threads - 1;
+        long nanos = System.nanoTime() - lease.startTime;
+        StageStats s = stageStats.computeIfAbsent(lease.stage, t -> new StageStats());
+        s.count++;
+        s.maxThreads = Math.max(s.maxThreads, lease.threads);
+        s.wallMillis += nanos / 1000000;
+        s.grantedMillis += nanos * lease.threads / 1000000;
+        synchronized (lease) {
+            if (lease.measured) {
+                s.measuredMillis += nanos * lease.threads / 1000000;
+                s.busyMillis += lease.busyNanos / 1000000;
+            }
+        }
+    }
+
+    /**
+     * Get the statistics of all stages leasing threads so far
+     * @return map from stage name to statistics
+     */
+    public static synchronized Map<String, StageStats> getStageStats() {
+        Map<String, StageStats> stats = new HashMap<>();
+        for (Map.Entry<String, StageStats> entry : stageStats.entrySet()) {
+            StageStats s = entry.getValue();
+            StageStats copy = new StageStats();
+            copy.count = s.count;
+            copy.maxThreads = s.maxThreads;
+            copy.wallMillis = s.wallMillis;
+            copy.grantedMillis = s.grantedMillis;
+            copy.measuredMillis = s.measuredMillis;
+            copy.busyMillis = s.busyMillis;
+            stats.put(entry.getKey(), copy);
+        }
+        return stats;
+    }
+
+    public static synchronized void resetStageStats() {
+        stageStats.clear();
+    }
+}
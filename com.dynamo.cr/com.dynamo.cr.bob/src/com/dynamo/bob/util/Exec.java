@@ -18,16 +18,76 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.List;
-import java.util.Map;
 
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * Runs external tools.
+ *
+ * The output of the process is drained on a separate thread while waiting for the process
+ * to finish, so a tool writing more than the pipe buffer can't block the build. Each tool
+ * has a timeout and optionally a limit on the number of concurrently running processes, and
+ * the time spent in each tool is recorded (see getToolStats()). A process runs under a
+ * CpuBudget lease of the thread starting it, in place of the work of that thread, and the
+ * CPU time of the process is recorded as the busy time of the lease when it's available.
+ */
 public class Exec {
 
     private static String verbosity = System.getenv("DM_BOB_VERBOSE");
     private static Logger logger = Logger.getLogger(Exec.class.getCanonicalName());
 
+    // Timeouts in seconds. 0 means no timeout
+    private static final long DEFAULT_TIMEOUT = 30 * 60;
+    private static final long BUILD_TOOL_TIMEOUT = 5 * 60;
+    private static final String[] BUILD_TOOLS = { "glslc", "spirv-cross", "luajit-32", "luajit-64", "luac-32", "oggz-validate" };
+    // How long to wait for the output after the process has exited (it may be held open by a child process)
+    private static final long DRAIN_TIMEOUT = 10;
+    // How often the CPU time of a running process is sampled, in milliseconds. The CPU time
+    // can't be read once the process has exited, so the last sample is the one recorded
+    private static final long CPU_SAMPLE_INTERVAL = 50;
+
+    private static class ToolLimits {
+        // A maxConcurrent of 0 leaves the number of processes to the CpuBudget of the threads starting them
+        ToolLimits(int maxConcurrent, long timeout) {
+            this.maxConcurrent = maxConcurrent;
+            this.timeout = timeout;
+            this.semaphore = maxConcurrent > 0 ? new Semaphore(maxConcurrent, true) : null;
+        }
+        final int maxConcurrent;
+        final long timeout;
+        final Semaphore semaphore;
+    }
+
+    public static class ToolStats {
+        public int count;
+        public int timeouts;
+        public long totalMillis;
+        public long maxMillis;
+    }
+
+    private static Map<String, ToolLimits> toolLimits = new ConcurrentHashMap<>();
+    private static Map<String, ToolStats> toolStats = new ConcurrentHashMap<>();
+
+    private static ExecutorService drainExecutor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "exec-output-drain");
+        t.setDaemon(true);
+        return t;
+    });
+
     private static int getVerbosity() {
         if (verbosity == null)
             return 0;
@@ -38,26 +98,208 @@ public class Exec {
         }
     }
 
-    public static int exec(String... args) throws IOException {
-        if (getVerbosity() >= 2) {
-            logger.log(Level.INFO, "CMD: " + String.join(" ", args));
+    /**
+     * Get the tool name used for limits and statistics, e.g. "glslc" for "/path/to/glslc.exe"
+     * @param exe executable
+     * @return tool name
+     */
+    public static String getToolName(String exe) {
+        return FilenameUtils.getBaseName(exe);
+    }
+
+    private static long getDefaultTimeout(String tool) {
+        for (String buildTool : BUILD_TOOLS) {
+            if (buildTool.equals(tool)) {
+                return BUILD_TOOL_TIMEOUT;
+            }
         }
+        return DEFAULT_TIMEOUT;
+    }
 
-        Process p = new ProcessBuilder(args).redirectErrorStream(true).start();
-        int ret = 127;
-        byte[] buf = new byte[16 * 1024];
-        try {
-            InputStream is = p.getInputStream();
-            int n = is.read(buf);
-            while (n > 0) {
-                n = is.read(buf);
+    private static ToolLimits getToolLimits(String tool) {
+        return toolLimits.computeIfAbsent(tool, t -> new ToolLimits(0, getDefaultTimeout(t)));
+    }
+
+    /**
+     * Set the limits of a tool
+     * @param tool tool name, see getToolName()
+     * @param maxConcurrent max number of processes of the tool running at the same time
+     * @param timeout timeout in seconds. 0 means no timeout
+     */
+    public static void setToolLimits(String tool, int maxConcurrent, long timeout) {
+        toolLimits.put(tool, new ToolLimits(Math.max(1, maxConcurrent), Math.max(0, timeout)));
+    }
+
+    /**
+     * Set the limits of several tools from a string. Nothing is changed if the string is invalid.
+     * @param spec comma separated list of "tool=max_concurrent" or "tool=max_concurrent:timeout_seconds"
+     * @throws IllegalArgumentException if the string is invalid
+     */
+    public static void setToolLimits(String spec) {
+        if (spec == null || spec.trim().isEmpty()) {
+            return;
+        }
+        Map<String, ToolLimits> limits = new HashMap<>();
+        for (String entry : spec.split(",")) {
+            String[] toolValue = entry.trim().split("=");
+            String[] values = toolValue.length == 2 ? toolValue[1].trim().split(":") : new String[0];
+            if (toolValue[0].trim().isEmpty() || values.length < 1 || values.length > 2) {
+                throw new IllegalArgumentException(String.format("Invalid tool limit '%s', expected tool=max_concurrent[:timeout]", entry));
+            }
+            String tool = toolValue[0].trim();
+            try {
+                int maxConcurrent = Integer.parseInt(values[0].trim());
+                long timeout = values.length > 1 ? Long.parseLong(values[1].trim()) : getDefaultTimeout(tool);
+                limits.put(tool, new ToolLimits(Math.max(1, maxConcurrent), Math.max(0, timeout)));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(String.format("Invalid tool limit '%s', expected tool=max_concurrent[:timeout]", entry), e);
+            }
+        }
+        toolLimits.putAll(limits);
+    }
+
+    /**
+     * Restore the default limits of all tools
+     */
+    public static void resetToolLimits() {
+        toolLimits.clear();
+    }
+
+    /**
+     * Get the statistics of all tools run so far
+     * @return map from tool name to statistics
+     */
+    public static Map<String, ToolStats> getToolStats() {
+        Map<String, ToolStats> stats = new HashMap<>();
+        for (Map.Entry<String, ToolStats> entry : toolStats.entrySet()) {
+            ToolStats s = entry.getValue();
+            synchronized (s) {
+                ToolStats copy = new ToolStats();
+                copy.count = s.count;
+                copy.timeouts = s.timeouts;
+                copy.totalMillis = s.totalMillis;
+                copy.maxMillis = s.maxMillis;
+                stats.put(entry.getKey(), copy);
             }
-            ret = p.waitFor();
-        } catch (InterruptedException e) {
-            logger.log(Level.SEVERE, "Unexpected interruption", e);
         }
+        return stats;
+    }
 
-        return ret;
+    public static void resetToolStats() {
+        toolStats.clear();
+    }
+
+    private static void recordToolStats(String tool, long millis, boolean timedOut) {
+        ToolStats s = toolStats.computeIfAbsent(tool, t -> new ToolStats());
+        synchronized (s) {
+            s.count++;
+            s.totalMillis += millis;
+            s.maxMillis = Math.max(s.maxMillis, millis);
+            if (timedOut) {
+                s.timeouts++;
+            }
+        }
+    }
+
+    /**
+     * A run of a tool, holding one of the concurrent processes allowed by the limits of
+     * the tool and a CpuBudget lease until it is closed. Used for processes that aren't
+     * started by Exec, such as long running compile servers, so that they share the limits
+     * and statistics of the tool.
+     */
+    public static class ToolRun implements AutoCloseable {
+        private final String tool;
+        private final ToolLimits limits;
+        private final CpuBudget.Lease lease;
+        private final long start = System.nanoTime();
+        private long cpuNanos = -1;
+        private boolean timedOut = false;
+        private boolean closed = false;
+
+        private ToolRun(String tool, ToolLimits limits) {
+            this.tool = tool;
+            this.limits = limits;
+            this.lease = CpuBudget.acquire("exec " + tool, 1);
+        }
+
+        /**
+         * @return timeout of the tool in seconds. 0 means no timeout
+         */
+        public long getTimeout() {
+            return limits.timeout;
+        }
+
+        /**
+         * Record the run as timed out
+         */
+        public void setTimedOut() {
+            timedOut = true;
+        }
+
+        /**
+         * Record CPU time used by the tool during the run. A run without any recorded CPU time
+         * counts as granted time of its CpuBudget lease, without a busy time.
+         * @param nanos CPU time in nanoseconds, summed over the threads of the process
+         */
+        public void addCpuTime(long nanos) {
+            cpuNanos = Math.max(0, cpuNanos) + nanos;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                if (limits.semaphore != null) {
+                    limits.semaphore.release();
+                }
+                if (cpuNanos >= 0) {
+                    lease.addBusyTime(cpuNanos);
+                } else {
+                    lease.setUnmeasured();
+                }
+                lease.close();
+                long nanos = System.nanoTime() - start;
+                recordToolStats(tool, nanos / 1000000, timedOut);
+            }
+        }
+    }
+
+    /**
+     * Start a run of a tool, blocking while the max number of processes of the tool are running
+     * @param tool tool name, see getToolName()
+     * @return the run, to be closed when the tool is done
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public static ToolRun startToolRun(String tool) throws InterruptedException {
+        ToolLimits limits = getToolLimits(tool);
+        if (limits.semaphore != null) {
+            limits.semaphore.acquire();
+        }
+        return new ToolRun(tool, limits);
+    }
+
+    /**
+     * Get the CPU time a running process has used so far
+     * @param process the process
+     * @return CPU time in nanoseconds, or -1 if the platform doesn't report it or the process has exited
+     */
+    public static long getCpuTime(Process process) {
+        return process.info().totalCpuDuration().map(Duration::toNanos).orElse(-1L);
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        byte[] buf = new byte[16 * 1024];
+        ByteArrayOutputStream out = new ByteArrayOutputStream(10 * 1024);
+        int n = is.read(buf);
+        while (n > 0) {
+            out.write(buf, 0, n);
+            n = is.read(buf);
+        }
+        return out.toByteArray();
+    }
+
+    public static int exec(String... args) throws IOException {
+        return execResult(args).ret;
     }
 
     public static class Result {
@@ -76,26 +318,7 @@ public class Exec {
      * @throws IOException
      */
     public static Result execResult(String... args) throws IOException {
-        if (getVerbosity() >= 2) {
-            logger.log(Level.INFO, "CMD: " + String.join(" ", args));
-        }
-        Process p = new ProcessBuilder(args).redirectErrorStream(true).start();
-        int ret = 127;
-        byte[] buf = new byte[16 * 1024];
-        ByteArrayOutputStream out = new ByteArrayOutputStream(10 * 1024);
-        try {
-            InputStream is = p.getInputStream();
-            int n = is.read(buf);
-            while (n > 0) {
-                out.write(buf, 0, n);
-                n = is.read(buf);
-            }
-            ret = p.waitFor();
-        } catch (InterruptedException e) {
-            logger.log(Level.SEVERE, "Unexpected interruption", e);
-        }
-
-        return new Result(ret, out.toByteArray());
+        return execResultWithEnvironment(new HashMap<String, String>(), args);
     }
 
     private static ProcessBuilder processBuilderWithArgs(Map<String, String> env, String[] args) {
@@ -115,23 +338,57 @@ public class Exec {
     }
 
     private static Result runProcessBuilder(ProcessBuilder pb) throws IOException {
-        Process p = pb.start();
-        int ret = 127;
-        byte[] buf = new byte[16 * 1024];
-        ByteArrayOutputStream out = new ByteArrayOutputStream(10 * 1024);
+        String tool = getToolName(pb.command().get(0));
+        ToolRun run;
         try {
-            InputStream is = p.getInputStream();
-            int n = is.read(buf);
-            while (n > 0) {
-                out.write(buf, 0, n);
-                n = is.read(buf);
-            }
-            ret = p.waitFor();
+            run = startToolRun(tool);
         } catch (InterruptedException e) {
             logger.log(Level.SEVERE, "Unexpected interruption", e);
+            return new Result(127, new byte[0]);
+        }
+
+        int ret = 127;
+        byte[] output = new byte[0];
+        try {
+            final Process p = pb.start();
+            Future<byte[]> drain = drainExecutor.submit(() -> readAll(p.getInputStream()));
+            try {
+                long timeout = run.getTimeout();
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout);
+                long cpuNanos = -1;
+                boolean timedOut = false;
+                while (!p.waitFor(CPU_SAMPLE_INTERVAL, TimeUnit.MILLISECONDS)) {
+                    cpuNanos = Math.max(cpuNanos, getCpuTime(p));
+                    if (timeout > 0 && System.nanoTime() - deadline > 0) {
+                        timedOut = true;
+                        break;
+                    }
+                }
+                if (cpuNanos >= 0) {
+                    run.addCpuTime(cpuNanos);
+                }
+                if (timedOut) {
+                    run.setTimedOut();
+                    p.destroyForcibly();
+                    drain.cancel(true);
+                    throw new IOException(String.format("'%s' timed out after %d seconds: %s", tool, timeout, String.join(" ", pb.command())));
+                }
+                ret = p.exitValue();
+                output = drain.get(DRAIN_TIMEOUT, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                p.destroyForcibly();
+                logger.log(Level.SEVERE, "Unexpected interruption", e);
+            } catch (TimeoutException e) {
+                drain.cancel(true);
+                logger.log(Level.WARNING, String.format("Output of '%s' still open after the process exited", tool));
+            } catch (ExecutionException e) {
+                throw new IOException(String.format("Failed to read the output of '%s'", tool), e.getCause());
+            }
+        } finally {
+            run.close();
         }
 
-        return new Result(ret, out.toByteArray());
+        return new Result(ret, output);
     }
 
     public static Result execResultWithEnvironment(Map<String, String> env, String... args) throws IOException {
@@ -0,0 +1,394 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Matches project relative paths against a set of ignore rules, such as the
+ * entries of .defignore and --exclude-build-folder.
+ *
+ * Rules are matched in the following way:
+ * 1) A rule without wildcards is a prefix: "/foo" ignores every path starting with "foo"
+ * 2) A rule with wildcards is a path pattern, which ignores the matching paths and
+ *    everything below them:
+ *    * matches zero or more characters within a path name
+ *    ? matches exactly one character within a path name
+ *    ** matches zero or more path names
+ * 3) A rule starting with "!" re-includes paths ignored by an earlier rule
+ * 4) Empty lines and lines starting with "#" are skipped
+ *
+ * When several rules match a path, the last one wins. All prefix rules are stored in
+ * a single trie and all path patterns are compiled into a single automaton, so the
+ * cost of a match depends on the length of the path and not on the number of rules.
+ */
+public class IgnoreMatcher {
+
+    private static final int NONE = -1;
+
+    // Token types of the path patterns
+    private static final int LITERAL = 0;   // a single character
+    private static final int ANY_CHAR = 1;  // ?
+    private static final int STAR = 2;      // *
+    private static final int GLOBSTAR = 3;  // ** (not followed by /)
+    private static final int DIRS = 4;      // **/ (between path names)
+    private static final int DIRS_NAME = 5; // **/ (inside a path name)
+    private static final int END = 6;       // end of pattern (accepting)
+    private static final int SUBTREE = 7;   // below a matching path (accepting)
+
+    private static class TrieNode {
+        Map<Character, TrieNode> children = new HashMap<>();
+        // Highest rule index ending at this node, for rules that match any continuation
+        int prefixIgnore = NONE;
+        int prefixInclude = NONE;
+        // Highest rule index ending at this node, for rules that need a path boundary
+        int pathIgnore = NONE;
+        int pathInclude = NONE;
+    }
+
+    private static class DfaState {
+        final int[] positions;
+        final int ignore;
+        final int include;
+        final Map<Character, DfaState> transitions = new ConcurrentHashMap<>();
+
+        DfaState(int[] positions, int ignore, int include) {
+            this.positions = positions;
+            this.ignore = ignore;
+            this.include = include;
+        }
+    }
+
+    private static class PositionKey {
+        final int[] positions;
+        final int hash;
+
+        PositionKey(int[] positions) {
+            this.positions = positions;
+            this.hash = Arrays.hashCode(positions);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof PositionKey && Arrays.equals(positions, ((PositionKey) o).positions);
+        }
+    }
+
+    private int ruleCount = 0;
+    private TrieNode trie = new TrieNode();
+
+    // The positions of all path patterns, laid out one pattern after another
+    private List<Integer> tokenTypes = new ArrayList<>();
+    private List<Character> tokenChars = new ArrayList<>();
+    private List<Integer> tokenRules = new ArrayList<>();
+    private List<Boolean> tokenNegated = new ArrayList<>();
+    private List<Integer> patternStarts = new ArrayList<>();
+
+    // The lazily built deterministic automaton
+    private Map<PositionKey, DfaState> dfaStates = new ConcurrentHashMap<>();
+    private DfaState dfaStart = null;
+
+    public IgnoreMatcher() {
+    }
+
+    public IgnoreMatcher(Collection<String> rules) {
+        addRules(rules);
+    }
+
+    public void addRules(Collection<String> rules) {
+        for (String rule : rules) {
+            addRule(rule);
+        }
+    }
+
+    /**
+     * Add a rule. See the class documentation for the rule syntax.
+     * @param rule the rule
+     */
+    public void addRule(String rule) {
+        if (rule == null || rule.isEmpty() || rule.startsWith("#")) {
+            return;
+        }
+        boolean negated = false;
+        if (rule.startsWith("!")) {
+            negated = true;
+            rule = rule.substring(1);
+        }
+        if (rule.startsWith("/")) {
+            rule = rule.substring(1);
+        }
+        if (rule.isEmpty()) {
+            return;
+        }
+        if (isPattern(rule)) {
+            addPattern(rule, negated);
+        } else {
+            addPrefix(rule, negated);
+        }
+    }
+
+    /**
+     * Add a rule matching all paths that start with the prefix.
+     * @param prefix the path prefix
+     * @param negated true if matching paths should be included rather than ignored
+     */
+    public void addPrefix(String prefix, boolean negated) {
+        int index = ruleCount++;
+        TrieNode node = trie;
+        for (int i = 0; i < prefix.length(); ++i) {
+            node = node.children.computeIfAbsent(prefix.charAt(i), c -> new TrieNode());
+        }
+        if (negated) {
+            node.prefixInclude = index;
+        } else {
+            node.prefixIgnore = index;
+        }
+    }
+
+    /**
+     * Add a rule matching the paths matched by the pattern, and everything below them.
+     * A leading "/" is ignored, since paths are matched relative to the project root.
+     * @param pattern the path pattern
+     * @param negated true if matching paths should be included rather than ignored
+     */
+    public void addPattern(String pattern, boolean negated) {
+        if (pattern.startsWith("/")) {
+            pattern = pattern.substring(1);
+        }
+        if (pattern.isEmpty()) {
+            return;
+        }
+        int index = ruleCount++;
+        if (!isPattern(pattern)) {
+            TrieNode node = trie;
+            for (int i = 0; i < pattern.length(); ++i) {
+                node = node.children.computeIfAbsent(pattern.charAt(i), c -> new TrieNode());
+            }
+            if (negated) {
+                node.pathInclude = index;
+            } else {
+                node.pathIgnore = index;
+            }
+            return;
+        }
+
+        patternStarts.add(tokenTypes.size());
+        int i = 0;
+        while (i < pattern.length()) {
+            char c = pattern.charAt(i);
+            if (pattern.startsWith("**/", i)) {
+                addToken(DIRS, '\0', index, negated);
+                addToken(DIRS_NAME, '\0', index, negated);
+                i += 3;
+            } else if (pattern.startsWith("**", i)) {
+                addToken(GLOBSTAR, '\0', index, negated);
+                i += 2;
+            } else if (c == '*') {
+                addToken(STAR, '\0', index, negated);
+                i += 1;
+            } else if (c == '?') {
+                addToken(ANY_CHAR, '\0', index, negated);
+                i += 1;
+            } else {
+                addToken(LITERAL, c, index, negated);
+                i += 1;
+            }
+        }
+        addToken(END, '\0', index, negated);
+        addToken(SUBTREE, '\0', index, negated);
+
+        // The automaton has to be rebuilt with the new pattern
+        dfaStates.clear();
+        dfaStart = null;
+    }
+
+    /**
+     * Check if a path is ignored by the rules
+     * @param path project relative path, with unix separators
+     * @return true if the last rule matching the path ignores it
+     */
+    public boolean isIgnored(String path) {
+        if (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        int ignore = NONE;
+        int include = NONE;
+
+        // prefix and literal path rules
+        TrieNode node = trie;
+        int length = path.length();
+        for (int i = 0; ; ++i) {
+            ignore = Math.max(ignore, node.prefixIgnore);
+            include = Math.max(include, node.prefixInclude);
+            if (i == length || path.charAt(i) == '/') {
+                ignore = Math.max(ignore, node.pathIgnore);
+                include = Math.max(include, node.pathInclude);
+            }
+            if (i == length) {
+                break;
+            }
+            node = node.children.get(path.charAt(i));
+            if (node == null) {
+                break;
+            }
+        }
+
+        // wildcard rules
+        if (!patternStarts.isEmpty()) {
+            DfaState state = getStartState();
+            for (int i = 0; i < length && state.positions.length > 0; ++i) {
+                state = step(state, path.charAt(i));
+            }
+            ignore = Math.max(ignore, state.ignore);
+            include = Math.max(include, state.include);
+        }
+        return ignore > include;
+    }
+
+    private static boolean isPattern(String rule) {
+        return rule.indexOf('*') != -1 || rule.indexOf('?') != -1;
+    }
+
+    private void addToken(int type, char c, int rule, boolean negated) {
+        tokenTypes.add(type);
+        tokenChars.add(c);
+        tokenRules.add(rule);
+        tokenNegated.add(negated);
+    }
+
+    // Add the position, and all positions reachable from it without consuming a character
+    private void addClosure(int position, boolean[] set) {
+        while (!set[position]) {
+            set[position] = true;
+            int type = tokenTypes.get(position);
+            if (type == STAR || type == GLOBSTAR) {
+                ++position;
+            } else if (type == DIRS) {
+                position += 2;
+            } else {
+                break;
+            }
+        }
+    }
+
+    private DfaState getState(boolean[] set) {
+        int count = 0;
+        for (boolean b : set) {
+            if (b) {
+                ++count;
+            }
+        }
+        int[] positions = new int[count];
+        int ignore = NONE;
+        int include = NONE;
+        int n = 0;
+        for (int p = 0; p < set.length; ++p) {
+            if (!set[p]) {
+                continue;
+            }
+            positions[n++] = p;
+            int type = tokenTypes.get(p);
+            if (type == END || type == SUBTREE) {
+                if (tokenNegated.get(p)) {
+                    include = Math.max(include, tokenRules.get(p));
+                } else {
+                    ignore = Math.max(ignore, tokenRules.get(p));
+                }
+            }
+        }
+        final int stateIgnore = ignore;
+        final int stateInclude = include;
+        return dfaStates.computeIfAbsent(new PositionKey(positions), k -> new DfaState(k.positions, stateIgnore, stateInclude));
+    }
+
+    private DfaState getStartState() {
+        DfaState start = dfaStart;
+        if (start == null) {
+            boolean[] set = new boolean[tokenTypes.size()];
+            for (int p : patternStarts) {
+                addClosure(p, set);
+            }
+            start = getState(set);
+            dfaStart = start;
+        }
+        return start;
+    }
+
+    private DfaState step(DfaState state, char c) {
+        DfaState next = state.transitions.get(c);
+        if (next != null) {
+            return next;
+        }
+        boolean[] set = new boolean[tokenTypes.size()];
+        for (int p : state.positions) {
+            switch (tokenTypes.get(p)) {
+                case LITERAL:
+                    if (tokenChars.get(p) == c) {
+                        addClosure(p + 1, set);
+                    }
+                    break;
+                case ANY_CHAR:
+                    if (c != '/') {
+                        addClosure(p + 1, set);
+                    }
+                    break;
+                case STAR:
+                    if (c != '/') {
+                        addClosure(p, set);
+                    }
+                    break;
+                case GLOBSTAR:
+                    addClosure(p, set);
+                    break;
+                case DIRS:
+                    if (c == '/') {
+                        addClosure(p, set);
+                    } else {
+                        set[p + 1] = true;
+                    }
+                    break;
+                case DIRS_NAME:
+                    if (c == '/') {
+                        addClosure(p - 1, set);
+                    } else {
+                        set[p] = true;
+                    }
+                    break;
+                case END:
+                    if (c == '/') {
+                        addClosure(p + 1, set);
+                    }
+                    break;
+                case SUBTREE:
+                    addClosure(p, set);
+                    break;
+            }
+        }
+        next = getState(set);
+        state.transitions.put(c, next);
+        return next;
+    }
+}
@@ -45,6 +45,8 @@ import com.dynamo.bob.LibraryException;
 
 public class LibraryUtil {
 
+    private static final String PARTIAL_SUFFIX = ".part";
+
     /** Convert the supplied URL into a short string representation
      *
      * @param url Url of the library
@@ -86,6 +88,98 @@ public class LibraryUtil {
         return String.format("%s-%s.zip", getHashedUrl(url), etagB64);
     }
 
+    /** Get the name of the file a library is streamed to while it is being downloaded.
+     * The file is renamed to {@link #getFileName(URL, String)} once the download is complete.
+     *
+     * @param url Url of the library
+     * @param etag ETag reported by the server
+     * @return the name of the partial file
+     */
+    public static String getPartialFileName(URL url, String etag)
+    {
+        return getFileName(url, etag) + PARTIAL_SUFFIX;
+    }
+
+    /** Get the ETag from the name of a partially downloaded library.
+     *
+     * @param url Url of the library
+     * @param name name of the partial file
+     * @return the ETag, or null if the name doesn't belong to the library
+     */
+    public static String getPartialETag(URL url, String name)
+    {
+        if (!name.endsWith(PARTIAL_SUFFIX)) {
+            return null;
+        }
+        String etagB64 = getETagFromName(getHashedUrl(url), name.substring(0, name.length() - PARTIAL_SUFFIX.length()));
+        if (etagB64 == null) {
+            return null;
+        }
+        return new String(new Base64().decode(etagB64.getBytes()));
+    }
+
+    /** Find a partially downloaded library file.
+     *
+     * @param libPath base path of the library files
+     * @param url Url of the library
+     * @return the partial file, or null if there is none
+     */
+    public static File findPartialFile(String libPath, URL url) {
+        File currentFiles[] = new File(libPath).listFiles(File::isFile);
+        if (currentFiles == null) {
+            return null;
+        }
+        for (File f : currentFiles) {
+            if (getPartialETag(url, f.getName()) != null) {
+                return f;
+            }
+        }
+        return null;
+    }
+
+    /** Verify a downloaded library against the MD5 digest reported by the server.
+     *
+     * @param file the downloaded file
+     * @param contentMD5 Base64 encoded MD5 digest (the Content-MD5 header), or null if not provided
+     * @throws LibraryException if the digest doesn't match
+     */
+    public static void verifyDownload(File file, String contentMD5) throws IOException, LibraryException {
+        verifyDownload(file, 0, contentMD5);
+    }
+
+    /** Verify the part of a downloaded library that was received in a response, against
+     * the MD5 digest reported by the server. The Content-MD5 of a resumed (206) download
+     * only covers the bytes of that response, which were appended to the file.
+     *
+     * @param file the downloaded file
+     * @param offset the offset in the file of the first byte of the response
+     * @param contentMD5 Base64 encoded MD5 digest (the Content-MD5 header), or null if not provided
+     * @throws LibraryException if the digest doesn't match
+     */
+    public static void verifyDownload(File file, long offset, String contentMD5) throws IOException, LibraryException {
+        if (contentMD5 == null || contentMD5.isEmpty()) {
+            return;
+        }
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        try (InputStream input = new BufferedInputStream(new FileInputStream(file))) {
+            IOUtils.skipFully(input, offset);
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = input.read(buffer)) != -1) {
+                md5.update(buffer, 0, n);
+            }
+        }
+        String actual = new String(new Base64().encode(md5.digest()));
+        if (!actual.equals(contentMD5.trim())) {
+            throw new LibraryException(String.format("MD5 mismatch %s != %s", actual, contentMD5), new Exception());
+        }
+    }
+
     /** Convert a list of library URLs into a map of corresponding files on disk.
      *
      * @param libPath base path of the library files
@@ -18,7 +18,6 @@ import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
-import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -225,7 +224,8 @@ public class TextureUtil {
 
             alternativeImageBuilder.clearMipMapSizeCompressed();
 
-            ByteArrayOutputStream os = new ByteArrayOutputStream(1024 * 4);
+            // The mip maps are joined as slices of the data of each texture, without copying them
+            List<ByteString> mipMaps = new ArrayList<ByteString>();
             for (int j = 0; j < alternativeImageBuilder.getMipMapSizeCount(); j++) {
 
                 for (int k = 0; k < numTextures; k++) {
@@ -235,13 +235,10 @@ public class TextureUtil {
                     alternativeImageBuilder.addMipMapSizeCompressed(mipSize);
 
                     // Sizes can change between textures (maybe resize only if needed)
-                    byte[] buf = new byte[mipSize];
-                    data.copyTo(buf, mipOffset, 0, mipSize);
-                    os.write(buf);
+                    mipMaps.add(data.substring(mipOffset, mipOffset + mipSize));
                 }
             }
-            os.flush();
-            alternativeImageBuilder.setData(ByteString.copyFrom(os.toByteArray()));
+            alternativeImageBuilder.setData(ByteString.copyFrom(mipMaps));
             for (int j = 0; j < alternativeImageBuilder.getMipMapSizeCount(); j++) {
                 alternativeImageBuilder.setMipMapOffset(j, alternativeImageBuilder.getMipMapOffset(j) * numTextures);
             }
@@ -90,6 +90,9 @@ public class TimeProfiler {
 
     private static ProfilingScope rootScope;
     private static ProfilingScope currentScope;
+    // The scopes are only recorded on the thread running the build, calls from
+    // worker threads are ignored since they would break the scope hierarchy
+    private static volatile Thread profilingThread;
     private static ReportFormat fileFormat;
     private static File reportFile;
     private static Boolean fromEditor;
@@ -239,6 +242,7 @@ public class TimeProfiler {
     }
 
     public static void init(File sizeReportFile, ReportFormat fileFormat, Boolean fromEditor) throws IOException {
+        profilingThread = Thread.currentThread();
         if (rootScope != null) {
             return;
         }
@@ -278,8 +282,12 @@ public class TimeProfiler {
         }));
     }
 
+    private static boolean isEnabled() {
+        return rootScope != null && Thread.currentThread() == profilingThread;
+    }
+
     public static void start() {
-        if (rootScope == null) {
+        if (!isEnabled()) {
             return;
         }
         if (currentScope.children == null) {
@@ -293,7 +301,7 @@ public class TimeProfiler {
     }
 
     public static void start(String scopeName) {
-        if (rootScope == null) {
+        if (!isEnabled()) {
             return;
         }
         start();
@@ -310,14 +318,14 @@ public class TimeProfiler {
     }
 
     public static void stop() {
-        if (rootScope == null) {
+        if (!isEnabled()) {
             return;
         }
         unsafeStop();
     }
 
     public static void addMark(String shortName, String fullName) {
-        if (rootScope == null) {
+        if (!isEnabled()) {
             return;
         }
         ProfilingMark mark = new ProfilingMark();
@@ -353,21 +361,21 @@ public class TimeProfiler {
     }
 
     public static void addData(String fieldName, String data) {
-        if (rootScope == null) {
+        if (!isEnabled()) {
             return;
         }
         unsafeAddData(fieldName, data);
     }
 
     public static void addData(String fieldName, Float data) {
-        if (rootScope == null) {
+        if (!isEnabled()) {
             return;
         }
         unsafeAddData(fieldName, data);
     }
 
     public static void addData(String fieldName, Boolean data) {
-        if (rootScope == null) {
+        if (!isEnabled()) {
             return;
         }
         unsafeAddData(fieldName, data);
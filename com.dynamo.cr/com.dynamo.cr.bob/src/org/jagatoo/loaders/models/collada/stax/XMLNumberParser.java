@@ -0,0 +1,310 @@
+// Copyright 2020-2023 The Defold Foundation
+// Copyright 2014-2020 King
+// Copyright 2009-2014 Ragnar Svensson, Christian Murray
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+// 
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+// 
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package org.jagatoo.loaders.models.collada.stax;
+
+import java.util.Arrays;
+
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Parses a whitespace separated list of numbers, such as the contents of a
+ * float_array or p element, straight into a growable float[] or int[]. The text can
+ * be added in chunks, as the CHARACTERS events of a StAX parser, and a number may be
+ * split between two chunks.
+ *
+ * The numbers are the same as when the text is split with a StringTokenizer and each
+ * token is parsed with Float.parseFloat or Integer.parseInt, but plain decimal numbers
+ * are parsed without creating any objects.
+ */
+public class XMLNumberParser {
+
+    // Powers of ten that are exact as doubles
+    private static final double[] POW10 = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    // The low bits of a double that are rounded off when it is converted to a float
+    private static final long FLOAT_ROUNDED_BITS = (1L << 29) - 1;
+    private static final long FLOAT_HALFWAY_BITS = 1L << 28;
+
+    private static final int MAX_INITIAL_CAPACITY = 1 << 24;
+
+    private final boolean floats;
+    private float[] floatValues;
+    private int[] intValues;
+    private int count;
+
+    // The part of the current number that has been added so far
+    private char[] token = new char[32];
+    private int tokenLength;
+
+    /**
+     * Create a parser
+     * @param floats true to parse floats, false to parse ints
+     * @param capacity the expected number of values
+     */
+    public XMLNumberParser(boolean floats, int capacity) {
+        this.floats = floats;
+        // The expected number comes from the document, so it is only trusted up to a point
+        capacity = Math.min(Math.max(capacity, 16), MAX_INITIAL_CAPACITY);
+        if (floats) {
+            floatValues = new float[capacity];
+        } else {
+            intValues = new int[capacity];
+        }
+    }
+
+    // The same delimiters as a StringTokenizer
+    private static boolean isDelimiter(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    /**
+     * Add the text of the current CHARACTERS event of a parser
+     * @param parser the parser
+     */
+    public void add(XMLStreamReader parser) {
+        add(parser.getTextCharacters(), parser.getTextStart(), parser.getTextLength());
+    }
+
+    /**
+     * Add a chunk of text
+     * @param chars the text
+     * @param start the start of the chunk
+     * @param length the length of the chunk
+     */
+    public void add(char[] chars, int start, int length) {
+        int end = start + length;
+        int i = start;
+        if (tokenLength > 0) {
+            // Finish the number that was split at the end of the previous chunk
+            int tokenEnd = i;
+            while (tokenEnd < end && !isDelimiter(chars[tokenEnd])) {
+                ++tokenEnd;
+            }
+            appendToken(chars, i, tokenEnd);
+            if (tokenEnd == end) {
+                return;
+            }
+            addValue(token, 0, tokenLength);
+            tokenLength = 0;
+            i = tokenEnd;
+        }
+        while (i < end) {
+            if (isDelimiter(chars[i])) {
+                ++i;
+                continue;
+            }
+            int tokenStart = i;
+            while (i < end && !isDelimiter(chars[i])) {
+                ++i;
+            }
+            if (i == end) {
+                // The number may continue in the next chunk
+                appendToken(chars, tokenStart, i);
+            } else {
+                addValue(chars, tokenStart, i);
+            }
+        }
+    }
+
+    /**
+     * Add a string
+     * @param text the text
+     */
+    public void add(String text) {
+        add(text.toCharArray(), 0, text.length());
+    }
+
+    private void appendToken(char[] chars, int start, int end) {
+        int length = end - start;
+        if (tokenLength + length > token.length) {
+            token = Arrays.copyOf(token, Math.max(token.length * 2, tokenLength + length));
+        }
+        System.arraycopy(chars, start, token, tokenLength, length);
+        tokenLength += length;
+    }
+
+    private void addValue(char[] chars, int start, int end) {
+        if (floats) {
+            if (count == floatValues.length) {
+                floatValues = Arrays.copyOf(floatValues, count * 2);
+            }
+            float value;
+            try {
+                value = parseFloat(chars, start, end);
+            } catch (NumberFormatException e) {
+                // Defold-fix:
+                // Some Collada exporters (such the default one in Maya) sometimes output "-1.#IND00" as float entries.
+                // We need to catch the format exception and simply "parse" it as a zero.
+                // In the future we might want to log a build (and Editor 2) warning here, issue; DEF-2917
+                value = 0.0f;
+            }
+            floatValues[count++] = value;
+        } else {
+            if (count == intValues.length) {
+                intValues = Arrays.copyOf(intValues, count * 2);
+            }
+            intValues[count++] = parseInt(chars, start, end);
+        }
+    }
+
+    private void finish() {
+        if (tokenLength > 0) {
+            addValue(token, 0, tokenLength);
+            tokenLength = 0;
+        }
+    }
+
+    /**
+     * Get the parsed floats
+     * @return the floats
+     */
+    public float[] getFloats() {
+        finish();
+        return Arrays.copyOf(floatValues, count);
+    }
+
+    /**
+     * Get the parsed ints
+     * @return the ints
+     */
+    public int[] getInts() {
+        finish();
+        return Arrays.copyOf(intValues, count);
+    }
+
+    /**
+     * Parse a float. The result is the same as Float.parseFloat() of the characters.
+     * @param chars the characters
+     * @param start the start of the number
+     * @param end the end of the number
+     * @return the float
+     * @throws NumberFormatException if the characters are not a float
+     */
+    public static float parseFloat(char[] chars, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+            negative = chars[i] == '-';
+            ++i;
+        }
+
+        // The significant digits, without leading zeros, and the decimal exponent
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean anyDigits = false;
+        for (; i < end && chars[i] >= '0' && chars[i] <= '9'; ++i) {
+            anyDigits = true;
+            if (mantissa != 0 || chars[i] != '0') {
+                mantissa = mantissa * 10 + (chars[i] - '0');
+                ++digits;
+            }
+            if (digits > 18) {
+                return parseFloatSlow(chars, start, end);
+            }
+        }
+        if (i < end && chars[i] == '.') {
+            for (++i; i < end && chars[i] >= '0' && chars[i] <= '9'; ++i) {
+                anyDigits = true;
+                if (mantissa != 0 || chars[i] != '0') {
+                    mantissa = mantissa * 10 + (chars[i] - '0');
+                    ++digits;
+                }
+                --exponent;
+                if (digits > 18) {
+                    return parseFloatSlow(chars, start, end);
+                }
+            }
+        }
+        if (!anyDigits) {
+            return parseFloatSlow(chars, start, end);
+        }
+        if (i < end && (chars[i] == 'e' || chars[i] == 'E')) {
+            ++i;
+            boolean negativeExponent = false;
+            if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+                negativeExponent = chars[i] == '-';
+                ++i;
+            }
+            int exponentStart = i;
+            int value = 0;
+            for (; i < end && chars[i] >= '0' && chars[i] <= '9'; ++i) {
+                value = value * 10 + (chars[i] - '0');
+                if (value > 1000) {
+                    return parseFloatSlow(chars, start, end);
+                }
+            }
+            if (i == exponentStart) {
+                return parseFloatSlow(chars, start, end);
+            }
+            exponent += negativeExponent ? -value : value;
+        }
+        // Suffixes, hexadecimal numbers, NaN, Infinity and anything else that is not a plain decimal number
+        if (i != end) {
+            return parseFloatSlow(chars, start, end);
+        }
+
+        if (mantissa == 0) {
+            return negative ? -0.0f : 0.0f;
+        }
+        // The mantissa and the power of ten are exact as doubles, which makes the
+        // product or quotient the correctly rounded double of the number
+        if (mantissa >= (1L << 53) || exponent < -22 || exponent > 22) {
+            return parseFloatSlow(chars, start, end);
+        }
+        double value = exponent < 0 ? mantissa / POW10[-exponent] : mantissa * POW10[exponent];
+        // Rounding the double to a float gives the correctly rounded float of the number,
+        // unless the double is exactly halfway between two floats
+        if ((Double.doubleToRawLongBits(value) & FLOAT_ROUNDED_BITS) == FLOAT_HALFWAY_BITS) {
+            return parseFloatSlow(chars, start, end);
+        }
+        float f = (float) value;
+        return negative ? -f : f;
+    }
+
+    private static float parseFloatSlow(char[] chars, int start, int end) {
+        return Float.parseFloat(new String(chars, start, end - start));
+    }
+
+    /**
+     * Parse an int. The result is the same as Integer.parseInt() of the characters.
+     * @param chars the characters
+     * @param start the start of the number
+     * @param end the end of the number
+     * @return the int
+     * @throws NumberFormatException if the characters are not an int
+     */
+    public static int parseInt(char[] chars, int start, int end) {
+        int i = start;
+        boolean negative = i < end && chars[i] == '-';
+        if (negative) {
+            ++i;
+        }
+        // At most 9 digits always fit in an int
+        if (i == end || end - i > 9) {
+            return Integer.parseInt(new String(chars, start, end - start));
+        }
+        int value = 0;
+        for (; i < end; ++i) {
+            char c = chars[i];
+            if (c < '0' || c > '9') {
+                return Integer.parseInt(new String(chars, start, end - start));
+            }
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+}
@@ -30,7 +30,6 @@
 package org.jagatoo.loaders.models.collada.stax;
 
 import java.util.ArrayList;
-import java.util.List;
 
 import javax.xml.namespace.QName;
 import javax.xml.stream.Location;
@@ -95,11 +94,11 @@ public class XMLTriangles
             }
         }
 
-        // DYNAMO: Buffering fix
+        // DYNAMO: Parse the numbers as they are read, instead of buffering the text
         boolean parsing_triangles = false;
         boolean parsing_vcount = false;
-        StringBuffer triangles_buffer = new StringBuffer();
-        StringBuffer vcount_buffer = new StringBuffer();
+        XMLNumberParser triangles_numbers = new XMLNumberParser(false, count * 3);
+        XMLNumberParser vcount_numbers = new XMLNumberParser(false, count);
         for ( int event = parser.next(); event != XMLStreamConstants.END_DOCUMENT; event = parser.next() )
         {
             switch ( event )
@@ -134,9 +133,9 @@ public class XMLTriangles
                 case XMLStreamConstants.CHARACTERS:
                 {
                     if (parsing_triangles)
-                        triangles_buffer.append(parser.getText());
+                        triangles_numbers.add(parser);
                     else if (parsing_vcount)
-                        vcount_buffer.append(parser.getText());
+                        vcount_numbers.add(parser);
                     break;
                 }
 
@@ -144,42 +143,40 @@ public class XMLTriangles
                 {
                     if ( parser.getLocalName().equals( "triangles" ) )
                     {
-                        p = XMLIntArray.toArray(triangles_buffer.toString());
+                        p = triangles_numbers.getInts();
                         return;
                     }
                     else if ( parser.getLocalName().equals( "polylist" ) )
                     {
-                        p = XMLIntArray.toArray(triangles_buffer.toString());
-                        int[] vcount = XMLIntArray.toArray(vcount_buffer.toString());
+                        p = triangles_numbers.getInts();
+                        int[] vcount = vcount_numbers.getInts();
                         int totalVertexCount = 0;
+                        int triangleCount = 0;
                         for (int vc : vcount) {
                             totalVertexCount += vc;
+                            triangleCount += Math.max(vc - 2, 0);
                         }
                         int elementsPerVertex = p.length / totalVertexCount;
 
-                        List<Integer> trianglesP = new ArrayList<Integer>(1024);
+                        int[] pPrim = new int[triangleCount * 3 * elementsPerVertex];
+                        int n = 0;
 
                         int base = 0;
                         for (int vc : vcount) {
                             for (int j = 0; j < vc - 2; ++j) {
                                 for (int i = 0; i < elementsPerVertex; ++i) {
-                                    trianglesP.add(p[base + 0 * elementsPerVertex + i]);
+                                    pPrim[n++] = p[base + 0 * elementsPerVertex + i];
                                 }
                                 for (int i = 0; i < elementsPerVertex; ++i) {
-                                    trianglesP.add(p[base + (j + 1) * elementsPerVertex + i]);
+                                    pPrim[n++] = p[base + (j + 1) * elementsPerVertex + i];
                                 }
                                 for (int i = 0; i < elementsPerVertex; ++i) {
-                                    trianglesP.add(p[base + (j + 2) * elementsPerVertex + i]);
+                                    pPrim[n++] = p[base + (j + 2) * elementsPerVertex + i];
                                 }
                             }
                             base += vc * elementsPerVertex;
                         }
 
-                        int[] pPrim = new int[trianglesP.size()];
-                        for (int i = 0; i < pPrim.length; i++) {
-                            pPrim[i] = trianglesP.get(i);
-                        }
-
                         count = pPrim.length / (3 * elementsPerVertex);
 
                         p = pPrim;